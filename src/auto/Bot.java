@@ -22,6 +22,7 @@ public class Bot implements Defer.Callable<Void> {
     private boolean cancelled = false;
     private String message = null;
     private static final Object waiter = new Object();
+    private static final long WALK_TIMEOUT = 30000;
     
     public Bot(List<Target> targets, BotAction... actions) {
 	this.targets = targets;
@@ -128,6 +129,7 @@ public class Bot implements Defer.Callable<Void> {
 	    .collect(Collectors.toList());
 	
 	start(new Bot(targets,
+	    approach(gui),
 	    Target::rclick_shift,
 	    (target, bot) -> target.gob.waitRemoval()
 	), gui.ui);
@@ -210,9 +212,13 @@ public class Bot implements Defer.Callable<Void> {
 	);
 	if(needWalk) {
 	    start(new Bot(
-		(t, b) -> gui.map.click(tile, 1, Coord.z, tile.floor(OCache.posres), 1, 0),
-		waitGobPose(player, 1500,"/walking", "/running"),
-		waitGobNoPose(player, 1500,"/walking", "/running"),
+		(t, b) -> {
+		    if(!walkTo(gui, tile, b, WALK_TIMEOUT)) {
+			gui.map.click(tile, 1, Coord.z, tile.floor(OCache.posres), 1, 0);
+			waitGobPose(player, 1500, "/walking", "/running").call(t, b);
+			waitGobNoPose(player, 1500, "/walking", "/running").call(t, b);
+		    }
+		},
 		(t, b) -> start(refillBot, gui.ui, true)
 	    ), gui.ui, true);
 	} else {
@@ -411,6 +417,45 @@ public class Bot implements Defer.Callable<Void> {
 	};
     }
     
+    /* Walks to a point around known obstacles, instead of leaving it
+     * to the server to walk straight into them, and waits until there
+     * or until the timeout passes. Returns false if no path was found. */
+    public static boolean walkTo(GameUI gui, Coord2d to, Bot bot, long timeout) throws InterruptedException {
+	if(gui.pathQueue == null) {return false;}
+	List<Coord2d> path = gui.pathQueue.findpath(to);
+	if(path == null || !gui.pathQueue.start(path)) {return false;}
+	waitWalked(gui, bot, timeout);
+	return true;
+    }
+    
+    /* Walks next to a target gob around known obstacles. */
+    public static boolean walkTo(GameUI gui, Gob gob, Bot bot, long timeout) throws InterruptedException {
+	return walkTo(gui, gob.rc, bot, timeout);
+    }
+    
+    private static void waitWalked(GameUI gui, Bot bot, long timeout) throws InterruptedException {
+	final long started = System.currentTimeMillis();
+	while (System.currentTimeMillis() - started < timeout) {
+	    bot.checkCancelled();
+	    Gob player = gui.map.player();
+	    if(player == null || player.disposed()) {return;}
+	    if(gui.pathQueue.isEmpty() && !player.hasPose("/walking", "/running")) {return;}
+	    pause(100);
+	}
+    }
+    
+    /* Walks around obstacles between the player and the target, if
+     * there are any; the server walks straight up to it otherwise. */
+    private static BotAction approach(GameUI gui) {
+	return (target, bot) -> {
+	    if(target.gob == null || gui.pathQueue == null) {return;}
+	    List<Coord2d> path = gui.pathQueue.findpath(target.gob.rc);
+	    if(path != null && path.size() > 1 && gui.pathQueue.start(path)) {
+		waitWalked(gui, bot, WALK_TIMEOUT);
+	    }
+	};
+    }
+    
     private static boolean isOnRadar(Gob gob) {
 	if(!CFG.AUTO_PICK_ONLY_RADAR.get()) {return true;}
 	Boolean onRadar = gob.isOnRadar();
@@ -174,6 +174,27 @@ class CodeBook{
     int i, j, entry;
     int chptr=0;
 
+    if(ch==1){
+      return (decodev_add(a[0], offset, b, n));
+    }
+    if(ch==2&&(dim&1)==0){
+      // stereo with even-dimensioned entries, which is what the
+      // usual encoder setups produce: no entry straddles a sample,
+      // so the channel interleave can be unrolled.
+      float[] a0=a[0], a1=a[1];
+      for(i=offset/2; i<(offset+n)/2;){
+        entry=decode(b);
+        if(entry==-1)
+          return (-1);
+        int t=entry*dim;
+        for(j=0; j<dim; j+=2, i++){
+          a0[i]+=valuelist[t+j];
+          a1[i]+=valuelist[t+j+1];
+        }
+      }
+      return (0);
+    }
+
     for(i=offset/ch; i<(offset+n)/ch;){
       entry=decode(b);
       if(entry==-1)
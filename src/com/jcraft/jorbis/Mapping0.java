@@ -183,12 +183,9 @@ class Mapping0 extends FuncMapping{
     return info;
   }
 
-  float[][] pcmbundle=null;
-  int[] zerobundle=null;
-  int[] nonzero=null;
-  Object[] floormemo=null;
-
-  synchronized int inverse(Block vb, Object l){
+  // The work buffers live in the look, which belongs to a single
+  // DspState, so that separate streams can decode concurrently.
+  int inverse(Block vb, Object l){
     DspState vd=vb.vd;
     Info vi=vd.vi;
     LookMapping0 look=(LookMapping0)l;
@@ -197,12 +194,16 @@ class Mapping0 extends FuncMapping{
     int n=vb.pcmend=vi.blocksizes[vb.W];
 
     float[] window=vd.window[vb.W][vb.lW][vb.nW][mode.windowtype];
-    if(pcmbundle==null||pcmbundle.length<vi.channels){
-      pcmbundle=new float[vi.channels][];
-      nonzero=new int[vi.channels];
-      zerobundle=new int[vi.channels];
-      floormemo=new Object[vi.channels];
+    if(look.pcmbundle==null||look.pcmbundle.length<vi.channels){
+      look.pcmbundle=new float[vi.channels][];
+      look.nonzero=new int[vi.channels];
+      look.zerobundle=new int[vi.channels];
+      look.floormemo=new Object[vi.channels];
     }
+    float[][] pcmbundle=look.pcmbundle;
+    int[] zerobundle=look.zerobundle;
+    int[] nonzero=look.nonzero;
+    Object[] floormemo=look.floormemo;
 
     // time domain information decode (note that applying the
     // information would have to happen later; we'll probably add a
@@ -370,6 +371,11 @@ class Mapping0 extends FuncMapping{
     float[][] decay;
     int lastframe; // if a different mode is called, we need to 
     // invalidate decay and floor state
+
+    float[][] pcmbundle;
+    int[] zerobundle;
+    int[] nonzero;
+    Object[] floormemo;
   }
 
 }
@@ -153,10 +153,8 @@ class Residue0 extends FuncResidue{
   void free_look(Object i){
   }
 
-  private static int[][][] _01inverse_partword=new int[2][][]; // _01inverse is synchronized for
-
-  // re-using partword
-  synchronized static int _01inverse(Block vb, Object vl, float[][] in, int ch,
+  // partword is kept in the look, which belongs to a single stream
+  static int _01inverse(Block vb, Object vl, float[][] in, int ch,
       int decodepart){
     int i, j, k, l, s;
     LookResidue0 look=(LookResidue0)vl;
@@ -170,9 +168,10 @@ class Residue0 extends FuncResidue{
     int partvals=n/samples_per_partition;
     int partwords=(partvals+partitions_per_word-1)/partitions_per_word;
 
-    if(_01inverse_partword.length<ch){
-      _01inverse_partword=new int[ch][][];
+    if(look.partword==null||look.partword.length<ch){
+      look.partword=new int[ch][][];
     }
+    int[][][] _01inverse_partword=look.partword;
 
     for(j=0; j<ch; j++){
       if(_01inverse_partword[j]==null||_01inverse_partword[j].length<partwords){
@@ -226,9 +225,7 @@ class Residue0 extends FuncResidue{
     return (0);
   }
 
-  static int[][] _2inverse_partword=null;
-
-  synchronized static int _2inverse(Block vb, Object vl, float[][] in, int ch){
+  static int _2inverse(Block vb, Object vl, float[][] in, int ch){
     int i, k, l, s;
     LookResidue0 look=(LookResidue0)vl;
     InfoResidue0 info=look.info;
@@ -241,9 +238,10 @@ class Residue0 extends FuncResidue{
     int partvals=n/samples_per_partition;
     int partwords=(partvals+partitions_per_word-1)/partitions_per_word;
 
-    if(_2inverse_partword==null||_2inverse_partword.length<partwords){
-      _2inverse_partword=new int[partwords][];
+    if(look.partword2==null||look.partword2.length<partwords){
+      look.partword2=new int[partwords][];
     }
+    int[][] _2inverse_partword=look.partword2;
     for(s=0; s<look.stages; s++){
       for(i=0, l=0; i<partvals; l++){
         if(s==0){
@@ -306,6 +304,9 @@ class Residue0 extends FuncResidue{
     int postbits;
     int phrasebits;
     int frames;
+
+    int[][][] partword;
+    int[][] partword2;
   }
 
   class InfoResidue0{
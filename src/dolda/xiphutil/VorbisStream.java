@@ -140,24 +140,70 @@ public class VorbisStream {
      * the input.
      */
     public float[][] decode() throws IOException {
+	int len = avail();
+	if(len < 0)
+	    return(null);
+	float[][] ret = new float[chn][];
+	for(int i = 0; i < chn; i++) {
+	    ret[i] = new float[len];
+	    System.arraycopy(pcmp[0][i], idxp[i], ret[i], 0, len);
+	}
+	dsp.synthesis_read(len);
+	return(ret);
+    }
+
+    /* Decodes packets until there is some output pending in pcmp
+     * and idxp, and returns the number of pending samples, or -1
+     * when the stream ends. */
+    private int avail() throws IOException {
 	while(true) {
 	    int len = dsp.synthesis_pcmout(pcmp, idxp);
-	    if(len > 0) {
-		float[][] ret = new float[chn][];
-		for(int i = 0; i < chn; i++) {
-		    ret[i] = new float[len];
-		    System.arraycopy(pcmp[0][i], idxp[i], ret[i], 0, len);
-		}
-		dsp.synthesis_read(len);
-		return(ret);
-	    }
+	    if(len > 0)
+		return(len);
 	    Packet pkt = in.packet();
 	    if(pkt == null)
-		return(null);
+		return(-1);
 	    if((blk.synthesis(pkt) != 0) || (dsp.synthesis_blockin(blk) != 0))
 		throw(new VorbisException());
 	}
     }
+
+    /**
+     * Decodes directly into the caller's sample buffers, without
+     * allocating any intermediate arrays. At most <code>len</code>
+     * samples are written to each of the arrays in <code>dst</code>,
+     * starting at <code>off</code>. If <code>dst</code> contains
+     * more arrays than this stream has channels, the channels are
+     * repeated cyclically, so that a monaural stream can be decoded
+     * into a stereo buffer.
+     *
+     * <p>Fewer samples than requested may be returned even if the
+     * stream has not ended; callers wanting a full buffer should
+     * call this function repeatedly.
+     *
+     * @return The number of samples written, or -1 when the stream
+     * ends.
+     *
+     * @exception java.io.IOException if the backing input stream
+     * itself throws an <code>IOException</code>.
+     * @exception FormatException if a format error is found in
+     * the input.
+     */
+    public int decode(double[][] dst, int off, int len) throws IOException {
+	int av = avail();
+	if(av < 0)
+	    return(-1);
+	int n = Math.min(av, len);
+	float[][] pcm = pcmp[0];
+	for(int c = 0; c < dst.length; c++) {
+	    float[] src = pcm[c % chn];
+	    double[] buf = dst[c];
+	    for(int i = 0, sp = idxp[c % chn]; i < n; i++)
+		buf[off + i] = src[sp + i];
+	}
+	dsp.synthesis_read(n);
+	return(n);
+    }
     
     /**
      * Constructs and returns a <code>java.io.InputStream</code> which
@@ -175,22 +221,30 @@ public class VorbisStream {
 		private byte[] buf;
 		private int bufp;
 		
+		private byte[] cbuf = new byte[0];
+		private int buflen;
+
 		private boolean convert() throws IOException {
-		    float[][] inb = decode();
-		    if(inb == null) {
+		    int len = avail();
+		    if(len < 0) {
 			buf = null;
 			return(false);
 		    }
-		    buf = new byte[2 * chn * inb[0].length];
-		    int p = 0;
-		    for(int i = 0; i < inb[0].length; i++) {
-			for(int c = 0; c < chn; c++) {
-			    int s = (int)(inb[c][i] * 32767);
+		    if(cbuf.length < 2 * chn * len)
+			cbuf = new byte[2 * chn * len];
+		    buf = cbuf;
+		    buflen = 2 * chn * len;
+		    float[][] pcm = pcmp[0];
+		    for(int c = 0; c < chn; c++) {
+			float[] src = pcm[c];
+			for(int i = 0, p = c * 2, sp = idxp[c]; i < len; i++, p += 2 * chn) {
+			    int s = (int)(src[sp + i] * 32767);
 			    s = Math.min(Math.max(s, -32767), 32767);
-			    buf[p++] = (byte)s;
-			    buf[p++] = (byte)(s >> 8);
+			    buf[p] = (byte)s;
+			    buf[p + 1] = (byte)(s >> 8);
 			}
 		    }
+		    dsp.synthesis_read(len);
 		    bufp = 0;
 		    return(true);
 		}
@@ -209,10 +263,10 @@ public class VorbisStream {
 		public int read(byte[] dst, int off, int len) throws IOException {
 		    if((buf == null) && !convert())
 			return(-1);
-		    if(buf.length - bufp < len)
-			len = buf.length - bufp;
+		    if(buflen - bufp < len)
+			len = buflen - bufp;
 		    System.arraycopy(buf, bufp, dst, off, len);
-		    if((bufp += len) == buf.length)
+		    if((bufp += len) == buflen)
 			buf = null;
 		    return(len);
 		}
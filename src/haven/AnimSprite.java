@@ -63,7 +63,7 @@ public class AnimSprite extends Sprite {
 			continue mesh;
 		    }
 		}
-		rl.add(mr.mat.get().apply(mr.m));
+		rl.add(mr.matmesh());
 	    }
 	}
 	Owner rec = null;
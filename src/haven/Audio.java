@@ -334,8 +334,7 @@ public class Audio {
 
     public static class VorbisClip implements CS {
 	public final VorbisStream clip;
-	private float[][] data = new float[1][0];
-	private int dp = 0;
+	private boolean eof = false;
 
 	public VorbisClip(VorbisStream clip) {
 	    this.clip = clip;
@@ -346,22 +345,20 @@ public class Audio {
 	}
 
 	public int get(double[][] dst, int ns) {
-	    int nch = dst.length;
-	    if(data == null)
+	    if(eof)
 		return(-1);
-	    for(int sm = 0; sm < ns; sm++) {
-		while(dp >= data[0].length) {
-		    try {
-			if((data = clip.decode()) == null)
-			    return((sm > 0)?sm:-1);
-		    } catch(IOException e) {
-			return(-1);
-		    }
-		    dp = 0;
+	    for(int sm = 0; sm < ns;) {
+		int ret;
+		try {
+		    ret = clip.decode(dst, sm, ns - sm);
+		} catch(IOException e) {
+		    return(-1);
 		}
-		for(int ch = 0; ch < nch; ch++)
-		    dst[ch][sm] = data[ch % clip.chn][dp];
-		dp++;
+		if(ret < 0) {
+		    eof = true;
+		    return((sm > 0)?sm:-1);
+		}
+		sm += ret;
 	    }
 	    return(ns);
 	}
@@ -1,97 +1,118 @@
 package haven;
 
 import haven.render.*;
-import haven.render.Model.Indices;
 
 import java.awt.*;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
 
 public class ColoredRadius implements RenderTree.Node {
     final Pipe.Op smat;
     final Pipe.Op emat;
-    final VertexBuf.VertexData posa;
-    final VertexBuf vbuf;
-    final Model smod, emod;
+    /* Unit circle and ground height of each point on the rim, relative to the gob */
+    private final float[] cs, sn, z;
+    private final float r;
+    private final float[] sbuf, ebuf;
+    final VertexPool.Range smod, emod;
+    private final Collection<RenderTree.Slot> slots = new ArrayList<>(1);
     private Coord2d lc;
     private final Gob gob;
-    
-    
+
+
     public ColoredRadius(Gob gob, float r, Color scol, Color ecol) {
 	this.gob = gob;
+	this.r = r;
 	smat = Pipe.Op.compose(new BaseColor(scol), Clickable.No);
 	emat = Pipe.Op.compose(new BaseColor(ecol), new States.LineWidth(4), Clickable.No);
 	int n = Math.max(24, (int) (2 * Math.PI * r / 11.0));
-	FloatBuffer posb = Utils.wfbuf(n * 3 * 2);
-	FloatBuffer nrmb = Utils.wfbuf(n * 3 * 2);
+	cs = new float[n];
+	sn = new float[n];
+	z = new float[n];
 	for (int i = 0; i < n; i++) {
-	    float s = (float) Math.sin(2 * Math.PI * i / n);
-	    float c = (float) Math.cos(2 * Math.PI * i / n);
-	    posb.put(i * 3, c * r).put(i * 3 + 1, s * r).put(i * 3 + 2, 10);
-	    posb.put((n + i) * 3, c * r).put((n + i) * 3 + 1, s * r).put((n + i) * 3 + 2, -10);
-	    nrmb.put(i * 3, c).put(i * 3 + 1, s).put(i * 3 + 2, 0);
-	    nrmb.put((n + i) * 3, c).put((n + i) * 3 + 1, s).put((n + i) * 3 + 2, 0);
+	    sn[i] = (float) Math.sin(2 * Math.PI * i / n);
+	    cs[i] = (float) Math.cos(2 * Math.PI * i / n);
 	}
-	VertexBuf.VertexData posa = new VertexBuf.VertexData(posb);
-	VertexBuf.NormalData nrma = new VertexBuf.NormalData(nrmb);
-	VertexBuf vbuf = new VertexBuf(posa, nrma);
-	this.smod = new Model(Model.Mode.TRIANGLES, vbuf.data(), new Indices(n * 6, NumberFormat.UINT16, DataBuffer.Usage.STATIC, this::sidx));
-	this.emod = new Model(Model.Mode.LINE_STRIP, vbuf.data(), new Indices(n + 1, NumberFormat.UINT16, DataBuffer.Usage.STATIC, this::eidx));
-	this.posa = posa;
-	this.vbuf = vbuf;
+	sbuf = new float[n * 6 * 6];
+	ebuf = new float[(n + 1) * 6];
+	smod = VertexPool.polys.range(Model.Mode.TRIANGLES);
+	emod = VertexPool.polys.range(Model.Mode.LINE_STRIP);
     }
-    
-    private FillBuffer sidx(Indices dst, Environment env) {
-	FillBuffer ret = env.fillbuf(dst);
-	ShortBuffer buf = ret.push().asShortBuffer();
-	for (int i = 0, n = dst.n / 6; i < n; i++) {
-	    int b = i * 6;
-	    buf.put(b, (short) i).put(b + 1, (short) (i + n)).put(b + 2, (short) ((i + 1) % n));
-	    buf.put(b + 3, (short) (i + n)).put(b + 4, (short) (((i + 1) % n) + n)).put(b + 5, (short) ((i + 1) % n));
-	}
-	return (ret);
+
+    private static int put(float[] buf, int o, float x, float y, float z, float nx, float ny) {
+	buf[o++] = x; buf[o++] = y; buf[o++] = z;
+	buf[o++] = nx; buf[o++] = ny; buf[o++] = 0;
+	return (o);
     }
-    
-    private FillBuffer eidx(Indices dst, Environment env) {
-	FillBuffer ret = env.fillbuf(dst);
-	ShortBuffer buf = ret.push().asShortBuffer();
-	for (int i = 0; i < dst.n - 1; i++)
-	    buf.put(i, (short) i);
-	buf.put(dst.n - 1, (short) 0);
-	return (ret);
+
+    /* Writes the wall, unindexed, and the rim into their ranges of
+     * the shared polygon buffer. */
+    private void fill() {
+	int n = cs.length;
+	for (int i = 0, o = 0; i < n; i++) {
+	    int j = (i + 1) % n;
+	    float xi = cs[i] * r, yi = sn[i] * r, xj = cs[j] * r, yj = sn[j] * r;
+	    o = put(sbuf, o, xi, yi, z[i] + 10, cs[i], sn[i]);
+	    o = put(sbuf, o, xi, yi, z[i] - 10, cs[i], sn[i]);
+	    o = put(sbuf, o, xj, yj, z[j] + 10, cs[j], sn[j]);
+	    o = put(sbuf, o, xi, yi, z[i] - 10, cs[i], sn[i]);
+	    o = put(sbuf, o, xj, yj, z[j] - 10, cs[j], sn[j]);
+	    o = put(sbuf, o, xj, yj, z[j] + 10, cs[j], sn[j]);
+	}
+	for (int i = 0, o = 0; i <= n; i++) {
+	    int j = i % n;
+	    o = put(ebuf, o, cs[j] * r, sn[j] * r, z[j] + 10, cs[j], sn[j]);
+	}
+	smod.set(sbuf, n * 6);
+	emod.set(ebuf, n + 1);
     }
-    
-    private void setz(Render g, Glob glob, Coord2d c) {
-	FloatBuffer posb = posa.data;
-	int n = posa.size() / 2;
+
+    private void setz(Glob glob, Coord2d c) {
+	int n = cs.length;
 	try {
-	    float bz = (float) glob.map.getcz(c.x, c.y);
+	    MCache.HeightMap hm = glob.map.heightmap();
+	    float bz = (float) hm.getcz(c.x, c.y);
 	    for (int i = 0; i < n; i++) {
-		float z = (float) glob.map.getcz(c.x + posb.get(i * 3), c.y - posb.get(i * 3 + 1)) - bz;
-		posb.put(i * 3 + 2, z + 10);
-		posb.put((n + i) * 3 + 2, z - 10);
+		z[i] = (float) hm.getcz(c.x + (cs[i] * r), c.y - (sn[i] * r)) - bz;
 	    }
 	} catch (Loading e) {
 	    lc = null;
 	    return;
 	}
-	vbuf.update(g);
+	synchronized (this) {
+	    if(!slots.isEmpty())
+		fill();
+	}
     }
-    
+
     public void gtick(Render g) {
 	Coord2d cc = gob.rc;
 	if((lc == null) || !lc.equals(cc)) {
 	    lc = cc;
-	    setz(g, gob.context(Glob.class), cc);
+	    setz(gob.context(Glob.class), cc);
 	}
     }
-    
+
     public void added(RenderTree.Slot slot) {
+	synchronized (this) {
+	    if(slots.isEmpty())
+		fill();
+	    slots.add(slot);
+	}
 	slot.ostate(Pipe.Op.compose(Rendered.postpfx,
 	    new States.Facecull(States.Facecull.Mode.NONE),
 	    Location.goback("gobx")));
 	slot.add(smod, smat);
 	slot.add(emod, emat);
     }
-}
 
+    public void removed(RenderTree.Slot slot) {
+	synchronized (this) {
+	    slots.remove(slot);
+	    /* Give the space back while hidden; added() fills it again. */
+	    if(slots.isEmpty()) {
+		smod.dispose();
+		emod.dispose();
+	    }
+	}
+    }
+}
@@ -145,38 +145,134 @@ public class Composited implements RenderTree.Node, EquipTarget {
 	public Comparator<ModOrder> comparator() {return(cmp);}
     };
 
-    public class Model implements RenderTree.Node, TickList.TickNode, TickList.Ticking {
+    public static class Layer implements RenderTree.Node {
 	public final FastMesh m;
-	public final PoseMorph morph;
-	public final int id;
-	private final Collection<RenderTree.Slot> slots = new ArrayList<>(1);
-	private int z = 0, lz = 0;
+	public final Material mat;
+	public final ModOrder order;
 
-	public class Layer implements RenderTree.Node {
-	    public final Material mat;
-	    public final ModOrder order;
+	private Layer(FastMesh m, Material mat, int z1, int z2) {
+	    this.m = m;
+	    this.mat = mat;
+	    this.order = new ModOrder(z1, z2);
+	}
 
-	    private Layer(Material mat, int z1, int z2) {
-		this.mat = mat;
-		this.order = new ModOrder(z1, z2);
+	public void added(RenderTree.Slot slot) {
+	    slot.ostate(Pipe.Op.compose(mat, order, (order.z2 == 0) ? null : (p -> p.put(Clickable.slot, null))));
+	    slot.lockstate();
+	    slot.add(m);
+	}
+    }
+
+    /* The parts of a model which do not depend on the pose it is
+     * drawn in. Composites with equal MDs share one, so that crowds
+     * dressed alike only build and hold their own PoseMorphs. */
+    public static class Build {
+	public final FastMesh m;
+	public final int z;
+	public final List<Layer> lay;
+
+	private Build(MD md, Material.Owner owner) {
+	    Resource mres = md.mod.get();
+	    FastMesh.MeshRes mr = mres.layer(FastMesh.MeshRes.class);
+	    if(mr == null)
+		throw(new Sprite.ResourceException("Model resource contains no mesh", mres));
+	    int z = 0;
+	    if(mr.rdat.containsKey("cz"))
+		z = Integer.parseInt(mr.rdat.get("cz"));
+	    /* XXX: Actually set comp-z on borka meshes and remove me. */
+	    if(mres.name.equals("gfx/borka/male") || mres.name.equals("gfx/borka/female"))
+		z = -1;
+	    this.m = mr.m;
+	    this.z = z;
+	    List<Layer> lay = new ArrayList<>(md.tex.size());
+	    for(ResData lres : md.tex) {
+		Resource tres = lres.res.get();
+		Material mat;
+		try {
+		    mat = Material.fromres(owner, tres, new MessageBuf(lres.sdt));
+		} catch(OwnerContext.NoContext e) {
+		    if(owner == sharedowner) {
+			synchronized(builds) {
+			    ownedmats.put(tres, Boolean.TRUE);
+			}
+		    }
+		    throw(e);
+		}
+		lay.add(new Layer(m, mat, z, lay.size()));
 	    }
+	    this.lay = Collections.unmodifiableList(lay);
+	}
+    }
 
-	    public void added(RenderTree.Slot slot) {
-		slot.ostate(Pipe.Op.compose(mat, order, (order.z2 == 0) ? null : (p -> p.put(Clickable.slot, null))));
-		slot.lockstate();
-		slot.add(m);
+    public static final Config.Variable<Boolean> sharebuilds = Config.Variable.propb("haven.compshare", true);
+    private static final Map<MD, Build> builds = new CacheMap<>(CacheMap.RefType.WEAK);
+    /* Materials whose factories asked the shared owner for context,
+     * and so must be built for each composite. */
+    private static final Map<Resource, Boolean> ownedmats = new WeakHashMap<>();
+    private static final Material.Owner sharedowner = new Material.Owner() {
+	    public <T> T context(Class<T> cl) {
+		throw(new NoContext(cl));
+	    }
+	};
+    public static long nbuilt = 0, nshared = 0;
+
+    private static Build build(MD md, Material.Owner owner) {
+	if(!sharebuilds.get())
+	    return(new Build(md, owner));
+	synchronized(builds) {
+	    Build ret = builds.get(md);
+	    if(ret != null) {
+		nshared++;
+		return(ret);
 	    }
 	}
-	public final List<Layer> lay = new ArrayList<Layer>();
+	List<Resource> mats = new ArrayList<>(md.tex.size());
+	for(ResData lres : md.tex)
+	    mats.add(lres.res.get());
+	boolean shared;
+	synchronized(builds) {
+	    shared = !mats.stream().anyMatch(ownedmats::containsKey);
+	}
+	if(shared) {
+	    try {
+		Build ret = new Build(md, sharedowner);
+		synchronized(builds) {
+		    Build prev = builds.get(md);
+		    if(prev != null) {
+			nshared++;
+			return(prev);
+		    }
+		    builds.put(md.clone(), ret);
+		    nbuilt++;
+		}
+		return(ret);
+	    } catch(OwnerContext.NoContext e) {
+	    }
+	}
+	return(new Build(md, owner));
+    }
 
-	private Model(FastMesh m, int id) {
-	    this.m = m;
+    public static String buildstats() {
+	synchronized(builds) {
+	    return(String.format("%,d model builds cached, %,d built, %,d shared, %,d owner-bound materials",
+				 builds.size(), nbuilt, nshared, ownedmats.size()));
+	}
+    }
+
+    public class Model implements RenderTree.Node, TickList.TickNode, TickList.Ticking {
+	public final Build build;
+	public final FastMesh m;
+	public final PoseMorph morph;
+	public final int id;
+	public final List<Layer> lay;
+	private final Collection<RenderTree.Slot> slots = new ArrayList<>(1);
+
+	private Model(Build build, int id) {
+	    this.build = build;
+	    this.m = build.m;
 	    this.morph = new PoseMorph(pose, m);
 	    this.id = id;
-	}
-	
-	private void addlay(Material mat) {
-	    lay.add(new Layer(mat, z, lz++));
+	    this.lay = build.lay;
 	}
 
 	public void added(RenderTree.Slot slot) {
@@ -306,6 +402,10 @@ public class Composited implements RenderTree.Node, EquipTarget {
 	    MD m = (MD)o;
 	    return(mod.equals(m.mod) && tex.equals(m.tex));
 	}
+
+	public int hashCode() {
+	    return(Objects.hash(mod, tex));
+	}
 	
 	public MD clone() {
 	    try {
@@ -439,20 +539,8 @@ public class Composited implements RenderTree.Node, EquipTarget {
 	Collection<Model> ret = new ArrayList<>(nmod.size());
 	for(MD md : nmod) {
 	    Model mod = md.real;
-	    if(mod == null) {
-		FastMesh.MeshRes mr = md.mod.get().layer(FastMesh.MeshRes.class);
-		if(mr == null)
-		    throw(new Sprite.ResourceException("Model resource contains no mesh", md.mod.get()));
-		mod = new Model(mr.m, md.id);
-		if(mr.rdat.containsKey("cz"))
-		    mod.z = Integer.parseInt(mr.rdat.get("cz"));
-		/* XXX: Actually set comp-z on borka meshes and remove me. */
-		if(md.mod.get().name.equals("gfx/borka/male") || md.mod.get().name.equals("gfx/borka/female"))
-		    mod.z = -1;
-		for(ResData lres : md.tex)
-		    mod.addlay(Material.fromres(matowner, lres.res.get(), new MessageBuf(lres.sdt)));
-		md.real = mod;
-	    }
+	    if(mod == null)
+		md.real = mod = new Model(build(md, matowner), md.id);
 	    ret.add(mod);
 	}
 	return(ret);
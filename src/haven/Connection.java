@@ -31,6 +31,7 @@ import java.io.*;
 import java.net.*;
 import java.nio.*;
 import java.nio.channels.*;
+import java.util.function.Consumer;
 
 public class Connection {
     private static final double ACK_HOLD = 0.030;
@@ -69,6 +70,8 @@ public class Connection {
     public static interface Callback {
 	public default void closed() {};
 	public default void handle(PMessage msg) {};
+	/* The message passed to mapdata(), like the one objdata is
+	 * decoded from, is only valid for the duration of the call. */
 	public default void handle(OCache.ObjDelta delta) {};
 	public default void mapdata(Message msg) {};
 
@@ -83,6 +86,111 @@ public class Connection {
 	    };
     }
 
+    /* Sees every datagram received from the server, before it is
+     * handled; used for recording sessions for later replay. */
+    public static interface Tap {
+	public void recv(double time, int type, byte[] data, int off, int len);
+	public default void close() {}
+    }
+    public volatile Tap tap = null;
+
+    /* Writes received datagrams to a file, as read back by
+     * haven.test.ReplayServer. Flushed about once a second rather
+     * than per datagram, and given up on at the first error. */
+    public static class Recorder implements Tap {
+	public static final String SIG = "Haven session recording 1";
+	public static final double FLUSH_INTERVAL = 1.0;
+	private DataOutputStream out;
+	private double lastflush = 0;
+
+	public Recorder(File file) {
+	    try {
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+		out.writeUTF(SIG);
+	    } catch(IOException e) {
+		throw(new RuntimeException(e));
+	    }
+	}
+
+	private void fail(IOException e) {
+	    new Warning(e, "could not record session, recording stopped").issue();
+	    try {
+		out.close();
+	    } catch(IOException e2) {
+	    }
+	    out = null;
+	}
+
+	public synchronized void recv(double time, int type, byte[] data, int off, int len) {
+	    if(out == null)
+		return;
+	    try {
+		out.writeDouble(time);
+		out.writeByte(type);
+		out.writeInt(len);
+		out.write(data, off, len);
+		if(time - lastflush >= FLUSH_INTERVAL) {
+		    out.flush();
+		    lastflush = time;
+		}
+	    } catch(IOException e) {
+		fail(e);
+	    }
+	}
+
+	public synchronized void close() {
+	    if(out == null)
+		return;
+	    try {
+		out.close();
+		out = null;
+	    } catch(IOException e) {
+		fail(e);
+	    }
+	}
+    }
+
+    /* Decodes the object deltas of an OBJDATA datagram, handing
+     * each to the sink as soon as it has been read. */
+    public static void objdata(Message msg, Consumer<OCache.ObjDelta> sink) {
+	while(!msg.eom()) {
+	    int fl = msg.uint8();
+	    long id = msg.uint32();
+	    int fr = msg.int32();
+	    OCache.ObjDelta delta = new OCache.ObjDelta(fl, id, fr);
+	    if((fl & 1) != 0)
+		delta.initframe = fr;
+	    if((fl & 8) != 0)
+		delta.initframe = msg.int32();
+	    while(true) {
+		int afl = 0, len, type = msg.uint8();
+		if(type == OCache.OD_END)
+		    break;
+		if((type & 0x80) == 0) {
+		    len = (type & 0x78) >> 3;
+		    if(len > 0)
+			len++;
+		    type = OCache.compodmap[type & 0x7];
+		} else {
+		    type = type & 0x7f;
+		    if(((afl = msg.uint8()) & 0x80) == 0) {
+			len = afl & 0x7f;
+			afl = 0;
+		    } else {
+			len = msg.uint16();
+		    }
+		}
+		OCache.AttrDelta attr = new OCache.AttrDelta(delta, type, msg, len);
+		if(type == OCache.OD_REM) {
+		    delta.rem = true;
+		} else {
+		    delta.attrs.add(attr);
+		}
+	    }
+	    sink.accept(delta);
+	}
+    }
+
     public Connection add(Callback cb) {
 	cbs.add(cb);
 	return(this);
@@ -107,6 +215,9 @@ public class Connection {
 	    } finally {
 		try {
 		    alive = false;
+		    Tap tap = Connection.this.tap;
+		    if(tap != null)
+			tap.close();
 		    for(Callback cb : cbs)
 			cb.closed();
 		} finally {
@@ -139,6 +250,7 @@ public class Connection {
     }
 
     private final ByteBuffer recvbuf = ByteBuffer.allocate(65536);
+    private final PMessage cursor = new PMessage(-1);
     private PMessage recv() throws IOException {
 	recvbuf.clear();
 	int ret = sk.read(recvbuf);
@@ -147,11 +259,20 @@ public class Connection {
 	} else if(ret == 0) {
 	    return(null);
 	} else {
-	    recvbuf.flip();
-	    byte type = recvbuf.get();
-	    byte[] buf = new byte[recvbuf.remaining()];
-	    recvbuf.get(buf);
-	    return(new PMessage(type, buf));
+	    byte[] raw = recvbuf.array();
+	    int type = raw[0], len = recvbuf.position() - 1;
+	    Tap tap = this.tap;
+	    if(tap != null)
+		tap.recv(Utils.rtime(), type, raw, 1, len);
+	    /* Object and map data are consumed before the next
+	     * receive, so decode them straight from the receive
+	     * buffer instead of copying. */
+	    if((type == Session.MSG_OBJDATA) || (type == Session.MSG_MAPDATA)) {
+		cursor.type = type;
+		cursor.reset(raw, 1, len);
+		return(cursor);
+	    }
+	    return(new PMessage(type, Arrays.copyOfRange(raw, 1, 1 + len)));
 	}
     }
 
@@ -350,51 +471,17 @@ public class Connection {
 		cb.mapdata(msg);
 	}
 
-	private void gotobjdata(Message msg) {
-	    while(!msg.eom()) {
-		int fl = msg.uint8();
-		long id = msg.uint32();
-		int fr = msg.int32();
-		OCache.ObjDelta delta = new OCache.ObjDelta(fl, id, fr);
-		if((fl & 1) != 0)
-		    delta.initframe = fr;
-		if((fl & 8) != 0)
-		    delta.initframe = msg.int32();
-		while(true) {
-		    int afl = 0, len, type = msg.uint8();
-		    if(type == OCache.OD_END)
-			break;
-		    if((type & 0x80) == 0) {
-			len = (type & 0x78) >> 3;
-			if(len > 0)
-			    len++;
-			type = OCache.compodmap[type & 0x7];
-		    } else {
-			type = type & 0x7f;
-			if(((afl = msg.uint8()) & 0x80) == 0) {
-			    len = afl & 0x7f;
-			    afl = 0;
-			} else {
-			    len = msg.uint16();
-			}
-		    }
-		    OCache.AttrDelta attr = new OCache.AttrDelta(delta, type, msg, len);
-		    if(type == OCache.OD_REM) {
-			delta.rem = true;
-		    } else {
-			delta.attrs.add(attr);
-		    }
-		}
-		for(Callback cb : cbs)
-		    cb.handle(delta);
-		ObjAck ack = objacks.get(id);
-		if(ack == null) {
-		    objacks.put(id, ack = new ObjAck(id, fr, now));
-		} else {
-		    if(fr > ack.frame) {
-			ack.frame = fr;
-			ack.lrecv = now;
-		    }
+	private final Consumer<OCache.ObjDelta> objsink = this::gotobjdelta;
+	private void gotobjdelta(OCache.ObjDelta delta) {
+	    for(Callback cb : cbs)
+		cb.handle(delta);
+	    ObjAck ack = objacks.get(delta.id);
+	    if(ack == null) {
+		objacks.put(delta.id, ack = new ObjAck(delta.id, delta.frame, now));
+	    } else {
+		if(delta.frame > ack.frame) {
+		    ack.frame = delta.frame;
+		    ack.lrecv = now;
 		}
 	    }
 	}
@@ -428,7 +515,7 @@ public class Connection {
 		break;
 	    }
 	    case Session.MSG_OBJDATA: {
-		gotobjdata(msg);
+		objdata(msg, objsink);
 		break;
 	    }
 	    }
@@ -515,7 +602,9 @@ public class Connection {
 			while((msg = recv()) != null) {
 			    if(msg.type == Session.MSG_CLOSE)
 				return(new Close(true));
+			    long st = Trace.now();
 			    handlemsg(msg);
+			    Trace.span("recv", msg.type, st);
 			}
 		    }
 		} catch(ClosedByInterruptException | CancelledKeyException | InterruptedException e) {
@@ -583,6 +672,12 @@ public class Connection {
 	}
     }
 
+    public int pending() {
+	synchronized(pending) {
+	    return(pending.size());
+	}
+    }
+
     public void queuemsg(PMessage pmsg) {
 	RMessage msg = new RMessage(pmsg);
 	synchronized(pending) {
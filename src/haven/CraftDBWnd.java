@@ -501,13 +501,16 @@ public class CraftDBWnd extends WindowX implements DTarget2 {
 	if (filter.isEmpty()) {
 	    return;
 	}
-	ItemFilter itemFilter = ItemFilter.create(filter);
+	PaginaIndex index = ui.gui.menu.index;
+	index.update();
+	Set<Pagina> named = index.search(filter);
+	if(index.loading()) {needfilter = true;}
 	synchronized (mode.items) {
 	    List<Pagina> filtered = mode.items.stream().filter(p -> {
 		try {
-		    Resource res = p.res.get();
-		    String name = res.layer(Resource.action).name.toLowerCase();
-		    return (name.contains(filter) || itemFilter.matches(p, ui.sess));
+		    if(named.contains(p)) {return true;}
+		    if(index.entry(p) == null && p.act().name.toLowerCase().contains(filter)) {return true;}
+		    return index.matches(p, filter, ui.sess);
 		} catch (Loading e) {
 		    needfilter = true;
 		}
@@ -267,7 +267,9 @@ public class Defer extends ThreadGroup {
 		    } catch(InterruptedException e) {
 			return;
 		    }
+		    long st = Trace.now();
 		    f.run();
+		    Trace.span("defer", f.task.getClass(), st);
 		    f = null;
 		}
 	    } finally {
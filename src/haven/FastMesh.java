@@ -228,6 +228,7 @@ public class FastMesh implements Rendered.Instancable, RenderTree.Node, Disposab
 	public transient Material.Res mat;
 	public final Map<String, String> rdat;
 	private transient short[] tmp;
+	private transient Pipe.Op.Wrapping matm;
 	public final int id, ref;
 	private int vbufid, matid;
 	
@@ -282,6 +283,16 @@ public class FastMesh implements Rendered.Instancable, RenderTree.Node, Disposab
 	    }
 	}
 	
+	/* The mesh wrapped in its own material. The wrapping holds no
+	 * state of its own, so every sprite drawing it shares one. */
+	public Pipe.Op.Wrapping matmesh() {
+	    synchronized(this) {
+		if(matm == null)
+		    matm = mat.get().apply(m);
+		return(matm);
+	    }
+	}
+
 	public Integer layerid() {
 	    return(id);
 	}
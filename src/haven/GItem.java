@@ -292,16 +292,27 @@ public class GItem extends AWidget implements ItemInfo.SpriteOwner, GSprite.Owne
 
     public List<ItemInfo> info() {
 	if(this.info == null) {
-	    List<ItemInfo> info = ItemInfo.buildinfo(this, rawinfo);
-	    addcontinfo(info);
-	    Resource.Pagina pg = res.get().layer(Resource.pagina);
-	    if(pg != null)
-		info.add(new ItemInfo.Pagina(this, pg.text));
-	    this.info = info;
+	    Resource res = this.res.get();
+	    if(contents == null) {
+		/* Without contents, the info may depend only on the
+		 * resource, sprite data and raw info, and be shared. */
+		this.info = ItemInfo.InfoCache.get(this, res, sdt, rawinfo, (owner, info) -> pagina(owner, res, info));
+	    } else {
+		List<ItemInfo> info = ItemInfo.buildinfo(this, rawinfo);
+		addcontinfo(info);
+		this.info = pagina(this, res, info);
+	    }
 	}
 	return(this.info);
     }
 
+    private static List<ItemInfo> pagina(ItemInfo.Owner owner, Resource res, List<ItemInfo> info) {
+	Resource.Pagina pg = res.layer(Resource.pagina);
+	if(pg != null)
+	    info.add(new ItemInfo.Pagina(owner, pg.text));
+	return(info);
+    }
+
     public Resource resource() {
 	return(res.get());
     }
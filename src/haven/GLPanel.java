@@ -281,6 +281,7 @@ public interface GLPanel extends UIPanel, UI.Context {
 	    FastText.aprintf(g, new Coord(10, y -= dy), 0, 1, "State slots: %d", State.Slot.numslots());
 	    FastText.aprintf(g, new Coord(10, y -= dy), 0, 1, "GL progs: %d", buf.env.numprogs());
 	    FastText.aprintf(g, new Coord(10, y -= dy), 0, 1, "V-Mem: %s", buf.env.memstats());
+	    FastText.aprintf(g, new Coord(10, y -= dy), 0, 1, "Tex-Res: %s", buf.env.texstats());
 	    MapView map = ui.root.findchild(MapView.class);
 	    if((map != null) && (map.back != null)) {
 		FastText.aprintf(g, new Coord(10, y -= dy), 0, 1, "Camera: %s", map.camstats());
@@ -347,6 +348,7 @@ public interface GLPanel extends UIPanel, UI.Context {
 		    Debug.cycle(ui.modflags());
 		    GSettings prefs = ui.gprefs;
 		    SyncMode syncmode = prefs.syncmode.val;
+		    long tt = Trace.now(), ft = tt;
 		    CPUProfile.Frame curf = profile.get() ? uprof.new Frame() : null;
 		    GPUProfile.Frame curgf = profilegpu.get() ? gprof.new Frame(buf) : null;
 		    BufferBGL.Profile frameprof = false ? new BufferBGL.Profile() : null;
@@ -365,6 +367,7 @@ public interface GLPanel extends UIPanel, UI.Context {
 			    fwaited += Utils.rtime() - now;
 			}
 			if(curf != null) curf.tick("dwait");
+			tt = Trace.span("dwait", tt);
 		    }
 
 		    int cfno = frameno++;
@@ -372,18 +375,21 @@ public interface GLPanel extends UIPanel, UI.Context {
 			ed.dispatch(ui);
 			ui.mousehover(ui.mc);
 			if(curf != null) curf.tick("dsp");
+			tt = Trace.span("dsp", tt);
 
 			if(ui.sess != null) {
 			    ui.sess.glob.ctick();
 			    ui.sess.glob.gtick(buf);
 			}
 			if(curf != null) curf.tick("stick");
+			tt = Trace.span("stick", tt);
 			ui.tick();
 			ui.gtick(buf);
 			Area shape = p.shape();
 			if((ui.root.sz.x != (shape.br.x - shape.ul.x)) || (ui.root.sz.y != (shape.br.y - shape.ul.y)))
 			    ui.root.resize(new Coord(shape.br.x - shape.ul.x, shape.br.y - shape.ul.y));
 			if(curf != null) curf.tick("tick");
+			tt = Trace.span("tick", tt);
 			buf.submit(new ProfileTick(rprofc, "tick"));
 			if(curgf != null) curgf.tick(buf, "tick");
 		    }
@@ -396,10 +402,12 @@ public interface GLPanel extends UIPanel, UI.Context {
 			    fwaited += Utils.rtime() - now;
 			}
 			if(curf != null) curf.tick("dwait");
+			tt = Trace.span("dwait", tt);
 		    }
 
 		    display(ui, buf);
 		    if(curf != null) curf.tick("draw");
+		    tt = Trace.span("draw", tt);
 		    if(curgf != null) curgf.tick(buf, "draw");
 		    buf.submit(new ProfileTick(rprofc, "gl"));
 		    buf.submit(new BufferSwap(cfno));
@@ -424,6 +432,7 @@ public interface GLPanel extends UIPanel, UI.Context {
 		    env.submit(buf);
 		    buf = null;
 		    if(curf != null) curf.tick("aux");
+		    tt = Trace.span("aux", tt);
 
 		    double now = Utils.rtime();
 		    double fd = framedur();
@@ -453,6 +462,8 @@ public interface GLPanel extends UIPanel, UI.Context {
 		    }
 		    framep = (framep + 1) % frames.length;
 		    if(curf != null) curf.tick("wait");
+		    Trace.span("wait", tt);
+		    Trace.span("frame", ft);
 
 		    if(curf != null) curf.fin();
 		    prevframe = curframe;
@@ -503,6 +514,12 @@ public interface GLPanel extends UIPanel, UI.Context {
 	    cmdmap.put("gldebug", (cons, args) -> {
 		    gldebug = Utils.parsebool(args[1]);
 		});
+	    cmdmap.put("glrecord", new Console.Command() {
+		    public void run(Console cons, String[] args) throws Exception {
+			int frames = (args.length > 2) ? Integer.parseInt(args[2]) : 60;
+			p.env().record(new GLRecorder(new java.io.FileOutputStream(args[1]), frames));
+		    }
+		});
 	    cmdmap.put("cursor", new Console.Command() {
 		    public void run(Console cons, String[] args) {
 			cursmode = args[1].intern();
@@ -1701,6 +1701,7 @@ public class GameUI extends ConsoleHost implements Console.Directory, UI.Message
     public static final KeyBinding kb_hide = KeyBinding.get("ui-toggle", KeyMatch.nil);
     public static final KeyBinding kb_logout = KeyBinding.get("logout", KeyMatch.nil);
     public static final KeyBinding kb_switchchr = KeyBinding.get("logout-cs", KeyMatch.nil);
+    public static final KeyBinding kb_trace = KeyBinding.get("trace-dump", KeyMatch.nil);
     public boolean globtype(char key, KeyEvent ev) {
 	if(key == ':') {
 	    entercmd();
@@ -1720,6 +1721,13 @@ public class GameUI extends ConsoleHost implements Console.Directory, UI.Message
 	} else if(kb_chat.key().match(ev)) {
 	    toggleChat();
 	    return(true);
+	} else if(kb_trace.key().match(ev)) {
+	    try {
+		msg("Wrote " + Trace.dump(10).toAbsolutePath());
+	    } catch(java.io.IOException e) {
+		error("Could not write trace: " + e.getMessage());
+	    }
+	    return(true);
 	} else if((key == 27) && (map != null) && !map.hasfocus) {
 	    setfocus(map);
 	    return(true);
@@ -2137,6 +2145,29 @@ public class GameUI extends ConsoleHost implements Console.Directory, UI.Message
 		    }
 		}
 	    });
+	cmdmap.put("mapstats", new Console.Command() {
+		public void run(Console cons, String[] args) {
+		    if(mapfile != null)
+			cons.out.println(mapfile.view.file.stats());
+		}
+	    });
+	cmdmap.put("pathto", new Console.Command() {
+		public void run(Console cons, String[] args) throws Exception {
+		    if(args.length < 3)
+			throw(new Exception("usage: pathto DX DY"));
+		    Gob pl = map.player();
+		    if((pl == null) || (pathQueue == null))
+			return;
+		    Coord2d tgt = pl.rc.add(Double.parseDouble(args[1]) * MCache.tilesz.x, Double.parseDouble(args[2]) * MCache.tilesz.y);
+		    /* Searching a large region takes a while; keep it off
+		     * the UI thread. */
+		    Defer.later(() -> {
+			    if(!pathQueue.pathto(tgt))
+				ui.message("No path found", MsgType.INFO);
+			    return(null);
+			});
+		}
+	    });
 	cmdmap.put("chrmap", new Console.Command() {
 		public void run(Console cons, String[] args) {
 		    Utils.setpref("mapfile/" + chrid, args[1]);
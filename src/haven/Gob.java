@@ -979,6 +979,17 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 	return(curstate);
     }
 
+    /* The render position of a gob that neither moves nor has any
+     * state of its own applied, such as a highlight, so that its
+     * static sprites may be drawn by StaticBatch instead, or null if
+     * it does not qualify. */
+    public Coord3f staticpos() {
+	GobState st = curstate;
+	if(virtual || (moving != null) || (st == null) || (st.mods != null))
+	    return(null);
+	return(placed.staticpos());
+    }
+
     private void updstate() {
 	GobState nst;
 	try {
@@ -1252,6 +1263,13 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, Eq
 	    return((this.cur != null) ? this.cur.oc : null);
 	}
 
+	Coord3f staticpos() {
+	    Placement cur = this.cur;
+	    if((cur == null) || (cur.flw != null) || (cur.tilestate != null) || (cur.mods != null))
+		return(null);
+	    return(cur.rc);
+	}
+
 	public TickList.Ticking ticker() {return(this);}
     }
     
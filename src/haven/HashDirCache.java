@@ -27,6 +27,8 @@
 package haven;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.io.*;
 import java.nio.file.*;
 import java.nio.channels.*;
@@ -34,6 +36,7 @@ import java.net.*;
 import static haven.Utils.pj;
 
 public class HashDirCache implements ResCache {
+    public static final Config.Variable<Integer> cachesize = Config.Variable.propi("haven.cachesize", 2048);
     private final Path base;
     public final URI id;
     private final long idhash;
@@ -79,12 +82,16 @@ public class HashDirCache implements ResCache {
 	throw(new UnsupportedOperationException("Found no reasonable place to store local files"));
     }
 
-    private HashDirCache(URI id) {
-	this.base = findbase();
+    public HashDirCache(Path base, URI id) {
+	this.base = base;
 	this.id = id;
 	this.idhash = namehash(0, id.toString());
     }
 
+    private HashDirCache(URI id) {
+	this(findbase(), id);
+    }
+
     private static final Map<URI, HashDirCache> current = new CacheMap<>();
     public static HashDirCache get(URI id) {
 	synchronized(current) {
@@ -178,66 +185,272 @@ public class HashDirCache implements ResCache {
 	}
     }
 
-    private static final Map<Path, int[]> monitors = new HashMap<>();
-    private static boolean monwarned = false;
+    /* Apparently, Java doesn't allow two threads in one JVM to lock
+     * the same file, so file locks are taken under an in-process
+     * monitor, striped by name hash. The stripes are shared by all
+     * caches, since they all live in the same directory. */
+    private static final Object[] stripes = new Object[64];
+    static {
+	for(int i = 0; i < stripes.length; i++)
+	    stripes[i] = new Object();
+    }
+    private static Object stripe(long h) {
+	return(stripes[(int)(h ^ (h >>> 32)) & (stripes.length - 1)]);
+    }
+
     private CacheFile lookup(String name, boolean creat) throws IOException {
 	long h = namehash(idhash, name);
 	Path lfn = pj(base, String.format("%016x.0", h));
 	if(!Files.exists(lfn) && !creat)
 	    return(null);
-	int[] mon;
-	synchronized(monitors) {
-	    if(!monwarned && (monitors.size() > 100)) {
-		Warning.warn("HashDirCache monitors growing suspiciously many: " + monitors.size());
-		monwarned = true;
+	synchronized(stripe(h)) {
+	    try(LockedFile lf = LockedFile.lock(lfn)) {
+		for(int idx = 0; ; idx++) {
+		    Path path = pj(base, String.format("%016x.%d", h, idx));
+		    if(!Files.exists(path) && !creat)
+			return(null);
+		    FileChannel fp = (idx == 0) ? lf.f : open2(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+		    try {
+			Header head = readhead(fp);
+			if(head == null) {
+			    if(!creat)
+				return(null);
+			    fp.truncate(0);
+			    writehead(fp, name);
+			    head = new Header();
+			    head.cid = id.toString();
+			    head.name = name;
+			    return(new CacheFile(path, head, lf));
+			}
+			if(head.cid.equals(id.toString()) && head.name.equals(name))
+			    return(new CacheFile(path, head, lf));
+		    } finally {
+			if(idx != 0)
+			    fp.close();
+		    }
+		}
 	    }
-	    /* Apparently, Java doesn't allow two threads in one JVM
-	     * to lock the same file... */
-	    if((mon = monitors.get(lfn)) == null)
-		monitors.put(lfn, mon = new int[] {1});
-	    else
-		mon[0]++;
 	}
-	try {
-	    synchronized(mon) {
-		try(LockedFile lf = LockedFile.lock(lfn)) {
-		    for(int idx = 0; ; idx++) {
-			Path path = pj(base, String.format("%016x.%d", h, idx));
-			if(!Files.exists(path) && !creat)
-			    return(null);
-			FileChannel fp = (idx == 0) ? lf.f : open2(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
-			try {
-			    Header head = readhead(fp);
-			    if(head == null) {
-				if(!creat)
-				    return(null);
-				fp.truncate(0);
-				writehead(fp, name);
-				head = new Header();
-				head.cid = id.toString();
-				head.name = name;
-				return(new CacheFile(path, head, lf));
-			    }
-			    if(head.cid.equals(id.toString()) && head.name.equals(name))
-				return(new CacheFile(path, head, lf));
-			} finally {
-			    if(idx != 0)
-				fp.close();
-			}
+    }
+
+    /* Size and last access time of every entry, kept when the cache
+     * has a byte budget so that the least recently used entries can
+     * be evicted. The index is saved next to the entries, as
+     * %016x.idx of the cache ID hash, so that it survives restarts;
+     * without one, the directory is scanned once. */
+    private static class Entry {
+	final String fn;
+	volatile long size, atime;
+	long sortkey;
+
+	Entry(String fn) {
+	    this.fn = fn;
+	}
+    }
+    private static final String IDXSIG = "Haven cache index 1";
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong total = new AtomicLong(0);
+    private final Object evmon = new Object();
+    private volatile long budget = 0;
+    private volatile boolean idxdirty = false, idxloaded = false;
+    private Thread evictor = null;
+    public final AtomicLong nevicted = new AtomicLong(0);
+
+    private void touch(Path path, long size) {
+	if(budget <= 0)
+	    return;
+	long now = System.currentTimeMillis();
+	entries.compute(path.getFileName().toString(), (fn, e) -> {
+		if(e == null)
+		    e = new Entry(fn);
+		total.addAndGet(size - e.size);
+		e.size = size;
+		e.atime = now;
+		return(e);
+	    });
+	idxdirty = true;
+	if(total.get() > budget) {
+	    synchronized(evmon) {
+		evmon.notifyAll();
+	    }
+	}
+    }
+
+    private void forget(String fn) {
+	Entry e = entries.remove(fn);
+	if(e != null) {
+	    total.addAndGet(-e.size);
+	    idxdirty = true;
+	}
+    }
+
+    private Path idxpath() {
+	return(pj(base, String.format("%016x.idx", idhash)));
+    }
+
+    private void loadindex() throws IOException {
+	Path path = idxpath();
+	if(Files.exists(path)) {
+	    try(DataInputStream fp = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+		if(fp.readUTF().equals(IDXSIG)) {
+		    for(int i = 0, n = fp.readInt(); i < n; i++) {
+			Entry e = new Entry(fp.readUTF());
+			e.size = fp.readLong();
+			e.atime = fp.readLong();
+			if(entries.putIfAbsent(e.fn, e) == null)
+			    total.addAndGet(e.size);
 		    }
+		    return;
+		}
+	    } catch(EOFException e) {
+	    }
+	}
+	/* No usable index, so find this cache's entries among all
+	 * of those in the directory. */
+	try(DirectoryStream<Path> dir = Files.newDirectoryStream(base, fnfilter(HashDirCache::entryname))) {
+	    for(Path p : dir) {
+		String fn = p.getFileName().toString();
+		if(entries.containsKey(fn))
+		    continue;
+		try(FileChannel fp = open2(p, StandardOpenOption.READ)) {
+		    Header head = readhead(fp);
+		    if((head == null) || !head.cid.equals(id.toString()))
+			continue;
+		    Entry e = new Entry(fn);
+		    e.size = fp.size();
+		    e.atime = Files.getLastModifiedTime(p).toMillis();
+		    if(entries.putIfAbsent(fn, e) == null)
+			total.addAndGet(e.size);
+		} catch(NoSuchFileException e) {
+		}
+	    }
+	}
+	idxdirty = true;
+    }
+
+    private void saveindex() throws IOException {
+	idxdirty = false;
+	Path tmp = Files.createTempFile(base, "cache", ".new");
+	try {
+	    List<Entry> cur = new ArrayList<>(entries.values());
+	    try(DataOutputStream fp = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+		fp.writeUTF(IDXSIG);
+		fp.writeInt(cur.size());
+		for(Entry e : cur) {
+		    fp.writeUTF(e.fn);
+		    fp.writeLong(e.size);
+		    fp.writeLong(e.atime);
 		}
 	    }
+	    try {
+		Files.move(tmp, idxpath(), StandardCopyOption.ATOMIC_MOVE);
+	    } catch(AtomicMoveNotSupportedException e) {
+		Files.move(tmp, idxpath(), StandardCopyOption.REPLACE_EXISTING);
+	    }
 	} finally {
-	    synchronized(monitors) {
-		mon[0]--;
-		if(mon[0] < 0) {
-		    throw(new AssertionError(String.format("monitor refcount %d for %s (%s)", mon[0], lfn, name)));
-		} else if(mon[0] == 0) {
-		    if(monitors.remove(lfn) != mon)
-			throw(new AssertionError(String.format("monitor identity crisis for %s (%s)", lfn, name)));
+	    Files.deleteIfExists(tmp);
+	}
+    }
+
+    /* Removes the least recently used entries until at most limit
+     * bytes remain. Only the stripe of the entry being removed is
+     * held, and entries used since the pass started are kept. */
+    private int evict(long limit) {
+	List<Entry> order = new ArrayList<>(entries.values());
+	for(Entry e : order)
+	    e.sortkey = e.atime;
+	order.sort((a, b) -> Long.compare(a.sortkey, b.sortkey));
+	int n = 0;
+	for(Entry e : order) {
+	    if(total.get() <= limit)
+		break;
+	    long h = Long.parseUnsignedLong(e.fn.substring(0, 16), 16);
+	    synchronized(stripe(h)) {
+		if(e.atime != e.sortkey)
+		    continue;
+		try {
+		    Files.deleteIfExists(pj(base, e.fn));
+		} catch(IOException exc) {
+		    /* Probably open elsewhere; try again later. */
+		    continue;
 		}
+		forget(e.fn);
 	    }
+	    n++;
 	}
+	nevicted.addAndGet(n);
+	return(n);
+    }
+
+    private class Evictor extends HackThread {
+	Evictor() {
+	    super("Cache evictor");
+	    setDaemon(true);
+	    setPriority(Thread.MIN_PRIORITY);
+	}
+
+	public void run() {
+	    try {
+		if(!idxloaded) {
+		    loadindex();
+		    idxloaded = true;
+		}
+		while(true) {
+		    long budget = HashDirCache.this.budget;
+		    if(budget <= 0)
+			break;
+		    int n = 0;
+		    if(total.get() > budget)
+			n = evict(budget - (budget / 10));
+		    if(idxdirty)
+			saveindex();
+		    synchronized(evmon) {
+			if((n == 0) || (total.get() <= HashDirCache.this.budget))
+			    evmon.wait(60000);
+		    }
+		}
+	    } catch(InterruptedException e) {
+	    } catch(IOException e) {
+		new Warning(e, "cache eviction failed for " + id).issue();
+	    } finally {
+		synchronized(evmon) {
+		    evictor = null;
+		}
+	    }
+	}
+    }
+
+    /* Limits the cache to the given number of bytes, by evicting
+     * least recently used entries in the background. Zero or less
+     * removes the limit. */
+    public void bound(long bytes) {
+	synchronized(evmon) {
+	    budget = bytes;
+	    if((bytes > 0) && (evictor == null)) {
+		evictor = new Evictor();
+		evictor.start();
+	    }
+	    evmon.notifyAll();
+	}
+    }
+
+    /* Evicts synchronously down to the given number of bytes. */
+    public int trim(long bytes) throws IOException {
+	if(!idxloaded) {
+	    loadindex();
+	    idxloaded = true;
+	}
+	int ret = evict(bytes);
+	saveindex();
+	return(ret);
+    }
+
+    public long size() {
+	return(total.get());
+    }
+
+    private static boolean entryname(String f) {
+	return((f.length() >= 18) && (f.charAt(16) == '.') && Utils.strcheck(f.substring(17), Character::isDigit));
     }
 
     private static DirectoryStream.Filter<Path> fnfilter(java.util.function.Predicate<String> filter) {
@@ -245,11 +458,7 @@ public class HashDirCache implements ResCache {
     }
 
     private Iterator<String> list(boolean filter) throws IOException {
-	Iterator<Path> files =
-	    Files.newDirectoryStream(base, fnfilter(f -> (f.length() >= 18) &&
-						    (f.charAt(16) == '.') &&
-						    Utils.strcheck(f.substring(17), Character::isDigit)))
-	    .iterator();
+	Iterator<Path> files = Files.newDirectoryStream(base, fnfilter(HashDirCache::entryname)).iterator();
 	return(new Iterator<String>() {
 		int i = 0;
 		String next = null;
@@ -321,6 +530,7 @@ public class HashDirCache implements ResCache {
 				return(Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING));
 			    }
 			});
+		    touch(path, Files.size(path));
 		}
 	    });
     }
@@ -330,6 +540,7 @@ public class HashDirCache implements ResCache {
 	    if(cf == null)
 		throw(new FileNotFoundException(name));
 	    FileChannel fp = cf.acquire();
+	    touch(cf.p, fp.size());
 	    return(Channels.newInputStream(fp));
 	}
     }
@@ -340,6 +551,7 @@ public class HashDirCache implements ResCache {
 		throw(new FileNotFoundException(name));
 	    cf.close();
 	    Files.deleteIfExists(cf.p);
+	    forget(cf.p.getFileName().toString());
 	}
     }
 
@@ -347,17 +559,23 @@ public class HashDirCache implements ResCache {
 	return("HashDirCache(" + id + ")");
     }
 
+    /* Creates the resource cache, which unlike map stores is held
+     * to the haven.cachesize budget (in MB). */
     public static HashDirCache create() {
 	HashDirCache ret;
 	try {
 	    if(cachebase.get() != null)
-		return(get(cachebase.get().toURI()));
-	    if(Resource.resurl.get() != null)
-		return(get(Resource.resurl.get().toURI()));
-	    return(get("default"));
+		ret = get(cachebase.get().toURI());
+	    else if(Resource.resurl.get() != null)
+		ret = get(Resource.resurl.get().toURI());
+	    else
+		ret = get("default");
 	} catch(Exception e) {
 	    return(null);
 	}
+	if(cachesize.get() > 0)
+	    ret.bound(cachesize.get() * 1048576L);
+	return(ret);
     }
 
     public static void main(String[] args) throws IOException {
@@ -407,6 +625,10 @@ public class HashDirCache implements ResCache {
 	    }
 	    System.err.printf("%s: %d files purged\n", cache.id, n);
 	    break;
+	case "trim":
+	    int ntrim = cache.trim(Long.parseLong(args[2]) * 1048576L);
+	    System.err.printf("%s: %d files evicted, %d bytes left\n", cache.id, ntrim, cache.size());
+	    break;
 	case "rm":
 	    for(int i = 2; i < args.length; i++) {
 		try {
@@ -7,11 +7,10 @@ import java.util.*;
 import java.util.List;
 import java.util.stream.Collectors;
 
-public class Hitbox extends SlottedNode implements Rendered {
-    private static final VertexArray.Layout LAYOUT = new VertexArray.Layout(new VertexArray.Layout.Input(Homo3D.vertex, new VectorFormat(3, NumberFormat.FLOAT32), 0, 0, 12));
-    private Model model;
+public class Hitbox extends SlottedNode {
+    private VertexPool.Range model;
     private final Gob gob;
-    private static final Map<Resource, Model> MODEL_CACHE = new HashMap<>();
+    private static final GeomCache<Resource, VertexPool.Range> MODEL_CACHE = new GeomCache<>(4096, 1 << 20, VertexPool.Range::bytes, VertexPool.Range::used);
     private static final float Z = 0.1f;
     private static final Color SOLID_COLOR = new Color(178, 71, 178, 255);
     private static final Color PASSABLE_COLOR = new Color(105, 207, 124, 255);
@@ -40,15 +39,15 @@ public class Hitbox extends SlottedNode implements Rendered {
     @Override
     public void added(RenderTree.Slot slot) {
 	super.added(slot);
+	/* The cache may have dropped the model while not drawn. */
+	try {
+	    model = getModel(gob);
+	} catch (Loading ignored) {}
 	slot.ostate(state(state));
-	updateState();
-    }
-    
-    @Override
-    public void draw(Pipe context, Render out) {
 	if(model != null) {
-	    out.draw(context, model);
+	    slot.add(model);
 	}
+	updateState();
     }
     
     public void updateState() {
@@ -56,10 +55,13 @@ public class Hitbox extends SlottedNode implements Rendered {
 	    boolean top = CFG.DISPLAY_GOB_HITBOX_TOP.get();
 	    Pipe.Op newState = passable() ? (top ? PASSABLE_TOP : PASSABLE) : (top ? SOLID_TOP : SOLID);
 	    try {
-	    	Model m = getModel(gob);
+	    	VertexPool.Range m = getModel(gob);
 		if(m != null && m != model) {
 	    	    model = m;
-	    	    slots.forEach(RenderTree.Slot::update);
+		    for (RenderTree.Slot slot : slots) {
+			slot.clear();
+			slot.add(m);
+		    }
 		}
 	    }catch (Loading ignored) {}
 	    if(newState != state) {
@@ -73,6 +75,10 @@ public class Hitbox extends SlottedNode implements Rendered {
     }
     
     private boolean passable() {
+	return(passable(gob));
+    }
+
+    static boolean passable(Gob gob) {
 	try {
 	    String name = gob.resid();
 	    if(name == null) {return false;}
@@ -95,79 +101,66 @@ public class Hitbox extends SlottedNode implements Rendered {
 	return false;
     }
     
-    private static Model getModel(Gob gob) {
-	Model model;
-	Resource res = getResource(gob);
-	synchronized (MODEL_CACHE) {
-	    model = MODEL_CACHE.get(res);
-	    if(model == null) {
-		List<List<Coord3f>> polygons = new LinkedList<>();
-	    
-		Collection<Resource.Neg> negs = res.layers(Resource.Neg.class);
-		if(negs != null) {
-		    for (Resource.Neg neg : negs) {
-			List<Coord3f> box = new LinkedList<>();
-			box.add(new Coord3f(neg.ac.x, -neg.ac.y, Z));
-			box.add(new Coord3f(neg.bc.x, -neg.ac.y, Z));
-			box.add(new Coord3f(neg.bc.x, -neg.bc.y, Z));
-			box.add(new Coord3f(neg.ac.x, -neg.bc.y, Z));
-		    
-			polygons.add(box);
-		    }
-		}
-	    
-		Collection<Resource.Obstacle> obstacles = res.layers(Resource.Obstacle.class);
-		if(obstacles != null) {
-		    for (Resource.Obstacle obstacle : obstacles) {
-			if("build".equals(obstacle.id)) {continue;}
-			for (Coord2d[] polygon : obstacle.p) {
-			    polygons.add(Arrays.stream(polygon)
-				.map(coord2d -> new Coord3f((float) coord2d.x, (float) -coord2d.y, Z))
-				.collect(Collectors.toList()));
-			}
-		    }
-		}
-	    
-		if(!polygons.isEmpty()) {
-		    List<Float> vertices = new LinkedList<>();
-		
-		    for (List<Coord3f> polygon : polygons) {
-			addLoopedVertices(vertices, polygon);
-		    }
-		
-		    float[] data = convert(vertices);
-		    VertexArray.Buffer vbo = new VertexArray.Buffer(data.length * 4, DataBuffer.Usage.STATIC, DataBuffer.Filler.of(data));
-		    VertexArray va = new VertexArray(LAYOUT, vbo);
-		
-		    model = new Model(Model.Mode.LINES, va, null);
+    private static VertexPool.Range getModel(Gob gob) {
+	return MODEL_CACHE.get(getResource(gob), Hitbox::makeModel);
+    }
+    
+    private static VertexPool.Range makeModel(Resource res) {
+	List<List<Coord3f>> polygons = new ArrayList<>();
+	
+	Collection<Resource.Neg> negs = res.layers(Resource.Neg.class);
+	if(negs != null) {
+	    for (Resource.Neg neg : negs) {
+		List<Coord3f> box = new ArrayList<>(4);
+		box.add(new Coord3f(neg.ac.x, -neg.ac.y, Z));
+		box.add(new Coord3f(neg.bc.x, -neg.ac.y, Z));
+		box.add(new Coord3f(neg.bc.x, -neg.bc.y, Z));
+		box.add(new Coord3f(neg.ac.x, -neg.bc.y, Z));
 		
-		    MODEL_CACHE.put(res, model);
+		polygons.add(box);
+	    }
+	}
+	
+	Collection<Resource.Obstacle> obstacles = res.layers(Resource.Obstacle.class);
+	if(obstacles != null) {
+	    for (Resource.Obstacle obstacle : obstacles) {
+		if("build".equals(obstacle.id)) {continue;}
+		for (Coord2d[] polygon : obstacle.p) {
+		    polygons.add(Arrays.stream(polygon)
+			.map(coord2d -> new Coord3f((float) coord2d.x, (float) -coord2d.y, Z))
+			.collect(Collectors.toList()));
 		}
 	    }
 	}
-	return model;
-    }
-    
-    private static float[] convert(List<Float> list) {
-	float[] ret = new float[list.size()];
+	
+	if(polygons.isEmpty()) {return null;}
+	int n = 0;
+	for (List<Coord3f> polygon : polygons) {
+	    n += polygon.size() * 2;
+	}
+	float[] data = new float[n * 3];
 	int i = 0;
-	for (Float value : list) {
-	    ret[i++] = value;
+	for (List<Coord3f> polygon : polygons) {
+	    i = addLoopedVertices(data, i, polygon);
 	}
-	return ret;
+	
+	VertexPool.Range model = VertexPool.lines.range(Model.Mode.LINES);
+	model.set(data, n);
+	return model;
     }
     
-    private static void addLoopedVertices(List<Float> target, List<Coord3f> vertices) {
+    private static int addLoopedVertices(float[] target, int off, List<Coord3f> vertices) {
 	int n = vertices.size();
 	for (int i = 0; i < n; i++) {
 	    Coord3f a = vertices.get(i);
 	    Coord3f b = vertices.get((i + 1) % n);
-	    Collections.addAll(target, a.x, a.y, a.z);
-	    Collections.addAll(target, b.x, b.y, b.z);
+	    target[off++] = a.x; target[off++] = a.y; target[off++] = a.z;
+	    target[off++] = b.x; target[off++] = b.y; target[off++] = b.z;
 	}
+	return off;
     }
     
-    private static Resource getResource(Gob gob) {
+    static Resource getResource(Gob gob) {
 	Resource res = gob.getres();
 	if(res == null) {throw new Loading();}
 	Collection<RenderLink.Res> links = res.layers(RenderLink.Res.class);
@@ -30,6 +30,7 @@ public class ItemData {
 	}
 
     };
+    private static volatile int generation = 0;
     private Curiosity.Data curiosity;
     private FoodInfo.Data food;
     private Integer wear;
@@ -169,6 +170,13 @@ public class ItemData {
 	String name = pagina.res().name;
 	item_data.put(name, data);
 	store(name, data);
+	generation++;
+    }
+    
+    /* Changes whenever item data is learned from an item, so that
+     * results matched against older data can be told apart. */
+    public static int generation() {
+	return generation;
     }
 
     private static ItemData load(String name) {
@@ -31,8 +31,12 @@ import me.ender.Reflect;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.lang.ref.WeakReference;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
@@ -729,6 +733,7 @@ public abstract class ItemInfo {
 	private final R def;
 	private List<ItemInfo> forinfo = null;
 	private Supplier<R> save;
+	private Object key = null;
 
 	public AttrCache(Supplier<List<ItemInfo>> from, Function<List<ItemInfo>, Supplier<R>> data, R def) {
 	    this.from = from;
@@ -740,15 +745,26 @@ public abstract class ItemInfo {
 	    this(from, data, null);
 	}
 
+	/* Marks this attribute as depending only on the info list, so
+	 * that items sharing an interned list also share its value. */
+	public AttrCache<R> shared(Object key) {
+	    this.key = key;
+	    return(this);
+	}
+
 	public R get() {
 	    return get(def);
 	}
     
+	@SuppressWarnings("unchecked")
 	public R get(R def) {
 	    try {
 		List<ItemInfo> info = from.get();
 		if(info != forinfo) {
-		    save = data.apply(info);
+		    if((key != null) && (info instanceof InfoCache.Shared))
+			save = (Supplier<R>)((InfoCache.Shared)info).attr(key, data);
+		    else
+			save = data.apply(info);
 		    forinfo = info;
 		}
 		return(save.get());
@@ -784,6 +800,225 @@ public abstract class ItemInfo {
 	}
     }
 
+    /* Process-wide interning of built info lists, so that identical
+     * items (same resource, sprite data and raw info) share one
+     * parsed result and the attributes derived from it. Shared lists
+     * are built for a detached owner standing in for any such item,
+     * so that they keep no item alive. Infos that ask that owner for
+     * anything only a particular item can answer (such as the GItem
+     * itself) make their key personal, and items with it get their
+     * own lists as before. */
+    public static class InfoCache {
+	public static boolean enabled = true;
+	public static int max = 4096;
+	private static final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), personals = new AtomicLong(), buildtime = new AtomicLong();
+	private static final Map<Key, Shared> cache = new LinkedHashMap<Key, Shared>(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<Key, Shared> eldest) {
+		    return(size() > max);
+		}
+	    };
+
+	public static class Shared extends AbstractList<ItemInfo> implements RandomAccess {
+	    private final ItemInfo[] infos;
+	    private final Map<Object, Supplier<?>> attrs = new ConcurrentHashMap<>();
+
+	    private Shared(List<ItemInfo> infos) {
+		this.infos = infos.toArray(new ItemInfo[0]);
+	    }
+
+	    public ItemInfo get(int i) {return(infos[i]);}
+	    public int size() {return(infos.length);}
+
+	    /* Not computeIfAbsent, since attributes may recursively
+	     * request other attributes of the same list. */
+	    <R> Supplier<?> attr(Object key, Function<List<ItemInfo>, Supplier<R>> data) {
+		Supplier<?> ret = attrs.get(key);
+		if(ret == null) {
+		    ret = data.apply(this);
+		    Supplier<?> p = attrs.putIfAbsent(key, ret);
+		    if(p != null)
+			ret = p;
+		}
+		return(ret);
+	    }
+	}
+
+	/* Marks keys whose infos depend on their item. */
+	private static final Shared personal = new Shared(Collections.emptyList());
+
+	/* The resolver is the session, which the cache must not keep
+	 * alive past logout. */
+	private static class Key {
+	    final WeakReference<Resource.Resolver> rr;
+	    final Resource res;
+	    final byte[] sdt;
+	    final Object[] data;
+	    final int hash;
+
+	    Key(Resource.Resolver rr, Resource res, byte[] sdt, Object[] data) {
+		this.rr = new WeakReference<>(rr);
+		this.res = res;
+		this.sdt = sdt;
+		this.data = data;
+		this.hash = (((((System.identityHashCode(rr) * 31) + res.hashCode()) * 31) + Arrays.hashCode(sdt)) * 31) + Arrays.deepHashCode(data);
+	    }
+
+	    public int hashCode() {return(hash);}
+
+	    public boolean equals(Object o) {
+		if(!(o instanceof Key))
+		    return(false);
+		Key that = (Key)o;
+		Resource.Resolver rr = this.rr.get();
+		return((this.hash == that.hash) && (rr != null) && (rr == that.rr.get()) && (this.res == that.res) &&
+		       Arrays.equals(this.sdt, that.sdt) && Arrays.deepEquals(this.data, that.data));
+	    }
+	}
+
+	/* Stands in for every item of a key while its shared list is
+	 * built, and owns the infos of that list thereafter. */
+	public static class Detached implements SpriteOwner, GSprite.Owner {
+	    private static final OwnerContext.ClassResolver<Detached> ctxr = new OwnerContext.ClassResolver<Detached>()
+		.add(Resource.Resolver.class, d -> d.key.rr.get())
+		.add(Session.class, d -> (d.key.rr.get() instanceof Session) ? (Session)d.key.rr.get() : null)
+		.add(Glob.class, d -> (d.key.rr.get() instanceof Session) ? ((Session)d.key.rr.get()).glob : null);
+	    private final Key key;
+	    private List<ItemInfo> info = Collections.emptyList();
+	    private GSprite spr;
+	    private Random rnd;
+	    private boolean personal = false;
+
+	    private Detached(Key key) {
+		this.key = key;
+	    }
+
+	    public <T> T context(Class<T> cl) {
+		T ret = ctxr.context(cl, this, false);
+		if(ret == null) {
+		    personal = true;
+		    throw(new NoContext(cl));
+		}
+		return(ret);
+	    }
+
+	    public List<ItemInfo> info() {return(info);}
+	    public Resource resource() {return(key.res);}
+	    public Resource getres() {return(key.res);}
+
+	    public Random mkrandoom() {
+		if(rnd == null)
+		    rnd = new Random();
+		return(rnd);
+	    }
+
+	    public GSprite sprite() {
+		if(spr == null)
+		    spr = GSprite.create(this, key.res, new MessageBuf(key.sdt));
+		return(spr);
+	    }
+	}
+
+	/* Only raw data made up of plain values can be compared
+	 * meaningfully; anything else is built per item as before. */
+	private static boolean canonical(Object o) {
+	    if((o == null) || (o instanceof Number) || (o instanceof String) || (o instanceof Boolean) ||
+	       (o instanceof Resource) || (o instanceof Color) || (o instanceof byte[]) ||
+	       (o instanceof int[]) || (o instanceof float[]) || (o instanceof double[]))
+		return(true);
+	    if(o instanceof Object[]) {
+		for(Object e : (Object[])o) {
+		    if(!canonical(e))
+			return(false);
+		}
+		return(true);
+	    }
+	    return(false);
+	}
+
+	public static List<ItemInfo> get(Owner owner, Resource res, MessageBuf sdt, Raw raw, BiFunction<Owner, List<ItemInfo>, List<ItemInfo>> fin) {
+	    if(!enabled || !canonical(raw.data))
+		return(fin.apply(owner, build(owner, raw)));
+	    Key key = new Key(owner.context(Resource.Resolver.class), res, sdt.clone().bytes(), raw.data);
+	    Shared ret;
+	    synchronized(cache) {
+		ret = cache.get(key);
+	    }
+	    if(ret == personal) {
+		personals.incrementAndGet();
+		return(fin.apply(owner, build(owner, raw)));
+	    } else if(ret != null) {
+		hits.incrementAndGet();
+		return(ret);
+	    }
+	    misses.incrementAndGet();
+	    Detached det = new Detached(key);
+	    ret = new Shared(fin.apply(det, build(det, raw)));
+	    if(det.personal) {
+		synchronized(cache) {
+		    cache.put(key, personal);
+		}
+		return(fin.apply(owner, build(owner, raw)));
+	    }
+	    det.info = ret;
+	    synchronized(cache) {
+		Shared p = cache.putIfAbsent(key, ret);
+		if(p != null)
+		    ret = p;
+	    }
+	    return((ret == personal) ? fin.apply(owner, build(owner, raw)) : ret);
+	}
+
+	private static List<ItemInfo> build(Owner owner, Raw raw) {
+	    long st = System.nanoTime();
+	    try {
+		return(buildinfo(owner, raw));
+	    } finally {
+		buildtime.addAndGet(System.nanoTime() - st);
+	    }
+	}
+
+	public static void clear() {
+	    synchronized(cache) {
+		cache.clear();
+	    }
+	}
+
+	/* Drops the lists built for a closed session, as well as any
+	 * whose session is already gone. */
+	public static void clear(Resource.Resolver rr) {
+	    synchronized(cache) {
+		cache.keySet().removeIf(key -> {
+			Resource.Resolver krr = key.rr.get();
+			return((krr == null) || (krr == rr));
+		    });
+	    }
+	}
+
+	public static String stats() {
+	    int n;
+	    synchronized(cache) {
+		n = cache.size();
+	    }
+	    long h = hits.get(), m = misses.get();
+	    return(String.format("item info cache: %d entries, %d hits, %d misses (%.1f%%), %d personal, %.1f ms building",
+				 n, h, m, (h + m == 0) ? 0.0 : (h * 100.0) / (h + m), personals.get(), buildtime.get() * 1e-6));
+	}
+
+	static {
+	    Console.setscmd("infocache", new Console.Command() {
+		    public void run(Console cons, String[] args) {
+			if(args.length > 1) {
+			    if(args[1].equals("clear"))
+				clear();
+			    else
+				enabled = Utils.parsebool(args[1], enabled);
+			}
+			cons.out.println(stats());
+		    }
+		});
+	}
+    }
+
     public static interface InfoTip {
 	public List<ItemInfo> info();
     }
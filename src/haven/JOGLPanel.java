@@ -196,6 +196,8 @@ public class JOGLPanel extends GLCanvas implements GLPanel, Console.Directory {
 	boolean iswap = iswap();
 	if(main.gldebug)
 	    haven.render.gl.GLException.checkfor(gl, null);
+	if(gl instanceof haven.render.gl.GLRecorder.Recording)
+	    gl = ((haven.render.gl.GLRecorder.Recording)gl).back;
 	if(iswap != aswap)
 	    ((WrappedJOGL)gl).getGL().setSwapInterval((aswap = iswap) ? 1 : 0);
 	if(main.gldebug)
@@ -199,7 +199,9 @@ public class Loader {
 			now = Utils.rtime();
 		    }
 		}
+		long st = Trace.now();
 		item.run();
+		Trace.span("loader", item.task.getClass(), st);
 	    }
 	} catch(InterruptedException e) {
 	} finally {
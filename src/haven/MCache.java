@@ -54,8 +54,11 @@ public class MCache implements MapSource {
     Session sess;
     Set<Overlay> ols = new HashSet<Overlay>();
     public int olseq = 0, chseq = 0;
+    private volatile int zseq = 0;
+    private volatile HeightMap hmap = null;
     public long lastupdate = 0;
     Map<Integer, Defrag> fragbufs = new TreeMap<Integer, Defrag>();
+    final MapMesh.Cache meshes = new MapMesh.Cache(128, MapMesh.Cache.global());
 
     public static class LoadingMap extends Loading {
 	public final Coord gc;
@@ -280,6 +283,8 @@ public class MCache implements MapSource {
 	public boolean removed = false;
 	private int olseq = -1;
 	private final Cut cuts[];
+	/* Copy of z as of the last fill, shared by HeightMap snapshots. */
+	private float[] zsnap = null;
 
 	public abstract class Deferred<T> implements Disposable {
 	    private Defer.Future<T> def;
@@ -303,8 +308,8 @@ public class MCache implements MapSource {
 			    T prev = ret;
 			    update(ret = this.def.get());
 			    this.def = null;
-			    if((prev != null) && (prev instanceof Disposable))
-				((Disposable)prev).dispose();
+			    if(prev != null)
+				release(prev);
 			}
 		    }
 		}
@@ -315,6 +320,11 @@ public class MCache implements MapSource {
 		this.val = val;
 	    }
 
+	    protected void release(T val) {
+		if(val instanceof Disposable)
+		    ((Disposable)val).dispose();
+	    }
+
 	    public T cur() {
 		return(this.val);
 	    }
@@ -339,8 +349,7 @@ public class MCache implements MapSource {
 			this.def = null;
 		    }
 		    if(this.val != null) {
-			if(this.val instanceof Disposable)
-			    ((Disposable)this.val).dispose();
+			release(this.val);
 			this.val = null;
 		    }
 		}
@@ -364,12 +373,15 @@ public class MCache implements MapSource {
 			    Random rnd = new Random(id);
 			    rnd.setSeed(rnd.nextInt() ^ cc.x);
 			    rnd.setSeed(rnd.nextInt() ^ cc.y);
-			    return(MapMesh.build(MCache.this, rnd, ul.add(cc.mul(cutsz)), cutsz));
+			    return(meshes.get(MCache.this, id, rnd, ul.add(cc.mul(cutsz)), cutsz));
 			}
 			public void update(MapMesh mesh) {
 			    super.update(mesh);
 			    olseq = -1;
 			}
+			protected void release(MapMesh mesh) {
+			    meshes.release(mesh);
+			}
 			public String message() {
 			    return("Building map...");
 			}
@@ -784,6 +796,7 @@ public class MCache implements MapSource {
 	    } else {
 		throw(new RuntimeException("Unknown map data version " + ver));
 	    }
+	    zsnap = z.clone();
 	    invalidate();
 	    seq++;
 	}
@@ -803,9 +816,131 @@ public class MCache implements MapSource {
     private void resetMap(CFG<Boolean> cfg) {
 	synchronized (MCache.this) {
 	    trimall();
+	    meshes.clear();
 	}
     }
 
+    /* Immutable snapshot of the height fields of the loaded grids,
+     * for callers sampling terrain height many times per update. It
+     * is read without locks or allocation; points outside the loaded
+     * grids fall back to getfz2, and so request the grid and throw
+     * LoadingMap as usual. */
+    public class HeightMap {
+	public final int seq;
+	public final boolean flat;
+	private final int gx, gy, gw, gh;
+	private final float[][] z;
+
+	private HeightMap(int seq, boolean flat, Collection<Grid> grids) {
+	    this.seq = seq;
+	    this.flat = flat;
+	    int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE, x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
+	    for(Grid g : grids) {
+		x0 = Math.min(x0, g.gc.x); y0 = Math.min(y0, g.gc.y);
+		x1 = Math.max(x1, g.gc.x); y1 = Math.max(y1, g.gc.y);
+	    }
+	    if(grids.isEmpty()) {
+		gx = gy = gw = gh = 0;
+		z = new float[0][];
+	    } else {
+		gx = x0; gy = y0; gw = x1 - x0 + 1; gh = y1 - y0 + 1;
+		z = new float[gw * gh][];
+		for(Grid g : grids)
+		    z[(g.gc.x - gx) + ((g.gc.y - gy) * gw)] = g.zsnap;
+	    }
+	}
+
+	private float[] zgrid(int x, int y) {
+	    x -= gx; y -= gy;
+	    if((x < 0) || (y < 0) || (x >= gw) || (y >= gh))
+		return(null);
+	    return(z[x + (y * gw)]);
+	}
+
+	public double getfz(int tx, int ty) {
+	    if(flat)
+		return(0);
+	    int gx = Math.floorDiv(tx, cmaps.x), gy = Math.floorDiv(ty, cmaps.y);
+	    float[] z = zgrid(gx, gy);
+	    if(z == null)
+		return(getfz2(Coord.of(tx, ty)));
+	    return(z[(tx - (gx * cmaps.x)) + ((ty - (gy * cmaps.y)) * cmaps.x)]);
+	}
+
+	public double getfz(Coord tc) {
+	    return(getfz(tc.x, tc.y));
+	}
+
+	/* Bilinear height at a point in world coordinates, as getcz. */
+	public double getcz(double px, double py) {
+	    if(flat)
+		return(0);
+	    double tw = tilesz.x, th = tilesz.y;
+	    int tx = Utils.floordiv(px, tw), ty = Utils.floordiv(py, th);
+	    double sx = (px - (tx * tw)) / tw;
+	    double sy = (py - (ty * th)) / th;
+	    int gx = Math.floorDiv(tx, cmaps.x), gy = Math.floorDiv(ty, cmaps.y);
+	    int ox = tx - (gx * cmaps.x), oy = ty - (gy * cmaps.y);
+	    float[] z = zgrid(gx, gy);
+	    double z00, z10, z01, z11;
+	    if((z != null) && (ox < cmaps.x - 1) && (oy < cmaps.y - 1)) {
+		int i = ox + (oy * cmaps.x);
+		z00 = z[i]; z10 = z[i + 1];
+		z01 = z[i + cmaps.x]; z11 = z[i + cmaps.x + 1];
+	    } else {
+		z00 = getfz(tx, ty); z10 = getfz(tx + 1, ty);
+		z01 = getfz(tx, ty + 1); z11 = getfz(tx + 1, ty + 1);
+	    }
+	    return(((1.0 - sy) * (((1.0 - sx) * z00) + (sx * z10))) +
+		   (sy * (((1.0 - sx) * z01) + (sx * z11))));
+	}
+
+	public double getcz(Coord2d pc) {
+	    return(getcz(pc.x, pc.y));
+	}
+
+	/* Samples n points given as interleaved x, y pairs in xy from
+	 * off, storing the heights into dst from doff. */
+	public void getcz(double[] xy, int off, float[] dst, int doff, int n) {
+	    for(int i = 0; i < n; i++, off += 2)
+		dst[doff + i] = (float)getcz(xy[off], xy[off + 1]);
+	}
+
+	public void getcz(float[] xy, int off, float[] dst, int doff, int n) {
+	    for(int i = 0; i < n; i++, off += 2)
+		dst[doff + i] = (float)getcz(xy[off], xy[off + 1]);
+	}
+
+	/* Stores the tile corner heights of an area, row by row, into
+	 * dst. */
+	public void getfz(Area a, float[] dst) {
+	    int i = 0;
+	    for(int y = a.ul.y; y < a.br.y; y++) {
+		for(int x = a.ul.x; x < a.br.x; x++)
+		    dst[i++] = (float)getfz(x, y);
+	    }
+	}
+    }
+
+    /* Returns a height snapshot that is current as of the call; it is
+     * rebuilt only after grids have been filled or dropped. */
+    public HeightMap heightmap() {
+	HeightMap ret = hmap;
+	int seq = zseq;
+	if((ret != null) && (ret.seq == seq))
+	    return(ret);
+	synchronized(grids) {
+	    seq = zseq;
+	    Collection<Grid> loaded = new ArrayList<>();
+	    for(Grid g : grids.values()) {
+		if(g.zsnap != null)
+		    loaded.add(g);
+	    }
+	    hmap = ret = new HeightMap(seq, CFG.FLAT_TERRAIN.get(), loaded);
+	}
+	return(ret);
+    }
+
     public void ctick(double dt) {
 	Collection<Grid> copy;
 	synchronized(grids) {
@@ -878,7 +1013,7 @@ public class MCache implements MapSource {
     }
 
     public double getfz(Coord tc) {
-	return CFG.FLAT_TERRAIN.get() ? 0 : getfz2(tc);
+	return(heightmap().getfz(tc.x, tc.y));
     }
     
     public double getfz2(Coord tc) {
@@ -887,12 +1022,7 @@ public class MCache implements MapSource {
     }
 
     public double getcz(double px, double py) {
-	double tw = tilesz.x, th = tilesz.y;
-	Coord ul = Coord.of(Utils.floordiv(px, tw), Utils.floordiv(py, th));
-	double sx = (px - (ul.x * tw)) / tw;
-	double sy = (py - (ul.y * th)) / th;
-	return(((1.0f - sy) * (((1.0f - sx) * getfz(ul)) + (sx * getfz(ul.add(1, 0))))) +
-	       (sy * (((1.0f - sx) * getfz(ul.add(0, 1))) + (sx * getfz(ul.add(1, 1))))));
+	return(heightmap().getcz(px, py));
     }
 
     public double getcz(Coord2d pc) {
@@ -1022,6 +1152,7 @@ public class MCache implements MapSource {
 		    if(g == null)
 			grids.put(c, g = new Grid(c));
 		    g.fill(msg);
+		    zseq++;
 		    req.remove(c);
 		    olseq++;
 		    chseq++;
@@ -1047,7 +1178,13 @@ public class MCache implements MapSource {
 		fragbuf = new Defrag(len);
 		fragbufs.put(pktid, fragbuf);
 	    }
-	    fragbuf.add(msg.bytes(), off);
+	    if(msg instanceof MessageBuf) {
+		int flen = msg.rt - msg.rh;
+		fragbuf.add(msg.rbuf, msg.rh, flen, off);
+		msg.rh += flen;
+	    } else {
+		fragbuf.add(msg.bytes(), off);
+	    }
 	    fragbuf.last = now;
 	    if(fragbuf.done()) {
 		mapdata2(fragbuf.msg());
@@ -1119,6 +1256,7 @@ public class MCache implements MapSource {
 		for(Grid g : grids.values())
 		    g.dispose();
 		grids.clear();
+		zseq++;
 		req.clear();
 		MapDumper.newSession();
 	    }
@@ -1136,6 +1274,7 @@ public class MCache implements MapSource {
 		    if((gc.x < ul.x) || (gc.y < ul.y) || (gc.x > lr.x) || (gc.y > lr.y)) {
 			g.dispose();
 			i.remove();
+			zseq++;
 		    }
 		}
 		for(Iterator<Coord> i = req.keySet().iterator(); i.hasNext();) {
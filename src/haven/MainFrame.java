@@ -339,18 +339,12 @@ public class MainFrame extends java.awt.Frame implements Console.Directory {
     }
     
     public static final Config.Variable<Boolean> nopreload = Config.Variable.propb("haven.nopreload", false);
+    public static final Config.Variable<Boolean> nohistload = Config.Variable.propb("haven.nohistload", false);
     public static void setupres() {
 	if(ResCache.global != null)
 	    Resource.setcache(ResCache.global);
 	if(Resource.resurl.get() != null)
 	    Resource.addurl(Resource.resurl.get());
-	if(ResCache.global != null) {
-	    /*
-	    try {
-		Resource.loadlist(Resource.remote(), ResCache.global.fetch("tmp/allused"), -10);
-	    } catch(IOException e) {}
-	    */
-	}
 	if(!nopreload.get()) {
 	    try {
 		InputStream pls;
@@ -364,6 +358,14 @@ public class MainFrame extends java.awt.Frame implements Console.Directory {
 		throw(new Error(e));
 	    }
 	}
+	if((ResCache.global != null) && !nohistload.get()) {
+	    /* Resources used in the previous session, as saved by
+	     * resdump(), are fetched in the background behind
+	     * everything else. */
+	    try {
+		Resource.loadlist(Resource.remote(), ResCache.global.fetch("tmp/allused"), -10);
+	    } catch(IOException e) {}
+	}
     }
 
     public static final Config.Variable<Path> loadwaited = Config.Variable.propp("haven.loadwaited", "");
@@ -219,7 +219,8 @@ public class MapFile {
     private Thread processor = null;
     private final Collection<Pair<MCache, Collection<MCache.Grid>>> updqueue = new HashSet<>();
     private final Collection<Segment> dirty = new HashSet<>();
-    private boolean gdirty = false;
+    private final Map<Segment, Collection<Coord>> zdirty = new LinkedHashMap<>();
+    private boolean gdirty = false, procbusy = false;
     private class Processor extends HackThread {
 	Processor() {
 	    super("Mapfile processor");
@@ -239,6 +240,9 @@ public class MapFile {
 			} else if(!dirty.isEmpty()) {
 			    Segment seg = Utils.take(dirty);
 			    task = locked(() -> segments.put(seg.id, seg), lock.writeLock());
+			} else if(!zdirty.isEmpty()) {
+			    Map.Entry<Segment, Collection<Coord>> ent = Utils.take(zdirty.entrySet());
+			    task = () -> updzoom(ent.getKey(), ent.getValue());
 			} else if(gdirty) {
 			    task = locked(MapFile.this::save, lock.readLock());
 			    gdirty = false;
@@ -250,18 +254,39 @@ public class MapFile {
 			    procmon.wait(5000);
 			    continue;
 			}
+			procbusy = true;
+		    }
+		    try {
+			task.run();
+		    } finally {
+			synchronized(procmon) {
+			    procbusy = false;
+			    procmon.notifyAll();
+			}
 		    }
-		    task.run();
 		    last = now;
 		}
 	    } catch(InterruptedException e) {
 	    } finally {
 		synchronized(procmon) {
 		    processor = null;
+		    procmon.notifyAll();
 		}
 	    }
 	}
     }
+
+    /* Waits until all queued updates, zoom propagation and index
+     * saves have been processed. */
+    public void sync() throws InterruptedException {
+	synchronized(procmon) {
+	    while(procbusy || !updqueue.isEmpty() || !dirty.isEmpty() || !zdirty.isEmpty() || gdirty) {
+		if(processor == null)
+		    process();
+		procmon.wait();
+	    }
+	}
+    }
     private void process() {
 	synchronized(procmon) {
 	    if(processor == null) {
@@ -273,6 +298,241 @@ public class MapFile {
 	}
     }
 
+    /* Grids are written behind the map lock by a separate thread, so
+     * that minimap rendering and marker edits need not wait for disk
+     * I/O. Queued grids are coalesced by ID, and loads consult the
+     * queue before going to the store. */
+    public static final int WRITEQ_MAX = 256;
+    private static final Collection<MapFile> unflushed = new HashSet<>();
+    private static boolean flushhook = false;
+    private final Object wmon = new Object();
+    private final Map<Long, Grid> wqueue = new LinkedHashMap<>();
+    private final Map<Long, Grid> writing = new HashMap<>();
+    private Thread writer = null;
+    private int wqmax = 0;
+    private long nupdates = 0, locktime = 0, lockmax = 0;
+
+    private class Writer extends HackThread {
+	Writer() {
+	    super("Mapfile writer");
+	    setDaemon(true);
+	}
+
+	public void run() {
+	    try {
+		long last = System.currentTimeMillis();
+		while(true) {
+		    Grid g;
+		    long now = System.currentTimeMillis();
+		    synchronized(wmon) {
+			if(wqueue.isEmpty()) {
+			    if(now - last > 10000) {
+				writer = null;
+				return;
+			    }
+			    wmon.wait(5000);
+			    continue;
+			}
+			g = Utils.take(wqueue.values());
+			writing.put(g.id, g);
+		    }
+		    write(g);
+		    last = now;
+		}
+	    } catch(InterruptedException e) {
+	    } finally {
+		synchronized(wmon) {
+		    writer = null;
+		}
+	    }
+	}
+    }
+
+    private void write(Grid g) {
+	long st = Trace.now();
+	try {
+	    g.save(this);
+	} catch(RuntimeException e) {
+	    warn(e, "error when saving grid %x: %s", g.id, e);
+	} finally {
+	    Trace.span("mapfile.write", st);
+	    synchronized(wmon) {
+		writing.remove(g.id, g);
+		if(wqueue.isEmpty() && writing.isEmpty()) {
+		    synchronized(unflushed) {
+			unflushed.remove(this);
+		    }
+		}
+		wmon.notifyAll();
+	    }
+	}
+    }
+
+    private Grid pending(long id) {
+	synchronized(wmon) {
+	    Grid ret = wqueue.get(id);
+	    if(ret == null)
+		ret = writing.get(id);
+	    return(ret);
+	}
+    }
+
+    /* Queues the grid for saving without waiting, so that it may be
+     * done while still holding the map lock. Grids must be queued
+     * before anything else may see them in their segment, or else
+     * Grid.load could find the previous version in the store. */
+    private void enqueue(Grid g) {
+	synchronized(wmon) {
+	    wqueue.put(g.id, g);
+	    wqmax = Math.max(wqmax, wqueue.size());
+	    if(writer == null) {
+		Thread nw = new Writer();
+		nw.start();
+		writer = nw;
+	    }
+	    wmon.notifyAll();
+	}
+	synchronized(unflushed) {
+	    unflushed.add(this);
+	    if(!flushhook) {
+		Runtime.getRuntime().addShutdownHook(new HackThread(MapFile::flushall, "Mapfile flusher"));
+		flushhook = true;
+	    }
+	}
+    }
+
+    /* Bounded queue; producers off the map lock simply wait for the
+     * writer to catch up. */
+    private void throttle() {
+	synchronized(wmon) {
+	    while((wqueue.size() > WRITEQ_MAX) && (writer != null)) {
+		try {
+		    wmon.wait();
+		} catch(InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    break;
+		}
+	    }
+	}
+    }
+
+    public void flush() {
+	while(true) {
+	    Grid g;
+	    synchronized(wmon) {
+		if(wqueue.isEmpty())
+		    break;
+		g = Utils.take(wqueue.values());
+		writing.put(g.id, g);
+	    }
+	    write(g);
+	}
+	synchronized(wmon) {
+	    while(!writing.isEmpty()) {
+		try {
+		    wmon.wait();
+		} catch(InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    return;
+		}
+	    }
+	}
+    }
+
+    private static void flushall() {
+	Collection<MapFile> files;
+	synchronized(unflushed) {
+	    files = new ArrayList<>(unflushed);
+	}
+	for(MapFile file : files)
+	    file.flush();
+    }
+
+    public String stats() {
+	synchronized(wmon) {
+	    return(String.format("updates: %d, lock held: %.3f ms avg, %.3f ms max, write queue: %d (%d writing, %d max)",
+				 nupdates, (nupdates == 0) ? 0.0 : (locktime * 1e-6 / nupdates), lockmax * 1e-6,
+				 wqueue.size(), writing.size(), wqmax));
+	}
+    }
+
+    private void zoomdirty(Segment seg, Coord sc) {
+	synchronized(procmon) {
+	    zdirty.computeIfAbsent(seg, k -> new HashSet<>()).add(sc);
+	    process();
+	}
+    }
+
+    /* Propagates changed grids up the zoom pyramid, updating only
+     * the affected quadrant of each existing ancestor. Ancestors not
+     * yet built are left to be built lazily from their children. */
+    private void updzoom(Segment seg, Collection<Coord> changed) {
+	Map<Coord, Long> ids = new HashMap<>();
+	lock.readLock().lock();
+	try {
+	    for(Coord sc : changed)
+		ids.put(sc, seg.map.get(sc));
+	} finally {
+	    lock.readLock().unlock();
+	}
+	int top = -1;
+	Map<Coord, DataGrid> lower = new HashMap<>();
+	for(Map.Entry<Coord, Long> ent : ids.entrySet())
+	    lower.put(ent.getKey(), (ent.getValue() == null) ? null : Grid.load(this, ent.getValue()));
+	for(int lvl = 1; !lower.isEmpty(); lvl++) {
+	    int m = ~((1 << lvl) - 1);
+	    Map<Coord, Collection<Coord>> byparent = new HashMap<>();
+	    for(Coord sc : lower.keySet())
+		byparent.computeIfAbsent(Coord.of(sc.x & m, sc.y & m), k -> new ArrayList<>()).add(sc);
+	    Map<Coord, DataGrid> upper = new HashMap<>();
+	    for(Map.Entry<Coord, Collection<Coord>> ent : byparent.entrySet()) {
+		Coord pc = ent.getKey();
+		ZoomGrid zg = ZoomGrid.load(this, seg.id, lvl, pc);
+		if(zg == null) {
+		    /* Ancestors above a gap may still have been built
+		     * before there was anything beneath it, so make sure
+		     * none of them survive, neither stored nor cached,
+		     * as far as the map can be zoomed out. */
+		    if(top < 0)
+			top = ztop(seg);
+		    for(int l = lvl; l <= top; l++) {
+			int lm = ~((1 << l) - 1);
+			Coord ac = Coord.of(pc.x & lm, pc.y & lm);
+			if(l > lvl)
+			    ZoomGrid.inval1(this, seg.id, l, ac);
+			seg.zreload(new ZoomCoord(l, ac));
+		    }
+		    continue;
+		}
+		for(Coord sc : ent.getValue()) {
+		    int q = (((sc.x >> (lvl - 1)) & 1) != 0 ? 1 : 0) + (((sc.y >> (lvl - 1)) & 1) != 0 ? 2 : 0);
+		    zg = zg.update(q, lower.get(sc));
+		}
+		zg.save(this);
+		seg.zreload(new ZoomCoord(lvl, pc));
+		upper.put(pc, zg);
+	    }
+	    lower = upper;
+	}
+    }
+
+    /* The level at which a single zoomed grid covers the whole
+     * segment, one above which the map cannot be zoomed out. */
+    private int ztop(Segment seg) {
+	int ext = 0;
+	lock.readLock().lock();
+	try {
+	    for(Coord sc : seg.map.keySet())
+		ext = Math.max(ext, Math.max(Math.abs(sc.x), Math.abs(sc.y)));
+	} finally {
+	    lock.readLock().unlock();
+	}
+	int top = 1;
+	while((1 << top) <= ext)
+	    top++;
+	return(top + 1);
+    }
+
     public abstract static class MarkerOld {
 	public long seg;
 	public Coord tc;
@@ -804,6 +1064,9 @@ public class MapFile {
 	}
 
 	public static Grid load(MapFile file, long id) {
+	    Grid pending = file.pending(id);
+	    if(pending != null)
+		return(pending);
 	    InputStream fp;
 	    try {
 		fp = file.sfetch("grid-%x", id);
@@ -837,6 +1100,31 @@ public class MapFile {
 		return(null);
 	    }
 	}
+
+	/* Reads a stored grid only as far as its modification time,
+	 * which is Long.MIN_VALUE for missing grids, and Long.MAX_VALUE
+	 * for those that cannot tell without being loaded. */
+	public static long mtime(MapFile file, long id) {
+	    Grid pending = file.pending(id);
+	    if(pending != null)
+		return(pending.mtime);
+	    InputStream fp;
+	    try {
+		fp = file.sfetch("grid-%x", id);
+	    } catch(IOException e) {
+		return(Long.MIN_VALUE);
+	    }
+	    try(StreamMessage data = new StreamMessage(fp)) {
+		int ver = data.uint8();
+		if((ver < 2) || (ver > 5))
+		    return(Long.MAX_VALUE);
+		ZMessage z = new ZMessage(data);
+		z.int64();
+		return(z.int64());
+	    } catch(Message.BinError e) {
+		return(Long.MAX_VALUE);
+	    }
+	}
     }
 
     public static class ZoomGrid extends DataGrid {
@@ -869,6 +1157,103 @@ public class MapFile {
 	    }
 	}
 
+	/* Interned tileset table for the zoomed grid being built,
+	 * keyed by tileset name. */
+	private static class TileTable {
+	    final Map<String, Integer> idx = new HashMap<>();
+	    TileInfo[] infos;
+	    int n = 0;
+
+	    TileTable(TileInfo[] init) {
+		infos = Arrays.copyOf(init, Math.max(init.length, 16));
+		for(n = 0; n < init.length; n++)
+		    idx.put(init[n].res.name, n);
+	    }
+
+	    int intern(Resource.Spec set) {
+		Integer i = idx.get(set.name);
+		if(i == null) {
+		    if(n >= infos.length)
+			infos = Arrays.copyOf(infos, infos.length * 2);
+		    infos[n] = new TileInfo(set, n);
+		    idx.put(set.name, i = n++);
+		} else if(set.ver > infos[i].res.ver) {
+		    infos[i] = new TileInfo(set, infos[i].prio);
+		}
+		return(i);
+	    }
+
+	    int[] map(DataGrid cg) {
+		int[] ret = new int[cg.tilesets.length];
+		for(int i = 0; i < ret.length; i++)
+		    ret[i] = intern(cg.tilesets[i].res);
+		return(ret);
+	    }
+
+	    /* Drops tilesets no longer referenced, renumbering tiles
+	     * in place. */
+	    TileInfo[] fin(int[] tiles) {
+		boolean[] used = new boolean[n];
+		for(int t : tiles)
+		    used[t] = true;
+		int[] rmap = new int[n];
+		int nn = 0;
+		for(int i = 0; i < n; i++)
+		    rmap[i] = used[i] ? nn++ : -1;
+		if(nn == n)
+		    return(Arrays.copyOf(infos, n));
+		TileInfo[] ret = new TileInfo[nn];
+		for(int i = 0; i < n; i++) {
+		    if(used[i])
+			ret[rmap[i]] = new TileInfo(infos[i].res, rmap[i]);
+		}
+		for(int i = 0; i < tiles.length; i++)
+		    tiles[i] = rmap[tiles[i]];
+		return(ret);
+	    }
+	}
+
+	/* Downsamples a lower grid into quadrant q of the given
+	 * arrays. */
+	private static void quadrant(int[] tiles, float[] zmap, int q, DataGrid cg, int[] tmap) {
+	    int w = cmaps.x;
+	    int off = ((q % 2) * (cmaps.x / 2)) + ((q / 2) * (cmaps.y / 2) * w);
+	    int[] tc = new int[4];
+	    byte[] tcn = new byte[4];
+	    int[] ctiles = cg.tiles;
+	    float[] czmap = cg.zmap;
+	    for(int y = 0; y < cmaps.y / 2; y++) {
+		for(int x = 0; x < cmaps.x / 2; x++) {
+		    int si = (x * 2) + (y * 2 * w);
+		    int nd = 0;
+		    float minz = Float.POSITIVE_INFINITY;
+		    for(int s = 0; s < 4; s++) {
+			int sti = si + (s % 2) + ((s / 2) * w);
+			int st = tmap[ctiles[sti]];
+			minz = Math.min(minz, czmap[sti]);
+			st: {
+			    for(int i = 0; i < nd; i++) {
+				if(tc[i] == st) {
+				    tcn[i]++;
+				    break st;
+				}
+			    }
+			    tc[nd] = st;
+			    tcn[nd] = 1;
+			    nd++;
+			}
+		    }
+		    int mi = 0;
+		    for(int i = 1; i < nd; i++) {
+			if(tcn[i] > tcn[mi])
+			    mi = i;
+		    }
+		    tiles[off + x + (y * w)] = tc[mi];
+		    zmap[off + x + (y * w)] = minz;
+		}
+	    }
+	}
+
 	public static ZoomGrid from(MapFile file, Segment seg, int lvl, Coord sc) {
 	    if((lvl < 1) || ((sc.x & ((1 << lvl) - 1)) != 0) || ((sc.y & ((1 << lvl) - 1)) != 0))
 		throw(new IllegalArgumentException(String.format("%s %s", sc, lvl)));
@@ -891,120 +1276,78 @@ public class MapFile {
 	    /* XXX: This is hardly "correct", but the correct
 	     * implementation would require a topological sort, and
 	     * it's not like it really matters that much. */
-	    int nt = 0;
-	    TileInfo[] infos;
-	    Map<String, Integer> rinfos;
-	    {
-		Resource.Pool pool = null;
-		String[] sets = new String[16];
-		Set<String> hassets = new HashSet<>();
-		Map<String, Integer> vers = new HashMap<>();
-		for(int i = 0; i < 4; i++) {
-		    if(lower[i] == null)
-			continue;
-		    for(int tn = 0; tn < lower[i].tilesets.length; tn++) {
-			Resource.Spec set = lower[i].tilesets[tn].res;
-			if(pool == null)
-			    pool = set.pool;
-			vers.put(set.name, Math.max(vers.getOrDefault(set.name, 0), set.ver));
-			if(!hassets.contains(set.name)) {
-			    while(nt >= sets.length)
-				sets = Utils.extend(sets, sets.length * 2);
-			    sets[nt++] = set.name;
-			    hassets.add(set.name);
-			}
-		    }
-		}
-		infos = new TileInfo[nt];
-		rinfos = new HashMap<>();
-		for(int i = 0; i < nt; i++) {
-		    infos[i] = new TileInfo(new Resource.Spec(pool, sets[i], vers.get(sets[i])), i);
-		    rinfos.put(sets[i], i);
-		}
-	    }
-
+	    TileTable tt = new TileTable(new TileInfo[0]);
+	    int[][] tmaps = new int[4][];
+	    for(int i = 0; i < 4; i++)
+		tmaps[i] = tt.map(lower[i]);
 	    int[] tiles = new int[cmaps.x * cmaps.y];
 	    float[] zmap = new float[cmaps.x * cmaps.y];
-	    for(int gn = 0; gn < 4; gn++) {
-		int gx = gn % 2, gy = gn / 2;
-		DataGrid cg = lower[gn];
-		if(cg == null)
-		    continue;
-		int[] tmap = new int[cg.tilesets.length];
-		Arrays.fill(tmap, (byte)-1);
-		for(int i = 0; i < cg.tilesets.length; i++)
-		    tmap[i] = rinfos.get(cg.tilesets[i].res.name);
-		Coord off = cmaps.div(2).mul(gx, gy);
-		int[] tc = new int[4];
-		byte[] tcn = new byte[4];
-		for(int y = 0; y < cmaps.y / 2; y++) {
-		    for(int x = 0; x < cmaps.x / 2; x++) {
-			int nd = 0;
-			float minz = Float.POSITIVE_INFINITY;
-			for(int sy = 0; sy < 2; sy++) {
-			    for(int sx = 0; sx < 2; sx++) {
-				Coord sgc = new Coord((x * 2) + sx, (y * 2) + sy);
-				int st = tmap[cg.gettile(sgc)];
-				minz = Math.min(minz, (float)cg.getfz(sgc));
-				st: {
-				    for(int i = 0; i < nd; i++) {
-					if(tc[i] == st) {
-					    tcn[i]++;
-					    break st;
-					}
-				    }
-				    tc[nd] = st;
-				    tcn[nd] = 1;
-				    nd++;
-				}
-			    }
-			}
-			int mi = 0;
-			for(int i = 1; i < nd; i++) {
-			    if(tcn[i] > tcn[mi])
-				mi = i;
-			}
-			tiles[(x + off.x) + ((y + off.y) * cmaps.x)] = tc[mi];
-			zmap[(x + off.x) + ((y + off.y) * cmaps.x)] = minz;
-		    }
-		}
-	    }
-	    ZoomGrid ret = new ZoomGrid(seg.id, lvl, sc, infos, tiles, zmap, maxmtime);
-	    zoomols(ret.ols, lower);
+	    for(int q = 0; q < 4; q++)
+		quadrant(tiles, zmap, q, lower[q], tmaps[q]);
+	    ZoomGrid ret = new ZoomGrid(seg.id, lvl, sc, tt.fin(tiles), tiles, zmap, maxmtime);
+	    for(int q = 0; q < 4; q++)
+		zoomols(ret.ols, q, lower[q]);
 	    ret.save(file);
 	    return(ret);
 	}
 
-	private static void zoomols(Collection<Overlay> buf, DataGrid[] lower) {
-	    for(int gn = 0; gn < 4; gn++) {
-		int gx = gn % 2, gy = gn / 2;
-		DataGrid cg = lower[gn];
-		if(cg == null)
-		    continue;
-		Coord off = cmaps.div(2).mul(gx, gy);
-		for(Overlay ol : cg.ols) {
-		    Overlay zol = null;
-		    for(Overlay pol : buf) {
-			if(pol.olid.name.equals(ol.olid.name)) {
-			    zol = pol;
-			    break;
-			}
+	/* Replaces one quadrant of this grid with a new version of
+	 * the corresponding lower grid, leaving the other three as
+	 * they are. */
+	public ZoomGrid update(int q, DataGrid cg) {
+	    if(cg == null)
+		cg = DataGrid.nogrid;
+	    TileTable tt = new TileTable(tilesets);
+	    int[] tmap = tt.map(cg);
+	    int[] tiles = Arrays.copyOf(this.tiles, this.tiles.length);
+	    float[] zmap = Arrays.copyOf(this.zmap, this.zmap.length);
+	    quadrant(tiles, zmap, q, cg, tmap);
+	    ZoomGrid ret = new ZoomGrid(seg, lvl, sc, tt.fin(tiles), tiles, zmap, Math.max(mtime, cg.mtime));
+	    for(Overlay ol : this.ols)
+		ret.ols.add(new Overlay(ol.olid, Arrays.copyOf(ol.ol, ol.ol.length)));
+	    zoomols(ret.ols, q, cg);
+	    return(ret);
+	}
+
+	private static void zoomols(Collection<Overlay> buf, int q, DataGrid cg) {
+	    int w = cmaps.x;
+	    int off = ((q % 2) * (cmaps.x / 2)) + ((q / 2) * (cmaps.y / 2) * w);
+	    for(Iterator<Overlay> i = buf.iterator(); i.hasNext();) {
+		boolean[] zol = i.next().ol;
+		boolean any = false;
+		for(int y = 0; y < cmaps.y / 2; y++) {
+		    for(int x = 0; x < cmaps.x / 2; x++)
+			zol[off + x + (y * w)] = false;
+		}
+		for(boolean b : zol) {
+		    if(b) {
+			any = true;
+			break;
 		    }
-		    for(int y = 0; y < cmaps.y / 2; y++) {
-			for(int x = 0; x < cmaps.x / 2; x++) {
-			    int n = 0;
-			    for(int sy = 0; sy < 2; sy++) {
-				for(int sx = 0; sx < 2; sx++) {
-				    Coord sgc = new Coord((x * 2) + sx, (y * 2) + sy);
-				    if(ol.get(sgc))
-					n++;
-				}
-			    }
-			    if(n >= 2) {
-				if(zol == null)
-				    buf.add(zol = new Overlay(ol.olid, new boolean[cmaps.x * cmaps.y]));
-				zol.ol[(x + off.x) + ((y + off.y) * cmaps.x)] = true;
-			    }
+		}
+		if(!any)
+		    i.remove();
+	    }
+	    for(Overlay ol : cg.ols) {
+		Overlay zol = null;
+		for(Overlay pol : buf) {
+		    if(pol.olid.name.equals(ol.olid.name)) {
+			zol = pol;
+			break;
+		    }
+		}
+		for(int y = 0; y < cmaps.y / 2; y++) {
+		    for(int x = 0; x < cmaps.x / 2; x++) {
+			int si = (x * 2) + (y * 2 * w);
+			int n = 0;
+			if(ol.ol[si]) n++;
+			if(ol.ol[si + 1]) n++;
+			if(ol.ol[si + w]) n++;
+			if(ol.ol[si + w + 1]) n++;
+			if(n >= 2) {
+			    if(zol == null)
+				buf.add(zol = new Overlay(ol.olid, new boolean[cmaps.x * cmaps.y]));
+			    zol.ol[off + x + (y * w)] = true;
 			}
 		    }
 		}
@@ -1083,23 +1426,34 @@ public class MapFile {
 	}
 
 	public static int inval(MapFile file, long seg, Coord sc) {
-	    for(int lvl = 1; true; lvl++) {
+	    return(inval(file, seg, sc, 1));
+	}
+
+	public static int inval(MapFile file, long seg, Coord sc, int from) {
+	    for(int lvl = from; true; lvl++) {
 		sc = new Coord(sc.x & ~((1 << lvl) - 1), sc.y & ~((1 << lvl) - 1));
-		try {
-		    file.sfetch("zgrid-%x-%d-%d-%d", seg, lvl, sc.x, sc.y).close();
-		} catch(FileNotFoundException e) {
+		if(!inval1(file, seg, lvl, sc))
 		    return(lvl - 1);
-		} catch(IOException e) {
-		    warn(e, "error when invalidating zoomgrid (%d, %d) in %x@%d: %s", sc.x, sc.y, seg, lvl, e);
-		    return(lvl - 1);
-		}
-		try {
-		    file.sstore("zgrid-%x-%d-%d-%d", seg, lvl, sc.x, sc.y).close();
-		} catch(IOException e) {
-		    throw(new StreamMessage.IOError(e));
-		}
 	    }
 	}
+
+	/* Empties the stored zoomed grid, if there is one. */
+	public static boolean inval1(MapFile file, long seg, int lvl, Coord sc) {
+	    try {
+		file.sfetch("zgrid-%x-%d-%d-%d", seg, lvl, sc.x, sc.y).close();
+	    } catch(FileNotFoundException e) {
+		return(false);
+	    } catch(IOException e) {
+		warn(e, "error when invalidating zoomgrid (%d, %d) in %x@%d: %s", sc.x, sc.y, seg, lvl, e);
+		return(false);
+	    }
+	    try {
+		file.sstore("zgrid-%x-%d-%d-%d", seg, lvl, sc.x, sc.y).close();
+	    } catch(IOException e) {
+		throw(new StreamMessage.IOError(e));
+	    }
+	    return(true);
+	}
     }
 
     public static class ZoomCoord {
@@ -1248,21 +1602,7 @@ public class MapFile {
 
 	private void include(long id, Coord sc) {
 	    map.put(sc, id);
-	    int zl = ZoomGrid.inval(MapFile.this, this.id, sc);
-	    synchronized(zcache) {
-		/* XXX? Not sure how nice it is to iterate through the
-		 * entire zcache to do invalidations, but I also don't
-		 * think it ought to tend to be enormously large.
-		 * Perhaps keep a hierarchical zcache per level, and
-		 * only iterate all the levels? */
-		for(Map.Entry<ZoomCoord, ByZCoord> ent : zcache.entrySet()) {
-		    ZoomCoord zc = ent.getKey();
-		    if((zc.c.x == (sc.x & ~((1 << zc.lvl) - 1))) && (zc.c.y == (sc.y & ~((1 << zc.lvl) - 1)))) {
-			ByZCoord zg = ent.getValue();
-			zg.loading = loadzgrid(zc);
-		    }
-		}
-	    }
+	    zoomdirty(this, sc);
 	    ByCoord bc;
 	    synchronized(ccache) {
 		bc = ccache.get(sc);
@@ -1271,6 +1611,14 @@ public class MapFile {
 		bc.cur = grid0(id);
 	}
 
+	private void zreload(ZoomCoord zc) {
+	    synchronized(zcache) {
+		ByZCoord zg = zcache.get(zc);
+		if(zg != null)
+		    zg.loading = loadzgrid(zc);
+	    }
+	}
+
 	private void include(Grid grid, Coord sc) {
 	    checklock();
 	    include(grid.id, sc);
@@ -1498,8 +1846,62 @@ public class MapFile {
 	}
     }
 
+    private static class Prepared {
+	final Grid conv, merged;
+
+	Prepared(Grid conv, Grid merged) {
+	    this.conv = conv;
+	    this.merged = merged;
+	}
+    }
+
+    private Grid current(MCache.Grid g) {
+	GridInfo info = gridinfo.get(g.id);
+	if(info == null)
+	    return(null);
+	Segment seg = segments.get(info.seg);
+	if(seg == null)
+	    return(null);
+	return(seg.loaded(g.id));
+    }
+
+    /* Converts and merges the incoming grids without holding the
+     * write lock; only the lookup of currently loaded grids needs
+     * the read lock. */
+    private Map<Long, Prepared> prepare(MCache map, Collection<MCache.Grid> grids) {
+	Map<Long, Prepared> ret = new HashMap<>();
+	Map<Long, Grid> cur = new HashMap<>();
+	Collection<Long> known = new HashSet<>();
+	Collection<MCache.Grid> conv = new ArrayList<>(grids.size());
+	lock.readLock().lock();
+	try {
+	    for(MCache.Grid g : grids) {
+		Grid c = current(g);
+		if((c != null) && (c.useq == g.seq))
+		    continue;
+		cur.put(g.id, c);
+		if(gridinfo.get(g.id) != null)
+		    known.add(g.id);
+		conv.add(g);
+	    }
+	} finally {
+	    lock.readLock().unlock();
+	}
+	for(MCache.Grid g : conv) {
+	    Grid sg = Grid.from(map, g);
+	    Grid prev = cur.get(g.id);
+	    if((prev == null) && known.contains(g.id))
+		prev = Grid.load(MapFile.this, sg.id);
+	    ret.put(g.id, new Prepared(sg, (prev == null) ? sg : sg.mergeprev(prev)));
+	}
+	return(ret);
+    }
+
     public void update(MCache map, Collection<MCache.Grid> grids) {
+	Map<Long, Prepared> prep = prepare(map, grids);
+	Collection<Grid> saves = new ArrayList<>();
 	lock.writeLock().lock();
+	long st = System.nanoTime();
 	try {
 	    long mseg = -1;
 	    Coord moff = null;
@@ -1532,13 +1934,19 @@ public class MapFile {
 		}
 		Grid cur = seg.loaded(g.id);
 		if(!((cur != null) && (cur.useq == g.seq))) {
-		    Grid sg = Grid.from(map, g);
-		    Grid prev = cur;
-		    if(prev == null)
-			prev = Grid.load(MapFile.this, sg.id);
-		    if(prev != null)
-			sg = sg.mergeprev(prev);
-		    sg.save(MapFile.this);
+		    Prepared p = prep.get(g.id);
+		    Grid sg;
+		    if(p != null) {
+			sg = p.merged;
+		    } else {
+			sg = Grid.from(map, g);
+			Grid prev = cur;
+			if(prev == null)
+			    prev = Grid.load(MapFile.this, sg.id);
+			if(prev != null)
+			    sg = sg.mergeprev(prev);
+		    }
+		    saves.add(sg);
 		    seg.include(sg, info.sc);
 		}
 		if(seg.id != mseg) {
@@ -1562,9 +1970,10 @@ public class MapFile {
 		    process();
 		}
 		for(MCache.Grid g : missing) {
-		    Grid sg = Grid.from(map, g);
+		    Prepared p = prep.get(g.id);
+		    Grid sg = (p != null) ? p.conv : Grid.from(map, g);
 		    Coord sc = g.gc.add(moff);
-		    sg.save(MapFile.this);
+		    saves.add(sg);
 		    seg.include(sg, sc);
 		    gridinfo.put(g.id, new GridInfo(g.id, seg.id, sc));
 		}
@@ -1586,9 +1995,18 @@ public class MapFile {
 		    merge(dst, src, soff);
 		}
 	    }
+	    for(Grid sg : saves)
+		enqueue(sg);
 	} finally {
+	    long t = System.nanoTime() - st;
 	    lock.writeLock().unlock();
+	    synchronized(wmon) {
+		nupdates++;
+		locktime += t;
+		lockmax = Math.max(lockmax, t);
+	    }
 	}
+	throttle();
 	if(debug) Debug.log.printf("mapfile: update completed\n");
     }
 
@@ -1596,6 +2014,10 @@ public class MapFile {
 	public boolean includeseg(long id);
 	public boolean includegrid(Segment seg, Coord sc, long id);
 	public boolean includemark(Marker mark);
+	public default boolean includedata(Grid grid) {return(true);}
+	/* Grids modified before this are left out without being
+	 * loaded. */
+	public default long since() {return(Long.MIN_VALUE);}
 
 	public static final ExportFilter all = new ExportFilter() {
 		public boolean includeseg(long id) {return(true);}
@@ -1617,6 +2039,30 @@ public class MapFile {
 		});
 	}
 
+	/* Grids carry their modification times, but markers have
+	 * nothing persistent to compare against, so all markers
+	 * matching the base filter are included. Importing is
+	 * idempotent for markers already present. */
+	public static ExportFilter since(ExportFilter base, long mtime) {
+	    return(new ExportFilter() {
+		    public boolean includeseg(long id) {
+			return(base.includeseg(id));
+		    }
+		    public boolean includegrid(Segment seg, Coord sc, long id) {
+			return(base.includegrid(seg, sc, id));
+		    }
+		    public boolean includemark(Marker mark) {
+			return(base.includemark(mark));
+		    }
+		    public boolean includedata(Grid grid) {
+			return((grid.mtime >= mtime) && base.includedata(grid));
+		    }
+		    public long since() {
+			return(Math.max(mtime, base.since()));
+		    }
+		});
+	}
+
 	public static ExportFilter around(Marker mark, double rad) {
 	    return(new ExportFilter() {
 		    public boolean includeseg(long id) {
@@ -1638,12 +2084,65 @@ public class MapFile {
     }
 
     private static final byte[] EXPORT_SIG = "Haven Mapfile 1".getBytes(Utils.ascii);
-    public void export(Message out, ExportFilter filter, ExportStatus prog) throws InterruptedException {
-	if(prog == null) prog = new ExportStatus() {};
-	out.addbytes(EXPORT_SIG);
-	ZMessage zout = new ZMessage(out);
+    private static final byte[] EXPORT_SIG2 = "Haven Mapfile 2".getBytes(Utils.ascii);
+    public static final int EXPORT_CHUNK = 64;
+
+    private static void addlayer(Message out, String type, byte[] od) {
+	out.addstring(type);
+	out.addint32(od.length);
+	out.addbytes(od);
+    }
+
+    private byte[] exportgrid(Segment seg, Coord sc, long id, ExportFilter filter) {
+	long since = filter.since();
+	if((since > Long.MIN_VALUE) && (Grid.mtime(this, id) < since))
+	    return(null);
+	Grid grid = Grid.load(this, id);
+	if(grid == null) {
+	    /* This /should/ never happen, but for unknown
+	     * reasons (crashes? reboots?) some grids can be
+	     * included but missing. It's not like they'll be
+	     * coming back by any other means, however, so
+	     * just ignore them here. */
+	    return(null);
+	}
+	if(!filter.includedata(grid))
+	    return(null);
+	MessageBuf buf = new MessageBuf();
+	buf.adduint8(4);
+	buf.addint64(id);
+	buf.addint64(seg.id);
+	buf.addint64(grid.mtime);
+	buf.addcoord(sc);
+	buf.addint32(cmaps.x * cmaps.y);
+	DataGrid.savetiles(buf, grid.tilesets, grid.tiles);
+	DataGrid.savez(buf, grid.zmap);
+	DataGrid.saveols(buf, grid.ols);
+	return(buf.fin());
+    }
+
+    /* Returns null when none of the grids are included, so that
+     * incremental exports leave out what has not changed. */
+    private byte[] exportchunk(Segment seg, List<Pair<Coord, Long>> grids, ExportFilter filter) {
+	MessageBuf buf = new MessageBuf();
+	ZMessage z = new ZMessage(buf);
+	int n = 0;
+	for(Pair<Coord, Long> gd : grids) {
+	    byte[] od = exportgrid(seg, gd.a, gd.b, filter);
+	    if(od != null) {
+		addlayer(z, "grid", od);
+		n++;
+	    }
+	}
+	if(n == 0)
+	    return(null);
+	z.finish();
+	return(buf.fin());
+    }
+
+    private Collection<Pair<Segment, Collection<Pair<Coord, Long>>>> exportgrids(ExportFilter filter) {
+	Collection<Pair<Segment, Collection<Pair<Coord, Long>>>> ret = new ArrayList<>();
 	Collection<Long> segbuf = locked((Collection<Long> c) -> new ArrayList<>(c), lock.readLock()).apply(knownsegs);
-	int nseg = 0;
 	for(Long sid : segbuf) {
 	    if(!filter.includeseg(sid))
 		continue;
@@ -1659,32 +2158,39 @@ public class MapFile {
 	    } finally {
 		lock.readLock().unlock();
 	    }
+	    ret.add(new Pair<>(seg, gridbuf));
+	}
+	return(ret);
+    }
+
+    private byte[] exportmark(Marker mark) {
+	MessageBuf buf = new MessageBuf();
+	if(mark instanceof CustomMarker)
+	    savecmarker(buf, mark);
+	else
+	    savemarker(buf, mark);
+	return(buf.fin());
+    }
+
+    private static String marklayer(Marker mark) {
+	return((mark instanceof CustomMarker) ? "custmark" : "mark");
+    }
+
+    public void export(Message out, ExportFilter filter, ExportStatus prog) throws InterruptedException {
+	if(prog == null) prog = new ExportStatus() {};
+	out.addbytes(EXPORT_SIG);
+	ZMessage zout = new ZMessage(out);
+	Collection<Pair<Segment, Collection<Pair<Coord, Long>>>> segbuf = exportgrids(filter);
+	int nseg = 0;
+	for(Pair<Segment, Collection<Pair<Coord, Long>>> sd : segbuf) {
+	    Segment seg = sd.a;
+	    Collection<Pair<Coord, Long>> gridbuf = sd.b;
 	    int ngrid = 0;
 	    for(Pair<Coord, Long> gd : gridbuf) {
 		prog.grid(nseg, segbuf.size(), ngrid++, gridbuf.size());
-		Grid grid = Grid.load(this, gd.b);
-		if(grid == null) {
-		    /* This /should/ never happen, but for unknown
-		     * reasons (crashes? reboots?) some grids can be
-		     * included but missing. It's not like they'll be
-		     * coming back by any other means, however, so
-		     * just ignore them here. */
-		    continue;
-		}
-		MessageBuf buf = new MessageBuf();
-		buf.adduint8(4);
-		buf.addint64(gd.b);
-		buf.addint64(seg.id);
-		buf.addint64(grid.mtime);
-		buf.addcoord(gd.a);
-		buf.addint32(cmaps.x * cmaps.y);
-		DataGrid.savetiles(buf, grid.tilesets, grid.tiles);
-		DataGrid.savez(buf, grid.zmap);
-		DataGrid.saveols(buf, grid.ols);
-		byte[] od = buf.fin();
-		zout.addstring("grid");
-		zout.addint32(od.length);
-		zout.addbytes(od);
+		byte[] od = exportgrid(seg, gd.a, gd.b, filter);
+		if(od != null)
+		    addlayer(zout, "grid", od);
 		Utils.checkirq();
 	    }
 	    nseg++;
@@ -1695,30 +2201,98 @@ public class MapFile {
 	    prog.mark(nmark++, markbuf.size());
 	    if(!filter.includemark(mark))
 		continue;
-	    MessageBuf buf = new MessageBuf();
-	    String layerName;
-	    if(mark instanceof CustomMarker) {
-		savecmarker(buf, mark);
-		layerName = "custmark";
-	    } else {
-		savemarker(buf, mark);
-		layerName = "mark";
-	    }
-	    byte[] od = buf.fin();
-	    zout.addstring(layerName);
-	    zout.addint32(od.length);
-	    zout.addbytes(od);
+	    addlayer(zout, marklayer(mark), exportmark(mark));
 	    Utils.checkirq();
 	}
 	zout.finish();
     }
 
+    /* The chunked format consists of independently compressed runs
+     * of layers, so that grids can be loaded, serialized and
+     * compressed in parallel and still be written out in order. */
+    public void export2(Message out, ExportFilter filter, ExportStatus rprog) throws InterruptedException {
+	ExportStatus prog = (rprog == null) ? new ExportStatus() {} : rprog;
+	out.addbytes(EXPORT_SIG2);
+	int nthreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	java.util.concurrent.ExecutorService workers = java.util.concurrent.Executors.newFixedThreadPool(nthreads, r -> {
+		Thread th = new HackThread(r, "Mapfile export worker");
+		th.setDaemon(true);
+		return(th);
+	    });
+	/* Progress is reported as chunks are written out. */
+	Deque<Pair<java.util.concurrent.Future<byte[]>, Runnable>> pending = new ArrayDeque<>();
+	try {
+	    Collection<Pair<Segment, Collection<Pair<Coord, Long>>>> segbuf = exportgrids(filter);
+	    int nseg = 0;
+	    for(Pair<Segment, Collection<Pair<Coord, Long>>> sd : segbuf) {
+		Segment seg = sd.a;
+		List<Pair<Coord, Long>> gridbuf = new ArrayList<>(sd.b);
+		for(int i = 0; i < gridbuf.size(); i += EXPORT_CHUNK) {
+		    int cs = nseg, ns = segbuf.size(), cg = Math.min(i + EXPORT_CHUNK, gridbuf.size()), ng = gridbuf.size();
+		    List<Pair<Coord, Long>> chunk = gridbuf.subList(i, cg);
+		    pending.add(new Pair<>(workers.submit(() -> exportchunk(seg, chunk, filter)), () -> prog.grid(cs, ns, cg, ng)));
+		    while(pending.size() > nthreads * 2)
+			addchunk(out, pending.remove());
+		    Utils.checkirq();
+		}
+		nseg++;
+	    }
+	    while(!pending.isEmpty())
+		addchunk(out, pending.remove());
+	    Collection<Marker> markbuf = locked((Collection<Marker> c) -> new ArrayList<>(c), lock.readLock()).apply(markers);
+	    MessageBuf buf = new MessageBuf();
+	    ZMessage z = new ZMessage(buf);
+	    int nmark = 0, nincl = 0;
+	    for(Marker mark : markbuf) {
+		prog.mark(nmark++, markbuf.size());
+		if(!filter.includemark(mark))
+		    continue;
+		addlayer(z, marklayer(mark), exportmark(mark));
+		nincl++;
+		Utils.checkirq();
+	    }
+	    if(nincl > 0) {
+		z.finish();
+		byte[] mchunk = buf.fin();
+		out.adduint8(1);
+		out.addint32(mchunk.length);
+		out.addbytes(mchunk);
+	    }
+	    out.adduint8(0);
+	} finally {
+	    workers.shutdownNow();
+	}
+    }
+
+    private static void addchunk(Message out, Pair<java.util.concurrent.Future<byte[]>, Runnable> chunk) throws InterruptedException {
+	byte[] data;
+	try {
+	    data = chunk.a.get();
+	} catch(java.util.concurrent.ExecutionException e) {
+	    if(e.getCause() instanceof RuntimeException)
+		throw((RuntimeException)e.getCause());
+	    throw(new RuntimeException(e.getCause()));
+	}
+	chunk.b.run();
+	if(data == null)
+	    return;
+	out.adduint8(1);
+	out.addint32(data.length);
+	out.addbytes(data);
+    }
+
     public void export(OutputStream out, ExportFilter filter, ExportStatus prog) throws InterruptedException {
 	StreamMessage msg = new StreamMessage(null, out);
 	export(msg, filter, prog);
 	msg.flush();
     }
 
+    public void export2(OutputStream out, ExportFilter filter, ExportStatus prog) throws InterruptedException {
+	StreamMessage msg = new StreamMessage(null, out);
+	export2(msg, filter, prog);
+	msg.flush();
+    }
+
     public static class ImportedGrid {
 	public long gid, segid, mtime;
 	public Coord sc;
@@ -1859,10 +2433,9 @@ public class MapFile {
 	    }
 	    Segment rseg;
 	    if(filter.includegrid(grid, info != null)) {
+		Grid rgrid = grid.togrid();
 		lock.writeLock().lock();
 		try {
-		    Grid rgrid = grid.togrid();
-		    rgrid.save(MapFile.this);
 		    if(seg.noff == null) {
 			if(info == null) {
 			    rseg = chseg(new Segment(seg.nseg = grid.gid));
@@ -1896,9 +2469,11 @@ public class MapFile {
 			rseg.include(rgrid, nc);
 			gridinfo.put(rgrid.id, new GridInfo(rgrid.id, rseg.id, nc));
 		    }
+		    enqueue(rgrid);
 		} finally {
 		    lock.writeLock().unlock();
 		}
+		throttle();
 	    }
 	}
 
@@ -1959,36 +2534,47 @@ public class MapFile {
 	    }
 	}
 
+	void layers(Message data) throws InterruptedException {
+	    while(!data.eom()) {
+		String type = data.string();
+		int len = data.int32();
+		Message lay = new LimitMessage(data, len);
+		if(type.equals("grid")) {
+		    try {
+			importgrid(lay);
+		    } catch(RuntimeException exc) {
+			filter.handleerror(exc, "grid");
+		    }
+		} else if(type.equals("mark")) {
+		    try {
+			importmark(lay);
+		    } catch(RuntimeException exc) {
+			filter.handleerror(exc, "mark");
+		    }
+		} else if(type.equals("custmark")) {
+		    try {
+			importcmark(lay);
+		    } catch(RuntimeException exc) {
+			filter.handleerror(exc, "custmark");
+		    }
+		}
+		lay.skip();
+		Utils.checkirq();
+	    }
+	}
+
 	void reimport(Message data) throws InterruptedException {
-	    if(!Arrays.equals(EXPORT_SIG, data.bytes(EXPORT_SIG.length)))
-		throw(new Message.FormatError("Invalid map file format"));
-	    data = new ZMessage(data);
+	    byte[] sig = data.bytes(EXPORT_SIG.length);
 	    try {
-		while(!data.eom()) {
-		    String type = data.string();
-		    int len = data.int32();
-		    Message lay = new LimitMessage(data, len);
-		    if(type.equals("grid")) {
-			try {
-			    importgrid(lay);
-			} catch(RuntimeException exc) {
-			    filter.handleerror(exc, "grid");
-			}
-		    } else if(type.equals("mark")) {
-			try {
-			    importmark(lay);
-			} catch(RuntimeException exc) {
-			    filter.handleerror(exc, "mark");
-			}
-		    } else if(type.equals("custmark")) {
-			try {
-			    importcmark(lay);
-			} catch(RuntimeException exc) {
-			    filter.handleerror(exc, "custmark");
-			}
+		if(Arrays.equals(EXPORT_SIG, sig)) {
+		    layers(new ZMessage(data));
+		} else if(Arrays.equals(EXPORT_SIG2, sig)) {
+		    while(data.uint8() != 0) {
+			byte[] chunk = data.bytes(data.int32());
+			layers(new ZMessage(new MessageBuf(chunk)));
 		    }
-		    lay.skip();
-		    Utils.checkirq();
+		} else {
+		    throw(new Message.FormatError("Invalid map file format"));
 		}
 	    } catch(InterruptedException e) {
 		flush();
@@ -28,6 +28,8 @@ package haven;
 
 import static haven.MCache.tilesz;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.io.*;
 import java.awt.Color;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
@@ -44,6 +46,9 @@ public class MapMesh implements RenderTree.Node, Disposable {
     private Map<DataID, Object> data = new LinkedHashMap<DataID, Object>();
     private List<RenderTree.Node> extras = new ArrayList<RenderTree.Node>();
     private List<Disposable> dparts = new ArrayList<Disposable>();
+    private Cache.Entry centry = null;
+    private Tiler curtiler = null;
+    private List<Model> runs = null;
 
     public interface DataID<T> {
 	public T make(MapMesh m);
@@ -246,6 +251,7 @@ public class MapMesh implements RenderTree.Node, Disposable {
 		Tiler t = m.map.tiler(i);
 		if(t == null)
 		    continue;
+		m.curtiler = t;
 		t.trans(m, rnd, ground, lc, gc, 255 - i, bm, cm);
 	    }
 	}
@@ -254,10 +260,14 @@ public class MapMesh implements RenderTree.Node, Disposable {
     public static class Model extends MeshBuf implements ConsHooks {
 	public final MapMesh m;
 	public final NodeWrap mat;
+	/* The tiler that the material came from, to number it by. */
+	public final Tiler tiler;
+	private FastMesh mesh = null;
 
 	public Model(MapMesh m, NodeWrap mat) {
 	    this.m = m;
 	    this.mat = mat;
+	    this.tiler = m.curtiler;
 	}
 
 	public void sfin() {}
@@ -265,7 +275,7 @@ public class MapMesh implements RenderTree.Node, Disposable {
 	public boolean clean() {return(false);}
 
 	public void postcalcnrm(Random rnd) {
-	    FastMesh mesh = mkmesh();
+	    FastMesh mesh = this.mesh = mkmesh();
 	    m.extras.add(mat.apply(mesh));
 	    m.dparts.add(mesh);
 	}
@@ -297,32 +307,41 @@ public class MapMesh implements RenderTree.Node, Disposable {
 	}
     }
 
-    public static MapMesh build(MCache mc, Random rnd, Coord ul, Coord sz) {
-	MapMesh m = new MapMesh(mc, ul, sz, rnd);
+    private static void model(MapMesh m, Random rnd) {
 	Coord c = new Coord();
-	rnd = m.rnd();
-	
-	for(c.y = 0; c.y < sz.y; c.y++) {
-	    for(c.x = 0; c.x < sz.x; c.x++) {
-		Coord gc = c.add(ul);
+	for(c.y = 0; c.y < m.sz.y; c.y++) {
+	    for(c.x = 0; c.x < m.sz.x; c.x++) {
+		Coord gc = c.add(m.ul);
 		long ns = rnd.nextLong();
-		mc.tiler(mc.gettile(gc)).model(m, rnd, c, gc);
+		m.curtiler = m.map.tiler(m.map.gettile(gc));
+		m.curtiler.model(m, rnd, c, gc);
 		rnd.setSeed(ns);
 	    }
 	}
+	m.curtiler = null;
 	for(Object obj : m.data.values()) {
 	    if(obj instanceof ConsHooks)
 		((ConsHooks)obj).sfin();
 	}
+    }
+
+    public static MapMesh build(MCache mc, Random rnd, Coord ul, Coord sz) {
+	MapMesh m = new MapMesh(mc, ul, sz, rnd);
+	Coord c = new Coord();
+	rnd = m.rnd();
+	
+	model(m, rnd);
 	for(c.y = 0; c.y < sz.y; c.y++) {
 	    for(c.x = 0; c.x < sz.x; c.x++) {
 		Coord gc = c.add(ul);
 		long ns = rnd.nextLong();
-		mc.tiler(mc.gettile(gc)).lay(m, rnd, c, gc);
+		m.curtiler = mc.tiler(mc.gettile(gc));
+		m.curtiler.lay(m, rnd, c, gc);
 		dotrans(m, rnd, c, gc);
 		rnd.setSeed(ns);
 	    }
 	}
+	m.curtiler = null;
 	for(Object obj : m.data.values()) {
 	    if(obj instanceof ConsHooks)
 		((ConsHooks)obj).calcnrm();
@@ -334,10 +353,370 @@ public class MapMesh implements RenderTree.Node, Disposable {
 	
 	m.consflat();
 	
+	m.runs = new ArrayList<>();
+	for(Object obj : m.data.values()) {
+	    if(obj instanceof Model)
+		m.runs.add((Model)obj);
+	}
 	m.clean();
 	return(m);
     }
 
+    /* Writes the finished meshes of a cut just built, one run of
+     * vertices and indices per material, for load() to restore
+     * without building it again. Writes nothing and returns false if
+     * the cut has parts that could not be restored thus. */
+    public boolean save(Message fp) {
+	if((runs == null) || (data.size() != 1) || !data.containsKey(gnd))
+	    return(false);
+	int[] ids = new int[runs.size()];
+	for(int i = 0; i < ids.length; i++) {
+	    Model mod = runs.get(i);
+	    if((mod.tiler == null) || (mod.mesh == null) || ((ids[i] = mod.tiler.matid(mod.mat)) < 0))
+		return(false);
+	    for(VertexBuf.AttribData buf : mod.mesh.vert.bufs) {
+		if(VertexBuf.resname(buf) == null)
+		    return(false);
+	    }
+	}
+	fp.adduint8(1);
+	/* Vertex data does not compress much better for trying hard,
+	 * and cuts are stored while the loader waits. */
+	ZMessage z = new ZMessage(fp, java.util.zip.Deflater.BEST_SPEED);
+	z.addcoord(ul);
+	z.addcoord(sz);
+	z.adduint16(ids.length);
+	for(int i = 0; i < ids.length; i++) {
+	    Model mod = runs.get(i);
+	    VertexBuf vert = mod.mesh.vert;
+	    z.addint32(mod.tiler.id);
+	    z.addint32(ids[i]);
+	    z.adduint16(vert.num);
+	    z.adduint8(vert.bufs.length);
+	    for(VertexBuf.AttribData buf : vert.bufs) {
+		MessageBuf sub = new MessageBuf();
+		VertexBuf.savebuf2(sub, ((VertexBuf.FloatData)buf).data);
+		byte[] data = sub.fin();
+		z.addstring(VertexBuf.resname(buf));
+		z.addint32(data.length);
+		z.addbytes(data);
+	    }
+	    ShortBuffer ind = mod.mesh.indb;
+	    z.addint32(ind.capacity());
+	    for(int o = 0; o < ind.capacity(); o++)
+		z.adduint16(ind.get(o) & 0xffff);
+	}
+	z.finish();
+	return(true);
+    }
+
+    /* Restores a cut written by save(). Only the modelling pass is
+     * run over its tiles, to make the ground surface that overlays
+     * and click-testing are laid on; or null is returned if the data
+     * is unusable. */
+    public static MapMesh load(MCache mc, Random rnd, Coord ul, Coord sz, Message fp) {
+	class Run {
+	    int tile, mat;
+	    VertexBuf vert;
+	    short[] ind;
+	}
+	List<Run> runs = new ArrayList<>();
+	try {
+	    if(fp.uint8() != 1)
+		return(null);
+	    Message z = new ZMessage(fp);
+	    if(!z.coord().equals(ul) || !z.coord().equals(sz))
+		return(null);
+	    for(int n = z.uint16(); n > 0; n--) {
+		Run run = new Run();
+		run.tile = z.int32();
+		run.mat = z.int32();
+		int nv = z.uint16();
+		List<VertexBuf.AttribData> bufs = new ArrayList<>();
+		for(int nb = z.uint8(); nb > 0; nb--) {
+		    String nm = z.string();
+		    Message sub = new LimitMessage(z, z.int32());
+		    VertexBuf.cons(bufs, nm, sub, nv);
+		    sub.skip();
+		}
+		run.vert = new VertexBuf(bufs.toArray(new VertexBuf.AttribData[0]));
+		run.ind = new short[z.int32()];
+		for(int i = 0; i < run.ind.length; i++)
+		    run.ind[i] = (short)z.uint16();
+		if((run.ind.length % 3) != 0)
+		    return(null);
+		runs.add(run);
+	    }
+	} catch(Message.BinError e) {
+	    return(null);
+	}
+	NodeWrap[] mats = new NodeWrap[runs.size()];
+	for(int i = 0; i < mats.length; i++) {
+	    Tiler t = mc.tiler(runs.get(i).tile);
+	    if((t == null) || ((mats[i] = t.material(runs.get(i).mat)) == null))
+		return(null);
+	}
+	MapMesh m = new MapMesh(mc, ul, sz, rnd);
+	model(m, m.rnd());
+	for(int i = 0; i < mats.length; i++) {
+	    Run run = runs.get(i);
+	    FastMesh mesh = new FastMesh(run.vert, run.ind);
+	    m.extras.add(mats[i].apply(mesh));
+	    m.dparts.add(mesh);
+	}
+	m.consflat();
+	m.clean();
+	return(m);
+    }
+
+    /* Cut meshes are entirely determined by the tile and height data
+     * in and around the cut, the tilesets that data refers to, and the
+     * random seed of the grid, so a mesh built once can be handed out
+     * again when the same data reappears, such as when walking back
+     * across a trimmed grid border. Meshes handed out by the cache
+     * must be returned through release() rather than disposed.
+     *
+     * Cuts that can be saved are also kept on disk, under a digest of
+     * what they are built from, so that they need not be built again
+     * in later sessions either. */
+    public static class Cache {
+	/* Transitions and ridges look at neighbouring tiles, so the key
+	 * covers a margin around the cut itself. */
+	public static final int margin = 2;
+	public static final Config.Variable<Integer> disksize = Config.Variable.propi("haven.mapmeshcache", 256);
+	private static final AtomicLong hits = new AtomicLong(), misses = new AtomicLong(), dhits = new AtomicLong();
+	private static final AtomicLong hittime = new AtomicLong(), buildtime = new AtomicLong(), dhittime = new AtomicLong();
+	public final int idle;
+	public final ResCache disk;
+	private final LinkedHashMap<Key, Entry> cache = new LinkedHashMap<>(16, 0.75f, true);
+	private int nidle = 0;
+
+	public static class Key {
+	    public final long id;
+	    public final Coord ul, sz;
+	    private final int[] tiles;
+	    private final float[] z;
+	    private final Resource.Spec[] sets;
+	    private final int hash;
+
+	    public Key(MCache map, long id, Coord ul, Coord sz) {
+		this.id = id;
+		this.ul = ul;
+		this.sz = sz;
+		Area a = Area.sized(ul.sub(margin, margin), sz.add(margin * 2 + 1, margin * 2 + 1));
+		int[] tiles = new int[a.area()];
+		float[] z = new float[a.area()];
+		Resource.Spec[] sets = new Resource.Spec[0];
+		int h = Long.hashCode(id);
+		h = (h * 31) + ul.hashCode();
+		Coord c = new Coord();
+		int i = 0;
+		for(c.y = a.ul.y; c.y < a.br.y; c.y++) {
+		    for(c.x = a.ul.x; c.x < a.br.x; c.x++, i++) {
+			int t = tiles[i] = map.gettile(c);
+			z[i] = (float)map.getfz2(c);
+			if(t >= sets.length)
+			    sets = Arrays.copyOf(sets, t + 1);
+			if(sets[t] == null)
+			    sets[t] = map.tilesetn(t);
+			h = (h * 31) + t;
+			h = (h * 31) + Float.floatToIntBits(z[i]);
+		    }
+		}
+		this.tiles = tiles;
+		this.z = z;
+		this.sets = sets;
+		this.hash = (h * 31) + Arrays.hashCode(sets);
+	    }
+
+	    /* Names the cut on disk. The display options that change how
+	     * cuts are built are part of it. */
+	    public String name() {
+		MessageBuf buf = new MessageBuf();
+		buf.addint64(id);
+		buf.addcoord(ul);
+		buf.addcoord(sz);
+		for(int i = 0; i < tiles.length; i++) {
+		    buf.addint32(tiles[i]);
+		    buf.addfloat32(z[i]);
+		}
+		for(Resource.Spec set : sets) {
+		    buf.addstring((set == null) ? "" : set.name);
+		    buf.adduint16((set == null) ? 0 : set.ver);
+		}
+		buf.adduint8((CFG.NO_TILE_TRANSITION.get() ? 1 : 0) | (CFG.FLAT_TERRAIN.get() ? 2 : 0) | (CFG.COLORIZE_DEEP_WATER.get() ? 4 : 0));
+		return("mapmesh/" + Utils.byte2hex(TexCache.digest().digest(buf.fin())));
+	    }
+
+	    public int hashCode() {
+		return(hash);
+	    }
+
+	    public boolean equals(Object x) {
+		if(!(x instanceof Key))
+		    return(false);
+		Key k = (Key)x;
+		return((k.hash == this.hash) && (k.id == this.id) && k.ul.equals(this.ul) && k.sz.equals(this.sz) &&
+		       Arrays.equals(k.tiles, this.tiles) && Arrays.equals(k.z, this.z) && Arrays.equals(k.sets, this.sets));
+	    }
+	}
+
+	private class Entry {
+	    final Key key;
+	    final MapMesh mesh;
+	    int refs = 0;
+	    boolean stale = false;
+
+	    Entry(Key key, MapMesh mesh) {
+		this.key = key;
+		this.mesh = mesh;
+	    }
+	}
+
+	public Cache(int idle, ResCache disk) {
+	    this.idle = idle;
+	    this.disk = disk;
+	}
+
+	public Cache(int idle) {
+	    this(idle, null);
+	}
+
+	private static ResCache global = null;
+	private static boolean globalinit = false;
+	public static ResCache global() {
+	    synchronized(Cache.class) {
+		if(!globalinit) {
+		    globalinit = true;
+		    if(disksize.get() > 0) {
+			try {
+			    HashDirCache store = HashDirCache.get("mapmesh");
+			    store.bound(disksize.get() * 1048576L);
+			    global = store;
+			} catch(UnsupportedOperationException e) {
+			}
+		    }
+		}
+		return(global);
+	    }
+	}
+
+	private MapMesh fetch(MCache map, Key key, Random rnd) {
+	    byte[] data;
+	    try(InputStream fp = disk.fetch(key.name())) {
+		data = Utils.readall(fp);
+	    } catch(IOException e) {
+		return(null);
+	    }
+	    return(load(map, rnd, key.ul, key.sz, new MessageBuf(data)));
+	}
+
+	private void store(Key key, MapMesh mesh) {
+	    MessageBuf buf = new MessageBuf();
+	    if(!mesh.save(buf))
+		return;
+	    try(OutputStream fp = disk.store(key.name())) {
+		fp.write(buf.fin());
+	    } catch(IOException e) {
+	    }
+	}
+
+	public MapMesh get(MCache map, long id, Random rnd, Coord ul, Coord sz) {
+	    long st = System.nanoTime();
+	    Key key = new Key(map, id, ul, sz);
+	    synchronized(this) {
+		Entry e = cache.get(key);
+		if(e != null) {
+		    if(e.refs++ == 0)
+			nidle--;
+		    hits.incrementAndGet();
+		    hittime.addAndGet(System.nanoTime() - st);
+		    return(e.mesh);
+		}
+	    }
+	    MapMesh mesh = (disk == null) ? null : fetch(map, key, rnd);
+	    if(mesh != null) {
+		dhits.incrementAndGet();
+		dhittime.addAndGet(System.nanoTime() - st);
+	    } else {
+		mesh = build(map, rnd, ul, sz);
+		misses.incrementAndGet();
+		buildtime.addAndGet(System.nanoTime() - st);
+		if(disk != null)
+		    store(key, mesh);
+		mesh.runs = null;
+	    }
+	    synchronized(this) {
+		Entry e = cache.get(key);
+		if(e != null) {
+		    /* Raced with another builder of the same cut. */
+		    if(e.refs++ == 0)
+			nidle--;
+		    mesh.dispose();
+		    return(e.mesh);
+		}
+		cache.put(key, e = new Entry(key, mesh));
+		e.refs++;
+		mesh.centry = e;
+		return(mesh);
+	    }
+	}
+
+	public void release(MapMesh mesh) {
+	    Entry e = mesh.centry;
+	    if(e == null) {
+		mesh.dispose();
+		return;
+	    }
+	    synchronized(this) {
+		if(--e.refs > 0)
+		    return;
+		if(e.stale) {
+		    mesh.dispose();
+		    return;
+		}
+		nidle++;
+		for(Iterator<Entry> i = cache.values().iterator(); (nidle > idle) && i.hasNext();) {
+		    Entry old = i.next();
+		    if(old.refs == 0) {
+			i.remove();
+			nidle--;
+			old.mesh.dispose();
+		    }
+		}
+	    }
+	}
+
+	public void clear() {
+	    synchronized(this) {
+		for(Entry e : cache.values()) {
+		    if(e.refs == 0)
+			e.mesh.dispose();
+		    else
+			e.stale = true;
+		}
+		cache.clear();
+		nidle = 0;
+	    }
+	}
+
+	public static String stats() {
+	    long h = hits.get(), d = dhits.get(), m = misses.get();
+	    return(String.format("%d hits (%.3f ms avg), %d disk hits (%.3f ms avg), %d builds (%.3f ms avg)",
+				 h, (h == 0) ? 0.0 : (hittime.get() * 1e-6 / h),
+				 d, (d == 0) ? 0.0 : (dhittime.get() * 1e-6 / d),
+				 m, (m == 0) ? 0.0 : (buildtime.get() * 1e-6 / m)));
+	}
+
+	static {
+	    Console.setscmd("mmcache", new Console.Command() {
+		    public void run(Console cons, String[] args) {
+			cons.out.println(stats());
+		    }
+		});
+	}
+    }
+
     private static Pipe.Op gmmat = Pipe.Op.compose(new States.DepthBias(-1, -1),
 						   new Order.Default(1001));
     public static RenderTree.Node groundmod(MCache map, Coord2d cc, Coord2d ul, Coord2d br, double a) {
@@ -762,6 +1141,11 @@ public class MapMesh implements RenderTree.Node, Disposable {
 	    p.dispose();
     }
 
+    /* The drawn parts of the cut, each a mesh wrapped in its material. */
+    public List<RenderTree.Node> parts() {
+	return(Collections.unmodifiableList(extras));
+    }
+
     public void added(RenderTree.Slot slot) {
 	for(RenderTree.Node e : extras)
 	    slot.add(e);
@@ -673,6 +673,7 @@ public class MapView extends PView implements DTarget, Console.Directory {
 	basic.add(this.gobs = new Gobs());
 	basic.add(this.terrain = new Terrain());
 	basic.add(glob.oc.paths);
+	basic.add(glob.oc.batch);
 	this.clickmap = new ClickMap();
 	clmaptree.add(clickmap);
 	setcanfocus(true);
@@ -2139,6 +2140,7 @@ public class MapView extends PView implements DTarget, Console.Directory {
 	    if(done) {
 		synchronized(ui) {
 		    if(mapcl != null) {
+			objcl = StaticBatch.resolve(objcl, mapcl);
 			if(Config.center_tile) { mapcl = mapcl.floor(tilesz).mul(tilesz).add(5, 5); }
 			ui.pathQueue().ifPresent(pathQueue -> pathQueue.click(mapcl, objcl));
 			if(objcl == null)
@@ -975,6 +975,10 @@ public class MapWnd extends WindowX implements Console.Directory {
     }
 
     public void exportmap(Path path) {
+	exportmap(path, MapFile.ExportFilter.all);
+    }
+
+    public void exportmap(Path path, MapFile.ExportFilter filter) {
 	GameUI gui = getparent(GameUI.class);
 	ExportWindow prog = new ExportWindow();
 	Thread th = new HackThread(() -> {
@@ -982,7 +986,7 @@ public class MapWnd extends WindowX implements Console.Directory {
 		try {
 		    try {
 			try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
-			    file.export(out, MapFile.ExportFilter.all, prog);
+			    file.export2(out, filter, prog);
 			}
 			complete = true;
 		    } finally {
@@ -1211,7 +1215,9 @@ public class MapWnd extends WindowX implements Console.Directory {
     {
 	cmdmap.put("exportmap", new Console.Command() {
 		public void run(Console cons, String[] args) {
-		    if(args.length > 1)
+		    if(args.length > 2)
+			exportmap(Utils.path(args[1]), MapFile.ExportFilter.since(MapFile.ExportFilter.all, Long.parseLong(args[2])));
+		    else if(args.length > 1)
 			exportmap(Utils.path(args[1]));
 		    else
 			exportmap();
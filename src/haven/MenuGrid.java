@@ -47,6 +47,7 @@ public class MenuGrid extends Widget implements KeyBinding.Bindable {
     public final Set<Pagina> paginae = new HashSet<Pagina>();
     public Pagina cur;
     public int pagseq = 0;
+    public final PaginaIndex index = new PaginaIndex(this);
     private Pagina dragging;
     private Collection<PagButton> curbtns = Collections.emptyList();
     private PagButton pressed, layout[][] = new PagButton[gsz.x][gsz.y];
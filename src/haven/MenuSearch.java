@@ -14,6 +14,7 @@ public class MenuSearch extends WindowX {
     private List<Result> cur = Collections.emptyList();
     private List<Result> filtered = Collections.emptyList();
     private boolean recons = false;
+    private int pagseq = -1;
 
     public class Result {
 	public final PagButton btn;
@@ -82,9 +83,16 @@ public class MenuSearch extends WindowX {
     private void refilter() {
 	List<Result> found = new ArrayList<>();
 	String needle = sbox.text().toLowerCase();
-	for(Result res : this.cur) {
-	    if(res.btn.name().toLowerCase().indexOf(needle) >= 0)
-		found.add(res);
+	if(needle.isEmpty()) {
+	    found.addAll(this.cur);
+	} else {
+	    Set<Pagina> hits = menu.index.search(needle);
+	    if(hits.isEmpty())
+		hits = menu.index.fuzzy(needle);
+	    for(Result res : this.cur) {
+		if(hits.contains(res.btn.pag))
+		    found.add(res);
+	    }
 	}
 	this.filtered = found;
 	int idx = filtered.indexOf(rls.sel);
@@ -102,26 +110,14 @@ public class MenuSearch extends WindowX {
 	recons = false;
 	Pagina root = this.root;
 	List<PagButton> found = new ArrayList<>();
-	{
-	    Collection<Pagina> leaves = new ArrayList<>();
-	    synchronized(menu.paginae) {
-		leaves.addAll(menu.paginae);
-	    }
-	    for(Pagina pag : leaves) {
-		try {
-		    if(root == null) {
-			found.add(pag.button());
-		    } else {
-			for(Pagina parent = pag; parent != null; parent = menu.paginafor(parent.act().parent)) {
-			    if(parent == root) {
-				found.add(pag.button());
-				break;
-			    }
-			}
-		    }
-		} catch(Loading l) {
-		    recons = true;
-		}
+	menu.index.update();
+	pagseq = menu.pagseq;
+	recons = menu.index.loading();
+	for(Pagina pag : menu.index.under(root)) {
+	    try {
+		found.add(pag.button());
+	    } catch(Loading l) {
+		recons = true;
 	    }
 	}
 	Collections.sort(found, Comparator.comparing(PagButton::name));
@@ -149,7 +145,7 @@ public class MenuSearch extends WindowX {
     public void tick(double dt) {
 	if(menu.cur != root)
 	    setroot(menu.cur);
-	if(recons)
+	if(recons || (menu.pagseq != pagseq))
 	    updlist();
 	super.tick(dt);
     }
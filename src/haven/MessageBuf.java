@@ -28,7 +28,7 @@ package haven;
 
 public class MessageBuf extends Message implements java.io.Serializable {
     public static final MessageBuf nil = new MessageBuf();
-    private final int oh;
+    private int oh;
 
     public MessageBuf(byte[] blob, int off, int len) {
 	if(blob == null)
@@ -61,6 +61,15 @@ public class MessageBuf extends Message implements java.io.Serializable {
 	}
     }
 
+    /* Points this message at new contents, so that a single
+     * instance can be used as a cursor over many buffers. */
+    public MessageBuf reset(byte[] blob, int off, int len) {
+	this.rbuf = blob;
+	this.rh = this.oh = off;
+	this.rt = off + len;
+	return(this);
+    }
+
     public boolean underflow(int hint) {
 	return(false);
     }
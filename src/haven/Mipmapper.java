@@ -365,4 +365,19 @@ public abstract class Mipmapper {
 		return(((DataBufferByte)sm.getRaster().getDataBuffer()).getData());
 	    }
 	};
+
+    private static final Map<Mipmapper, String> names = new IdentityHashMap<>();
+    static {
+	names.put(avg, "avg");
+	names.put(rnd, "rnd");
+	names.put(cnt, "cnt");
+	names.put(dav, "dav");
+	names.put(lanczos, "lanczos");
+    }
+
+    /* A stable name for the standard mipmappers, for use in cache
+     * keys, or null for any other. */
+    public static String name(Mipmapper alg) {
+	return(names.get(alg));
+    }
 }
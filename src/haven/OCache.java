@@ -65,6 +65,7 @@ public class OCache implements Iterable<Gob> {
     private Glob glob;
     private final Collection<ChangeCallback> cbs = new WeakList<ChangeCallback>();
     public final PathVisualizer paths = new PathVisualizer();
+    public final StaticBatch batch = new StaticBatch();
 
     public interface ChangeCallback {
 	public void added(Gob ob);
@@ -136,6 +137,7 @@ public class OCache implements Iterable<Gob> {
     }
 
     public void ctick(double dt) {
+	long st = Trace.now();
 	ArrayList<Gob> copy = new ArrayList<Gob>();
 	synchronized(this) {
 	    for(Gob g : this)
@@ -151,9 +153,11 @@ public class OCache implements Iterable<Gob> {
 	else
 	    copy.parallelStream().forEach(task);
 	paths.tick(dt);
+	batch.tick(dt);
 	if(glob.sess.ui != null && glob.sess.ui.gui != null && glob.sess.ui.gui.mapfile != null) {
 	    glob.sess.ui.gui.mapfile.updateGobMarkers();
 	}
+	Trace.span("ocache.ctick", st);
     }
 
     public void gtick(Render g) {
@@ -187,6 +191,8 @@ public class OCache implements Iterable<Gob> {
 	    for(Render sub : subs)
 		g.submit(sub);
 	}
+	VertexPool.lines.commit(g);
+	VertexPool.polys.commit(g);
     }
 
     @SuppressWarnings("unchecked")
@@ -468,7 +474,7 @@ public class OCache implements Iterable<Gob> {
 	public int fl, frame;
 	public int initframe;
 	public long id;
-	public final List<AttrDelta> attrs = new LinkedList<>();
+	public final List<AttrDelta> attrs = new ArrayList<>(4);
 	public boolean rem = false;
 
 	public ObjDelta(int fl, long id, int frame) {
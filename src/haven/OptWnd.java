@@ -581,6 +581,7 @@ public class OptWnd extends WindowX {
 	    y = addbtn(cont, "Toggle chat", GameUI.kb_chat, y);
 	    y = addbtn(cont, "Quick chat", ChatUI.kb_quick, y);
 	    y = addbtn(cont, "Take screenshot", GameUI.kb_shoot, y);
+	    y = addbtn(cont, "Save performance trace", GameUI.kb_trace, y);
 	    y = addbtn(cont, "Minimap icons", GameUI.kb_ico, y);
 	    y = addbtn(cont, "Toggle UI", GameUI.kb_hide, y);
 	    y = addbtn(cont, "Log out", GameUI.kb_logout, y);
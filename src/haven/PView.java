@@ -51,7 +51,7 @@ public abstract class PView extends Widget {
 
     public PView(Coord sz) {
 	super(sz);
-	tree = new RenderTree();
+	tree = new RenderTree(RenderTree.usejournal.get());
 	tree.add(list2d, Render2D.class);
 	tree.add(ticklist, TickList.TickNode.class);
 	conf = tree.add((RenderTree.Node)null);
@@ -181,6 +181,7 @@ public abstract class PView extends Widget {
 	    reconf();
 	}
 	conf.ostate(frame());
+	tree.commit();
 	ticklist.tick(dt);
 	if(audio != null)
 	    audio.cycle();
@@ -314,6 +315,7 @@ public abstract class PView extends Widget {
     }
 
     public void gtick(Render out) {
+	tree.commit();
 	ticklist.gtick(out);
     }
 
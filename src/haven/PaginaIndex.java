@@ -0,0 +1,241 @@
+package haven;
+
+import haven.MenuGrid.Pagina;
+
+import java.util.*;
+
+/* Search index over the paginae of a MenuGrid, kept in sync with
+ * MenuGrid.pagseq. Names are indexed by trigram for substring
+ * search; parent paths and compiled item filters are cached. */
+public class PaginaIndex {
+    public final MenuGrid menu;
+    private int seq = -1, count = -1;
+    private final Map<Pagina, Entry> entries = new HashMap<>();
+    private final Collection<Entry> unresolved = new HashSet<>();
+    private final Map<String, Set<Entry>> grams = new HashMap<>();
+    private final Map<Pagina, List<Pagina>> under = new HashMap<>();
+    private final Map<String, ItemFilter> filters = new LinkedHashMap<String, ItemFilter>(16, 0.75f, true) {
+	    protected boolean removeEldestEntry(Map.Entry<String, ItemFilter> eldest) {
+		return(size() > 32);
+	    }
+	};
+
+    public static class Entry {
+	public final Pagina pag;
+	public String name = null;
+	private String[] grams;
+	private List<Pagina> path = null;
+	private Object[] finfo = null;
+	private int fgen = -1;
+	/* Keyed by the filters, which only live as long as the
+	 * index's bounded set of compiled ones refers to them. */
+	private final Map<ItemFilter, Boolean> fcache = new WeakHashMap<>();
+
+	private Entry(Pagina pag) {
+	    this.pag = pag;
+	}
+
+	private boolean resolve() {
+	    try {
+		name = pag.act().name.toLowerCase();
+	    } catch(Loading l) {
+		return(false);
+	    }
+	    Set<String> g = new HashSet<>();
+	    for(int i = 0; i + 3 <= name.length(); i++)
+		g.add(name.substring(i, i + 3));
+	    grams = g.toArray(new String[0]);
+	    return(true);
+	}
+    }
+
+    public PaginaIndex(MenuGrid menu) {
+	this.menu = menu;
+    }
+
+    /* Brings the index up to date; cheap when nothing changed. */
+    public synchronized void update() {
+	synchronized(menu.paginae) {
+	    if((menu.pagseq != seq) || (menu.paginae.size() != count)) {
+		for(Iterator<Map.Entry<Pagina, Entry>> i = entries.entrySet().iterator(); i.hasNext();) {
+		    Entry ent = i.next().getValue();
+		    if(!menu.paginae.contains(ent.pag)) {
+			unindex(ent);
+			unresolved.remove(ent);
+			i.remove();
+		    }
+		}
+		for(Pagina pag : menu.paginae) {
+		    if(!entries.containsKey(pag)) {
+			Entry ent = new Entry(pag);
+			entries.put(pag, ent);
+			unresolved.add(ent);
+		    }
+		}
+		under.clear();
+		seq = menu.pagseq;
+		count = menu.paginae.size();
+	    }
+	}
+	if(!unresolved.isEmpty()) {
+	    for(Iterator<Entry> i = unresolved.iterator(); i.hasNext();) {
+		Entry ent = i.next();
+		if(ent.resolve()) {
+		    index(ent);
+		    i.remove();
+		}
+	    }
+	}
+    }
+
+    /* Whether some paginae are still waiting for their resources. */
+    public synchronized boolean loading() {
+	return(!unresolved.isEmpty());
+    }
+
+    private void index(Entry ent) {
+	for(String g : ent.grams)
+	    grams.computeIfAbsent(g, k -> new HashSet<>()).add(ent);
+    }
+
+    private void unindex(Entry ent) {
+	if(ent.name == null)
+	    return;
+	for(String g : ent.grams) {
+	    Set<Entry> s = grams.get(g);
+	    if((s != null) && s.remove(ent) && s.isEmpty())
+		grams.remove(g);
+	}
+    }
+
+    public synchronized Entry entry(Pagina pag) {
+	return(entries.get(pag));
+    }
+
+    /* Ancestors of a pagina, nearest first. */
+    public synchronized List<Pagina> path(Pagina pag) {
+	Entry ent = entries.get(pag);
+	if((ent != null) && (ent.path != null))
+	    return(ent.path);
+	List<Pagina> ret = new ArrayList<>();
+	for(Pagina p = menu.paginafor(pag.act().parent); p != null; p = menu.paginafor(p.act().parent)) {
+	    if(ret.contains(p))
+		break;
+	    ret.add(p);
+	}
+	ret = Collections.unmodifiableList(ret);
+	if(ent != null)
+	    ent.path = ret;
+	return(ret);
+    }
+
+    /* All resolved paginae below the given root, and the root
+     * itself (or all of them if root is null). Only complete results
+     * are remembered. */
+    public synchronized List<Pagina> under(Pagina root) {
+	List<Pagina> ret = under.get(root);
+	if(ret != null)
+	    return(ret);
+	ret = new ArrayList<>();
+	boolean complete = unresolved.isEmpty();
+	for(Entry ent : entries.values()) {
+	    if(ent.name == null)
+		continue;
+	    try {
+		if((root == null) || (ent.pag == root) || path(ent.pag).contains(root))
+		    ret.add(ent.pag);
+	    } catch(Loading l) {
+		complete = false;
+	    }
+	}
+	ret = Collections.unmodifiableList(ret);
+	if(complete)
+	    under.put(root, ret);
+	return(ret);
+    }
+
+    /* Paginae whose lowercased name contains the needle. */
+    public synchronized Set<Pagina> search(String needle) {
+	needle = needle.toLowerCase();
+	Set<Pagina> ret = new HashSet<>();
+	if(needle.length() < 3) {
+	    for(Entry ent : entries.values()) {
+		if((ent.name != null) && ent.name.contains(needle))
+		    ret.add(ent.pag);
+	    }
+	    return(ret);
+	}
+	Set<Entry> least = null;
+	for(int i = 0; i + 3 <= needle.length(); i++) {
+	    Set<Entry> s = grams.get(needle.substring(i, i + 3));
+	    if(s == null)
+		return(ret);
+	    if((least == null) || (s.size() < least.size()))
+		least = s;
+	}
+	for(Entry ent : least) {
+	    if(ent.name.contains(needle))
+		ret.add(ent.pag);
+	}
+	return(ret);
+    }
+
+    /* Paginae whose name contains the needle's characters in order. */
+    public synchronized Set<Pagina> fuzzy(String needle) {
+	needle = needle.toLowerCase();
+	Set<Pagina> ret = new HashSet<>();
+	for(Entry ent : entries.values()) {
+	    if((ent.name != null) && subseq(needle, ent.name))
+		ret.add(ent.pag);
+	}
+	return(ret);
+    }
+
+    private static boolean subseq(String needle, String name) {
+	int p = 0;
+	for(int i = 0; i < needle.length(); i++) {
+	    char c = needle.charAt(i);
+	    if(c == ' ')
+		continue;
+	    if((p = name.indexOf(c, p)) < 0)
+		return(false);
+	    p++;
+	}
+	return(true);
+    }
+
+    public synchronized ItemFilter filter(String query) {
+	return(filters.computeIfAbsent(query, ItemFilter::create));
+    }
+
+    /* Evaluates a filter query against a pagina, remembering the
+     * result until the pagina's info changes, or the item data that
+     * paginae without info are matched against. */
+    public boolean matches(Pagina pag, String query, Session sess) {
+	Entry ent;
+	ItemFilter filter;
+	int gen = ItemData.generation();
+	synchronized(this) {
+	    ent = entries.get(pag);
+	    filter = filter(query);
+	    if(ent != null) {
+		if((ent.finfo != pag.rawinfo) || (ent.fgen != gen)) {
+		    ent.fcache.clear();
+		    ent.finfo = pag.rawinfo;
+		    ent.fgen = gen;
+		}
+		Boolean c = ent.fcache.get(filter);
+		if(c != null)
+		    return(c);
+	    }
+	}
+	boolean ret = filter.matches(pag, sess);
+	if(ent != null) {
+	    synchronized(this) {
+		if((ent.finfo == pag.rawinfo) && (ent.fgen == gen))
+		    ent.fcache.put(filter, ret);
+	    }
+	}
+	return(ret);
+    }
+}
@@ -18,6 +18,7 @@ public class PathQueue {
     private boolean clicked = false;
     private Coord2d clickPos = null;
     private boolean passenger = false;
+    private Pathfinder pathfinder = null;
     
     public PathQueue(MapView map) {
 	this.map = map;
@@ -47,6 +48,54 @@ public class PathQueue {
 	}
     }
     
+    /* Replaces the queue with the given waypoints and starts
+     * walking towards the first of them. */
+    public boolean start(List<Coord2d> path) {
+	Coord2d first;
+	synchronized (queue) {
+	    if(passenger || path.isEmpty()) {return false;}
+	    queue.clear();
+	    queue.addAll(path);
+	    unclick();
+	    first = queue.get(0);
+	}
+	map.wdgmsg("click", Coord.z, first.floor(posres), 1, 0);
+	return true;
+    }
+    
+    private synchronized Pathfinder pathfinder() {
+	/* Searches run off the UI thread, so go by a snapshot of the
+	 * gobs rather than iterating the cache as it changes. */
+	if(pathfinder == null) {pathfinder = new Pathfinder(map.glob.map, () -> map.glob.oc.stream().iterator());}
+	return pathfinder;
+    }
+    
+    /* Finds waypoints to the given point around known obstacles,
+     * using the client-side pathfinder, or null if there is no path.
+     * Searches can take a while, so don't call this from the UI
+     * thread. */
+    public List<Coord2d> findpath(Coord2d to) {
+	Gob player = map.player();
+	if(player == null) {return null;}
+	Gob self = player;
+	if(player.drives != 0) {
+	    Gob vehicle = map.glob.oc.getgob(player.drives);
+	    if(vehicle != null) {self = vehicle;}
+	}
+	return pathfinder().find(self.rc, to, self);
+    }
+    
+    /* Walks to the given point around known obstacles. Returns false
+     * if no path was found. */
+    public boolean pathto(Coord2d to) {
+	List<Coord2d> path = findpath(to);
+	return path != null && start(path);
+    }
+    
+    public boolean isEmpty() {
+	synchronized (queue) {return queue.isEmpty();}
+    }
+    
     public void click(Coord2d mc, ClickData inf) {
 	if(inf != null) {
 	    click(Gob.from(inf.ci));
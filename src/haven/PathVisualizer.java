@@ -8,13 +8,13 @@ import java.util.*;
 
 public class PathVisualizer implements RenderTree.Node {
     public static final HashSet<PathCategory> DEF_CATEGORIES = new HashSet<>(Arrays.asList(PathCategory.ME, PathCategory.FOE));
-    private static final VertexArray.Layout LAYOUT = new VertexArray.Layout(new VertexArray.Layout.Input(Homo3D.vertex, new VectorFormat(3, NumberFormat.FLOAT32), 0, 0, 12));
     
     public PathQueue path;
     
     
     public final Collection<RenderTree.Slot> slots = new ArrayList<>(1);
     private final Set<Moving> moves = new HashSet<>();
+    private final List<Moving> tmoves = new ArrayList<>();
     private final Map<PathCategory, MovingPath> paths = new HashMap<>();
     
     public PathVisualizer() {
@@ -37,47 +37,38 @@ public class PathVisualizer implements RenderTree.Node {
     }
     
     private void update() {
-	Set<Moving> tmoves;
+	for (MovingPath path : paths.values()) {
+	    path.clear();
+	}
+	tmoves.clear();
 	if(CFG.DISPLAY_GOB_PATHS.get()) {
-	    synchronized (moves) { tmoves = new HashSet<>(moves); }
-	} else {
-	    tmoves = new HashSet<>();
+	    synchronized (moves) { tmoves.addAll(moves); }
 	}
-	Map<PathCategory, List<Pair<Coord3f, Coord3f>>> categorized = new HashMap<>();
  
 	for (Moving m : tmoves) {
-	    PathCategory category = categorize(m);
-	    if(!categorized.containsKey(category)) {
-		categorized.put(category, new LinkedList<>());
-	    }
 	    try {
-		categorized.get(category).add(new Pair<>(
-		    m.getc(),
-		    m.gett()
-		));
+		paths.get(categorize(m)).add(m.getc(), m.gett());
 	    } catch (Loading ignored) {}
 	}
     
 	Set<PathCategory> selected = new HashSet<>(CFG.DISPLAY_GOB_PATHS_FOR.get());
 	if(CFG.QUEUE_PATHS.get() && path != null) {
 	    List<Pair<Coord3f, Coord3f>> lines = path.lines();
-	    categorized.put(PathCategory.QUEUED, lines);
+	    MovingPath queued = paths.get(PathCategory.QUEUED);
+	    for (Pair<Coord3f, Coord3f> line : lines) {
+		queued.add(line.a, line.b);
+	    }
 	    if(!selected.contains(PathCategory.ME) && lines.size() > 1) {
 		selected.add(PathCategory.ME);
 	    }
 	    if(selected.contains(PathCategory.ME)) {selected.add(PathCategory.QUEUED);}
 	}
     
+	/* Paths not in any tree give their space in the line pool back. */
+	boolean drawn;
+	synchronized (slots) {drawn = !slots.isEmpty();}
 	for (PathCategory cat : PathCategory.values()) {
-	    List<Pair<Coord3f, Coord3f>> lines = categorized.get(cat);
-	    MovingPath path = paths.get(cat);
-	    if(!selected.contains(cat) || lines == null || lines.isEmpty()) {
-		if(path != null) {
-		    path.update(null);
-		}
-	    } else {
-		path.update(lines);
-	    }
+	    paths.get(cat).commit(drawn && selected.contains(cat));
 	}
     
     }
@@ -97,21 +88,6 @@ public class PathVisualizer implements RenderTree.Node {
     
     private static final float Z = 1f;
     
-    private static float[] convert(List<Pair<Coord3f, Coord3f>> lines) {
-	float[] ret = new float[lines.size() * 6];
-	int i = 0;
-	for (Pair<Coord3f, Coord3f> line : lines) {
-	    ret[i++] = line.a.x;
-	    ret[i++] = -line.a.y;
-	    ret[i++] = line.a.z + Z;
-	    
-	    ret[i++] = line.b.x;
-	    ret[i++] = -line.b.y;
-	    ret[i++] = line.b.z + Z;
-	}
-	return ret;
-    }
-    
     public void addPath(Moving moving) {
 	if(moving == null) {return;}
 	synchronized (moves) { moves.add(moving); }
@@ -127,10 +103,14 @@ public class PathVisualizer implements RenderTree.Node {
 	update();
     }
     
-    private static class MovingPath implements RenderTree.Node, Rendered {
+    /* Collects the lines of one category every tick, and writes them
+     * into its range of the shared line buffer, which only uploads
+     * them if they changed. */
+    private static class MovingPath implements RenderTree.Node {
 	private final Pipe.Op state;
-	public final Collection<RenderTree.Slot> slots = new ArrayList<>(1);
-	private Model model;
+	private final VertexPool.Range lines = VertexPool.lines.range(Model.Mode.LINES);
+	private float[] buf = new float[16 * 6];
+	private int n = 0;
 	
 	public MovingPath(Pipe.Op state) {
 	    this.state = state;
@@ -139,38 +119,30 @@ public class PathVisualizer implements RenderTree.Node {
 	@Override
 	public void added(RenderTree.Slot slot) {
 	    slot.ostate(state);
-	    synchronized (slots) {slots.add(slot);}
+	    slot.add(lines);
 	}
 	
-	@Override
-	public void removed(RenderTree.Slot slot) {
-	    synchronized (slots) {slots.remove(slot);}
-	}
- 
-	@Override
-	public void draw(Pipe context, Render out) {
-	    if(model != null) {
-		out.draw(context, model);
-	    }
+	public void clear() {
+	    n = 0;
 	}
- 
-	public void update(List<Pair<Coord3f, Coord3f>> lines) {
-	    if(lines == null || lines.isEmpty()) {
-		model = null;
-	    } else {
-		float[] data = convert(lines);
-		
-		VertexArray.Buffer vbo = new VertexArray.Buffer(data.length * 4, DataBuffer.Usage.STATIC, DataBuffer.Filler.of(data));
-		VertexArray va = new VertexArray(LAYOUT, vbo);
-		
-		model = new Model(Model.Mode.LINES, va, null);
+	
+	public void add(Coord3f a, Coord3f b) {
+	    if((n + 2) * 3 > buf.length) {
+		buf = Arrays.copyOf(buf, buf.length * 2);
 	    }
+	    int i = n * 3;
+	    buf[i++] = a.x;
+	    buf[i++] = -a.y;
+	    buf[i++] = a.z + Z;
 	    
-	    Collection<RenderTree.Slot> tslots;
-	    synchronized (slots) { tslots = new ArrayList<>(slots); }
-	    try {
-		tslots.forEach(RenderTree.Slot::update);
-	    } catch (Exception ignored) {}
+	    buf[i++] = b.x;
+	    buf[i++] = -b.y;
+	    buf[i++] = b.z + Z;
+	    n += 2;
+	}
+	
+	public void commit(boolean show) {
+	    lines.set(buf, show ? n : 0);
 	}
     
     }
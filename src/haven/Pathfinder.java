@@ -0,0 +1,473 @@
+package haven;
+
+import java.util.*;
+
+import static haven.MCache.*;
+
+/* Client-side pathfinding over a navigation grid built from tile
+ * passability and gob obstacle footprints. Tile masks are cached per
+ * map grid and rebuilt when the grid changes; footprints are cached
+ * per gob and rebuilt when it moves or turns. Searches are plain A*
+ * over a bounded window around the endpoints, and the resulting
+ * cell path is smoothed by line of sight. */
+public class Pathfinder {
+    public static final int CELLS = 4;
+    public static final double CELL = tilesz.x / CELLS;
+    public static final Set<String> impassable = new HashSet<>(Arrays.asList(
+	"gfx/tiles/nil", "gfx/tiles/deep", "gfx/tiles/odeep", "gfx/tiles/odeeper"));
+    public static double radius = 2.5;
+    public static int margin = 8 * CELLS, maxdim = 256 * CELLS, maxexpand = 200000;
+    private static final double SQRT2 = Math.sqrt(2);
+    private static long queries, found, qtime, masktime, fptime;
+    public final MCache map;
+    public final Iterable<Gob> gobs;
+    private final Map<MCache.Grid, TileMask> masks = new WeakHashMap<>();
+    private final Map<Gob, Footprint> footprints = new WeakHashMap<>();
+
+    private static class TileMask {
+	final long id;
+	final int seq;
+	final boolean[] blocked = new boolean[cmaps.x * cmaps.y];
+
+	TileMask(MCache map, MCache.Grid g) {
+	    this.id = g.id;
+	    this.seq = g.seq;
+	    for(int i = 0; i < blocked.length; i++) {
+		Resource.Spec set = map.tilesetn(g.tiles[i]);
+		blocked[i] = (set != null) && impassable.contains(set.name);
+	    }
+	}
+    }
+
+    private static class Footprint {
+	final Coord2d rc;
+	final double a;
+	final int[] cells;
+
+	Footprint(Coord2d rc, double a, int[] cells) {
+	    this.rc = rc;
+	    this.a = a;
+	    this.cells = cells;
+	}
+    }
+
+    public Pathfinder(MCache map, Iterable<Gob> gobs) {
+	this.map = map;
+	this.gobs = gobs;
+    }
+
+    public static Coord cell(Coord2d c) {
+	return(c.floor(CELL, CELL));
+    }
+
+    public static Coord2d center(int x, int y) {
+	return(Coord2d.of((x + 0.5) * CELL, (y + 0.5) * CELL));
+    }
+
+    private TileMask mask(MCache.Grid g) {
+	TileMask m = masks.get(g);
+	if((m == null) || (m.id != g.id) || (m.seq != g.seq)) {
+	    long st = System.nanoTime();
+	    masks.put(g, m = new TileMask(map, g));
+	    masktime += System.nanoTime() - st;
+	}
+	return(m);
+    }
+
+    /* The footprint of the gob, in polygons relative to its
+     * position and heading. */
+    protected List<Coord2d[]> polygons(Gob gob) {
+	List<Coord2d[]> ret = new ArrayList<>();
+	Resource res = Hitbox.getResource(gob);
+	for(Resource.Neg neg : res.layers(Resource.Neg.class)) {
+	    ret.add(new Coord2d[] {
+		    Coord2d.of(neg.ac.x, neg.ac.y), Coord2d.of(neg.bc.x, neg.ac.y),
+		    Coord2d.of(neg.bc.x, neg.bc.y), Coord2d.of(neg.ac.x, neg.bc.y),
+		});
+	}
+	for(Resource.Obstacle obst : res.layers(Resource.Obstacle.class)) {
+	    if("build".equals(obst.id))
+		continue;
+	    Collections.addAll(ret, obst.p);
+	}
+	return(ret);
+    }
+
+    private static boolean inside(Coord2d[] poly, double x, double y) {
+	boolean in = false;
+	for(int i = 0, o = poly.length - 1; i < poly.length; o = i++) {
+	    Coord2d a = poly[i], b = poly[o];
+	    if(((a.y > y) != (b.y > y)) && (x < (b.x - a.x) * (y - a.y) / (b.y - a.y) + a.x))
+		in = !in;
+	}
+	return(in);
+    }
+
+    private static double edgedist(Coord2d[] poly, double x, double y) {
+	double min = Double.POSITIVE_INFINITY;
+	for(int i = 0, o = poly.length - 1; i < poly.length; o = i++) {
+	    Coord2d a = poly[i], b = poly[o];
+	    double dx = b.x - a.x, dy = b.y - a.y;
+	    double l = (dx * dx) + (dy * dy);
+	    double t = (l == 0) ? 0 : Utils.clip((((x - a.x) * dx) + ((y - a.y) * dy)) / l, 0, 1);
+	    double ex = a.x + (t * dx) - x, ey = a.y + (t * dy) - y;
+	    min = Math.min(min, (ex * ex) + (ey * ey));
+	}
+	return(Math.sqrt(min));
+    }
+
+    private int[] rasterize(Gob gob, Coord2d rc, double a) {
+	List<Coord2d[]> polys = polygons(gob);
+	if(polys.isEmpty())
+	    return(new int[0]);
+	double s = Math.sin(a), c = Math.cos(a);
+	int[] buf = new int[64];
+	int n = 0;
+	for(Coord2d[] lp : polys) {
+	    Coord2d[] wp = new Coord2d[lp.length];
+	    double lx = Double.POSITIVE_INFINITY, ly = lx, hx = Double.NEGATIVE_INFINITY, hy = hx;
+	    for(int i = 0; i < lp.length; i++) {
+		wp[i] = Coord2d.of(rc.x + (lp[i].x * c) - (lp[i].y * s), rc.y + (lp[i].x * s) + (lp[i].y * c));
+		lx = Math.min(lx, wp[i].x); hx = Math.max(hx, wp[i].x);
+		ly = Math.min(ly, wp[i].y); hy = Math.max(hy, wp[i].y);
+	    }
+	    int cx1 = (int)Math.floor((lx - radius) / CELL), cx2 = (int)Math.floor((hx + radius) / CELL);
+	    int cy1 = (int)Math.floor((ly - radius) / CELL), cy2 = (int)Math.floor((hy + radius) / CELL);
+	    for(int y = cy1; y <= cy2; y++) {
+		for(int x = cx1; x <= cx2; x++) {
+		    double px = (x + 0.5) * CELL, py = (y + 0.5) * CELL;
+		    if(inside(wp, px, py) || (edgedist(wp, px, py) < radius)) {
+			if(n + 2 > buf.length)
+			    buf = Arrays.copyOf(buf, buf.length * 2);
+			buf[n++] = x;
+			buf[n++] = y;
+		    }
+		}
+	    }
+	}
+	return(Arrays.copyOf(buf, n));
+    }
+
+    private Footprint footprint(Gob gob) {
+	Coord2d rc = gob.rc;
+	double a = gob.a;
+	Footprint fp = footprints.get(gob);
+	if((fp == null) || !fp.rc.equals(rc) || (fp.a != a)) {
+	    long st = System.nanoTime();
+	    footprints.put(gob, fp = new Footprint(rc, a, rasterize(gob, rc, a)));
+	    fptime += System.nanoTime() - st;
+	}
+	return(fp);
+    }
+
+    protected boolean obstacle(Gob gob, Gob self) {
+	if((gob == self) || (gob.rc == null))
+	    return(false);
+	if((self != null) && ((gob.id == self.drives) || (self.id == gob.drives)))
+	    return(false);
+	/* Things that move around are not worth routing around. */
+	if(gob.getattr(Moving.class) != null)
+	    return(false);
+	return(!Hitbox.passable(gob));
+    }
+
+    private class Region {
+	final Coord ul;
+	final int w, h;
+	final boolean[] blocked;
+
+	Region(Coord a, Coord b) {
+	    int pad = Math.max(margin, (int)(a.dist(b) / 2));
+	    Coord ul = Coord.of(Math.min(a.x, b.x) - pad, Math.min(a.y, b.y) - pad);
+	    Coord br = Coord.of(Math.max(a.x, b.x) + pad, Math.max(a.y, b.y) + pad);
+	    this.w = Math.min(br.x - ul.x + 1, maxdim);
+	    this.h = Math.min(br.y - ul.y + 1, maxdim);
+	    /* Keep both endpoints inside when clamped. */
+	    this.ul = Coord.of(Math.max(ul.x, Math.max(a.x, b.x) - w + 1), Math.max(ul.y, Math.max(a.y, b.y) - h + 1));
+	    this.blocked = new boolean[w * h];
+	    filltiles();
+	}
+
+	private void filltiles() {
+	    int tx1 = Math.floorDiv(ul.x, CELLS), tx2 = Math.floorDiv(ul.x + w - 1, CELLS);
+	    int ty1 = Math.floorDiv(ul.y, CELLS), ty2 = Math.floorDiv(ul.y + h - 1, CELLS);
+	    for(int ty = ty1; ty <= ty2; ty++) {
+		for(int tx = tx1; tx <= tx2; tx++) {
+		    boolean b;
+		    Coord tc = Coord.of(tx, ty);
+		    try {
+			MCache.Grid g = map.getgridt(tc);
+			b = mask(g).blocked[(tx - g.ul.x) + ((ty - g.ul.y) * cmaps.x)];
+		    } catch(Loading l) {
+			/* Unknown terrain is not walked into. */
+			b = true;
+		    }
+		    if(b) {
+			for(int cy = ty * CELLS; cy < (ty + 1) * CELLS; cy++) {
+			    for(int cx = tx * CELLS; cx < (tx + 1) * CELLS; cx++)
+				set(cx, cy);
+			}
+		    }
+		}
+	    }
+	}
+
+	void set(int x, int y) {
+	    x -= ul.x; y -= ul.y;
+	    if((x >= 0) && (x < w) && (y >= 0) && (y < h))
+		blocked[x + (y * w)] = true;
+	}
+
+	void clear(int x, int y) {
+	    x -= ul.x; y -= ul.y;
+	    if((x >= 0) && (x < w) && (y >= 0) && (y < h))
+		blocked[x + (y * w)] = false;
+	}
+
+	boolean contains(Coord c) {
+	    return((c.x >= ul.x) && (c.x < ul.x + w) && (c.y >= ul.y) && (c.y < ul.y + h));
+	}
+
+	boolean free(int x, int y) {
+	    x -= ul.x; y -= ul.y;
+	    return((x >= 0) && (x < w) && (y >= 0) && (y < h) && !blocked[x + (y * w)]);
+	}
+
+	void stamp(Gob self) {
+	    Coord2d lo = center(ul.x, ul.y).sub(tilesz.mul(8)), hi = center(ul.x + w, ul.y + h).add(tilesz.mul(8));
+	    for(Gob gob : gobs) {
+		Coord2d rc = gob.rc;
+		if((rc == null) || (rc.x < lo.x) || (rc.y < lo.y) || (rc.x > hi.x) || (rc.y > hi.y))
+		    continue;
+		try {
+		    if(!obstacle(gob, self))
+			continue;
+		    int[] cells = footprint(gob).cells;
+		    for(int i = 0; i < cells.length; i += 2)
+			set(cells[i], cells[i + 1]);
+		} catch(Loading l) {
+		}
+	    }
+	}
+
+	/* Line of sight between two cells, without squeezing
+	 * diagonally between blocked cells. */
+	boolean visible(int x1, int y1, int x2, int y2) {
+	    int dx = Math.abs(x2 - x1), dy = Math.abs(y2 - y1);
+	    int sx = (x2 > x1) ? 1 : -1, sy = (y2 > y1) ? 1 : -1;
+	    int x = x1, y = y1, err = dx - dy;
+	    while((x != x2) || (y != y2)) {
+		int e2 = err * 2;
+		boolean mx = e2 > -dy, my = e2 < dx;
+		if(mx && my && (!free(x + sx, y) || !free(x, y + sy)))
+		    return(false);
+		if(mx) {err -= dy; x += sx;}
+		if(my) {err += dx; y += sy;}
+		if(!free(x, y))
+		    return(false);
+	    }
+	    return(true);
+	}
+    }
+
+    private static final int[] DX = {1, 0, -1, 0, 1, -1, 1, -1};
+    private static final int[] DY = {0, 1, 0, -1, 1, 1, -1, -1};
+
+    private static double octile(int dx, int dy) {
+	dx = Math.abs(dx); dy = Math.abs(dy);
+	return(Math.max(dx, dy) + ((SQRT2 - 1) * Math.min(dx, dy)));
+    }
+
+    /* Cells usable as a goal: the goal itself if free, otherwise the
+     * free cells bordering the obstacle it lies in. */
+    private static boolean[] goals(Region r, int gx, int gy) {
+	boolean[] ret = new boolean[r.w * r.h];
+	if(r.free(gx, gy)) {
+	    ret[(gx - r.ul.x) + ((gy - r.ul.y) * r.w)] = true;
+	    return(ret);
+	}
+	boolean[] seen = new boolean[r.w * r.h];
+	ArrayDeque<Integer> q = new ArrayDeque<>();
+	int gi = (gx - r.ul.x) + ((gy - r.ul.y) * r.w);
+	seen[gi] = true;
+	q.add(gi);
+	while(!q.isEmpty()) {
+	    int i = q.poll();
+	    int x = i % r.w, y = i / r.w;
+	    for(int d = 0; d < 8; d++) {
+		int nx = x + DX[d], ny = y + DY[d];
+		if((nx < 0) || (nx >= r.w) || (ny < 0) || (ny >= r.h))
+		    continue;
+		int ni = nx + (ny * r.w);
+		if(seen[ni])
+		    continue;
+		seen[ni] = true;
+		if(r.blocked[ni])
+		    q.add(ni);
+		else
+		    ret[ni] = true;
+	    }
+	}
+	return(ret);
+    }
+
+    private static int[] astar(Region r, int sx, int sy, int gx, int gy, boolean[] goal) {
+	int n = r.w * r.h;
+	float[] g = new float[n];
+	int[] prev = new int[n];
+	boolean[] closed = new boolean[n];
+	Arrays.fill(g, Float.POSITIVE_INFINITY);
+	int lgx = gx - r.ul.x, lgy = gy - r.ul.y;
+	int si = (sx - r.ul.x) + ((sy - r.ul.y) * r.w);
+	g[si] = 0;
+	prev[si] = -1;
+	Heap open = new Heap();
+	open.add(si, (float)octile(sx - gx, sy - gy));
+	int expanded = 0;
+	while(open.n > 0) {
+	    int i = open.poll();
+	    if(closed[i])
+		continue;
+	    if(goal[i]) {
+		int len = 0;
+		for(int p = i; p >= 0; p = prev[p])
+		    len++;
+		int[] ret = new int[len];
+		for(int p = i; p >= 0; p = prev[p])
+		    ret[--len] = p;
+		return(ret);
+	    }
+	    closed[i] = true;
+	    if(++expanded > maxexpand)
+		break;
+	    int x = i % r.w, y = i / r.w;
+	    for(int d = 0; d < 8; d++) {
+		int nx = x + DX[d], ny = y + DY[d];
+		if((nx < 0) || (nx >= r.w) || (ny < 0) || (ny >= r.h))
+		    continue;
+		int ni = nx + (ny * r.w);
+		if(r.blocked[ni] || closed[ni])
+		    continue;
+		if((d >= 4) && (r.blocked[nx + (y * r.w)] || r.blocked[x + (ny * r.w)]))
+		    continue;
+		float ng = g[i] + ((d >= 4) ? (float)SQRT2 : 1f);
+		if(ng < g[ni]) {
+		    g[ni] = ng;
+		    prev[ni] = i;
+		    open.add(ni, ng + (float)octile(nx - lgx, ny - lgy));
+		}
+	    }
+	}
+	return(null);
+    }
+
+    private static class Heap {
+	int[] ids = new int[256];
+	float[] pri = new float[256];
+	int n = 0;
+
+	void add(int id, float p) {
+	    if(n == ids.length) {
+		ids = Arrays.copyOf(ids, n * 2);
+		pri = Arrays.copyOf(pri, n * 2);
+	    }
+	    int i = n++;
+	    while(i > 0) {
+		int pi = (i - 1) / 2;
+		if(pri[pi] <= p)
+		    break;
+		ids[i] = ids[pi]; pri[i] = pri[pi];
+		i = pi;
+	    }
+	    ids[i] = id; pri[i] = p;
+	}
+
+	int poll() {
+	    int ret = ids[0];
+	    int id = ids[--n];
+	    float p = pri[n];
+	    int i = 0;
+	    while(true) {
+		int c = (i * 2) + 1;
+		if(c >= n)
+		    break;
+		if((c + 1 < n) && (pri[c + 1] < pri[c]))
+		    c++;
+		if(pri[c] >= p)
+		    break;
+		ids[i] = ids[c]; pri[i] = pri[c];
+		i = c;
+	    }
+	    ids[i] = id; pri[i] = p;
+	    return(ret);
+	}
+    }
+
+    /* Returns smoothed waypoints from (but not including) the start
+     * to the target, or null if no path could be found. */
+    public List<Coord2d> find(Coord2d from, Coord2d to, Gob self) {
+	long st = System.nanoTime();
+	try {
+	    Coord sc = cell(from), gc = cell(to);
+	    Region r;
+	    synchronized(this) {
+		r = new Region(sc, gc);
+		if(!r.contains(sc) || !r.contains(gc))
+		    return(null);
+		r.stamp(self);
+	    }
+	    /* Don't get stuck on obstacles we are already brushing. */
+	    for(int y = -1; y <= 1; y++) {
+		for(int x = -1; x <= 1; x++)
+		    r.clear(sc.x + x, sc.y + y);
+	    }
+	    boolean[] goal = goals(r, gc.x, gc.y);
+	    int[] path = astar(r, sc.x, sc.y, gc.x, gc.y, goal);
+	    if(path == null)
+		return(null);
+	    List<Coord2d> ret = new ArrayList<>();
+	    int anchor = 0;
+	    while(anchor < path.length - 1) {
+		int ax = path[anchor] % r.w, ay = path[anchor] / r.w;
+		int next = anchor + 1;
+		for(int i = path.length - 1; i > next; i--) {
+		    if(r.visible(ax + r.ul.x, ay + r.ul.y, (path[i] % r.w) + r.ul.x, (path[i] / r.w) + r.ul.y)) {
+			next = i;
+			break;
+		    }
+		}
+		if(next == path.length - 1)
+		    break;
+		ret.add(center((path[next] % r.w) + r.ul.x, (path[next] / r.w) + r.ul.y));
+		anchor = next;
+	    }
+	    int last = path[path.length - 1];
+	    if(goal[(gc.x - r.ul.x) + ((gc.y - r.ul.y) * r.w)] && (last == (gc.x - r.ul.x) + ((gc.y - r.ul.y) * r.w)))
+		ret.add(to);
+	    else
+		ret.add(center((last % r.w) + r.ul.x, (last / r.w) + r.ul.y));
+	    synchronized(Pathfinder.class) {found++;}
+	    return(ret);
+	} finally {
+	    synchronized(Pathfinder.class) {
+		queries++;
+		qtime += System.nanoTime() - st;
+	    }
+	}
+    }
+
+    public static String stats() {
+	synchronized(Pathfinder.class) {
+	    return(String.format("pathfinder: %d queries, %d found, %.2f ms avg, %.1f ms tile masks, %.1f ms footprints",
+				 queries, found, (queries == 0) ? 0.0 : (qtime * 1e-6) / queries, masktime * 1e-6, fptime * 1e-6));
+	}
+    }
+
+    static {
+	Console.setscmd("pathstats", new Console.Command() {
+		public void run(Console cons, String[] args) {
+		    cons.out.println(stats());
+		}
+	    });
+    }
+}
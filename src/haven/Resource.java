@@ -44,6 +44,7 @@ import java.awt.image.BufferedImage;
 public class Resource implements Serializable {
     public static final Config.Variable<URL> resurl = Config.Variable.propu("haven.resurl", "");
     public static final Config.Variable<Path> resdir = Config.Variable.propp("haven.resdir", System.getenv("HAFEN_RESDIR"));
+    public static final Config.Variable<Integer> resloaders = Config.Variable.propi("haven.resloaders", 6);
     private static ResCache prscache;
     public static ThreadGroup loadergroup = null;
     private static Map<String, LayerFactory<?>> ltypes = new TreeMap<String, LayerFactory<?>>();
@@ -390,7 +391,16 @@ public class Resource implements Serializable {
 			 * reload a URL even when it has changed. */
 			c.setUseCaches(false);
 			c.addRequestProperty("User-Agent", USER_AGENT);
-			return(c.getInputStream());
+			return(new FilterInputStream(c.getInputStream()) {
+				/* A connection is only returned to the
+				 * keep-alive cache if its response was read
+				 * to the end. */
+				public void close() throws IOException {
+				    byte[] buf = new byte[1024];
+				    for(int i = 0; (i < 64) && (in.read(buf) >= 0); i++);
+				    super.close();
+				}
+			    });
 		    }
 		};
 	    ret.check();
@@ -734,7 +744,9 @@ public class Resource implements Serializable {
 				    return;
 			    }
 			}
+			long st = Trace.now();
 			handle(cur);
+			Trace.span("resload", cur.name, st);
 			cur = null;
 		    }
 		} catch(InterruptedException e) {
@@ -849,6 +861,10 @@ public class Resource implements Serializable {
 	    synchronized(Resource.class) {
 		if(_remote == null) {
 		    Pool remote = new Pool(local()/*, new CustomizedJarSource("customized-remote")*/);
+		    /* Remote loaders mostly wait on the network, so run
+		     * more of them; queued resources are still taken in
+		     * priority order. */
+		    remote.nloaders = Math.max(resloaders.get(), 1);
 		    if(prscache != null)
 			remote.add(new CacheSource(prscache));
 		    _remote = remote;;
@@ -859,6 +875,10 @@ public class Resource implements Serializable {
     }
 
     public static void addurl(URL url) {
+	/* Let every loader keep its connection alive between
+	 * resources, rather than the default of five per host. */
+	if(System.getProperty("http.maxConnections") == null)
+	    System.setProperty("http.maxConnections", String.valueOf(Math.max(resloaders.get(), 5)));
 	ResSource src = new HttpSource(url);
 	if(prscache != null) {
 	    class Caching extends TeeSource {
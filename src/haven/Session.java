@@ -317,6 +317,7 @@ public class Session implements Resource.Resolver {
 		    closed = true;
 		    uimsgs.notifyAll();
 		}
+		ItemInfo.InfoCache.clear(Session.this);
 	    }
 
 	    public void handle(PMessage msg) {
@@ -324,20 +325,43 @@ public class Session implements Resource.Resolver {
 	    }
 
 	    public void handle(OCache.ObjDelta delta) {
+		long st = System.nanoTime();
 		glob.oc.receive(delta);
+		stats.objdata(System.nanoTime() - st);
 	    }
 
 	    public void mapdata(Message msg) {
+		long st = System.nanoTime();
 		glob.map.mapdata(msg);
+		stats.mapdata(System.nanoTime() - st);
 	    }
 	};
 
+    /* Time spent applying world-state updates from the server. */
+    public static class Stats {
+	public long objn, objtime, mapn, maptime;
+
+	synchronized void objdata(long t) {objn++; objtime += t;}
+	synchronized void mapdata(long t) {mapn++; maptime += t;}
+
+	public synchronized Stats copy() {
+	    Stats ret = new Stats();
+	    ret.objn = objn; ret.objtime = objtime;
+	    ret.mapn = mapn; ret.maptime = maptime;
+	    return(ret);
+	}
+    }
+    public final Stats stats = new Stats();
+
     public Session(SocketAddress server, String username, byte[] cookie, Object... args) throws InterruptedException {
 	this.character = new CharacterInfo();
 	this.conn = new Connection(server, username);
 	this.username = username;
 	this.glob = new Glob(this);
 	conn.add(conncb);
+	String rec = Utils.getprop("haven.recordsess", null);
+	if(rec != null)
+	    conn.tap = new Connection.Recorder(new File(String.format(rec, username)));
 	conn.connect(cookie, args);
 	
 	Arrays.stream(LOCAL_CACHED).forEach(this::cacheres);
@@ -346,6 +370,9 @@ public class Session implements Resource.Resolver {
 
     public void close() {
 	conn.close();
+	Connection.Tap tap = conn.tap;
+	if(tap != null)
+	    tap.close();
     }
 
     public void queuemsg(PMessage pmsg) {
@@ -359,6 +386,12 @@ public class Session implements Resource.Resolver {
 	}
     }
 
+    public int uiqueue() {
+	synchronized(uimsgs) {
+	    return(uimsgs.size());
+	}
+    }
+
     public PMessage getuimsg() throws InterruptedException {
 	synchronized(uimsgs) {
 	    while(true) {
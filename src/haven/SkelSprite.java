@@ -157,7 +157,7 @@ public class SkelSprite extends Sprite implements Sprite.CUpd, EquipTarget, Skel
     public void iparts(int mask, Collection<RenderTree.Node> rbuf, Collection<Runnable> tbuf, Collection<Consumer<Render>> gbuf) {
 	for(FastMesh.MeshRes mr : res.layers(FastMesh.MeshRes.class)) {
 	    if((mr.mat != null) && ((mr.id < 0) || (((1 << mr.id) & mask) != 0)))
-		rbuf.add(animwrap(mr.mat.get().apply(mr.m), tbuf, gbuf));
+		rbuf.add(animwrap(mr.matmesh(), tbuf, gbuf));
 	}
 	Owner rec = null;
 	for(RenderLink.Res lr : res.layers(RenderLink.Res.class)) {
@@ -0,0 +1,533 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.nio.*;
+import haven.render.*;
+import static haven.MCache.tilesz;
+
+/* Bakes the parts of static sprites into merged meshes, one set per
+ * map cut, material and vertex layout, so that a field of crops is
+ * drawn through a handful of slots rather than one per plant part.
+ *
+ * Members are packed into buckets of at most MAXVERTS vertices, each
+ * drawn as one mesh, so that a change to one member only rebuilds the
+ * bucket it is in. Buckets are rebuilt on Defer threads once they
+ * have stopped changing for a moment, or right away when members
+ * have left them, and swapped in from tick(). A member is only drawn
+ * by the batch once its buckets have been rebuilt with it, which
+ * baked() reports; until then, and as soon as it stops qualifying,
+ * its sprite is expected to draw it itself. */
+public class StaticBatch implements RenderTree.Node {
+    public static final Config.Variable<Boolean> enabled = Config.Variable.propb("haven.staticbatch", true);
+    public static final int MAXVERTS = 65536, MAXBUILDS = 4;
+    public static final double SETTLE = 0.1;
+    private static final Set<Class<?>> mergeable = new HashSet<>(Arrays.asList(VertexBuf.VertexData.class, VertexBuf.NormalData.class,
+										 VertexBuf.TexelData.class, VertexBuf.ColorData.class));
+    private final Collection<RenderTree.Slot> slots = new CopyOnWriteArrayList<>();
+    private final Map<Key, List<Bucket>> buckets = new HashMap<>();
+    private final Set<Bucket> dirty = new HashSet<>(), building = new HashSet<>();
+    private int nmembers = 0;
+    private long nrebuilt = 0;
+    private double rebuildtime = 0, maxrebuild = 0;
+
+    public static class Part {
+	public final FastMesh mesh;
+	public final Pipe.Op mat;
+	public final Matrix4f xf;
+
+	public Part(FastMesh mesh, Pipe.Op mat, Matrix4f xf) {
+	    this.mesh = mesh;
+	    this.mat = mat;
+	    this.xf = xf;
+	}
+    }
+
+    /* Whether a mesh only has vertex attributes that merge() knows
+     * how to transform or copy. */
+    public static boolean mergeable(FastMesh mesh) {
+	if((mesh.vert.num > MAXVERTS) || (mesh.vert.buf(VertexBuf.VertexData.class) == null))
+	    return(false);
+	for(VertexBuf.AttribData attr : mesh.vert.bufs) {
+	    if(!mergeable.contains(attr.getClass()))
+		return(false);
+	}
+	return(true);
+    }
+
+    private static class Key {
+	final Coord cut;
+	final Pipe.Op mat;
+	final List<Class<?>> layout;
+
+	Key(Coord cut, Pipe.Op mat, FastMesh mesh) {
+	    this.cut = cut;
+	    this.mat = mat;
+	    List<Class<?>> layout = new ArrayList<>(mesh.vert.bufs.length);
+	    for(VertexBuf.AttribData attr : mesh.vert.bufs)
+		layout.add(attr.getClass());
+	    this.layout = layout;
+	}
+
+	public int hashCode() {
+	    return((((cut.hashCode() * 31) + System.identityHashCode(mat)) * 31) + layout.hashCode());
+	}
+
+	public boolean equals(Object o) {
+	    if(!(o instanceof Key))
+		return(false);
+	    Key that = (Key)o;
+	    return(this.cut.equals(that.cut) && (this.mat == that.mat) && this.layout.equals(that.layout));
+	}
+    }
+
+    public class Member {
+	public final Gob gob;
+	public final Coord3f pos;
+	private final Map<Bucket, List<Part>> in = new HashMap<>();
+	private int unbaked;
+	private boolean removed = false;
+
+	private Member(Gob gob, Coord3f pos) {
+	    this.gob = gob;
+	    this.pos = pos;
+	}
+
+	public boolean baked() {
+	    synchronized(buckets) {
+		return(!removed && (unbaked == 0));
+	    }
+	}
+
+	public void remove() {
+	    double now = Utils.rtime();
+	    synchronized(buckets) {
+		if(removed)
+		    return;
+		removed = true;
+		for(Bucket b : in.keySet()) {
+		    b.nverts -= nverts(b.members.remove(this));
+		    b.pending.remove(this);
+		    b.removals = true;
+		    b.lastchange = now;
+		    dirty.add(b);
+		}
+		in.clear();
+		nmembers--;
+	    }
+	}
+    }
+
+    private class Bucket {
+	final Key key;
+	final Coord3f origin;
+	final Map<Member, List<Part>> members = new LinkedHashMap<>();
+	final Set<Member> pending = new HashSet<>();
+	final Click click = new Click(this);
+	int nverts = 0;
+	double lastchange;
+	boolean removals;
+	volatile Version cur;
+	Defer.Future<Version> next;
+	Collection<Member> nextmembers;
+
+	Bucket(Key key) {
+	    this.key = key;
+	    this.origin = Coord3f.of((float)(key.cut.x * MCache.cutsz.x * tilesz.x), -(float)(key.cut.y * MCache.cutsz.y * tilesz.y), 0);
+	}
+    }
+
+    private class Version implements RenderTree.Node, Disposable {
+	final Pipe.Op st;
+	final FastMesh mesh;
+	final int nparts;
+	final Collection<RenderTree.Slot> vslots = new ArrayList<>(1);
+
+	Version(Bucket b, FastMesh mesh, int nparts) {
+	    this.st = Pipe.Op.compose(b.key.mat, new Location(Transform.makexlate(new Matrix4f(), b.origin)), b.click);
+	    this.mesh = mesh;
+	    this.nparts = nparts;
+	}
+
+	public void added(RenderTree.Slot slot) {
+	    slot.ostate(st);
+	    slot.add(mesh);
+	    synchronized(vslots) {
+		vslots.add(slot);
+	    }
+	}
+
+	public void removed(RenderTree.Slot slot) {
+	    synchronized(vslots) {
+		vslots.remove(slot);
+	    }
+	}
+
+	RenderTree.Slot under(RenderTree.Slot parent) {
+	    synchronized(vslots) {
+		for(RenderTree.Slot slot : vslots) {
+		    if(slot.parent() == parent)
+			return(slot);
+		}
+	    }
+	    return(null);
+	}
+
+	public void dispose() {
+	    mesh.dispose();
+	}
+    }
+
+    /* Stands in for the clickable of the gob whose parts were
+     * clicked, which resolve() finds from the clicked map
+     * position. */
+    public class Click extends Clickable {
+	private final Bucket b;
+
+	private Click(Bucket b) {
+	    this.b = b;
+	}
+
+	public Gob nearest(Coord2d mc) {
+	    Gob ret = null;
+	    double md = Double.MAX_VALUE;
+	    List<Member> members;
+	    synchronized(buckets) {
+		members = new ArrayList<>(b.members.keySet());
+	    }
+	    for(Member m : members) {
+		if(m.gob == null)
+		    continue;
+		double d = m.gob.rc.dist(mc);
+		if(d < md) {
+		    md = d;
+		    ret = m.gob;
+		}
+	    }
+	    return(ret);
+	}
+
+	public String toString() {
+	    return(String.format("#<batch-click %s>", b.key.cut));
+	}
+    }
+
+    public static ClickData resolve(ClickData cd, Coord2d mc) {
+	if((cd == null) || !(cd.ci instanceof Click) || (mc == null))
+	    return(cd);
+	Gob gob = ((Click)cd.ci).nearest(mc);
+	return((gob == null) ? null : new ClickData(new Gob.GobClick(gob), cd.slot));
+    }
+
+    public static Coord cutof(Coord3f pos) {
+	return(Coord.of(Utils.floordiv(pos.x, tilesz.x * MCache.cutsz.x), Utils.floordiv(-pos.y, tilesz.y * MCache.cutsz.y)));
+    }
+
+    private static int nverts(Collection<Part> parts) {
+	int ret = 0;
+	if(parts != null) {
+	    for(Part p : parts)
+		ret += p.mesh.vert.num;
+	}
+	return(ret);
+    }
+
+    /* Adds the parts of a sprite, with transforms relative to pos,
+     * which is in render coordinates like Gob placements. Returns
+     * null if the parts are too large to batch. */
+    public Member add(Gob gob, Coord3f pos, Collection<Part> parts) {
+	Member m = new Member(gob, pos);
+	Coord cut = cutof(pos);
+	Map<Key, List<Part>> bykey = new HashMap<>();
+	for(Part p : parts)
+	    bykey.computeIfAbsent(new Key(cut, p.mat, p.mesh), k -> new ArrayList<>()).add(p);
+	for(List<Part> kp : bykey.values()) {
+	    if(nverts(kp) > MAXVERTS)
+		return(null);
+	}
+	double now = Utils.rtime();
+	synchronized(buckets) {
+	    for(Map.Entry<Key, List<Part>> ent : bykey.entrySet()) {
+		int nv = nverts(ent.getValue());
+		List<Bucket> cand = buckets.computeIfAbsent(ent.getKey(), k -> new ArrayList<>());
+		Bucket b = null;
+		for(Bucket c : cand) {
+		    if(c.nverts + nv <= MAXVERTS) {
+			b = c;
+			break;
+		    }
+		}
+		if(b == null)
+		    cand.add(b = new Bucket(ent.getKey()));
+		b.members.put(m, ent.getValue());
+		b.nverts += nv;
+		b.pending.add(m);
+		b.lastchange = now;
+		dirty.add(b);
+		m.in.put(b, ent.getValue());
+	    }
+	    m.unbaked = m.in.size();
+	    nmembers++;
+	}
+	return(m);
+    }
+
+    /* Merges meshes of identical layout, with at most MAXVERTS
+     * vertices in all, into one, transforming positions and
+     * normals. */
+    public static FastMesh merge(List<FastMesh> meshes, List<Matrix4f> xfs) {
+	int nv = 0, ni = 0;
+	for(FastMesh m : meshes) {
+	    nv += m.vert.num;
+	    ni += m.indb.capacity();
+	}
+	if(nv > MAXVERTS)
+	    throw(new IllegalArgumentException("too many vertices to merge: " + nv));
+	return(merge(meshes, xfs, nv, ni));
+    }
+
+    private static FastMesh merge(List<FastMesh> meshes, List<Matrix4f> xfs, int nv, int ni) {
+	VertexBuf.AttribData[] proto = meshes.get(0).vert.bufs;
+	FloatBuffer[] dst = new FloatBuffer[proto.length];
+	for(int a = 0; a < proto.length; a++)
+	    dst[a] = Utils.wfbuf(nv * proto[a].elfmt.nc);
+	short[] ind = new short[ni];
+	int vo = 0, io = 0;
+	for(int i = 0; i < meshes.size(); i++) {
+	    FastMesh mesh = meshes.get(i);
+	    float[] m = xfs.get(i).m;
+	    int n = mesh.vert.num;
+	    for(int a = 0; a < proto.length; a++) {
+		VertexBuf.FloatData attr = (VertexBuf.FloatData)mesh.vert.bufs[a];
+		FloatBuffer src = attr.data, out = dst[a];
+		int nc = attr.elfmt.nc, o = vo * nc;
+		if(attr instanceof VertexBuf.VertexData) {
+		    for(int v = 0; v < n; v++) {
+			float x = src.get(v * 3), y = src.get(v * 3 + 1), z = src.get(v * 3 + 2);
+			out.put(o++, (m[0] * x) + (m[4] * y) + (m[ 8] * z) + m[12]);
+			out.put(o++, (m[1] * x) + (m[5] * y) + (m[ 9] * z) + m[13]);
+			out.put(o++, (m[2] * x) + (m[6] * y) + (m[10] * z) + m[14]);
+		    }
+		} else if(attr instanceof VertexBuf.NormalData) {
+		    for(int v = 0; v < n; v++) {
+			float x = src.get(v * 3), y = src.get(v * 3 + 1), z = src.get(v * 3 + 2);
+			float nx = (m[0] * x) + (m[4] * y) + (m[ 8] * z);
+			float ny = (m[1] * x) + (m[5] * y) + (m[ 9] * z);
+			float nz = (m[2] * x) + (m[6] * y) + (m[10] * z);
+			float l = (float)Math.sqrt((nx * nx) + (ny * ny) + (nz * nz));
+			if(l > 0) {
+			    nx /= l; ny /= l; nz /= l;
+			}
+			out.put(o++, nx); out.put(o++, ny); out.put(o++, nz);
+		    }
+		} else {
+		    for(int e = 0; e < n * nc; e++)
+			out.put(o++, src.get(e));
+		}
+	    }
+	    ShortBuffer sind = mesh.indb;
+	    for(int e = 0, ne = sind.capacity(); e < ne; e++)
+		ind[io++] = (short)((sind.get(e) & 0xffff) + vo);
+	    vo += n;
+	}
+	VertexBuf.AttribData[] bufs = new VertexBuf.AttribData[proto.length];
+	for(int a = 0; a < proto.length; a++) {
+	    if(proto[a] instanceof VertexBuf.VertexData)
+		bufs[a] = new VertexBuf.VertexData(dst[a]);
+	    else if(proto[a] instanceof VertexBuf.NormalData)
+		bufs[a] = new VertexBuf.NormalData(dst[a]);
+	    else if(proto[a] instanceof VertexBuf.TexelData)
+		bufs[a] = new VertexBuf.TexelData(dst[a]);
+	    else if(proto[a] instanceof VertexBuf.ColorData)
+		bufs[a] = new VertexBuf.ColorData(dst[a]);
+	    else
+		throw(new AssertionError(proto[a].getClass()));
+	}
+	return(new FastMesh(new VertexBuf(bufs), ind));
+    }
+
+    private Version build(Bucket b, Map<Member, List<Part>> members) {
+	double st = Utils.rtime();
+	List<FastMesh> meshes = new ArrayList<>();
+	List<Matrix4f> xfs = new ArrayList<>();
+	for(Map.Entry<Member, List<Part>> ent : members.entrySet()) {
+	    Matrix4f base = Transform.makexlate(new Matrix4f(), ent.getKey().pos.sub(b.origin));
+	    for(Part p : ent.getValue()) {
+		meshes.add(p.mesh);
+		xfs.add(base.mul(p.xf));
+	    }
+	}
+	Version ret = new Version(b, merge(meshes, xfs), meshes.size());
+	double t = Utils.rtime() - st;
+	synchronized(buckets) {
+	    nrebuilt++;
+	    rebuildtime += t;
+	    maxrebuild = Math.max(maxrebuild, t);
+	}
+	return(ret);
+    }
+
+    private void swap(Bucket b, Version nv, Collection<Member> members) {
+	Version ov = b.cur;
+	b.cur = nv;
+	for(RenderTree.Slot slot : slots) {
+	    try(Locked lk = slot.lock()) {
+		if((nv != null) && (nv.under(slot) == null))
+		    slot.add(nv);
+		RenderTree.Slot os = (ov == null) ? null : ov.under(slot);
+		if(os != null)
+		    os.remove();
+	    } catch(RenderTree.SlotRemoved e) {
+	    }
+	}
+	if(ov != null)
+	    ov.dispose();
+	synchronized(buckets) {
+	    for(Member m : members) {
+		if(b.pending.remove(m))
+		    m.unbaked--;
+	    }
+	    if(b.members.isEmpty() && !dirty.contains(b) && (b.next == null) && (b.cur == null)) {
+		List<Bucket> cand = buckets.get(b.key);
+		cand.remove(b);
+		if(cand.isEmpty())
+		    buckets.remove(b.key);
+	    }
+	}
+    }
+
+    private Map<Member, List<Part>> take(Bucket b) {
+	dirty.remove(b);
+	b.removals = false;
+	return(new LinkedHashMap<>(b.members));
+    }
+
+    /* Swaps in finished rebuilds and starts new ones for buckets
+     * that are due, or, if sync is set, rebuilds every other dirty
+     * bucket on the calling thread. Returns the number of buckets
+     * swapped. */
+    public int update(boolean sync) {
+	List<Bucket> done = new ArrayList<>();
+	List<Bucket> due = new ArrayList<>();
+	synchronized(buckets) {
+	    for(Bucket b : building) {
+		if(b.next.done())
+		    done.add(b);
+	    }
+	    double now = Utils.rtime();
+	    for(Bucket b : dirty) {
+		if((b.next == null) && (sync || b.removals || (now - b.lastchange >= SETTLE)))
+		    due.add(b);
+	    }
+	}
+	int n = 0;
+	for(Bucket b : done) {
+	    Version nv = b.next.get();
+	    Collection<Member> members;
+	    synchronized(buckets) {
+		members = b.nextmembers;
+		b.next = null;
+		b.nextmembers = null;
+		building.remove(b);
+	    }
+	    swap(b, nv, members);
+	    n++;
+	}
+	for(Bucket b : due) {
+	    Map<Member, List<Part>> members;
+	    synchronized(buckets) {
+		if(!sync && (building.size() >= MAXBUILDS))
+		    break;
+		members = take(b);
+		if(!sync && !members.isEmpty()) {
+		    b.nextmembers = members.keySet();
+		    b.next = Defer.later(() -> build(b, members));
+		    building.add(b);
+		    continue;
+		}
+	    }
+	    /* Emptied buckets have nothing to build. */
+	    swap(b, members.isEmpty() ? null : build(b, members), members.keySet());
+	    n++;
+	}
+	return(n);
+    }
+
+    /* The number of buckets waiting to be rebuilt or swapped. */
+    public int pending() {
+	synchronized(buckets) {
+	    return(dirty.size() + building.size());
+	}
+    }
+
+    public void tick(double dt) {
+	update(false);
+    }
+
+    public void added(RenderTree.Slot slot) {
+	slots.add(slot);
+	List<Version> cur = new ArrayList<>();
+	synchronized(buckets) {
+	    for(List<Bucket> bs : buckets.values()) {
+		for(Bucket b : bs) {
+		    if(b.cur != null)
+			cur.add(b.cur);
+		}
+	    }
+	}
+	for(Version v : cur)
+	    slot.add(v);
+    }
+
+    public void removed(RenderTree.Slot slot) {
+	slots.remove(slot);
+    }
+
+    public String stats() {
+	int nb = 0, np = 0, nv = 0;
+	long bytes = 0;
+	synchronized(buckets) {
+	    for(List<Bucket> bs : buckets.values()) {
+		for(Bucket b : bs) {
+		    Version v = b.cur;
+		    if(v == null)
+			continue;
+		    nb++;
+		    np += v.nparts;
+		    nv += v.mesh.vert.num;
+		    for(VertexBuf.AttribData a : v.mesh.vert.bufs)
+			bytes += (long)a.elfmt.size() * v.mesh.vert.num;
+		    bytes += v.mesh.indb.capacity() * 2L;
+		}
+	    }
+	    return(String.format("%,d members, %,d parts in %,d meshes, %,d vertices, %,d bytes; %,d rebuilds, %.2f ms avg, %.2f ms max",
+				 nmembers, np, nb, nv, bytes, nrebuilt, (nrebuilt == 0) ? 0 : (rebuildtime * 1000 / nrebuilt), maxrebuild * 1000));
+	}
+    }
+}
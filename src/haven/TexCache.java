@@ -0,0 +1,269 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.*;
+import static haven.Utils.pj;
+
+/* Keeps the decoded RGBA pixels of textures and their mipmap chains on
+ * disk, so that a texture seen before needs neither image decoding
+ * nor mipmap generation. Entries are addressed by a digest of
+ * everything they were generated from, and are memory-mapped when
+ * read. The cache is trimmed to its size limit by modification time,
+ * which is refreshed on every hit. */
+public class TexCache {
+    public static final Config.Variable<Boolean> enabled = Config.Variable.propb("haven.texcache", true);
+    public static final Config.Variable<Integer> cachesize = Config.Variable.propi("haven.texcachesize", 1024);
+    private static final int SIG = 0x54584331;
+    public final Path base;
+    public final long limit;
+    private final AtomicLong total = new AtomicLong(-1);
+    public final AtomicLong hits = new AtomicLong(0), misses = new AtomicLong(0), stored = new AtomicLong(0), trimmed = new AtomicLong(0);
+    private boolean warned = false;
+
+    public TexCache(Path base, long limit) {
+	this.base = base;
+	this.limit = limit;
+    }
+
+    private static TexCache global = null;
+    private static boolean globalinit = false;
+    public static TexCache global() {
+	synchronized(TexCache.class) {
+	    if(!globalinit) {
+		globalinit = true;
+		if(enabled.get()) {
+		    try {
+			global = new TexCache(HashDirCache.findbase().resolveSibling("tex"), cachesize.get() * 1048576L);
+		    } catch(UnsupportedOperationException e) {
+		    }
+		}
+	    }
+	    return(global);
+	}
+    }
+
+    public static MessageDigest digest() {
+	try {
+	    return(MessageDigest.getInstance("SHA-1"));
+	} catch(NoSuchAlgorithmException e) {
+	    throw(new AssertionError(e));
+	}
+    }
+
+    /* Combines the digest of a texture's source with what else
+     * determines its pixels. */
+    public static byte[] key(byte[] src, Coord sz, String mipmap) {
+	MessageDigest dig = digest();
+	dig.update(src);
+	dig.update(String.format("/%dx%d/%s", sz.x, sz.y, (mipmap == null) ? "-" : mipmap).getBytes(Utils.utf8));
+	return(dig.digest());
+    }
+
+    private Path path(byte[] key) {
+	String nm = Utils.byte2hex(key);
+	return(pj(base, nm.substring(0, 2), nm.substring(2)));
+    }
+
+    /* Returns the cached levels of a texture of the given size, or
+     * null if there are none or they are unusable. */
+    public ByteBuffer[] fetch(byte[] key, Coord sz, int nlevels) {
+	Path path = path(key);
+	try(FileChannel fp = FileChannel.open(path, StandardOpenOption.READ)) {
+	    long len = fp.size();
+	    if(len < 16 + (nlevels * 4))
+		throw(new EOFException());
+	    MappedByteBuffer map = fp.map(FileChannel.MapMode.READ_ONLY, 0, len);
+	    if((map.getInt(0) != SIG) || (map.getInt(4) != sz.x) || (map.getInt(8) != sz.y) || (map.getInt(12) != nlevels))
+		throw(new StreamCorruptedException());
+	    ByteBuffer[] ret = new ByteBuffer[nlevels];
+	    long off = 16 + (nlevels * 4);
+	    for(int i = 0; i < nlevels; i++) {
+		int sz2 = map.getInt(16 + (i * 4));
+		if((sz2 < 0) || (off + sz2 > len))
+		    throw(new EOFException());
+		ByteBuffer lev = map.duplicate();
+		lev.position((int)off).limit((int)off + sz2);
+		ret[i] = lev.slice();
+		off += sz2;
+	    }
+	    try {
+		Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+	    } catch(IOException e) {
+	    }
+	    hits.incrementAndGet();
+	    return(ret);
+	} catch(NoSuchFileException e) {
+	} catch(IOException e) {
+	    /* Truncated or foreign; it will be replaced by the next
+	     * store. */
+	}
+	misses.incrementAndGet();
+	return(null);
+    }
+
+    public void store(byte[] key, Coord sz, byte[][] levels) {
+	Path path = path(key);
+	/* Counted before the new entry exists, so that it is not
+	 * counted twice. */
+	long cur = size();
+	try {
+	    Path dir = path.getParent();
+	    Files.createDirectories(dir);
+	    Path tmp = Files.createTempFile(dir, "tex", ".new");
+	    long len;
+	    try {
+		try(FileChannel fp = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+		    ByteBuffer head = ByteBuffer.allocate(16 + (levels.length * 4));
+		    head.putInt(SIG).putInt(sz.x).putInt(sz.y).putInt(levels.length);
+		    for(byte[] lev : levels)
+			head.putInt(lev.length);
+		    head.flip();
+		    ByteBuffer[] bufs = new ByteBuffer[levels.length + 1];
+		    bufs[0] = head;
+		    for(int i = 0; i < levels.length; i++)
+			bufs[i + 1] = ByteBuffer.wrap(levels[i]);
+		    while(bufs[bufs.length - 1].hasRemaining())
+			fp.write(bufs);
+		    len = fp.size();
+		}
+		try {
+		    Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch(AtomicMoveNotSupportedException e) {
+		    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+	    } catch(IOException | RuntimeException e) {
+		Files.deleteIfExists(tmp);
+		throw(e);
+	    }
+	    stored.incrementAndGet();
+	    if((limit > 0) && (cur + len > limit))
+		trim();
+	    else
+		total.addAndGet(len);
+	} catch(IOException e) {
+	    synchronized(this) {
+		if(warned)
+		    return;
+		warned = true;
+	    }
+	    new Warning(e, "could not store texture in " + base).issue();
+	}
+    }
+
+    private List<Path> entries() throws IOException {
+	List<Path> ret = new ArrayList<>();
+	if(!Files.isDirectory(base))
+	    return(ret);
+	try(DirectoryStream<Path> dirs = Files.newDirectoryStream(base)) {
+	    for(Path dir : dirs) {
+		if(!Files.isDirectory(dir))
+		    continue;
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+		    for(Path p : files) {
+			if(!p.getFileName().toString().endsWith(".new"))
+			    ret.add(p);
+		    }
+		}
+	    }
+	}
+	return(ret);
+    }
+
+    public long size() {
+	long ret = total.get();
+	if(ret < 0) {
+	    synchronized(this) {
+		if((ret = total.get()) < 0) {
+		    ret = 0;
+		    try {
+			for(Path p : entries())
+			    ret += Files.size(p);
+		    } catch(IOException e) {
+		    }
+		    total.set(ret);
+		}
+	    }
+	}
+	return(ret);
+    }
+
+    /* Deletes the least recently used entries until the cache is
+     * below 90% of its limit. */
+    public synchronized void trim() {
+	class Entry {
+	    final Path p;
+	    final long size, mtime;
+
+	    Entry(Path p) throws IOException {
+		this.p = p;
+		this.size = Files.size(p);
+		this.mtime = Files.getLastModifiedTime(p).toMillis();
+	    }
+	}
+	List<Entry> ents = new ArrayList<>();
+	long sum = 0;
+	try {
+	    for(Path p : entries()) {
+		try {
+		    Entry e = new Entry(p);
+		    ents.add(e);
+		    sum += e.size;
+		} catch(NoSuchFileException e) {
+		}
+	    }
+	} catch(IOException e) {
+	    return;
+	}
+	ents.sort((a, b) -> Long.compare(a.mtime, b.mtime));
+	long target = limit - (limit / 10);
+	for(Entry e : ents) {
+	    if(sum <= target)
+		break;
+	    try {
+		Files.deleteIfExists(e.p);
+		sum -= e.size;
+		trimmed.incrementAndGet();
+	    } catch(IOException exc) {
+		/* Possibly still mapped, on Windows. */
+	    }
+	}
+	total.set(sum);
+    }
+
+    public String stats() {
+	return(String.format("%,d hits, %,d misses, %,d stored, %,d trimmed, %,d / %,d bytes",
+			     hits.get(), misses.get(), stored.get(), trimmed.get(), size(), limit));
+    }
+}
@@ -70,60 +70,108 @@ public abstract class TexL extends TexRender {
 	this.mipmap = mipmap;
     }
 
+    /* Converts an image to RGBA and generates its mipmap chain, if
+     * any, returning the pixels of every level. */
+    public static byte[][] levels(BufferedImage img, Coord sz, Mipmapper mipmap) {
+	VectorFormat ifmt = TexI.detectfmt(img);
+	if((ifmt != null) && (ifmt.nc == 3)) {
+	    if((mipmap != null) && !(mipmap instanceof Mipmapper.Mipmapper3))
+		ifmt = null;
+	}
+	/* XXXRENDER
+	if((ifmt != null) && (ifmt.nc == 3)) {
+	    byte[] pixels = ((DataBufferByte)img.getRaster().getDataBuffer()).getData();
+	    data.add(pixels);
+	    if(mipmap != null) {
+		Coord msz = dim;
+		Mipmapper.Mipmapper3 alg = (Mipmapper.Mipmapper3)mipmap;
+		while((msz.x > 1) || (msz.y > 1)) {
+		    pixels = alg.gen3(msz, pixels, ifmt);
+		    data.add(pixels);
+		    msz = Mipmapper.nextsz(msz);
+		}
+	    }
+	} else {
+	*/
+	byte[] pixels;
+	if((ifmt != null) && (ifmt.nc == 4) && (ifmt.cf == NumberFormat.UNORM8)) {
+	    pixels = ((DataBufferByte)img.getRaster().getDataBuffer()).getData();
+	} else {
+	    pixels = TexI.convert(img, sz);
+	    ifmt = new VectorFormat(4, NumberFormat.UNORM8);
+	}
+	List<byte[]> ret = new ArrayList<>();
+	ret.add(pixels);
+	if(mipmap != null) {
+	    Coord msz = sz;
+	    while((msz.x > 1) || (msz.y > 1)) {
+		pixels = mipmap.gen4(msz, pixels, ifmt);
+		ret.add(pixels);
+		msz = Mipmapper.nextsz(msz);
+	    }
+	}
+	return(ret.toArray(new byte[0][]));
+    }
+
+    /* The number of levels that levels() returns. */
+    public static int nlevels(Coord sz, Mipmapper mipmap) {
+	if(mipmap == null)
+	    return(1);
+	int n = 1;
+	for(Coord msz = sz; (msz.x > 1) || (msz.y > 1); msz = Mipmapper.nextsz(msz))
+	    n++;
+	return(n);
+    }
+
+    /* A digest of whatever fill() generates its image from, for
+     * caching the decoded texture in TexCache, or null if it should
+     * not be cached. */
+    protected byte[] cachekey() {
+	return(null);
+    }
+
+    private byte[] fullkey() {
+	String mipnm = null;
+	if(mipmap != null) {
+	    if((mipnm = Mipmapper.name(mipmap)) == null)
+		return(null);
+	}
+	byte[] src = cachekey();
+	if(src == null)
+	    return(null);
+	return(TexCache.key(src, img.tex.sz(), mipnm));
+    }
+
     private class Prepared {
 	final Environment env;
 	FillBuffer[] data;
 
-	private FillBuffer filldata(DataBuffer tgt, byte[] pixels) {
+	private FillBuffer filldata(DataBuffer tgt, ByteBuffer pixels) {
 	    FillBuffer buf = env.fillbuf(tgt);
-	    buf.pull(ByteBuffer.wrap(pixels));
+	    buf.pull(pixels);
 	    return(buf);
 	}
 
 	private Prepared(Environment env) {
 	    this.env = env;
 	    Texture2D tex = TexL.this.img.tex;
-	    BufferedImage img = fill();
-	    if(!Utils.imgsz(img).equals(tex.sz()))
-		throw(new RuntimeException("Generated TexL image from " + TexL.this + " does not match declared size"));
-	    VectorFormat ifmt = TexI.detectfmt(img);
 	    FillBuffer[] data = new FillBuffer[tex.images().size()];
-	    if((ifmt != null) && (ifmt.nc == 3)) {
-		if((mipmap != null) && !(mipmap instanceof Mipmapper.Mipmapper3))
-		    ifmt = null;
-	    }
-	    /* XXXRENDER
-	    if((ifmt != null) && (ifmt.nc == 3)) {
-		byte[] pixels = ((DataBufferByte)img.getRaster().getDataBuffer()).getData();
-		data.add(pixels);
-		if(mipmap != null) {
-		    Coord msz = dim;
-		    Mipmapper.Mipmapper3 alg = (Mipmapper.Mipmapper3)mipmap;
-		    while((msz.x > 1) || (msz.y > 1)) {
-			pixels = alg.gen3(msz, pixels, ifmt);
-			data.add(pixels);
-			msz = Mipmapper.nextsz(msz);
-		    }
-		}
+	    int nl = nlevels(tex.sz(), mipmap);
+	    byte[] key = fullkey();
+	    TexCache cache = (key == null) ? null : TexCache.global();
+	    ByteBuffer[] cached = (cache == null) ? null : cache.fetch(key, tex.sz(), nl);
+	    if(cached != null) {
+		for(int i = 0; i < nl; i++)
+		    data[i] = filldata(tex.image(i), cached[i]);
 	    } else {
-	    */
-	    byte[] pixels;
-	    if((ifmt != null) && (ifmt.nc == 4) && (ifmt.cf == NumberFormat.UNORM8)) {
-		pixels = ((DataBufferByte)img.getRaster().getDataBuffer()).getData();
-	    } else {
-		pixels = TexI.convert(img, tex.sz());
-		ifmt = new VectorFormat(4, NumberFormat.UNORM8);
-	    }
-	    data[0] = filldata(tex.image(0), pixels);
-	    if(mipmap != null) {
-		Coord msz = tex.sz();
-		int level = 1;
-		while((msz.x > 1) || (msz.y > 1)) {
-		    pixels = mipmap.gen4(msz, pixels, ifmt);
-		    data[level] = filldata(tex.image(level), pixels);
-		    msz = Mipmapper.nextsz(msz);
-		    level++;
-		}
+		BufferedImage img = fill();
+		if(!Utils.imgsz(img).equals(tex.sz()))
+		    throw(new RuntimeException("Generated TexL image from " + TexL.this + " does not match declared size"));
+		byte[][] levels = levels(img, tex.sz(), mipmap);
+		for(int i = 0; i < levels.length; i++)
+		    data[i] = filldata(tex.image(i), ByteBuffer.wrap(levels[i]));
+		if(cache != null)
+		    cache.store(key, tex.sz(), levels);
 	    }
 	    this.data = data;
 	}
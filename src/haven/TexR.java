@@ -154,6 +154,16 @@ public class TexR extends Resource.Layer implements Resource.IDLayer<Integer> {
 	    }
 	}
 
+	protected byte[] cachekey() {
+	    MessageDigest dig = TexCache.digest();
+	    dig.update(TexR.this.img);
+	    if(mask != null) {
+		dig.update((byte)1);
+		dig.update(mask);
+	    }
+	    return(dig.digest());
+	}
+
 	public String toString() {
 	    return("#<texr " + getres().name + "(" + id + ")>");
 	}
@@ -230,6 +230,18 @@ public abstract class Tiler {
 	return(new MapZSurface(m));
     }
 
+    /* Numbers the materials this tiler hands to MapMesh.Model such
+     * that material() gives them back in later runs of the client,
+     * so that cuts built from them can be kept on disk. Cuts with
+     * materials that a tiler cannot number are not stored. */
+    public int matid(NodeWrap mat) {
+	return(-1);
+    }
+
+    public NodeWrap material(int id) {
+	return(null);
+    }
+
     public Pipe.Op clickstate() {
 	return(MapMesh.clickmain);
     }
@@ -0,0 +1,216 @@
+package haven;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+import java.text.SimpleDateFormat;
+
+/* Always-on recorder of timed spans. Each thread writes into its own
+ * fixed-size ring, so recording takes no locks and allocates
+ * nothing; the last few seconds of every thread can be dumped as a
+ * Chrome trace (chrome://tracing, Perfetto) after a hitch has
+ * happened. Usage:
+ *
+ *	long st = Trace.now();
+ *	...
+ *	st = Trace.span("phase", st);
+ */
+public class Trace {
+    public static final Config.Variable<Boolean> enabled = Config.Variable.propb("haven.trace", true);
+    public static final Config.Variable<Integer> bufsize = Config.Variable.propi("haven.tracebuf", 4096);
+    private static final boolean on = enabled.get();
+    private static final List<Ring> rings = new ArrayList<>();
+    private static final ThreadLocal<Ring> local = ThreadLocal.withInitial(Trace::ring);
+
+    private static class Ring {
+	final int mask;
+	final String[] name;
+	final Object[] arg;
+	final long[] st, dur;
+	Thread th;
+	String tname;
+	long tid;
+	/* Written only by the owning thread, after the slot itself. */
+	volatile long n = 0;
+
+	Ring(int size) {
+	    size = Integer.highestOneBit(Math.max(size, 16) - 1) << 1;
+	    mask = size - 1;
+	    name = new String[size];
+	    arg = new Object[size];
+	    st = new long[size];
+	    dur = new long[size];
+	}
+
+	void own(Thread th) {
+	    this.th = th;
+	    this.tname = th.getName();
+	    this.tid = th.getId();
+	    Arrays.fill(name, null);
+	    Arrays.fill(arg, null);
+	    n = 0;
+	}
+
+	void add(String name, Object arg, long st, long dur) {
+	    long n = this.n;
+	    int i = (int)(n & mask);
+	    this.name[i] = name;
+	    this.arg[i] = arg;
+	    this.st[i] = st;
+	    this.dur[i] = dur;
+	    this.n = n + 1;
+	}
+
+	long last() {
+	    long n = this.n;
+	    return((n == 0) ? Long.MIN_VALUE : st[(int)((n - 1) & mask)] + dur[(int)((n - 1) & mask)]);
+	}
+    }
+
+    /* Rings of exited threads are handed to new threads once their
+     * contents have aged out, so that short-lived worker threads do
+     * not each leave a buffer behind. */
+    private static Ring ring() {
+	Thread cur = Thread.currentThread();
+	long old = System.nanoTime() - 60000000000L;
+	synchronized(rings) {
+	    for(Ring r : rings) {
+		if(!r.th.isAlive() && (r.last() < old)) {
+		    r.own(cur);
+		    return(r);
+		}
+	    }
+	    Ring r = new Ring(bufsize.get());
+	    r.own(cur);
+	    rings.add(r);
+	    return(r);
+	}
+    }
+
+    public static long now() {
+	return(on ? System.nanoTime() : 0);
+    }
+
+    /* Records a span from start until now, and returns now, so that
+     * consecutive phases can be chained. The name should be a
+     * constant; the argument, if any, is rendered only on dump. */
+    public static long span(String name, Object arg, long start) {
+	if(!on)
+	    return(0);
+	long now = System.nanoTime();
+	local.get().add(name, arg, start, now - start);
+	return(now);
+    }
+
+    public static long span(String name, long start) {
+	return(span(name, null, start));
+    }
+
+    private static void jstr(Writer out, String s) throws IOException {
+	out.write('"');
+	for(int i = 0; i < s.length(); i++) {
+	    char c = s.charAt(i);
+	    if((c == '"') || (c == '\\')) {
+		out.write('\\');
+		out.write(c);
+	    } else if(c < 0x20) {
+		out.write(String.format("\\u%04x", (int)c));
+	    } else {
+		out.write(c);
+	    }
+	}
+	out.write('"');
+    }
+
+    private static String argstr(Object arg) {
+	if(arg instanceof Class)
+	    return(((Class<?>)arg).getName());
+	return(String.valueOf(arg));
+    }
+
+    /* Writes the spans of the last secs seconds in Chrome trace event
+     * format, and returns the number of spans written. */
+    public static int dump(Writer out, double secs) throws IOException {
+	long now = System.nanoTime(), from = now - (long)(secs * 1e9);
+	List<Ring> rings;
+	synchronized(Trace.rings) {
+	    rings = new ArrayList<>(Trace.rings);
+	}
+	int count = 0;
+	out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+	boolean first = true;
+	for(Ring r : rings) {
+	    long tid = r.tid;
+	    String tname = r.tname;
+	    long n1 = r.n;
+	    long lo = Math.max(0, n1 - r.mask - 1);
+	    int ridx = 0;
+	    String[] nm = new String[(int)(n1 - lo)];
+	    Object[] arg = new Object[nm.length];
+	    long[] st = new long[nm.length], dur = new long[nm.length];
+	    for(long i = lo; i < n1; i++, ridx++) {
+		int s = (int)(i & r.mask);
+		nm[ridx] = r.name[s]; arg[ridx] = r.arg[s];
+		st[ridx] = r.st[s]; dur[ridx] = r.dur[s];
+	    }
+	    /* Discard slots the owner may have overwritten meanwhile. */
+	    long valid = r.n - r.mask - 1;
+	    if(r.tid != tid)
+		continue;
+	    boolean any = false;
+	    for(int i = 0; i < nm.length; i++) {
+		if((lo + i <= valid) || (nm[i] == null) || (st[i] + dur[i] < from))
+		    continue;
+		if(!first)
+		    out.write(",\n");
+		first = false;
+		out.write("{\"ph\":\"X\",\"pid\":1,\"tid\":" + tid + ",\"name\":");
+		jstr(out, nm[i]);
+		out.write(String.format(",\"ts\":%.3f,\"dur\":%.3f", (st[i] - now) * 1e-3, dur[i] * 1e-3));
+		if(arg[i] != null) {
+		    out.write(",\"args\":{\"arg\":");
+		    jstr(out, argstr(arg[i]));
+		    out.write("}");
+		}
+		out.write("}");
+		any = true;
+		count++;
+	    }
+	    if(any) {
+		out.write(",\n{\"ph\":\"M\",\"pid\":1,\"tid\":" + tid + ",\"name\":\"thread_name\",\"args\":{\"name\":");
+		jstr(out, tname);
+		out.write("}}");
+	    }
+	}
+	out.write("\n]}\n");
+	return(count);
+    }
+
+    public static Path dump(double secs) throws IOException {
+	Path path = Utils.path(String.format("trace-%s.json", new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date())));
+	try(Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), Utils.utf8))) {
+	    dump(out, secs);
+	}
+	return(path);
+    }
+
+    static {
+	Console.setscmd("trace", new Console.Command() {
+		public void run(Console cons, String[] args) throws Exception {
+		    if(!on)
+			throw(new Exception("tracing is disabled (haven.trace)"));
+		    double secs = (args.length > 1) ? Double.parseDouble(args[1]) : 10;
+		    Path path;
+		    if(args.length > 2) {
+			path = Utils.path(args[2]);
+			try(Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path), Utils.utf8))) {
+			    dump(out, secs);
+			}
+		    } else {
+			path = dump(secs);
+		    }
+		    cons.out.println("Wrote " + path.toAbsolutePath());
+		}
+	    });
+    }
+}
@@ -427,6 +427,13 @@ public class VertexBuf {
 	return(dst);
     }
 
+    public static void savebuf2(Message dst, FloatBuffer buf) {
+	dst.adduint8(1);
+	dst.addstring("f4");
+	for(int i = 0; i < buf.capacity(); i++)
+	    dst.addfloat32(buf.get(i));
+    }
+
     private static final Map<String, DataCons> rnames = new TreeMap<String, DataCons>();
 
     static {
@@ -452,6 +459,24 @@ public class VertexBuf {
 	}
     }
 
+    /* The name under which float data can be written with savebuf2()
+     * and read back with cons(), or null if it has none. */
+    public static String resname(AttribData data) {
+	if(!(data instanceof FloatData))
+	    return(null);
+	ResName nm = data.getClass().getAnnotation(ResName.class);
+	if((nm == null) || !rnames.containsKey(nm.value()))
+	    return(null);
+	return(nm.value());
+    }
+
+    public static void cons(Collection<AttribData> dst, String name, Message buf, int num) {
+	DataCons cons = rnames.get(name);
+	if(cons == null)
+	    throw(new Message.FormatError("Unknown vertex-array name: " + name));
+	cons.cons(dst, null, buf, num);
+    }
+
     @Resource.LayerName("vbuf2")
     public static class VertexRes extends Resource.Layer implements Resource.IDLayer<Integer>{
 	public transient final VertexBuf b;
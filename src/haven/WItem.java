@@ -158,7 +158,7 @@ public class WItem extends Widget implements DTarget2 {
 		    }
 		    return(ret);
 		});
-	});
+	}).shared("olcol");
     public final AttrCache<GItem.InfoOverlay<?>[]> itemols = new AttrCache<>(this::info, info -> {
 	    ArrayList<GItem.InfoOverlay<?>> buf = new ArrayList<>();
 	    for(ItemInfo inf : info) {
@@ -167,7 +167,7 @@ public class WItem extends Widget implements DTarget2 {
 	    }
 	    GItem.InfoOverlay<?>[] ret = buf.toArray(new GItem.InfoOverlay<?>[0]);
 	    return(() -> ret);
-	});
+	}).shared("itemols");
     
     public final AttrCache<Pair<Double, Double>> fullness = new AttrCache<>(this::info, info -> {
 	Pair<Double, Double> result = null;
@@ -198,7 +198,7 @@ public class WItem extends Widget implements DTarget2 {
 	String num = ItemInfo.getCount(info);
 	if(num == null) return null;
 	return Text.renderstroked(num, Color.WHITE, Color.BLACK).tex();
-    }));
+    })).shared("heurnum");
     
     public final AttrCache<Tex> durability = new AttrCache<Tex>(this::info, AttrCache.cache(info -> {
 	Pair<Integer, Integer> wear = ItemInfo.getWear(info);
@@ -216,7 +216,7 @@ public class WItem extends Widget implements DTarget2 {
 	if(wear == null) return (null);
 	double bar = (float) (wear.b - wear.a) / wear.b;
 	return new Pair<>(bar, Utils.blendcol(bar, Color.RED, Color.ORANGE, Color.YELLOW, Color.GREEN));
-    }));
+    })).shared("wear");
     
     public double meter() {
 	Double meter = (item.meter > 0) ? (Double) (item.meter / 100.0) : itemmeter.get();
@@ -34,9 +34,15 @@ public class ZMessage extends Message implements Closeable, Flushable, Serializa
     private transient Deflater zo = null;
     private boolean eof;
     private final transient Message bk;
+    private final transient int level;
 
-    public ZMessage(Message from) {
+    public ZMessage(Message from, int level) {
 	this.bk = from;
+	this.level = level;
+    }
+
+    public ZMessage(Message from) {
+	this(from, 9);
     }
 
     public boolean underflow(int hint) {
@@ -83,7 +89,7 @@ public class ZMessage extends Message implements Closeable, Flushable, Serializa
 
     private void flush(boolean sync, boolean finish) {
 	if(zo == null)
-	    zo = new Deflater(9);
+	    zo = new Deflater(level);
 	zo.setInput(wbuf, 0, wh);
 	if(finish)
 	    zo.finish();
@@ -0,0 +1,179 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.render;
+
+import java.util.*;
+import java.util.function.*;
+import java.lang.ref.*;
+import haven.Disposable;
+
+/* Caches geometry derived from keys, usually resources, bounded both
+ * in entries and in bytes. Keys are held weakly, so geometry made
+ * from resources that are no longer used goes with them, and the
+ * least recently used entries are dropped when either bound is
+ * exceeded. Dropped values are disposed of, but only once the busy
+ * predicate says nothing draws them any more, so holders that are
+ * not currently drawn should get their value from the cache anew
+ * when they are. */
+public class GeomCache<K, V extends Disposable> {
+    public final int maxn;
+    public final long maxbytes;
+    private final ToLongFunction<? super V> size;
+    private final Predicate<? super V> busy;
+    private final Map<K, Entry> keys = new WeakHashMap<>();
+    private final Map<Entry, Entry> lru = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReferenceQueue<K> dead = new ReferenceQueue<>();
+    /* Dropped values still drawn somewhere */
+    private final Collection<V> orphans = new ArrayList<>();
+    private long bytes = 0;
+    public long hits = 0, misses = 0, evicted = 0, expired = 0;
+
+    private class Entry extends WeakReference<K> {
+	final V val;
+	final long size;
+
+	Entry(K key, V val) {
+	    super(key, dead);
+	    this.val = val;
+	    this.size = GeomCache.this.size.applyAsLong(val);
+	}
+    }
+
+    public GeomCache(int maxn, long maxbytes, ToLongFunction<? super V> size, Predicate<? super V> busy) {
+	this.maxn = maxn;
+	this.maxbytes = maxbytes;
+	this.size = size;
+	this.busy = busy;
+    }
+
+    /* Returns the value cached for key, or makes it. Null values are
+     * not cached, and neither is anything when make throws, such as
+     * for Loading. */
+    public V get(K key, Function<? super K, ? extends V> make) {
+	Collection<V> drop = new ArrayList<>();
+	V ret;
+	synchronized(this) {
+	    clean(drop);
+	    Entry e = keys.get(key);
+	    if(e != null) {
+		lru.get(e);
+		hits++;
+		ret = e.val;
+	    } else {
+		misses++;
+		ret = make.apply(key);
+		if(ret != null) {
+		    e = new Entry(key, ret);
+		    keys.put(key, e);
+		    lru.put(e, e);
+		    bytes += e.size;
+		    trim(drop);
+		}
+	    }
+	}
+	for(V v : drop)
+	    v.dispose();
+	return(ret);
+    }
+
+    private void remove(Entry e, Collection<V> drop) {
+	lru.remove(e);
+	bytes -= e.size;
+	if(busy.test(e.val))
+	    orphans.add(e.val);
+	else
+	    drop.add(e.val);
+    }
+
+    private void clean(Collection<V> drop) {
+	Reference<? extends K> ref;
+	while((ref = dead.poll()) != null) {
+	    @SuppressWarnings("unchecked") Entry e = (Entry)ref;
+	    if(lru.containsKey(e)) {
+		remove(e, drop);
+		expired++;
+	    }
+	}
+	for(Iterator<V> i = orphans.iterator(); i.hasNext();) {
+	    V v = i.next();
+	    if(!busy.test(v)) {
+		drop.add(v);
+		i.remove();
+	    }
+	}
+    }
+
+    private void trim(Collection<V> drop) {
+	for(Iterator<Entry> i = lru.keySet().iterator(); i.hasNext() && ((lru.size() > maxn) || (bytes > maxbytes));) {
+	    Entry e = i.next();
+	    if(busy.test(e.val))
+		continue;
+	    i.remove();
+	    bytes -= e.size;
+	    keys.remove(e.get());
+	    drop.add(e.val);
+	    evicted++;
+	}
+    }
+
+    /* Drops and disposes of everything not being drawn, as when the
+     * world is left. */
+    public void clear() {
+	Collection<V> drop = new ArrayList<>();
+	synchronized(this) {
+	    clean(drop);
+	    for(Entry e : new ArrayList<>(lru.keySet())) {
+		K key = e.get();
+		if(key != null)
+		    keys.remove(key);
+		remove(e, drop);
+	    }
+	}
+	for(V v : drop)
+	    v.dispose();
+    }
+
+    public int size() {
+	synchronized(this) {
+	    return(lru.size());
+	}
+    }
+
+    public long bytes() {
+	synchronized(this) {
+	    return(bytes);
+	}
+    }
+
+    public String stats() {
+	synchronized(this) {
+	    return(String.format("%,d entries, %,d bytes, %,d orphans; %,d hits, %,d misses, %,d evicted, %,d expired",
+				 lru.size(), bytes, orphans.size(), hits, misses, evicted, expired));
+	}
+    }
+}
@@ -28,6 +28,8 @@ package haven.render;
 
 import java.lang.ref.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.concurrent.locks.*;
 import haven.*;
 import static haven.Utils.eq;
@@ -75,20 +77,64 @@ import static haven.Utils.eq;
  *   shared by several tree-slots.
  */
 public class RenderTree implements RenderList.Adapter, Disposable {
+    public static final Config.Variable<Boolean> usejournal = Config.Variable.propb("haven.rtjournal", true);
     private final Lock lock = new ReentrantLock();
     private final TreeSlot root;
     private final List<Client<?>> clients = new ArrayList<>();
+    private volatile Client<?>[] clarr = {};
+    private final Journal journal;
     private int nslots, nleaves;
 
-    public RenderTree() {
+    /*
+     * A journaled tree does not notify its clients of changes as they
+     * are made, but records them and delivers them in one batch, with
+     * redundant changes coalesced, whenever the tree is next locked
+     * with lock() or committed. Its clients must therefore only be
+     * used with the tree locked. Clients failing to add a slot for
+     * want of loaded resources do not make the addition fail, but
+     * are simply asked again on the next commit.
+     */
+    public RenderTree(boolean journaled) {
 	root = new TreeSlot(this, null, null);
 	nslots = nleaves = 1;
+	journal = journaled ? new Journal() : null;
+    }
+
+    public RenderTree() {
+	this(false);
     }
 
     public Locked lock() {
+	Locked ret = new Locked(this.lock);
+	if(journal != null) {
+	    try {
+		journal.commit();
+	    } catch(RuntimeException | Error e) {
+		ret.unlock();
+		throw(e);
+	    }
+	}
+	return(ret);
+    }
+
+    /* Locks the tree for mutation, without committing. */
+    private Locked mlock() {
 	return(new Locked(this.lock));
     }
 
+    public void commit() {
+	if(journal != null) {
+	    try(Locked lk = mlock()) {
+		journal.commit();
+	    }
+	}
+    }
+
+    private void flushck() {
+	if((journal != null) && (journal.size.get() > Journal.MAXSIZE))
+	    journal.commit();
+    }
+
     private static class Client<R> {
 	final Class<? extends R> type;
 	final RenderList<R> list;
@@ -121,6 +167,286 @@ public class RenderTree implements RenderList.Adapter, Disposable {
 	}
     }
 
+    private static class Change {
+	static final int ADD = 0, REMOVE = 1, UPDATE = 2, GROUP = 3;
+	final int type;
+	final TreeSlot slot;
+	final Pipe group;
+	/* The clients registered when the change was made; clients
+	 * registered later learn of the slot when they are added. */
+	final Client<?>[] targets;
+	int[] mask;
+	Client<?>[] skip = null;
+	boolean dead = false;
+
+	Change(int type, TreeSlot slot, Pipe group, int[] mask, Client<?>[] targets) {
+	    this.type = type;
+	    this.slot = slot;
+	    this.group = group;
+	    this.mask = mask;
+	    this.targets = targets;
+	}
+    }
+
+    private class Journal {
+	static final int MAXSIZE = 4096;
+	final Queue<Change> queue = new ConcurrentLinkedQueue<>();
+	final AtomicInteger size = new AtomicInteger(0);
+	/* Only accessed with the tree locked. */
+	final List<Change> retry = new ArrayList<>();
+	boolean committing = false;
+	long ncommits = 0, nchanges = 0, ncoalesced = 0;
+
+	void add(Change ch) {
+	    queue.add(ch);
+	    size.incrementAndGet();
+	}
+
+	private int[] union(int[] a, int[] b) {
+	    int[] buf = Arrays.copyOf(a, a.length + b.length);
+	    int n = a.length;
+	    next: for(int id : b) {
+		for(int i = 0; i < a.length; i++) {
+		    if(a[i] == id)
+			continue next;
+		}
+		buf[n++] = id;
+	    }
+	    int[] ret = Arrays.copyOf(buf, n);
+	    Arrays.sort(ret);
+	    return(ret);
+	}
+
+	private void kill(Change ch) {
+	    if(!ch.dead) {
+		ch.dead = true;
+		ncoalesced++;
+	    }
+	}
+
+	/* Drops additions of slots removed again, updates of slots
+	 * added or removed in the same batch, and all but the last of
+	 * repeated updates, merging repeated group updates. */
+	private void coalesce(List<Change> batch) {
+	    Map<TreeSlot, Change> adds = new IdentityHashMap<>(), upds = new IdentityHashMap<>();
+	    Map<Pipe, Change> groups = new IdentityHashMap<>();
+	    for(Change ch : batch) {
+		switch(ch.type) {
+		case Change.ADD:
+		    adds.put(ch.slot, ch);
+		    break;
+		case Change.REMOVE: {
+		    Change u = upds.remove(ch.slot);
+		    if(u != null)
+			kill(u);
+		    Change a = adds.remove(ch.slot);
+		    if(a != null) {
+			kill(a);
+			if(a.targets == ch.targets)
+			    kill(ch);
+			else
+			    ch.skip = a.targets;
+		    }
+		    break;
+		}
+		case Change.UPDATE: {
+		    Change a = adds.get(ch.slot);
+		    if((a != null) && (a.targets == ch.targets)) {
+			kill(ch);
+			break;
+		    }
+		    Change p = upds.put(ch.slot, ch);
+		    if((p != null) && (p.targets == ch.targets))
+			kill(p);
+		    break;
+		}
+		case Change.GROUP: {
+		    Change p = groups.put(ch.group, ch);
+		    if((p != null) && (p.targets == ch.targets)) {
+			kill(p);
+			ch.mask = union(p.mask, ch.mask);
+		    }
+		    break;
+		}
+		}
+	    }
+	}
+
+	private boolean registered(Client<?> cl) {
+	    for(Client<?> c : clarr) {
+		if(c == cl)
+		    return(true);
+	    }
+	    return(false);
+	}
+
+	private boolean skipped(Change ch, Client<?> cl) {
+	    if(ch.skip != null) {
+		for(Client<?> c : ch.skip) {
+		    if(c == cl)
+			return(true);
+		}
+	    }
+	    return(!registered(cl));
+	}
+
+	private void apply(Change ch) {
+	    switch(ch.type) {
+	    case Change.ADD: {
+		Client<?>[] done = new Client<?>[ch.targets.length];
+		int n = 0;
+		for(Client<?> cl : ch.targets) {
+		    if(skipped(ch, cl))
+			continue;
+		    try {
+			cl.added(ch.slot);
+			done[n++] = cl;
+		    } catch(RuntimeException e) {
+			try {
+			    while(n > 0)
+				done[--n].removed(ch.slot);
+			} catch(RuntimeException e2) {
+			    Error err = new Error("Unexpected non-local exit", e2);
+			    err.addSuppressed(e);
+			    throw(err);
+			}
+			if(e instanceof Loading) {
+			    retry.add(ch);
+			} else {
+			    ch.slot.unlisted = true;
+			    new Warning(e, "could not add " + ch.slot).level(Warning.ERROR).issue();
+			}
+			return;
+		    }
+		}
+		break;
+	    }
+	    case Change.REMOVE:
+		try {
+		    for(Client<?> cl : ch.targets) {
+			if(!skipped(ch, cl))
+			    cl.removed(ch.slot);
+		    }
+		} catch(RuntimeException e) {
+		    throw(new Error("Unexpected non-local exit", e));
+		}
+		break;
+	    case Change.UPDATE:
+		for(Client<?> cl : ch.targets) {
+		    if(skipped(ch, cl))
+			continue;
+		    try {
+			cl.updated(ch.slot);
+		    } catch(Loading l) {
+			retry.add(ch);
+			return;
+		    } catch(RuntimeException e) {
+			new Warning(e, "could not update " + ch.slot).level(Warning.ERROR).issue();
+		    }
+		}
+		break;
+	    case Change.GROUP:
+		for(Client<?> cl : ch.targets) {
+		    if(skipped(ch, cl))
+			continue;
+		    try {
+			cl.updated(ch.group, ch.mask);
+		    } catch(RuntimeException e) {
+			new Warning(e, "could not update state group").level(Warning.ERROR).issue();
+		    }
+		}
+		break;
+	    }
+	}
+
+	/* Called with the tree locked. Changes made by clients while
+	 * committing are left for the next commit. */
+	void commit() {
+	    if(committing || (queue.isEmpty() && retry.isEmpty()))
+		return;
+	    committing = true;
+	    try {
+		List<Change> batch = new ArrayList<>(retry.size() + size.get());
+		batch.addAll(retry);
+		retry.clear();
+		for(Change ch; (ch = queue.poll()) != null;) {
+		    size.decrementAndGet();
+		    batch.add(ch);
+		}
+		ncommits++;
+		nchanges += batch.size();
+		coalesce(batch);
+		for(Change ch : batch) {
+		    if(ch.dead || ((ch.slot != null) && ch.slot.unlisted))
+			continue;
+		    apply(ch);
+		}
+	    } finally {
+		committing = false;
+	    }
+	}
+    }
+
+    private void added(TreeSlot ch) {
+	if(journal != null) {
+	    journal.add(new Change(Change.ADD, ch, null, null, clarr));
+	    return;
+	}
+	synchronized(clients) {
+	    ListIterator<Client<?>> it = clients.listIterator();
+	    try {
+		while(it.hasNext()) {
+		    Client<?> cl = it.next();
+		    cl.added(ch);
+		}
+	    } catch(RuntimeException e) {
+		try {
+		    ch.parent.removech(ch);
+		    it.previous();
+		    while(it.hasPrevious()) {
+			Client<?> cl = it.previous();
+			cl.removed(ch);
+		    }
+		} catch(RuntimeException e2) {
+		    Error err = new Error("Unexpected non-local exit", e2);
+		    err.addSuppressed(e);
+		    throw(err);
+		}
+		throw(e);
+	    }
+	}
+    }
+
+    private void removed(TreeSlot slot) {
+	if(journal != null) {
+	    journal.add(new Change(Change.REMOVE, slot, null, null, clarr));
+	    return;
+	}
+	synchronized(clients) {
+	    clients.forEach(cl -> cl.removed(slot));
+	}
+    }
+
+    private void updated(TreeSlot slot) {
+	if(journal != null) {
+	    journal.add(new Change(Change.UPDATE, slot, null, null, clarr));
+	    return;
+	}
+	synchronized(clients) {
+	    clients.forEach(cl -> cl.updated(slot));
+	}
+    }
+
+    private void updated(Pipe group, int[] mask) {
+	if(journal != null) {
+	    journal.add(new Change(Change.GROUP, null, group, mask, clarr));
+	    return;
+	}
+	synchronized(clients) {
+	    clients.forEach(cl -> cl.updated(group, mask));
+	}
+    }
+
     public static class Inheritance implements GroupPipe {
 	private final Pipe[] groups;
 	private final int[] gstates;
@@ -390,6 +716,10 @@ public class RenderTree implements RenderList.Adapter, Disposable {
 	public Slot parent();
 	public void update();
 	public default void lockstate() {}
+	/* Locks the tree of the slot, for nodes that need to make
+	 * several changes to it atomically from outside of their
+	 * added/removed callbacks. */
+	public Locked lock();
     }
 
     public static class SlotRemoved extends IllegalStateException {
@@ -417,6 +747,8 @@ public class RenderTree implements RenderList.Adapter, Disposable {
 	private TreeSlot[] children = null;
 	private int nchildren = 0;
 	private int pidx = -1;
+	/* Set on journaled trees when a client has refused the slot. */
+	boolean unlisted = false;
 
 	private TreeSlot(RenderTree tree, TreeSlot parent, Node node) {
 	    this.tree = tree;
@@ -470,35 +802,13 @@ public class RenderTree implements RenderList.Adapter, Disposable {
 	}
 
 	public TreeSlot add(Node n, Pipe.Op state) {
-	    try(Locked lk = tree.lock()) {
+	    try(Locked lk = tree.mlock()) {
 		if((parent != null) && (pidx < 0))
 		    throw(new SlotRemoved("adding " + String.valueOf(n), this));
 		TreeSlot ch = new TreeSlot(tree, this, n);
 		ch.cstate = state;
 		addch(ch);
-		synchronized(tree.clients) {
-		    ListIterator<Client<?>> it = tree.clients.listIterator();
-		    try {
-			while(it.hasNext()) {
-			    Client<?> cl = it.next();
-			    cl.added(ch);
-			}
-		    } catch(RuntimeException e) {
-			try {
-			    removech(ch);
-			    it.previous();
-			    while(it.hasPrevious()) {
-				Client<?> cl = it.previous();
-				cl.removed(ch);
-			    }
-			} catch(RuntimeException e2) {
-			    Error err = new Error("Unexpected non-local exit", e2);
-			    err.addSuppressed(e);
-			    throw(err);
-			}
-			throw(e);
-		    }
-		}
+		tree.added(ch);
 		if(n != null) {
 		    try {
 			n.added(ch);
@@ -512,19 +822,20 @@ public class RenderTree implements RenderList.Adapter, Disposable {
 			throw(e);
 		    }
 		}
+		tree.flushck();
 		return(ch);
 	    }
 	}
 
 	public void clear() {
-	    try(Locked lk = tree.lock()) {
+	    try(Locked lk = tree.mlock()) {
 		while(nchildren > 0)
 		    children[nchildren - 1].remove();
 	    }
 	}
 
 	public void remove() {
-	    try(Locked lk = tree.lock()) {
+	    try(Locked lk = tree.mlock()) {
 		if((parent != null) && (pidx < 0))
 		    throw(new SlotRemoved(this));
 		while(nchildren > 0)
@@ -533,12 +844,11 @@ public class RenderTree implements RenderList.Adapter, Disposable {
 		try {
 		    if(node != null)
 			node.removed(this);
-		    synchronized(tree.clients) {
-			tree.clients.forEach(cl -> cl.removed(this));
-		    }
+		    tree.removed(this);
 		} catch(RuntimeException e) {
 		    throw(new Error("Unexpected non-local exit", e));
 		}
+		tree.flushck();
 	    }
 	}
 
@@ -628,11 +938,8 @@ public class RenderTree implements RenderList.Adapter, Disposable {
 		for(TreeSlot rdep : cdeps)
 		    rdep.rdepupd();
 		Pipe pdst = this.pdstate;
-		if(pdst != null) {
-		    synchronized(tree.clients) {
-			tree.clients.forEach(cl -> cl.updated(pdst, tch));
-		    }
-		}
+		if(pdst != null)
+		    tree.updated(pdst, tch);
 	    } else {
 		/* XXX? Optimize specifically for non-defined slots being updated? */
 		updtotal(false);
@@ -646,9 +953,7 @@ public class RenderTree implements RenderList.Adapter, Disposable {
 		setdstate(mkdstate(cstate, ostate));
 	    for(TreeSlot child : children())
 		child.updtotal(true);
-	    synchronized(tree.clients) {
-		tree.clients.forEach(cl -> cl.updated(this));
-	    }
+	    tree.updated(this);
 	}
 
 	private DepInfo dstate() {
@@ -697,25 +1002,29 @@ public class RenderTree implements RenderList.Adapter, Disposable {
 	}
 
 	public void cstate(Pipe.Op state) {
-	    try(Locked lk = tree.lock()) {
+	    try(Locked lk = tree.mlock()) {
 		if(state != this.cstate)
 		    chstate(state, this.ostate);
+		tree.flushck();
 	    }
 	}
 
 	public void ostate(Pipe.Op state) {
-	    try(Locked lk = tree.lock()) {
+	    try(Locked lk = tree.mlock()) {
 		if(state != this.ostate)
 		    chstate(this.cstate, state);
+		tree.flushck();
 	    }
 	}
 
+	public Locked lock() {
+	    return(tree.mlock());
+	}
+
 	public void update() {
 	    if((parent != null) && (pidx < 0))
 		throw(new SlotRemoved(this));
-	    synchronized(tree.clients) {
-		tree.clients.forEach(cl -> cl.updated(this));
-	    }
+	    tree.updated(this);
 	}
 
 	public class SlotPipe implements Pipe {
@@ -893,18 +1202,22 @@ public class RenderTree implements RenderList.Adapter, Disposable {
     public <R> void add(RenderList<R> list, Class<? extends R> type) {
 	synchronized(clients) {
 	    clients.add(new Client<R>(type, list));
+	    clarr = clients.toArray(new Client<?>[0]);
 	}
     }
 
     public void remove(RenderList<?> list) {
 	synchronized(clients) {
 	    clients.removeIf(cl -> cl.list == list);
+	    clarr = clients.toArray(new Client<?>[0]);
 	}
     }
 
     public void dispose() {
 	try(Locked lk = lock()) {
 	    root.clear();
+	    if(journal != null)
+		journal.commit();
 	}
     }
 
@@ -919,6 +1232,10 @@ public class RenderTree implements RenderList.Adapter, Disposable {
     public void dump() {dump(root, 0);}
 
     public String stats() {
+	if(journal != null) {
+	    return(String.format("%,d L / %,d N, %,d J (%,d/%,d coalesced, %,d retrying)", nleaves, nslots, journal.size.get(),
+				 journal.ncoalesced, journal.nchanges, journal.retry.size()));
+	}
 	return(String.format("%,d L / %,d N", nleaves, nslots));
     }
 }
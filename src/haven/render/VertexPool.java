@@ -0,0 +1,312 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.render;
+
+import java.util.*;
+import haven.Disposable;
+
+/* A persistent, growable STREAM vertex buffer of a single interleaved
+ * float layout, sub-allocated into ranges for small and frequently
+ * changing geometry, such as paths, hitboxes and radii. Ranges write
+ * their vertices into a shared client-side copy, and commit() uploads
+ * only the spans that changed since the last frame. A range keeps its
+ * model as long as neither its place in the buffer nor its vertex
+ * count change, and updates its own slots when they do. */
+public class VertexPool implements DataBuffer.PartFiller<VertexArray.Buffer> {
+    public static final VertexArray.Layout POS = new VertexArray.Layout(new VertexArray.Layout.Input(Homo3D.vertex, new VectorFormat(3, NumberFormat.FLOAT32), 0, 0, 12));
+    public static final VertexArray.Layout POSNRM = new VertexArray.Layout(new VertexArray.Layout.Input(Homo3D.vertex, new VectorFormat(3, NumberFormat.FLOAT32), 0, 0, 24),
+									    new VertexArray.Layout.Input(Homo3D.normal, new VectorFormat(3, NumberFormat.FLOAT32), 0, 12, 24));
+    public static final VertexPool lines = new VertexPool(POS), polys = new VertexPool(POSNRM);
+    private static final int MINRANGE = 16;
+    /* Changed spans closer than this many vertices are uploaded as one */
+    private static final int MERGEGAP = 64;
+    public final VertexArray.Layout fmt;
+    /* Floats per vertex */
+    public final int nf;
+    private float[] data;
+    private VertexArray va;
+    private final TreeMap<Integer, Integer> free = new TreeMap<>();
+    private final Collection<Range> ranges = new HashSet<>();
+    private Collection<Disposable> retired = new ArrayList<>(), dying = new ArrayList<>();
+    /* Changed spans of vertices, from start to end */
+    private final TreeMap<Integer, Integer> dirty = new TreeMap<>();
+    public int grown = 0, commits = 0;
+    public long uploaded = 0;
+
+    public VertexPool(VertexArray.Layout fmt, int cap) {
+	if(fmt.nbufs != 1)
+	    throw(new IllegalArgumentException("vertex pools need an interleaved layout"));
+	this.fmt = fmt;
+	this.nf = fmt.inputs[0].stride / 4;
+	this.data = new float[cap * nf];
+	this.va = mkva();
+	free.put(0, cap);
+    }
+
+    public VertexPool(VertexArray.Layout fmt) {
+	this(fmt, 1024);
+    }
+
+    private VertexArray mkva() {
+	return(new VertexArray(fmt, new VertexArray.Buffer(data.length * 4, DataBuffer.Usage.STREAM, this).shared()).shared());
+    }
+
+    public int capacity() {
+	return(data.length / nf);
+    }
+
+    public FillBuffer fill(VertexArray.Buffer dst, Environment env, int from, int to) {
+	FillBuffer ret = env.fillbuf(dst, from, to);
+	synchronized(this) {
+	    /* A fill of a buffer already grown out of only happens for
+	     * its initial contents, which no longer matter. */
+	    if(dst == va.bufs[0])
+		ret.push().asFloatBuffer().put(data, from / 4, (to - from) / 4);
+	}
+	return(ret);
+    }
+
+    private void changed(int from, int to) {
+	Map.Entry<Integer, Integer> prev = dirty.floorEntry(from);
+	if((prev != null) && (prev.getValue() + MERGEGAP >= from)) {
+	    from = prev.getKey();
+	    to = Math.max(to, prev.getValue());
+	    dirty.remove(from);
+	}
+	for(Map.Entry<Integer, Integer> next; ((next = dirty.ceilingEntry(from)) != null) && (next.getKey() <= to + MERGEGAP);) {
+	    to = Math.max(to, next.getValue());
+	    dirty.remove(next.getKey());
+	}
+	dirty.put(from, to);
+    }
+
+    private int alloc(int n, Collection<Range> moved) {
+	while(true) {
+	    for(Map.Entry<Integer, Integer> ent : free.entrySet()) {
+		int off = ent.getKey(), len = ent.getValue();
+		if(len >= n) {
+		    free.remove(off);
+		    if(len > n)
+			free.put(off + n, len - n);
+		    return(off);
+		}
+	    }
+	    grow(n, moved);
+	}
+    }
+
+    private void release(int off, int n) {
+	Map.Entry<Integer, Integer> prev = free.lowerEntry(off);
+	if((prev != null) && (prev.getKey() + prev.getValue() == off)) {
+	    free.remove(prev.getKey());
+	    off = prev.getKey();
+	    n += prev.getValue();
+	}
+	Integer next = free.get(off + n);
+	if(next != null) {
+	    free.remove(off + n);
+	    n += next;
+	}
+	free.put(off, n);
+    }
+
+    private void grow(int need, Collection<Range> moved) {
+	int ocap = capacity(), ncap = Math.max(ocap * 2, ocap + need);
+	data = Arrays.copyOf(data, ncap * nf);
+	retired.add(va);
+	retired.add(va.bufs[0]);
+	va = mkva();
+	release(ocap, ncap - ocap);
+	/* Everything is in the new buffer's initial contents. */
+	dirty.clear();
+	for(Range r : ranges) {
+	    if(r.remodel())
+		moved.add(r);
+	}
+	grown++;
+    }
+
+    /* Uploads what changed since the last commit, and disposes of
+     * buffers and models that the render tree can no longer be
+     * drawing from. Called once per frame. */
+    public void commit(Render g) {
+	Collection<Disposable> dead;
+	synchronized(this) {
+	    for(Map.Entry<Integer, Integer> span : dirty.entrySet()) {
+		g.update(va.bufs[0], this, span.getKey() * nf * 4, span.getValue() * nf * 4);
+		uploaded += (span.getValue() - span.getKey()) * nf * 4;
+	    }
+	    dirty.clear();
+	    dead = dying;
+	    dying = retired;
+	    retired = new ArrayList<>();
+	    commits++;
+	}
+	for(Disposable d : dead)
+	    d.dispose();
+    }
+
+    public Range range(Model.Mode mode) {
+	return(new Range(mode));
+    }
+
+    public class Range implements RenderTree.Node, Rendered, Disposable {
+	public final Model.Mode mode;
+	private final Collection<RenderTree.Slot> slots = new ArrayList<>(1);
+	private int off = -1, cap = 0, n = 0;
+	private volatile Model model = null;
+
+	private Range(Model.Mode mode) {
+	    this.mode = mode;
+	}
+
+	/* Called with the pool locked. */
+	private boolean remodel() {
+	    Model prev = model, nm = null;
+	    if(n > 0) {
+		if((prev != null) && (prev.va == va) && (prev.f == off) && (prev.n == n))
+		    return(false);
+		nm = new Model(mode, va, null, off, n);
+	    } else if(prev == null) {
+		return(false);
+	    }
+	    model = nm;
+	    if(prev != null)
+		retired.add(prev);
+	    return(true);
+	}
+
+	private boolean same(float[] buf, int nv) {
+	    for(int i = 0, o = off * nf, e = nv * nf; i < e; i++, o++) {
+		if(Float.floatToRawIntBits(buf[i]) != Float.floatToRawIntBits(data[o]))
+		    return(false);
+	    }
+	    return(true);
+	}
+
+	/* Replaces the contents of this range with the first nv
+	 * vertices in buf. */
+	public void set(float[] buf, int nv) {
+	    Collection<Range> moved = new ArrayList<>(0);
+	    synchronized(VertexPool.this) {
+		boolean fresh = false;
+		if((nv > cap) || ((nv == 0) && (cap > 0)) || ((cap > MINRANGE) && (nv * 4 < cap))) {
+		    if(off >= 0) {
+			release(off, cap);
+			ranges.remove(this);
+			off = -1;
+			cap = 0;
+		    }
+		    if(nv > 0) {
+			int ncap = Math.max(MINRANGE, Integer.highestOneBit(nv - 1) << 1);
+			off = alloc(ncap, moved);
+			cap = ncap;
+			fresh = true;
+			ranges.add(this);
+		    }
+		}
+		if(nv > 0) {
+		    if(fresh || (nv != n) || !same(buf, nv)) {
+			System.arraycopy(buf, 0, data, off * nf, nv * nf);
+			changed(off, off + nv);
+		    }
+		}
+		this.n = nv;
+		if(remodel())
+		    moved.add(this);
+	    }
+	    for(Range r : moved)
+		r.update();
+	}
+
+	public int size() {
+	    return(n);
+	}
+
+	/* The space this range takes in the pool's buffer. */
+	public int bytes() {
+	    synchronized(VertexPool.this) {
+		return(cap * fmt.inputs[0].stride);
+	    }
+	}
+
+	/* Whether this range is in any render tree. */
+	public boolean used() {
+	    synchronized(slots) {
+		return(!slots.isEmpty());
+	    }
+	}
+
+	private void update() {
+	    Collection<RenderTree.Slot> tslots;
+	    synchronized(slots) {
+		tslots = new ArrayList<>(slots);
+	    }
+	    for(RenderTree.Slot slot : tslots)
+		slot.update();
+	}
+
+	public void draw(Pipe context, Render out) {
+	    Model m = model;
+	    if(m != null)
+		out.draw(context, m);
+	}
+
+	public void added(RenderTree.Slot slot) {
+	    synchronized(slots) {
+		slots.add(slot);
+	    }
+	}
+
+	public void removed(RenderTree.Slot slot) {
+	    synchronized(slots) {
+		slots.remove(slot);
+	    }
+	}
+
+	/* Returns this range's space to the pool. The range may be
+	 * set again afterwards. */
+	public void dispose() {
+	    set(null, 0);
+	}
+
+	public String toString() {
+	    return(String.format("#<vertex-range %s %d@%d/%d>", mode, n, off, cap));
+	}
+    }
+
+    public String stats() {
+	synchronized(this) {
+	    int nfree = 0;
+	    for(int len : free.values())
+		nfree += len;
+	    return(String.format("%,d ranges, %,d / %,d vertices free in %,d blocks; %,d grows, %,d bytes uploaded in %,d commits",
+				 ranges.size(), nfree, capacity(), free.size(), grown, uploaded, commits));
+	}
+    }
+}
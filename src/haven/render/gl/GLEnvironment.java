@@ -36,6 +36,7 @@ import static haven.render.DataBuffer.Usage.*;
 
 public abstract class GLEnvironment implements Environment {
     public static final boolean debuglog = false, labels = false;
+    public static final Config.Variable<Integer> texbudget = Config.Variable.propi("haven.texbudget", 1024);
     public final Caps caps;
     public int nilfbo_id = 0, nilfbo_db = 0;
     final Object drawmon = new Object();
@@ -49,6 +50,13 @@ public abstract class GLEnvironment implements Environment {
     private GLRender prep = null;
     private Applier curstate = new Applier(this);
     private boolean invalid = false;
+    /* Counted in processed frames; textures used within the last
+     * ten seconds or so are never evicted. */
+    public final TexResidency residency = new TexResidency(texbudget.get() * 1048576L, 600);
+    volatile long frameno = 0;
+    public final ProgramCache progcache;
+    public final ProgramCache.Warmer warmer;
+    private volatile GLRecorder recorder = null;
 
     public static class HardwareException extends UnavailableException {
 	public final Caps caps;
@@ -65,6 +73,7 @@ public abstract class GLEnvironment implements Environment {
 	public final int major, minor, glslver;
 	public final Collection<String> exts;
 	public final int maxtargets;
+	public final boolean progbin;
 	public final float anisotropy;
 	public final float linemin, linemax;
 
@@ -122,6 +131,7 @@ public abstract class GLEnvironment implements Environment {
 		this.exts = Arrays.asList(gl.glGetString(GL.GL_EXTENSIONS).split(" "));
 	    }
 	    this.maxtargets = glcondi(gl, GL.GL_MAX_COLOR_ATTACHMENTS, 1);
+	    this.progbin = glcondi(gl, GL.GL_NUM_PROGRAM_BINARY_FORMATS, 0) > 0;
 	    {
 		int glslver = 0;
 		String slv = glconds(gl, GL.GL_SHADING_LANGUAGE_VERSION);
@@ -173,13 +183,19 @@ public abstract class GLEnvironment implements Environment {
 
     protected abstract Caps mkcaps(GL initgl);
 
-    public GLEnvironment(GL initgl, Area wnd) {
+    public GLEnvironment(GL initgl, Area wnd, ProgramCache progcache) {
 	this.wnd = wnd;
 	this.caps = mkcaps(initgl);
 	this.caps.checkreq();
+	this.progcache = progcache;
+	this.warmer = (progcache == null) ? null : progcache.new Warmer(this);
 	initialize(initgl);
     }
 
+    public GLEnvironment(GL initgl, Area wnd) {
+	this(initgl, wnd, ProgramCache.global());
+    }
+
     private void initialize(GL gl) {
 	if(debuglog) {
 	    gl.glEnable(GL.GL_DEBUG_OUTPUT);
@@ -315,7 +331,16 @@ public abstract class GLEnvironment implements Environment {
 	    System.err.println();
     }
 
+    /* Records the next frames processed, until the recorder is done
+     * with them. */
+    public void record(GLRecorder rec) {
+	this.recorder = rec;
+    }
+
     public void process(GL gl) {
+	GLRecorder rec = this.recorder;
+	if(rec != null)
+	    gl = rec.wrap(gl);
 	GLRender prep;
 	Collection<GLRender> copy;
 	synchronized(submitted) {
@@ -361,16 +386,39 @@ public abstract class GLEnvironment implements Environment {
 		checkqueries(gl);
 		disposeall().run(gl);
 		clean();
+		if(warmer != null)
+		    warmer.step(gl, 2000000);
 		if(debuglog)
 		    checkdebuglog(gl);
 	    }
+	    residency.enforce(texmem(), ++frameno);
 	} catch(Exception e) {
+	    if(rec != null)
+		recframe(rec, true);
 	    for(Throwable c = e; c != null; c = c.getCause()) {
 		if(c instanceof GLException)
 		    ((GLException)c).initenv(this);
 	    }
 	    throw(e);
 	}
+	if(rec != null)
+	    recframe(rec, false);
+    }
+
+    private void recframe(GLRecorder rec, boolean end) {
+	try {
+	    rec.frame();
+	    if(end)
+		rec.close();
+	} catch(java.io.IOException e) {
+	    new Warning(e, "could not record GL frame").issue();
+	    try {
+		rec.close();
+	    } catch(java.io.IOException e2) {
+	    }
+	}
+	if(rec.done() && (this.recorder == rec))
+	    this.recorder = null;
     }
 
     public void finish(GL gl) throws InterruptedException {
@@ -629,6 +677,7 @@ public abstract class GLEnvironment implements Environment {
 		    tex.ro.dispose();
 		tex.ro = new GLReference<>(ret = GLTexture.Tex2D.create(this, tex));
 	    }
+	    ret.lastuse = frameno;
 	    return(ret);
 	}
     }
@@ -848,8 +897,10 @@ public abstract class GLEnvironment implements Environment {
 		return(s.prog);
 	    }
 	    putprog(hash, shaders, prog);
-	    return(prog);
 	}
+	if(progcache != null)
+	    progcache.note(prog);
+	return(prog);
     }
 
     private void cleanprogs() {
@@ -1022,6 +1073,16 @@ public abstract class GLEnvironment implements Environment {
 	return(buf.toString());
     }
 
+    long texmem() {
+	synchronized(stats_obj) {
+	    return(stats_mem[MemStats.TEXTURES.ordinal()]);
+	}
+    }
+
+    public String texstats() {
+	return(residency.stats(texmem()));
+    }
+
     public void dispose() {
 	{
 	    Collection<GLRender> copy;
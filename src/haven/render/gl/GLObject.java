@@ -99,11 +99,25 @@ public abstract class GLObject implements Disposable {
 	}
     }
 
+    /* Whether anything, such as a draw list, currently holds this
+     * object. */
+    boolean held() {
+	synchronized(this) {
+	    return(rc > 0);
+	}
+    }
+
     protected void ckstate(int st, int ex) {
 	if(st != ex)
 	    throw(new IllegalStateException(String.format("unexpected state %d, expected %d, for %s", st, ex, this)));
     }
 
+    long mem() {
+	synchronized(env.stats_obj) {
+	    return(mem);
+	}
+    }
+
     protected void setmem(GLEnvironment.MemStats pool, long mem) {
 	synchronized(env.stats_obj) {
 	    if(this.pool != null) {
@@ -50,6 +50,7 @@ public class GLProgram implements Disposable {
     private final Map<Attribute, AttrID> amap;
     private final String[] fragnms;
     private ProgOb glp;
+    private String key;
     boolean disposed = false;
 
     public GLProgram(GLEnvironment env, ProgramContext ctx) {
@@ -119,6 +120,12 @@ public class GLProgram implements Disposable {
 			return(-1);
 		    if(!a.primary && b.primary)
 			return(1);
+		    /* By generated name rather than identity, so that
+		     * locations, and with them the program's cache key,
+		     * are the same in every session. */
+		    String an = ctx.symtab.get(a.name), bn = ctx.symtab.get(b.name);
+		    if((an != null) && (bn != null) && !an.equals(bn))
+			return(an.compareTo(bn));
 		    return(Utils.idcmp.compare(a, b));
 		});
 	    Map<Attribute, AttrID> amap = new IdentityHashMap<>();
@@ -291,9 +298,12 @@ public class GLProgram implements Disposable {
 	public final ShaderOb[] shaders;
 	private int id;
 
-	public ProgOb(GLEnvironment env, ShaderOb... shaders) {
+	private final int prelinked;
+
+	private ProgOb(GLEnvironment env, int prelinked, ShaderOb[] shaders) {
 	    super(env);
 	    this.shaders = shaders;
+	    this.prelinked = prelinked;
 	    env.prepare(this);
 	    for(Map.Entry<Uniform, String> uni : GLProgram.this.unifnms.entrySet()) {
 		UniformID id = uniresolve(uni.getKey().type, uni.getValue());
@@ -329,7 +339,21 @@ public class GLProgram implements Disposable {
 	    return(ret);
 	}
 
+	public ProgOb(GLEnvironment env, ShaderOb... shaders) {
+	    this(env, 0, shaders);
+	}
+
+	/* Adopts a program already linked from this program's sources
+	 * and bindings, by ProgramCache. */
+	public ProgOb(GLEnvironment env, int prelinked) {
+	    this(env, prelinked, new ShaderOb[0]);
+	}
+
 	public void create(GL gl) {
+	    if(prelinked != 0) {
+		this.id = prelinked;
+		return;
+	    }
 	    this.id = gl.glCreateProgram();
 	    for(ShaderOb sh : shaders)
 		gl.glAttachShader(this.id, sh.glid());
@@ -337,6 +361,8 @@ public class GLProgram implements Disposable {
 		gl.glBindAttribLocation(this.id, attr.id, attr.name);
 	    for(int i = 0; i < fragdata.length; i++)
 		gl.glBindFragDataLocation(this.id, i, fragnms[i]);
+	    if((env.progcache != null) && env.caps.progbin)
+		gl.glProgramParameteri(this.id, GL.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, 1);
 	    gl.glLinkProgram(this.id);
 	    int[] buf = {0};
 	    gl.glGetProgramiv(this.id, GL.GL_LINK_STATUS, buf);
@@ -350,6 +376,8 @@ public class GLProgram implements Disposable {
 		}
 		throw(new LinkException("Failed to link GL program", GLProgram.this, info));
 	    }
+	    if((env.progcache != null) && env.caps.progbin)
+		env.progcache.savebin(gl, ProgramCache.driver(env.caps), key(), this.id);
 	}
 
 	protected void delete(GL gl) {
@@ -400,9 +428,14 @@ public class GLProgram implements Disposable {
 		if(disposed)
 		    throw(new RuntimeException("reusing disposed program"));
 		if((glp = this.glp) == null) {
-		    glp = new ProgOb(env,
-				     new ShaderOb(env, GL.GL_VERTEX_SHADER, vsrc),
-				     new ShaderOb(env, GL.GL_FRAGMENT_SHADER, fsrc));
+		    Integer warm = (env.warmer == null) ? null : env.warmer.take(key());
+		    if(warm != null) {
+			glp = new ProgOb(env, warm);
+		    } else {
+			glp = new ProgOb(env,
+					 new ShaderOb(env, GL.GL_VERTEX_SHADER, vsrc),
+					 new ShaderOb(env, GL.GL_FRAGMENT_SHADER, fsrc));
+		    }
 		    this.glp = glp;
 		}
 	    }
@@ -504,4 +537,12 @@ public class GLProgram implements Disposable {
     public Dump dump() {
 	return(new Dump(this));
     }
+
+    /* Identifies the compiled program, across sessions, by its
+     * sources and bindings. */
+    public String key() {
+	if(key == null)
+	    key = new ProgramCache.Entry(dump()).key;
+	return(key);
+    }
 }
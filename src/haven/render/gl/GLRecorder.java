@@ -0,0 +1,704 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.render.gl;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.util.zip.*;
+import haven.Utils;
+
+/* Records the GL command stream that GLEnvironment.process() issues,
+ * one frame per call, into a compact binary file, and plays such
+ * files back into another GL. Integers are stored as variable-length
+ * numbers, and the contents of data buffers are left out, only their
+ * sizes being kept, so a replay reproduces the calls made but not
+ * what they upload. Frames are deflated separately, matrices and
+ * colors repeating much within a frame. The file starts with the signature of every GL
+ * call, so that it can still be played after the interface has
+ * gained calls. */
+public class GLRecorder {
+    public static final int SIG = 0x48474c52;
+    public static final int VERSION = 1;
+    /* Every call of the GL interface, in declaration order; a call's
+     * index is its opcode in recorded streams. */
+    public static final String[] calls = {
+	"glActiveTexture(int)",
+	"glAttachShader(int,int)",
+	"glBindAttribLocation(int,int,String)",
+	"glBindBuffer(int,int)",
+	"glBindFragDataLocation(int,int,String)",
+	"glBindFramebuffer(int,int)",
+	"glBindRenderbuffer(int,int)",
+	"glBindTexture(int,int)",
+	"glBindVertexArray(int)",
+	"glBlendColor(float,float,float,float)",
+	"glBlendEquation(int)",
+	"glBlendEquationSeparate(int,int)",
+	"glBlendFunc(int,int)",
+	"glBlendFuncSeparate(int,int,int,int)",
+	"glBufferData(int,long,ByteBuffer,int)",
+	"glBufferSubData(int,long,long,ByteBuffer)",
+	"glCheckFramebufferStatus(int)",
+	"glClear(int)",
+	"glClearBufferfv(int,int,float[])",
+	"glClearBufferiv(int,int,int[])",
+	"glClearBufferuiv(int,int,int[])",
+	"glClearColor(float,float,float,float)",
+	"glClearDepth(double)",
+	"glColorMask(boolean,boolean,boolean,boolean)",
+	"glColorMaski(int,boolean,boolean,boolean,boolean)",
+	"glCompileShader(int)",
+	"glCreateProgram()",
+	"glCreateShader(int)",
+	"glDeleteBuffers(int,int[])",
+	"glDeleteFramebuffers(int,int[])",
+	"glDeleteShader(int)",
+	"glDeleteProgram(int)",
+	"glDeleteQueries(int,int[])",
+	"glDeleteRenderbuffers(int,int[])",
+	"glDeleteSync(long)",
+	"glDeleteTextures(int,int[])",
+	"glDeleteVertexArrays(int,int[])",
+	"glCullFace(int)",
+	"glDebugMessageControl(int,int,int,int,int[],boolean)",
+	"glDepthFunc(int)",
+	"glDepthMask(boolean)",
+	"glDisable(int)",
+	"glDisablei(int,int)",
+	"glDisableClientState(int)",
+	"glDisableVertexAttribArray(int)",
+	"glDrawBuffer(int)",
+	"glDrawBuffers(int,int[])",
+	"glDrawArraysInstanced(int,int,int,int)",
+	"glDrawArrays(int,int,int)",
+	"glDrawElementsInstanced(int,int,int,long,int)",
+	"glDrawElements(int,int,int,long)",
+	"glDrawRangeElements(int,int,int,int,int,long)",
+	"glEnable(int)",
+	"glEnablei(int,int)",
+	"glEnableClientState(int)",
+	"glEnableVertexAttribArray(int)",
+	"glFenceSync(int,int)",
+	"glFinish()",
+	"glFramebufferTexture2D(int,int,int,int,int)",
+	"glFramebufferRenderbuffer(int,int,int,int)",
+	"glGenBuffers(int,int[])",
+	"glGenFramebuffers(int,int[])",
+	"glGenQueries(int,int[])",
+	"glGenTextures(int,int[])",
+	"glGenVertexArrays(int,int[])",
+	"glGetBufferSubData(int,int,int,ByteBuffer)",
+	"glGetDebugMessageLog(int,int,int[],int[],int[],int[],int[],byte[])",
+	"glGetError()",
+	"glGetFloatv(int,float[])",
+	"glGetIntegerv(int,int[])",
+	"glGetString(int)",
+	"glGetStringi(int,int)",
+	"glGetProgramBinary(int,int,int[],int[],ByteBuffer)",
+	"glGetProgramInfoLog(int,int,int[],byte[])",
+	"glGetProgramiv(int,int,int[])",
+	"glGetQueryObjectiv(int,int,int[])",
+	"glGetQueryObjecti64v(int,int,long[])",
+	"glGetShaderInfoLog(int,int,int[],byte[])",
+	"glGetShaderiv(int,int,int[])",
+	"glGetSynciv(long,int,int,int[],int[])",
+	"glGetTexImage(int,int,int,int,ByteBuffer)",
+	"glGetTexImage(int,int,int,int,long)",
+	"glGetUniformLocation(int,String)",
+	"glLineWidth(float)",
+	"glLinkProgram(int)",
+	"glObjectLabel(int,int,int,byte[])",
+	"glPixelStorei(int,int)",
+	"glPointSize(float)",
+	"glPolygonMode(int,int)",
+	"glPolygonOffset(float,float)",
+	"glProgramBinary(int,int,ByteBuffer,int)",
+	"glProgramParameteri(int,int,int)",
+	"glQueryCounter(int,int)",
+	"glReadBuffer(int)",
+	"glReadPixels(int,int,int,int,int,int,ByteBuffer)",
+	"glReadPixels(int,int,int,int,int,int,long)",
+	"glRenderbufferStorage(int,int,int,int)",
+	"glRenderbufferStorageMultisample(int,int,int,int,int)",
+	"glSampleCoverage(float,boolean)",
+	"glScissor(int,int,int,int)",
+	"glShaderSource(int,int,String[],int[])",
+	"glTexImage2D(int,int,int,int,int,int,int,int,ByteBuffer)",
+	"glTexSubImage2D(int,int,int,int,int,int,int,int,ByteBuffer)",
+	"glTexImage2DMultisample(int,int,int,int,int,boolean)",
+	"glTexImage3D(int,int,int,int,int,int,int,int,int,ByteBuffer)",
+	"glTexSubImage3D(int,int,int,int,int,int,int,int,int,int,ByteBuffer)",
+	"glTexParameterf(int,int,float)",
+	"glTexParameterfv(int,int,float[])",
+	"glTexParameteri(int,int,int)",
+	"glUniform1f(int,float)",
+	"glUniform2f(int,float,float)",
+	"glUniform3f(int,float,float,float)",
+	"glUniform3fv(int,int,float[])",
+	"glUniform4f(int,float,float,float,float)",
+	"glUniform4fv(int,int,float[])",
+	"glUniform1i(int,int)",
+	"glUniform2i(int,int,int)",
+	"glUniform3i(int,int,int,int)",
+	"glUniform4i(int,int,int,int,int)",
+	"glUniformMatrix3fv(int,int,boolean,float[])",
+	"glUniformMatrix4fv(int,int,boolean,float[])",
+	"glUseProgram(int)",
+	"glVertexAttribDivisor(int,int)",
+	"glVertexAttribPointer(int,int,int,boolean,int,long)",
+	"glVertexAttribIPointer(int,int,int,int,long)",
+	"glViewport(int,int,int,int)",
+    };
+    private final DataOutputStream out;
+    public final int maxframes;
+    private final Deflater zip = new Deflater(Deflater.BEST_SPEED);
+    private byte[] buf = new byte[65536], zbuf = new byte[65536];
+    private int len = 0, frames = 0;
+    private long size = 0;
+    private boolean closed = false;
+
+    public GLRecorder(OutputStream out, int maxframes) throws IOException {
+	this.out = new DataOutputStream(new BufferedOutputStream(out));
+	this.maxframes = maxframes;
+	this.out.writeInt(SIG);
+	this.out.writeInt(VERSION);
+	this.out.writeInt(calls.length);
+	for(String call : calls)
+	    this.out.writeUTF(call);
+    }
+
+    public GL wrap(GL back) {
+	return(new Recording(back));
+    }
+
+    public int frames() {return(frames);}
+    public long size() {return(size);}
+    public boolean done() {return(closed);}
+
+    /* Ends the current frame, closing the file once the requested
+     * number of frames have been recorded. */
+    public void frame() throws IOException {
+	if(closed)
+	    return;
+	zip.reset();
+	zip.setInput(buf, 0, len);
+	zip.finish();
+	int zlen = 0;
+	while(!zip.finished()) {
+	    if(zlen >= zbuf.length)
+		zbuf = Arrays.copyOf(zbuf, zbuf.length * 2);
+	    zlen += zip.deflate(zbuf, zlen, zbuf.length - zlen);
+	}
+	out.writeInt(len);
+	out.writeInt(zlen);
+	out.write(zbuf, 0, zlen);
+	size += 8 + zlen;
+	len = 0;
+	if(++frames >= maxframes)
+	    close();
+    }
+
+    public void close() throws IOException {
+	if(!closed) {
+	    closed = true;
+	    zip.end();
+	    out.close();
+	}
+    }
+
+    private void put(int b) {
+	if(len >= buf.length)
+	    buf = Arrays.copyOf(buf, buf.length * 2);
+	buf[len++] = (byte)b;
+    }
+
+    private void uv(long v) {
+	while((v & ~0x7fL) != 0) {
+	    put((int)((v & 0x7f) | 0x80));
+	    v >>>= 7;
+	}
+	put((int)v);
+    }
+
+    private void op(int op) {uv(op);}
+    private void i(int v) {uv((v << 1) ^ (v >> 31));}
+    private void l(long v) {uv((v << 1) ^ (v >> 63));}
+    private void f(float v) {int b = Float.floatToRawIntBits(v); put(b); put(b >> 8); put(b >> 16); put(b >> 24);}
+    private void d(double v) {long b = Double.doubleToRawLongBits(v); f(Float.intBitsToFloat((int)b)); f(Float.intBitsToFloat((int)(b >> 32)));}
+    private void z(boolean v) {put(v ? 1 : 0);}
+    private void b(ByteBuffer v) {i((v == null) ? -1 : v.remaining());}
+    private void s(String v) {
+	if(v == null) {
+	    i(-1);
+	    return;
+	}
+	bv(v.getBytes(Utils.utf8));
+    }
+    private void bv(byte[] v) {
+	i((v == null) ? -1 : v.length);
+	if(v != null) {
+	    for(byte e : v)
+		put(e);
+	}
+    }
+    private void iv(int[] v) {
+	i((v == null) ? -1 : v.length);
+	if(v != null) {
+	    for(int e : v)
+		i(e);
+	}
+    }
+    private void lv(long[] v) {
+	i((v == null) ? -1 : v.length);
+	if(v != null) {
+	    for(long e : v)
+		l(e);
+	}
+    }
+    private void fv(float[] v) {
+	i((v == null) ? -1 : v.length);
+	if(v != null) {
+	    for(float e : v)
+		f(e);
+	}
+    }
+    private void sv(String[] v) {
+	i((v == null) ? -1 : v.length);
+	if(v != null) {
+	    for(String e : v)
+		s(e);
+	}
+    }
+
+    public class Recording implements GL {
+	public final GL back;
+
+	public Recording(GL back) {
+	    this.back = back;
+	}
+
+	public void glActiveTexture(int texture) {op(0); i(texture); back.glActiveTexture(texture);}
+	public void glAttachShader(int program, int shader) {op(1); i(program); i(shader); back.glAttachShader(program, shader);}
+	public void glBindAttribLocation(int program, int index, String name) {op(2); i(program); i(index); s(name); back.glBindAttribLocation(program, index, name);}
+	public void glBindBuffer(int target, int buffer) {op(3); i(target); i(buffer); back.glBindBuffer(target, buffer);}
+	public void glBindFragDataLocation(int program, int colornumber, String name) {op(4); i(program); i(colornumber); s(name); back.glBindFragDataLocation(program, colornumber, name);}
+	public void glBindFramebuffer(int target, int buffer) {op(5); i(target); i(buffer); back.glBindFramebuffer(target, buffer);}
+	public void glBindRenderbuffer(int target, int buffer) {op(6); i(target); i(buffer); back.glBindRenderbuffer(target, buffer);}
+	public void glBindTexture(int target, int texture) {op(7); i(target); i(texture); back.glBindTexture(target, texture);}
+	public void glBindVertexArray(int array) {op(8); i(array); back.glBindVertexArray(array);}
+	public void glBlendColor(float red, float green, float blue, float alpha) {op(9); f(red); f(green); f(blue); f(alpha); back.glBlendColor(red, green, blue, alpha);}
+	public void glBlendEquation(int mode) {op(10); i(mode); back.glBlendEquation(mode);}
+	public void glBlendEquationSeparate(int cmode, int amode) {op(11); i(cmode); i(amode); back.glBlendEquationSeparate(cmode, amode);}
+	public void glBlendFunc(int sfac, int dfac) {op(12); i(sfac); i(dfac); back.glBlendFunc(sfac, dfac);}
+	public void glBlendFuncSeparate(int csfac, int cdfac, int asfac, int adfac) {op(13); i(csfac); i(cdfac); i(asfac); i(adfac); back.glBlendFuncSeparate(csfac, cdfac, asfac, adfac);}
+	public void glBufferData(int target, long size, ByteBuffer data, int usage) {op(14); i(target); l(size); b(data); i(usage); back.glBufferData(target, size, data, usage);}
+	public void glBufferSubData(int target, long offset, long size, ByteBuffer data) {op(15); i(target); l(offset); l(size); b(data); back.glBufferSubData(target, offset, size, data);}
+	public int glCheckFramebufferStatus(int target) {op(16); i(target); return(back.glCheckFramebufferStatus(target));}
+	public void glClear(int mask) {op(17); i(mask); back.glClear(mask);}
+	public void glClearBufferfv(int buffer, int drawbuffer, float[] value) {op(18); i(buffer); i(drawbuffer); fv(value); back.glClearBufferfv(buffer, drawbuffer, value);}
+	public void glClearBufferiv(int buffer, int drawbuffer, int[] value) {op(19); i(buffer); i(drawbuffer); iv(value); back.glClearBufferiv(buffer, drawbuffer, value);}
+	public void glClearBufferuiv(int buffer, int drawbuffer, int[] value) {op(20); i(buffer); i(drawbuffer); iv(value); back.glClearBufferuiv(buffer, drawbuffer, value);}
+	public void glClearColor(float r, float g, float b, float a) {op(21); f(r); f(g); f(b); f(a); back.glClearColor(r, g, b, a);}
+	public void glClearDepth(double d) {op(22); d(d); back.glClearDepth(d);}
+	public void glColorMask(boolean r, boolean g, boolean b, boolean a) {op(23); z(r); z(g); z(b); z(a); back.glColorMask(r, g, b, a);}
+	public void glColorMaski(int buf, boolean r, boolean g, boolean b, boolean a) {op(24); i(buf); z(r); z(g); z(b); z(a); back.glColorMaski(buf, r, g, b, a);}
+	public void glCompileShader(int shader) {op(25); i(shader); back.glCompileShader(shader);}
+	public int glCreateProgram() {op(26); return(back.glCreateProgram());}
+	public int glCreateShader(int type) {op(27); i(type); return(back.glCreateShader(type));}
+	public void glDeleteBuffers(int count, int[] buffers) {op(28); i(count); iv(buffers); back.glDeleteBuffers(count, buffers);}
+	public void glDeleteFramebuffers(int count, int[] buffers) {op(29); i(count); iv(buffers); back.glDeleteFramebuffers(count, buffers);}
+	public void glDeleteShader(int id) {op(30); i(id); back.glDeleteShader(id);}
+	public void glDeleteProgram(int id) {op(31); i(id); back.glDeleteProgram(id);}
+	public void glDeleteQueries(int count, int[] buffer) {op(32); i(count); iv(buffer); back.glDeleteQueries(count, buffer);}
+	public void glDeleteRenderbuffers(int count, int[] buffers) {op(33); i(count); iv(buffers); back.glDeleteRenderbuffers(count, buffers);}
+	public void glDeleteSync(long id) {op(34); l(id); back.glDeleteSync(id);}
+	public void glDeleteTextures(int count, int[] buffers) {op(35); i(count); iv(buffers); back.glDeleteTextures(count, buffers);}
+	public void glDeleteVertexArrays(int count, int[] buffers) {op(36); i(count); iv(buffers); back.glDeleteVertexArrays(count, buffers);}
+	public void glCullFace(int mode) {op(37); i(mode); back.glCullFace(mode);}
+	public void glDebugMessageControl(int source, int type, int severity, int count, int[] ids, boolean enabled) {op(38); i(source); i(type); i(severity); i(count); iv(ids); z(enabled); back.glDebugMessageControl(source, type, severity, count, ids, enabled);}
+	public void glDepthFunc(int func) {op(39); i(func); back.glDepthFunc(func);}
+	public void glDepthMask(boolean mask) {op(40); z(mask); back.glDepthMask(mask);}
+	public void glDisable(int cap) {op(41); i(cap); back.glDisable(cap);}
+	public void glDisablei(int cap, int index) {op(42); i(cap); i(index); back.glDisablei(cap, index);}
+	public void glDisableClientState(int cap) {op(43); i(cap); back.glDisableClientState(cap);}
+	public void glDisableVertexAttribArray(int location) {op(44); i(location); back.glDisableVertexAttribArray(location);}
+	public void glDrawBuffer(int buf) {op(45); i(buf); back.glDrawBuffer(buf);}
+	public void glDrawBuffers(int n, int[] bufs) {op(46); i(n); iv(bufs); back.glDrawBuffers(n, bufs);}
+	public void glDrawArraysInstanced(int mode, int first, int count, int primcount) {op(47); i(mode); i(first); i(count); i(primcount); back.glDrawArraysInstanced(mode, first, count, primcount);}
+	public void glDrawArrays(int mode, int first, int count) {op(48); i(mode); i(first); i(count); back.glDrawArrays(mode, first, count);}
+	public void glDrawElementsInstanced(int mode, int count, int type, long indices, int primcount) {op(49); i(mode); i(count); i(type); l(indices); i(primcount); back.glDrawElementsInstanced(mode, count, type, indices, primcount);}
+	public void glDrawElements(int mode, int count, int type, long indices) {op(50); i(mode); i(count); i(type); l(indices); back.glDrawElements(mode, count, type, indices);}
+	public void glDrawRangeElements(int mode, int start, int end, int count, int type, long indices) {op(51); i(mode); i(start); i(end); i(count); i(type); l(indices); back.glDrawRangeElements(mode, start, end, count, type, indices);}
+	public void glEnable(int cap) {op(52); i(cap); back.glEnable(cap);}
+	public void glEnablei(int cap, int index) {op(53); i(cap); i(index); back.glEnablei(cap, index);}
+	public void glEnableClientState(int cap) {op(54); i(cap); back.glEnableClientState(cap);}
+	public void glEnableVertexAttribArray(int location) {op(55); i(location); back.glEnableVertexAttribArray(location);}
+	public long glFenceSync(int condition, int flags) {op(56); i(condition); i(flags); return(back.glFenceSync(condition, flags));}
+	public void glFinish() {op(57); back.glFinish();}
+	public void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level) {op(58); i(target); i(attachment); i(textarget); i(texture); i(level); back.glFramebufferTexture2D(target, attachment, textarget, texture, level);}
+	public void glFramebufferRenderbuffer(int target, int attachment, int rbtarget, int renderbuffer) {op(59); i(target); i(attachment); i(rbtarget); i(renderbuffer); back.glFramebufferRenderbuffer(target, attachment, rbtarget, renderbuffer);}
+	public void glGenBuffers(int n, int[] buffer) {op(60); i(n); iv(buffer); back.glGenBuffers(n, buffer);}
+	public void glGenFramebuffers(int n, int[] buffer) {op(61); i(n); iv(buffer); back.glGenFramebuffers(n, buffer);}
+	public void glGenQueries(int n, int[] buffer) {op(62); i(n); iv(buffer); back.glGenQueries(n, buffer);}
+	public void glGenTextures(int n, int[] buffer) {op(63); i(n); iv(buffer); back.glGenTextures(n, buffer);}
+	public void glGenVertexArrays(int n, int[] buffer) {op(64); i(n); iv(buffer); back.glGenVertexArrays(n, buffer);}
+	public void glGetBufferSubData(int target, int offset, int size, ByteBuffer data) {op(65); i(target); i(offset); i(size); b(data); back.glGetBufferSubData(target, offset, size, data);}
+	public int glGetDebugMessageLog(int count, int bufsize, int[] sources, int[] types, int[] ids, int[] severities, int[] lengths, byte[] buffer) {op(66); i(count); i(bufsize); iv(sources); iv(types); iv(ids); iv(severities); iv(lengths); bv(buffer); return(back.glGetDebugMessageLog(count, bufsize, sources, types, ids, severities, lengths, buffer));}
+	public int glGetError() {op(67); return(back.glGetError());}
+	public void glGetFloatv(int pname, float[] data) {op(68); i(pname); fv(data); back.glGetFloatv(pname, data);}
+	public void glGetIntegerv(int pname, int[] data) {op(69); i(pname); iv(data); back.glGetIntegerv(pname, data);}
+	public String glGetString(int name) {op(70); i(name); return(back.glGetString(name));}
+	public String glGetStringi(int name, int index) {op(71); i(name); i(index); return(back.glGetStringi(name, index));}
+	public void glGetProgramBinary(int program, int bufsize, int[] length, int[] format, ByteBuffer binary) {op(72); i(program); i(bufsize); iv(length); iv(format); b(binary); back.glGetProgramBinary(program, bufsize, length, format, binary);}
+	public void glGetProgramInfoLog(int shader, int maxlength, int[] length, byte[] infolog) {op(73); i(shader); i(maxlength); iv(length); bv(infolog); back.glGetProgramInfoLog(shader, maxlength, length, infolog);}
+	public void glGetProgramiv(int shader, int pname, int[] buf) {op(74); i(shader); i(pname); iv(buf); back.glGetProgramiv(shader, pname, buf);}
+	public void glGetQueryObjectiv(int id, int pname, int[] params) {op(75); i(id); i(pname); iv(params); back.glGetQueryObjectiv(id, pname, params);}
+	public void glGetQueryObjecti64v(int id, int pname, long[] params) {op(76); i(id); i(pname); lv(params); back.glGetQueryObjecti64v(id, pname, params);}
+	public void glGetShaderInfoLog(int shader, int maxlength, int[] length, byte[] infolog) {op(77); i(shader); i(maxlength); iv(length); bv(infolog); back.glGetShaderInfoLog(shader, maxlength, length, infolog);}
+	public void glGetShaderiv(int shader, int pname, int[] buf) {op(78); i(shader); i(pname); iv(buf); back.glGetShaderiv(shader, pname, buf);}
+	public void glGetSynciv(long sync, int pname, int bufsize, int[] lengths, int[] values) {op(79); l(sync); i(pname); i(bufsize); iv(lengths); iv(values); back.glGetSynciv(sync, pname, bufsize, lengths, values);}
+	public void glGetTexImage(int target, int level, int format, int type, ByteBuffer pixels) {op(80); i(target); i(level); i(format); i(type); b(pixels); back.glGetTexImage(target, level, format, type, pixels);}
+	public void glGetTexImage(int target, int level, int format, int type, long offset) {op(81); i(target); i(level); i(format); i(type); l(offset); back.glGetTexImage(target, level, format, type, offset);}
+	public int glGetUniformLocation(int program, String name) {op(82); i(program); s(name); return(back.glGetUniformLocation(program, name));}
+	public void glLineWidth(float w) {op(83); f(w); back.glLineWidth(w);}
+	public void glLinkProgram(int program) {op(84); i(program); back.glLinkProgram(program);}
+	public void glObjectLabel(int identifier, int name, int length, byte[] label) {op(85); i(identifier); i(name); i(length); bv(label); back.glObjectLabel(identifier, name, length, label);}
+	public void glPixelStorei(int pname, int param) {op(86); i(pname); i(param); back.glPixelStorei(pname, param);}
+	public void glPointSize(float size) {op(87); f(size); back.glPointSize(size);}
+	public void glPolygonMode(int face, int mode) {op(88); i(face); i(mode); back.glPolygonMode(face, mode);}
+	public void glPolygonOffset(float factor, float units) {op(89); f(factor); f(units); back.glPolygonOffset(factor, units);}
+	public void glProgramBinary(int program, int format, ByteBuffer binary, int length) {op(90); i(program); i(format); b(binary); i(length); back.glProgramBinary(program, format, binary, length);}
+	public void glProgramParameteri(int program, int pname, int value) {op(91); i(program); i(pname); i(value); back.glProgramParameteri(program, pname, value);}
+	public void glQueryCounter(int id, int target) {op(92); i(id); i(target); back.glQueryCounter(id, target);}
+	public void glReadBuffer(int buf) {op(93); i(buf); back.glReadBuffer(buf);}
+	public void glReadPixels(int x, int y, int width, int height, int format, int type, ByteBuffer data) {op(94); i(x); i(y); i(width); i(height); i(format); i(type); b(data); back.glReadPixels(x, y, width, height, format, type, data);}
+	public void glReadPixels(int x, int y, int width, int height, int format, int type, long offset) {op(95); i(x); i(y); i(width); i(height); i(format); i(type); l(offset); back.glReadPixels(x, y, width, height, format, type, offset);}
+	public void glRenderbufferStorage(int target, int format, int width, int height) {op(96); i(target); i(format); i(width); i(height); back.glRenderbufferStorage(target, format, width, height);}
+	public void glRenderbufferStorageMultisample(int target, int samples, int format, int width, int height) {op(97); i(target); i(samples); i(format); i(width); i(height); back.glRenderbufferStorageMultisample(target, samples, format, width, height);}
+	public void glSampleCoverage(float value, boolean invert) {op(98); f(value); z(invert); back.glSampleCoverage(value, invert);}
+	public void glScissor(int x, int y, int w, int h) {op(99); i(x); i(y); i(w); i(h); back.glScissor(x, y, w, h);}
+	public void glShaderSource(int shader, int count, String[] string, int[] lengths) {op(100); i(shader); i(count); sv(string); iv(lengths); back.glShaderSource(shader, count, string, lengths);}
+	public void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, ByteBuffer data) {op(101); i(target); i(level); i(internalformat); i(width); i(height); i(border); i(format); i(type); b(data); back.glTexImage2D(target, level, internalformat, width, height, border, format, type, data);}
+	public void glTexSubImage2D(int target, int level, int xoff, int yoff, int width, int height, int format, int type, ByteBuffer data) {op(102); i(target); i(level); i(xoff); i(yoff); i(width); i(height); i(format); i(type); b(data); back.glTexSubImage2D(target, level, xoff, yoff, width, height, format, type, data);}
+	public void glTexImage2DMultisample(int target, int samples, int internalformat, int width, int height, boolean fixedsamplelocations) {op(103); i(target); i(samples); i(internalformat); i(width); i(height); z(fixedsamplelocations); back.glTexImage2DMultisample(target, samples, internalformat, width, height, fixedsamplelocations);}
+	public void glTexImage3D(int target, int level, int internalformat, int width, int height, int depth, int border, int format, int type, ByteBuffer data) {op(104); i(target); i(level); i(internalformat); i(width); i(height); i(depth); i(border); i(format); i(type); b(data); back.glTexImage3D(target, level, internalformat, width, height, depth, border, format, type, data);}
+	public void glTexSubImage3D(int target, int level, int xoff, int yoff, int zoff, int width, int height, int depth, int format, int type, ByteBuffer data) {op(105); i(target); i(level); i(xoff); i(yoff); i(zoff); i(width); i(height); i(depth); i(format); i(type); b(data); back.glTexSubImage3D(target, level, xoff, yoff, zoff, width, height, depth, format, type, data);}
+	public void glTexParameterf(int target, int pname, float param) {op(106); i(target); i(pname); f(param); back.glTexParameterf(target, pname, param);}
+	public void glTexParameterfv(int target, int pname, float[] param) {op(107); i(target); i(pname); fv(param); back.glTexParameterfv(target, pname, param);}
+	public void glTexParameteri(int target, int pname, int param) {op(108); i(target); i(pname); i(param); back.glTexParameteri(target, pname, param);}
+	public void glUniform1f(int location, float v0) {op(109); i(location); f(v0); back.glUniform1f(location, v0);}
+	public void glUniform2f(int location, float v0, float v1) {op(110); i(location); f(v0); f(v1); back.glUniform2f(location, v0, v1);}
+	public void glUniform3f(int location, float v0, float v1, float v2) {op(111); i(location); f(v0); f(v1); f(v2); back.glUniform3f(location, v0, v1, v2);}
+	public void glUniform3fv(int location, int count, float[] val) {op(112); i(location); i(count); fv(val); back.glUniform3fv(location, count, val);}
+	public void glUniform4f(int location, float v0, float v1, float v2, float v3) {op(113); i(location); f(v0); f(v1); f(v2); f(v3); back.glUniform4f(location, v0, v1, v2, v3);}
+	public void glUniform4fv(int location, int count, float[] val) {op(114); i(location); i(count); fv(val); back.glUniform4fv(location, count, val);}
+	public void glUniform1i(int location, int v0) {op(115); i(location); i(v0); back.glUniform1i(location, v0);}
+	public void glUniform2i(int location, int v0, int v1) {op(116); i(location); i(v0); i(v1); back.glUniform2i(location, v0, v1);}
+	public void glUniform3i(int location, int v0, int v1, int v2) {op(117); i(location); i(v0); i(v1); i(v2); back.glUniform3i(location, v0, v1, v2);}
+	public void glUniform4i(int location, int v0, int v1, int v2, int v3) {op(118); i(location); i(v0); i(v1); i(v2); i(v3); back.glUniform4i(location, v0, v1, v2, v3);}
+	public void glUniformMatrix3fv(int location, int count, boolean transpose, float[] value) {op(119); i(location); i(count); z(transpose); fv(value); back.glUniformMatrix3fv(location, count, transpose, value);}
+	public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value) {op(120); i(location); i(count); z(transpose); fv(value); back.glUniformMatrix4fv(location, count, transpose, value);}
+	public void glUseProgram(int program) {op(121); i(program); back.glUseProgram(program);}
+	public void glVertexAttribDivisor(int location, int divisor) {op(122); i(location); i(divisor); back.glVertexAttribDivisor(location, divisor);}
+	public void glVertexAttribPointer(int location, int size, int type, boolean normalized, int stride, long pointer) {op(123); i(location); i(size); i(type); z(normalized); i(stride); l(pointer); back.glVertexAttribPointer(location, size, type, normalized, stride, pointer);}
+	public void glVertexAttribIPointer(int location, int size, int type, int stride, long pointer) {op(124); i(location); i(size); i(type); i(stride); l(pointer); back.glVertexAttribIPointer(location, size, type, stride, pointer);}
+	public void glViewport(int x, int y, int w, int h) {op(125); i(x); i(y); i(w); i(h); back.glViewport(x, y, w, h);}
+
+	public void xlateexc(RuntimeException exc) {back.xlateexc(exc);}
+    }
+
+    public static class Player {
+	public final List<byte[]> frames = new ArrayList<>();
+	private final int[] opmap;
+	private byte[] data;
+	private int pos;
+	private ByteBuffer scratch = ByteBuffer.allocate(0);
+	public long ncalls = 0;
+
+	public Player(InputStream in) throws IOException {
+	    DataInputStream fp = new DataInputStream(new BufferedInputStream(in));
+	    if(fp.readInt() != SIG)
+		throw(new IOException("not a GL recording"));
+	    int ver = fp.readInt();
+	    if(ver != VERSION)
+		throw(new IOException("unknown GL recording version: " + ver));
+	    Map<String, Integer> local = new HashMap<>();
+	    for(int i = 0; i < calls.length; i++)
+		local.put(calls[i], i);
+	    opmap = new int[fp.readInt()];
+	    for(int i = 0; i < opmap.length; i++) {
+		String call = fp.readUTF();
+		Integer op = local.get(call);
+		/* Calls since removed from GL are only a problem if
+		 * they were actually recorded. */
+		opmap[i] = (op == null) ? -1 : op;
+	    }
+	    while(true) {
+		int len, zlen;
+		try {
+		    len = fp.readInt();
+		} catch(EOFException e) {
+		    break;
+		}
+		zlen = fp.readInt();
+		byte[] zdata = new byte[zlen], frame = new byte[len];
+		fp.readFully(zdata);
+		Inflater unzip = new Inflater();
+		unzip.setInput(zdata);
+		try {
+		    if(unzip.inflate(frame) != len)
+			throw(new IOException("truncated GL recording frame"));
+		} catch(DataFormatException e) {
+		    throw(new IOException("corrupt GL recording frame", e));
+		} finally {
+		    unzip.end();
+		}
+		frames.add(frame);
+	    }
+	}
+
+	private int get() {return(data[pos++] & 0xff);}
+
+	private long ruv() {
+	    long ret = 0;
+	    for(int sh = 0;; sh += 7) {
+		int b = get();
+		ret |= (long)(b & 0x7f) << sh;
+		if((b & 0x80) == 0)
+		    return(ret);
+	    }
+	}
+
+	private int ri() {long v = ruv(); return((int)(v >>> 1) ^ -(int)(v & 1));}
+	private long rl() {long v = ruv(); return((v >>> 1) ^ -(v & 1));}
+	private float rf() {int b = get() | (get() << 8) | (get() << 16) | (get() << 24); return(Float.intBitsToFloat(b));}
+	private double rd() {long lo = Float.floatToRawIntBits(rf()) & 0xffffffffL, hi = Float.floatToRawIntBits(rf()) & 0xffffffffL; return(Double.longBitsToDouble(lo | (hi << 32)));}
+	private boolean rz() {return(get() != 0);}
+	private ByteBuffer rb() {
+	    int n = ri();
+	    if(n < 0)
+		return(null);
+	    if(scratch.capacity() < n)
+		scratch = ByteBuffer.allocateDirect(n).order(ByteOrder.nativeOrder());
+	    scratch.clear().limit(n);
+	    return(scratch);
+	}
+	private byte[] rbv() {
+	    int n = ri();
+	    if(n < 0)
+		return(null);
+	    byte[] ret = new byte[n];
+	    System.arraycopy(data, pos, ret, 0, n);
+	    pos += n;
+	    return(ret);
+	}
+	private String rs() {
+	    byte[] b = rbv();
+	    return((b == null) ? null : new String(b, Utils.utf8));
+	}
+	private int[] riv() {
+	    int n = ri();
+	    if(n < 0)
+		return(null);
+	    int[] ret = new int[n];
+	    for(int i = 0; i < n; i++)
+		ret[i] = ri();
+	    return(ret);
+	}
+	private long[] rlv() {
+	    int n = ri();
+	    if(n < 0)
+		return(null);
+	    long[] ret = new long[n];
+	    for(int i = 0; i < n; i++)
+		ret[i] = rl();
+	    return(ret);
+	}
+	private float[] rfv() {
+	    int n = ri();
+	    if(n < 0)
+		return(null);
+	    float[] ret = new float[n];
+	    for(int i = 0; i < n; i++)
+		ret[i] = rf();
+	    return(ret);
+	}
+	private String[] rsv() {
+	    int n = ri();
+	    if(n < 0)
+		return(null);
+	    String[] ret = new String[n];
+	    for(int i = 0; i < n; i++)
+		ret[i] = rs();
+	    return(ret);
+	}
+
+	/* Issues every call of a recorded frame to gl. */
+	public void play(int frame, GL gl) {
+	    data = frames.get(frame);
+	    pos = 0;
+	    while(pos < data.length) {
+		int fop = (int)ruv();
+		int op = opmap[fop];
+		switch(op) {
+	    case 0: gl.glActiveTexture(ri()); break;
+	    case 1: gl.glAttachShader(ri(), ri()); break;
+	    case 2: gl.glBindAttribLocation(ri(), ri(), rs()); break;
+	    case 3: gl.glBindBuffer(ri(), ri()); break;
+	    case 4: gl.glBindFragDataLocation(ri(), ri(), rs()); break;
+	    case 5: gl.glBindFramebuffer(ri(), ri()); break;
+	    case 6: gl.glBindRenderbuffer(ri(), ri()); break;
+	    case 7: gl.glBindTexture(ri(), ri()); break;
+	    case 8: gl.glBindVertexArray(ri()); break;
+	    case 9: gl.glBlendColor(rf(), rf(), rf(), rf()); break;
+	    case 10: gl.glBlendEquation(ri()); break;
+	    case 11: gl.glBlendEquationSeparate(ri(), ri()); break;
+	    case 12: gl.glBlendFunc(ri(), ri()); break;
+	    case 13: gl.glBlendFuncSeparate(ri(), ri(), ri(), ri()); break;
+	    case 14: gl.glBufferData(ri(), rl(), rb(), ri()); break;
+	    case 15: gl.glBufferSubData(ri(), rl(), rl(), rb()); break;
+	    case 16: gl.glCheckFramebufferStatus(ri()); break;
+	    case 17: gl.glClear(ri()); break;
+	    case 18: gl.glClearBufferfv(ri(), ri(), rfv()); break;
+	    case 19: gl.glClearBufferiv(ri(), ri(), riv()); break;
+	    case 20: gl.glClearBufferuiv(ri(), ri(), riv()); break;
+	    case 21: gl.glClearColor(rf(), rf(), rf(), rf()); break;
+	    case 22: gl.glClearDepth(rd()); break;
+	    case 23: gl.glColorMask(rz(), rz(), rz(), rz()); break;
+	    case 24: gl.glColorMaski(ri(), rz(), rz(), rz(), rz()); break;
+	    case 25: gl.glCompileShader(ri()); break;
+	    case 26: gl.glCreateProgram(); break;
+	    case 27: gl.glCreateShader(ri()); break;
+	    case 28: gl.glDeleteBuffers(ri(), riv()); break;
+	    case 29: gl.glDeleteFramebuffers(ri(), riv()); break;
+	    case 30: gl.glDeleteShader(ri()); break;
+	    case 31: gl.glDeleteProgram(ri()); break;
+	    case 32: gl.glDeleteQueries(ri(), riv()); break;
+	    case 33: gl.glDeleteRenderbuffers(ri(), riv()); break;
+	    case 34: gl.glDeleteSync(rl()); break;
+	    case 35: gl.glDeleteTextures(ri(), riv()); break;
+	    case 36: gl.glDeleteVertexArrays(ri(), riv()); break;
+	    case 37: gl.glCullFace(ri()); break;
+	    case 38: gl.glDebugMessageControl(ri(), ri(), ri(), ri(), riv(), rz()); break;
+	    case 39: gl.glDepthFunc(ri()); break;
+	    case 40: gl.glDepthMask(rz()); break;
+	    case 41: gl.glDisable(ri()); break;
+	    case 42: gl.glDisablei(ri(), ri()); break;
+	    case 43: gl.glDisableClientState(ri()); break;
+	    case 44: gl.glDisableVertexAttribArray(ri()); break;
+	    case 45: gl.glDrawBuffer(ri()); break;
+	    case 46: gl.glDrawBuffers(ri(), riv()); break;
+	    case 47: gl.glDrawArraysInstanced(ri(), ri(), ri(), ri()); break;
+	    case 48: gl.glDrawArrays(ri(), ri(), ri()); break;
+	    case 49: gl.glDrawElementsInstanced(ri(), ri(), ri(), rl(), ri()); break;
+	    case 50: gl.glDrawElements(ri(), ri(), ri(), rl()); break;
+	    case 51: gl.glDrawRangeElements(ri(), ri(), ri(), ri(), ri(), rl()); break;
+	    case 52: gl.glEnable(ri()); break;
+	    case 53: gl.glEnablei(ri(), ri()); break;
+	    case 54: gl.glEnableClientState(ri()); break;
+	    case 55: gl.glEnableVertexAttribArray(ri()); break;
+	    case 56: gl.glFenceSync(ri(), ri()); break;
+	    case 57: gl.glFinish(); break;
+	    case 58: gl.glFramebufferTexture2D(ri(), ri(), ri(), ri(), ri()); break;
+	    case 59: gl.glFramebufferRenderbuffer(ri(), ri(), ri(), ri()); break;
+	    case 60: gl.glGenBuffers(ri(), riv()); break;
+	    case 61: gl.glGenFramebuffers(ri(), riv()); break;
+	    case 62: gl.glGenQueries(ri(), riv()); break;
+	    case 63: gl.glGenTextures(ri(), riv()); break;
+	    case 64: gl.glGenVertexArrays(ri(), riv()); break;
+	    case 65: gl.glGetBufferSubData(ri(), ri(), ri(), rb()); break;
+	    case 66: gl.glGetDebugMessageLog(ri(), ri(), riv(), riv(), riv(), riv(), riv(), rbv()); break;
+	    case 67: gl.glGetError(); break;
+	    case 68: gl.glGetFloatv(ri(), rfv()); break;
+	    case 69: gl.glGetIntegerv(ri(), riv()); break;
+	    case 70: gl.glGetString(ri()); break;
+	    case 71: gl.glGetStringi(ri(), ri()); break;
+	    case 72: gl.glGetProgramBinary(ri(), ri(), riv(), riv(), rb()); break;
+	    case 73: gl.glGetProgramInfoLog(ri(), ri(), riv(), rbv()); break;
+	    case 74: gl.glGetProgramiv(ri(), ri(), riv()); break;
+	    case 75: gl.glGetQueryObjectiv(ri(), ri(), riv()); break;
+	    case 76: gl.glGetQueryObjecti64v(ri(), ri(), rlv()); break;
+	    case 77: gl.glGetShaderInfoLog(ri(), ri(), riv(), rbv()); break;
+	    case 78: gl.glGetShaderiv(ri(), ri(), riv()); break;
+	    case 79: gl.glGetSynciv(rl(), ri(), ri(), riv(), riv()); break;
+	    case 80: gl.glGetTexImage(ri(), ri(), ri(), ri(), rb()); break;
+	    case 81: gl.glGetTexImage(ri(), ri(), ri(), ri(), rl()); break;
+	    case 82: gl.glGetUniformLocation(ri(), rs()); break;
+	    case 83: gl.glLineWidth(rf()); break;
+	    case 84: gl.glLinkProgram(ri()); break;
+	    case 85: gl.glObjectLabel(ri(), ri(), ri(), rbv()); break;
+	    case 86: gl.glPixelStorei(ri(), ri()); break;
+	    case 87: gl.glPointSize(rf()); break;
+	    case 88: gl.glPolygonMode(ri(), ri()); break;
+	    case 89: gl.glPolygonOffset(rf(), rf()); break;
+	    case 90: gl.glProgramBinary(ri(), ri(), rb(), ri()); break;
+	    case 91: gl.glProgramParameteri(ri(), ri(), ri()); break;
+	    case 92: gl.glQueryCounter(ri(), ri()); break;
+	    case 93: gl.glReadBuffer(ri()); break;
+	    case 94: gl.glReadPixels(ri(), ri(), ri(), ri(), ri(), ri(), rb()); break;
+	    case 95: gl.glReadPixels(ri(), ri(), ri(), ri(), ri(), ri(), rl()); break;
+	    case 96: gl.glRenderbufferStorage(ri(), ri(), ri(), ri()); break;
+	    case 97: gl.glRenderbufferStorageMultisample(ri(), ri(), ri(), ri(), ri()); break;
+	    case 98: gl.glSampleCoverage(rf(), rz()); break;
+	    case 99: gl.glScissor(ri(), ri(), ri(), ri()); break;
+	    case 100: gl.glShaderSource(ri(), ri(), rsv(), riv()); break;
+	    case 101: gl.glTexImage2D(ri(), ri(), ri(), ri(), ri(), ri(), ri(), ri(), rb()); break;
+	    case 102: gl.glTexSubImage2D(ri(), ri(), ri(), ri(), ri(), ri(), ri(), ri(), rb()); break;
+	    case 103: gl.glTexImage2DMultisample(ri(), ri(), ri(), ri(), ri(), rz()); break;
+	    case 104: gl.glTexImage3D(ri(), ri(), ri(), ri(), ri(), ri(), ri(), ri(), ri(), rb()); break;
+	    case 105: gl.glTexSubImage3D(ri(), ri(), ri(), ri(), ri(), ri(), ri(), ri(), ri(), ri(), rb()); break;
+	    case 106: gl.glTexParameterf(ri(), ri(), rf()); break;
+	    case 107: gl.glTexParameterfv(ri(), ri(), rfv()); break;
+	    case 108: gl.glTexParameteri(ri(), ri(), ri()); break;
+	    case 109: gl.glUniform1f(ri(), rf()); break;
+	    case 110: gl.glUniform2f(ri(), rf(), rf()); break;
+	    case 111: gl.glUniform3f(ri(), rf(), rf(), rf()); break;
+	    case 112: gl.glUniform3fv(ri(), ri(), rfv()); break;
+	    case 113: gl.glUniform4f(ri(), rf(), rf(), rf(), rf()); break;
+	    case 114: gl.glUniform4fv(ri(), ri(), rfv()); break;
+	    case 115: gl.glUniform1i(ri(), ri()); break;
+	    case 116: gl.glUniform2i(ri(), ri(), ri()); break;
+	    case 117: gl.glUniform3i(ri(), ri(), ri(), ri()); break;
+	    case 118: gl.glUniform4i(ri(), ri(), ri(), ri(), ri()); break;
+	    case 119: gl.glUniformMatrix3fv(ri(), ri(), rz(), rfv()); break;
+	    case 120: gl.glUniformMatrix4fv(ri(), ri(), rz(), rfv()); break;
+	    case 121: gl.glUseProgram(ri()); break;
+	    case 122: gl.glVertexAttribDivisor(ri(), ri()); break;
+	    case 123: gl.glVertexAttribPointer(ri(), ri(), ri(), rz(), ri(), rl()); break;
+	    case 124: gl.glVertexAttribIPointer(ri(), ri(), ri(), ri(), rl()); break;
+	    case 125: gl.glViewport(ri(), ri(), ri(), ri()); break;
+		default:
+		    throw(new RuntimeException("recorded GL call not available: #" + fop));
+		}
+		ncalls++;
+	    }
+	    data = null;
+	}
+    }
+}
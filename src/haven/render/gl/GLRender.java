@@ -377,6 +377,7 @@ public class GLRender implements Render, Disposable {
 	    ByteBuffer data = fbuf.data();
 	    if(img.tex instanceof Texture2D) {
 		GLTexture.Tex2D tex = env.prepare((Texture2D)img.tex);
+		tex.updated = true;
 		BGL gl = gl();
 		state.apply(gl, Pipe.nil);
 		gl.glActiveTexture(GL.GL_TEXTURE0);
@@ -43,6 +43,11 @@ import java.util.*;
 public abstract class GLTexture extends GLObject implements BGL.ID {
     protected int id, state = 0;
     Collection<GLFrameBuffer> fbos = null;
+    /* For TexResidency: the frame in which the texture was last
+     * sampled, and whether it has been modified after creation, in
+     * which case its description can no longer regenerate it. */
+    long lastuse;
+    boolean updated = false;
 
     public GLTexture(GLEnvironment env) {
 	super(env);
@@ -63,6 +68,8 @@ public abstract class GLTexture extends GLObject implements BGL.ID {
 	gl.glDeleteTextures(1, new int[] {id});
 	state = 2;
 	setmem(null, 0);
+	if(this instanceof TexResidency.Resident)
+	    env.residency.remove((TexResidency.Resident)this);
     }
 
     public int glid() {
@@ -299,13 +306,15 @@ public abstract class GLTexture extends GLObject implements BGL.ID {
 
     public abstract Texture desc();
 
-    public static class Tex2D extends GLTexture {
+    public static class Tex2D extends GLTexture implements TexResidency.Resident {
 	private final WeakReference<Texture2D> desc;
 	Sampler2D sampler;
 
 	public Tex2D(GLEnvironment env, Texture2D data, FillBuffers.Array[] pixels) {
 	    super(env);
 	    this.desc = new WeakReference<>(data);
+	    this.lastuse = env.frameno;
+	    env.residency.add(this);
 	    int ifmt = texifmt(data);
 	    int pfmt = texefmt1(data.ifmt, data.efmt, data.eperm);
 	    int pnum = texefmt2(data.ifmt, data.efmt);
@@ -339,6 +348,39 @@ public abstract class GLTexture extends GLObject implements BGL.ID {
 		});
 	}
 
+	public long texmem() {return(mem());}
+	public long lastuse() {return(lastuse);}
+
+	public boolean evictable() {
+	    Texture2D data = desc.get();
+	    if((data == null) || (data.init == null) || updated || held())
+		return(false);
+	    synchronized(this) {
+		return((fbos == null) || fbos.isEmpty());
+	    }
+	}
+
+	/* Textures bound by draw lists are prepared only when their
+	 * settings are compiled, and are held for as long as they are
+	 * drawn, so they count as used until they are let go. */
+	void put() {
+	    lastuse = env.frameno;
+	    super.put();
+	}
+
+	public boolean evict() {
+	    Texture2D data = desc.get();
+	    if(data == null)
+		return(false);
+	    synchronized(data) {
+		if((GLReference.get(data.ro, Tex2D.class) != this) || held())
+		    return(false);
+		data.ro.dispose();
+		data.ro = null;
+		return(true);
+	    }
+	}
+
 	public static Tex2D create(GLEnvironment env, Texture2D data) {
 	    FillBuffers.Array[] pixels = new FillBuffers.Array[data.images().size()];
 	    if(data.init != null) {
@@ -0,0 +1,78 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.render.gl;
+
+import java.nio.*;
+import haven.*;
+
+/* An environment over NullGL, or any other GL without a window
+ * system context behind it, for running the renderer headless. */
+public class NullEnvironment extends GLEnvironment {
+    public NullEnvironment(GL initgl, Area wnd, ProgramCache progcache) {
+	super(initgl, wnd, progcache);
+    }
+
+    public NullEnvironment(GL initgl, Area wnd) {
+	this(initgl, wnd, null);
+    }
+
+    public NullEnvironment(Area wnd) {
+	this(new NullGL(), wnd);
+    }
+
+    public static class HeapBuffer implements SysBuffer {
+	public final ByteBuffer data;
+
+	public HeapBuffer(int sz) {
+	    this.data = ByteBuffer.allocate(sz).order(ByteOrder.nativeOrder());
+	}
+
+	public HeapBuffer(ByteBuffer data) {
+	    this.data = data;
+	}
+
+	public ByteBuffer data() {return(data);}
+	public void dispose() {}
+    }
+
+    protected Caps mkcaps(GL initgl) {
+	return(new Caps(initgl));
+    }
+
+    public SysBuffer malloc(int sz) {
+	return(new HeapBuffer(sz));
+    }
+
+    public SysBuffer subsume(ByteBuffer data, int sz) {
+	if(data.remaining() < sz)
+	    throw(new BufferUnderflowException());
+	SysBuffer ret = new HeapBuffer(data.duplicate());
+	data.position(data.position() + sz);
+	return(ret);
+    }
+}
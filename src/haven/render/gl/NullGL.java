@@ -0,0 +1,230 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.render.gl;
+
+import java.nio.*;
+
+/* A GL that draws nothing, for running the renderer without a
+ * graphics context. Every call is counted, by its GLRecorder opcode,
+ * and queries get answers that let GLEnvironment and its objects
+ * initialize as on a complete OpenGL 3.3 implementation, optionally
+ * one that can save and load program binaries. */
+public class NullGL implements GL {
+    public static final int BINFMT = 0x4e554c4c;
+    public final long[] calls = new long[GLRecorder.calls.length];
+    public final boolean progbin;
+    private int nextname = 0;
+    private boolean linked = false;
+
+    public NullGL(boolean progbin) {
+	this.progbin = progbin;
+    }
+
+    public NullGL() {
+	this(false);
+    }
+
+    private void names(int n, int[] buf) {
+	for(int i = 0; i < n; i++)
+	    buf[i] = ++nextname;
+    }
+
+    private int geti(int pname) {
+	if((pname == GL_MAJOR_VERSION) || (pname == GL_MINOR_VERSION))
+	    return(3);
+	if(pname == GL_MAX_COLOR_ATTACHMENTS)
+	    return(8);
+	if(pname == GL_NUM_PROGRAM_BINARY_FORMATS)
+	    return(progbin ? 1 : 0);
+	return(0);
+    }
+
+    private int progi(int pname) {
+	if(pname == GL_LINK_STATUS)
+	    return(linked ? 1 : 0);
+	if(pname == GL_PROGRAM_BINARY_LENGTH)
+	    return(progbin ? 16 : 0);
+	return(0);
+    }
+
+    /* Program binaries are only the format's tag, repeated. */
+    private void binary(int[] length, int[] format, ByteBuffer buf) {
+	int n = 0;
+	for(; buf.remaining() - n >= 4; n += 4)
+	    buf.putInt(buf.position() + n, BINFMT);
+	if(length != null)
+	    length[0] = n;
+	format[0] = BINFMT;
+    }
+
+    private static String gets(int name) {
+	if(name == GL_VENDOR)
+	    return("Haven");
+	if(name == GL_RENDERER)
+	    return("Null renderer");
+	if(name == GL_VERSION)
+	    return("3.3 Null");
+	if(name == GL_SHADING_LANGUAGE_VERSION)
+	    return("3.30");
+	return("");
+    }
+
+    public long total() {
+	long ret = 0;
+	for(long n : calls)
+	    ret += n;
+	return(ret);
+    }
+
+    public void glActiveTexture(int texture) {calls[0]++;}
+    public void glAttachShader(int program, int shader) {calls[1]++;}
+    public void glBindAttribLocation(int program, int index, String name) {calls[2]++;}
+    public void glBindBuffer(int target, int buffer) {calls[3]++;}
+    public void glBindFragDataLocation(int program, int colornumber, String name) {calls[4]++;}
+    public void glBindFramebuffer(int target, int buffer) {calls[5]++;}
+    public void glBindRenderbuffer(int target, int buffer) {calls[6]++;}
+    public void glBindTexture(int target, int texture) {calls[7]++;}
+    public void glBindVertexArray(int array) {calls[8]++;}
+    public void glBlendColor(float red, float green, float blue, float alpha) {calls[9]++;}
+    public void glBlendEquation(int mode) {calls[10]++;}
+    public void glBlendEquationSeparate(int cmode, int amode) {calls[11]++;}
+    public void glBlendFunc(int sfac, int dfac) {calls[12]++;}
+    public void glBlendFuncSeparate(int csfac, int cdfac, int asfac, int adfac) {calls[13]++;}
+    public void glBufferData(int target, long size, ByteBuffer data, int usage) {calls[14]++;}
+    public void glBufferSubData(int target, long offset, long size, ByteBuffer data) {calls[15]++;}
+    public int glCheckFramebufferStatus(int target) {calls[16]++; return(GL_FRAMEBUFFER_COMPLETE);}
+    public void glClear(int mask) {calls[17]++;}
+    public void glClearBufferfv(int buffer, int drawbuffer, float[] value) {calls[18]++;}
+    public void glClearBufferiv(int buffer, int drawbuffer, int[] value) {calls[19]++;}
+    public void glClearBufferuiv(int buffer, int drawbuffer, int[] value) {calls[20]++;}
+    public void glClearColor(float r, float g, float b, float a) {calls[21]++;}
+    public void glClearDepth(double d) {calls[22]++;}
+    public void glColorMask(boolean r, boolean g, boolean b, boolean a) {calls[23]++;}
+    public void glColorMaski(int buf, boolean r, boolean g, boolean b, boolean a) {calls[24]++;}
+    public void glCompileShader(int shader) {calls[25]++;}
+    public int glCreateProgram() {calls[26]++; return(++nextname);}
+    public int glCreateShader(int type) {calls[27]++; return(++nextname);}
+    public void glDeleteBuffers(int count, int[] buffers) {calls[28]++;}
+    public void glDeleteFramebuffers(int count, int[] buffers) {calls[29]++;}
+    public void glDeleteShader(int id) {calls[30]++;}
+    public void glDeleteProgram(int id) {calls[31]++;}
+    public void glDeleteQueries(int count, int[] buffer) {calls[32]++;}
+    public void glDeleteRenderbuffers(int count, int[] buffers) {calls[33]++;}
+    public void glDeleteSync(long id) {calls[34]++;}
+    public void glDeleteTextures(int count, int[] buffers) {calls[35]++;}
+    public void glDeleteVertexArrays(int count, int[] buffers) {calls[36]++;}
+    public void glCullFace(int mode) {calls[37]++;}
+    public void glDebugMessageControl(int source, int type, int severity, int count, int[] ids, boolean enabled) {calls[38]++;}
+    public void glDepthFunc(int func) {calls[39]++;}
+    public void glDepthMask(boolean mask) {calls[40]++;}
+    public void glDisable(int cap) {calls[41]++;}
+    public void glDisablei(int cap, int index) {calls[42]++;}
+    public void glDisableClientState(int cap) {calls[43]++;}
+    public void glDisableVertexAttribArray(int location) {calls[44]++;}
+    public void glDrawBuffer(int buf) {calls[45]++;}
+    public void glDrawBuffers(int n, int[] bufs) {calls[46]++;}
+    public void glDrawArraysInstanced(int mode, int first, int count, int primcount) {calls[47]++;}
+    public void glDrawArrays(int mode, int first, int count) {calls[48]++;}
+    public void glDrawElementsInstanced(int mode, int count, int type, long indices, int primcount) {calls[49]++;}
+    public void glDrawElements(int mode, int count, int type, long indices) {calls[50]++;}
+    public void glDrawRangeElements(int mode, int start, int end, int count, int type, long indices) {calls[51]++;}
+    public void glEnable(int cap) {calls[52]++;}
+    public void glEnablei(int cap, int index) {calls[53]++;}
+    public void glEnableClientState(int cap) {calls[54]++;}
+    public void glEnableVertexAttribArray(int location) {calls[55]++;}
+    public long glFenceSync(int condition, int flags) {calls[56]++; return(++nextname);}
+    public void glFinish() {calls[57]++;}
+    public void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level) {calls[58]++;}
+    public void glFramebufferRenderbuffer(int target, int attachment, int rbtarget, int renderbuffer) {calls[59]++;}
+    public void glGenBuffers(int n, int[] buffer) {calls[60]++; names(n, buffer);}
+    public void glGenFramebuffers(int n, int[] buffer) {calls[61]++; names(n, buffer);}
+    public void glGenQueries(int n, int[] buffer) {calls[62]++; names(n, buffer);}
+    public void glGenTextures(int n, int[] buffer) {calls[63]++; names(n, buffer);}
+    public void glGenVertexArrays(int n, int[] buffer) {calls[64]++; names(n, buffer);}
+    public void glGetBufferSubData(int target, int offset, int size, ByteBuffer data) {calls[65]++;}
+    public int glGetDebugMessageLog(int count, int bufsize, int[] sources, int[] types, int[] ids, int[] severities, int[] lengths, byte[] buffer) {calls[66]++; return(0);}
+    public int glGetError() {calls[67]++; return(0);}
+    public void glGetFloatv(int pname, float[] data) {calls[68]++; if(pname == GL_ALIASED_LINE_WIDTH_RANGE) {data[0] = 1; data[1] = 10;}}
+    public void glGetIntegerv(int pname, int[] data) {calls[69]++; data[0] = geti(pname);}
+    public String glGetString(int name) {calls[70]++; return(gets(name));}
+    public String glGetStringi(int name, int index) {calls[71]++; return("");}
+    public void glGetProgramBinary(int program, int bufsize, int[] length, int[] format, ByteBuffer binary) {calls[72]++; binary(length, format, binary);}
+    public void glGetProgramInfoLog(int shader, int maxlength, int[] length, byte[] infolog) {calls[73]++;}
+    public void glGetProgramiv(int shader, int pname, int[] buf) {calls[74]++; buf[0] = progi(pname);}
+    public void glGetQueryObjectiv(int id, int pname, int[] params) {calls[75]++; params[0] = 1;}
+    public void glGetQueryObjecti64v(int id, int pname, long[] params) {calls[76]++;}
+    public void glGetShaderInfoLog(int shader, int maxlength, int[] length, byte[] infolog) {calls[77]++;}
+    public void glGetShaderiv(int shader, int pname, int[] buf) {calls[78]++; buf[0] = (pname == GL_COMPILE_STATUS) ? 1 : 0;}
+    public void glGetSynciv(long sync, int pname, int bufsize, int[] lengths, int[] values) {calls[79]++; values[0] = GL_SIGNALED;}
+    public void glGetTexImage(int target, int level, int format, int type, ByteBuffer pixels) {calls[80]++;}
+    public void glGetTexImage(int target, int level, int format, int type, long offset) {calls[81]++;}
+    public int glGetUniformLocation(int program, String name) {calls[82]++; return(++nextname);}
+    public void glLineWidth(float w) {calls[83]++;}
+    public void glLinkProgram(int program) {calls[84]++; linked = true;}
+    public void glObjectLabel(int identifier, int name, int length, byte[] label) {calls[85]++;}
+    public void glPixelStorei(int pname, int param) {calls[86]++;}
+    public void glPointSize(float size) {calls[87]++;}
+    public void glPolygonMode(int face, int mode) {calls[88]++;}
+    public void glPolygonOffset(float factor, float units) {calls[89]++;}
+    public void glProgramBinary(int program, int format, ByteBuffer binary, int length) {calls[90]++; linked = (format == BINFMT);}
+    public void glProgramParameteri(int program, int pname, int value) {calls[91]++;}
+    public void glQueryCounter(int id, int target) {calls[92]++;}
+    public void glReadBuffer(int buf) {calls[93]++;}
+    public void glReadPixels(int x, int y, int width, int height, int format, int type, ByteBuffer data) {calls[94]++;}
+    public void glReadPixels(int x, int y, int width, int height, int format, int type, long offset) {calls[95]++;}
+    public void glRenderbufferStorage(int target, int format, int width, int height) {calls[96]++;}
+    public void glRenderbufferStorageMultisample(int target, int samples, int format, int width, int height) {calls[97]++;}
+    public void glSampleCoverage(float value, boolean invert) {calls[98]++;}
+    public void glScissor(int x, int y, int w, int h) {calls[99]++;}
+    public void glShaderSource(int shader, int count, String[] string, int[] lengths) {calls[100]++;}
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, ByteBuffer data) {calls[101]++;}
+    public void glTexSubImage2D(int target, int level, int xoff, int yoff, int width, int height, int format, int type, ByteBuffer data) {calls[102]++;}
+    public void glTexImage2DMultisample(int target, int samples, int internalformat, int width, int height, boolean fixedsamplelocations) {calls[103]++;}
+    public void glTexImage3D(int target, int level, int internalformat, int width, int height, int depth, int border, int format, int type, ByteBuffer data) {calls[104]++;}
+    public void glTexSubImage3D(int target, int level, int xoff, int yoff, int zoff, int width, int height, int depth, int format, int type, ByteBuffer data) {calls[105]++;}
+    public void glTexParameterf(int target, int pname, float param) {calls[106]++;}
+    public void glTexParameterfv(int target, int pname, float[] param) {calls[107]++;}
+    public void glTexParameteri(int target, int pname, int param) {calls[108]++;}
+    public void glUniform1f(int location, float v0) {calls[109]++;}
+    public void glUniform2f(int location, float v0, float v1) {calls[110]++;}
+    public void glUniform3f(int location, float v0, float v1, float v2) {calls[111]++;}
+    public void glUniform3fv(int location, int count, float[] val) {calls[112]++;}
+    public void glUniform4f(int location, float v0, float v1, float v2, float v3) {calls[113]++;}
+    public void glUniform4fv(int location, int count, float[] val) {calls[114]++;}
+    public void glUniform1i(int location, int v0) {calls[115]++;}
+    public void glUniform2i(int location, int v0, int v1) {calls[116]++;}
+    public void glUniform3i(int location, int v0, int v1, int v2) {calls[117]++;}
+    public void glUniform4i(int location, int v0, int v1, int v2, int v3) {calls[118]++;}
+    public void glUniformMatrix3fv(int location, int count, boolean transpose, float[] value) {calls[119]++;}
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value) {calls[120]++;}
+    public void glUseProgram(int program) {calls[121]++;}
+    public void glVertexAttribDivisor(int location, int divisor) {calls[122]++;}
+    public void glVertexAttribPointer(int location, int size, int type, boolean normalized, int stride, long pointer) {calls[123]++;}
+    public void glVertexAttribIPointer(int location, int size, int type, int stride, long pointer) {calls[124]++;}
+    public void glViewport(int x, int y, int w, int h) {calls[125]++;}
+}
@@ -0,0 +1,529 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.render.gl;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.security.*;
+import haven.*;
+import static haven.Utils.pj;
+
+/* Remembers the programs that have been built, by their GLSL sources
+ * and bindings, in a manifest on disk, so that later sessions can
+ * compile them in the background before they are first needed, and
+ * keeps their linked binaries, per driver, where the driver can give
+ * them out. The macros a program was generated from cannot be
+ * stored, but what they generate is what the driver compiles, and
+ * GLProgram.key() identifies it. */
+public class ProgramCache {
+    public static final Config.Variable<Boolean> enabled = Config.Variable.propb("haven.progcache", true);
+    public static final Config.Variable<Integer> cachesize = Config.Variable.propi("haven.progcachesize", 512);
+    private static final int SIG = 0x50524731, BINSIG = 0x50524231;
+    /* Processed frames after warming that prebuilt programs are kept
+     * for without being asked for. */
+    private static final int EXPIRE = 3600;
+    public final Path base;
+    public final int limit;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean loaded = false, saving = false, warned = false;
+    public final AtomicLong noted = new AtomicLong(0), binstored = new AtomicLong(0);
+
+    public ProgramCache(Path base, int limit) {
+	this.base = base;
+	this.limit = limit;
+    }
+
+    private static ProgramCache global = null;
+    private static boolean globalinit = false;
+    public static ProgramCache global() {
+	synchronized(ProgramCache.class) {
+	    if(!globalinit) {
+		globalinit = true;
+		if(enabled.get()) {
+		    try {
+			global = new ProgramCache(HashDirCache.findbase().resolveSibling("glprog"), cachesize.get());
+		    } catch(UnsupportedOperationException e) {
+		    }
+		}
+	    }
+	    return(global);
+	}
+    }
+
+    public static class Entry {
+	public final String key, vsrc, fsrc;
+	public final String[] attrnms, fragnms;
+	public final int[] attrlocs;
+
+	public Entry(String vsrc, String fsrc, String[] attrnms, int[] attrlocs, String[] fragnms) {
+	    this.vsrc = vsrc;
+	    this.fsrc = fsrc;
+	    this.attrnms = attrnms;
+	    this.attrlocs = attrlocs;
+	    this.fragnms = fragnms;
+	    this.key = key(this);
+	}
+
+	public Entry(GLProgram.Dump prog) {
+	    this(prog.vsrc, prog.fsrc, prog.attrnms, prog.attrlocs, prog.fragnms);
+	}
+    }
+
+    public static String key(Entry e) {
+	MessageDigest dig;
+	try {
+	    dig = MessageDigest.getInstance("SHA-1");
+	} catch(NoSuchAlgorithmException exc) {
+	    throw(new AssertionError(exc));
+	}
+	StringBuilder buf = new StringBuilder();
+	buf.append(e.vsrc).append('\0').append(e.fsrc).append('\0');
+	for(int i = 0; i < e.attrnms.length; i++)
+	    buf.append(e.attrnms[i]).append('@').append(e.attrlocs[i]).append('\0');
+	for(String nm : e.fragnms)
+	    buf.append(nm).append('\0');
+	return(Utils.byte2hex(dig.digest(buf.toString().getBytes(Utils.utf8))));
+    }
+
+    private static void writestr(DataOutputStream out, String str) throws IOException {
+	byte[] b = str.getBytes(Utils.utf8);
+	out.writeInt(b.length);
+	out.write(b);
+    }
+
+    private static String readstr(DataInputStream in) throws IOException {
+	int len = in.readInt();
+	if(len < 0)
+	    throw(new StreamCorruptedException());
+	byte[] b = new byte[len];
+	in.readFully(b);
+	return(new String(b, Utils.utf8));
+    }
+
+    private void warn(IOException e, String msg) {
+	synchronized(this) {
+	    if(warned)
+		return;
+	    warned = true;
+	}
+	new Warning(e, msg).issue();
+    }
+
+    /* Returns the manifest's programs, least recently used first. */
+    public List<Entry> load() {
+	synchronized(entries) {
+	    if(!loaded) {
+		loaded = true;
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(base.resolve("manifest"))))) {
+		    if(in.readInt() != SIG)
+			throw(new StreamCorruptedException());
+		    for(int i = 0, n = in.readInt(); i < n; i++) {
+			String vsrc = readstr(in), fsrc = readstr(in);
+			String[] attrnms = new String[in.readInt()];
+			int[] attrlocs = new int[attrnms.length];
+			for(int o = 0; o < attrnms.length; o++) {
+			    attrnms[o] = readstr(in);
+			    attrlocs[o] = in.readInt();
+			}
+			String[] fragnms = new String[in.readInt()];
+			for(int o = 0; o < fragnms.length; o++)
+			    fragnms[o] = readstr(in);
+			Entry e = new Entry(vsrc, fsrc, attrnms, attrlocs, fragnms);
+			entries.put(e.key, e);
+		    }
+		} catch(NoSuchFileException e) {
+		} catch(IOException e) {
+		    /* Truncated or foreign; the next save replaces it. */
+		}
+	    }
+	    return(new ArrayList<>(entries.values()));
+	}
+    }
+
+    /* Records that a program has been built or used. */
+    public void note(GLProgram prog) {
+	synchronized(entries) {
+	    if(entries.get(prog.key()) == null) {
+		entries.put(prog.key(), new Entry(prog.dump()));
+		noted.incrementAndGet();
+	    }
+	}
+	changed();
+    }
+
+    void touch(String key) {
+	synchronized(entries) {
+	    entries.get(key);
+	}
+	changed();
+    }
+
+    void forget(String key) {
+	synchronized(entries) {
+	    entries.remove(key);
+	}
+	changed();
+    }
+
+    private void changed() {
+	synchronized(entries) {
+	    if(saving)
+		return;
+	    saving = true;
+	}
+	Defer.later(() -> {
+		save();
+		return(null);
+	    });
+    }
+
+    public void save() {
+	List<Entry> save, drop = new ArrayList<>();
+	synchronized(entries) {
+	    saving = false;
+	    load();
+	    for(Iterator<Entry> i = entries.values().iterator(); (entries.size() > limit) && i.hasNext();) {
+		drop.add(i.next());
+		i.remove();
+	    }
+	    save = new ArrayList<>(entries.values());
+	}
+	try {
+	    Files.createDirectories(base);
+	    Path tmp = Files.createTempFile(base, "manifest", ".new");
+	    try {
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+		    out.writeInt(SIG);
+		    out.writeInt(save.size());
+		    for(Entry e : save) {
+			writestr(out, e.vsrc);
+			writestr(out, e.fsrc);
+			out.writeInt(e.attrnms.length);
+			for(int i = 0; i < e.attrnms.length; i++) {
+			    writestr(out, e.attrnms[i]);
+			    out.writeInt(e.attrlocs[i]);
+			}
+			out.writeInt(e.fragnms.length);
+			for(String nm : e.fragnms)
+			    writestr(out, nm);
+		    }
+		}
+		try {
+		    Files.move(tmp, base.resolve("manifest"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch(AtomicMoveNotSupportedException e) {
+		    Files.move(tmp, base.resolve("manifest"), StandardCopyOption.REPLACE_EXISTING);
+		}
+	    } catch(IOException | RuntimeException e) {
+		Files.deleteIfExists(tmp);
+		throw(e);
+	    }
+	    Path bin = base.resolve("bin");
+	    if(!drop.isEmpty() && Files.isDirectory(bin)) {
+		try(DirectoryStream<Path> drivers = Files.newDirectoryStream(bin)) {
+		    for(Path dir : drivers) {
+			for(Entry e : drop)
+			    Files.deleteIfExists(dir.resolve(e.key));
+		    }
+		}
+	    }
+	} catch(IOException e) {
+	    warn(e, "could not save program manifest in " + base);
+	}
+    }
+
+    public static String driver(GLEnvironment.Caps caps) {
+	return(String.format("%s\n%s\n%s", caps.vendor, caps.renderer, caps.version));
+    }
+
+    private Path bindir(String driver) {
+	MessageDigest dig;
+	try {
+	    dig = MessageDigest.getInstance("SHA-1");
+	} catch(NoSuchAlgorithmException exc) {
+	    throw(new AssertionError(exc));
+	}
+	return(pj(base, "bin", Utils.byte2hex(dig.digest(driver.getBytes(Utils.utf8))).substring(0, 16)));
+    }
+
+    /* Binaries of other drivers will not load with this one, and
+     * are usually left behind by driver updates. */
+    private void dropbins(String driver) {
+	Path bin = base.resolve("bin"), keep = bindir(driver);
+	if(!Files.isDirectory(bin))
+	    return;
+	try(DirectoryStream<Path> drivers = Files.newDirectoryStream(bin)) {
+	    for(Path dir : drivers) {
+		if(dir.equals(keep))
+		    continue;
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+		    for(Path f : files)
+			Files.deleteIfExists(f);
+		}
+		Files.deleteIfExists(dir);
+	    }
+	} catch(IOException e) {
+	}
+    }
+
+    private static class Binary {
+	final int format;
+	final ByteBuffer data;
+
+	Binary(int format, ByteBuffer data) {
+	    this.format = format;
+	    this.data = data;
+	}
+    }
+
+    private Binary fetchbin(String driver, String key) {
+	try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(bindir(driver).resolve(key))))) {
+	    if(in.readInt() != BINSIG)
+		return(null);
+	    int fmt = in.readInt(), len = in.readInt();
+	    if(len <= 0)
+		return(null);
+	    byte[] data = new byte[len];
+	    in.readFully(data);
+	    ByteBuffer buf = Utils.mkbbuf(len);
+	    buf.put(data).flip();
+	    return(new Binary(fmt, buf));
+	} catch(IOException e) {
+	    return(null);
+	}
+    }
+
+    private void storebin(String driver, String key, int format, byte[] data) {
+	Path dir = bindir(driver);
+	try {
+	    Files.createDirectories(dir);
+	    Path tmp = Files.createTempFile(dir, "bin", ".new");
+	    try {
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+		    out.writeInt(BINSIG);
+		    out.writeInt(format);
+		    out.writeInt(data.length);
+		    out.write(data);
+		}
+		Files.move(tmp, dir.resolve(key), StandardCopyOption.REPLACE_EXISTING);
+	    } catch(IOException | RuntimeException e) {
+		Files.deleteIfExists(tmp);
+		throw(e);
+	    }
+	    binstored.incrementAndGet();
+	} catch(IOException e) {
+	    warn(e, "could not store program binary in " + base);
+	}
+    }
+
+    /* Fetches the binary of a newly linked program, to be written to
+     * disk in the background. Must be called on the GL thread. */
+    void savebin(GL gl, String driver, String key, int prog) {
+	int[] buf = {0};
+	gl.glGetProgramiv(prog, GL.GL_PROGRAM_BINARY_LENGTH, buf);
+	if(buf[0] <= 0)
+	    return;
+	ByteBuffer data = Utils.mkbbuf(buf[0]);
+	int[] len = {0}, fmt = {0};
+	gl.glGetProgramBinary(prog, buf[0], len, fmt, data);
+	if(gl.glGetError() != 0)
+	    return;
+	byte[] save = new byte[len[0]];
+	data.get(save);
+	Defer.later(() -> {
+		storebin(driver, key, fmt[0], save);
+		return(null);
+	    });
+    }
+
+    /* Builds an environment's programs from the manifest, a few at a
+     * time between frames, for GLProgram to pick up in place of
+     * compiling them. */
+    public class Warmer {
+	public final GLEnvironment env;
+	public final String driver;
+	private final Map<String, Binary> pending = new LinkedHashMap<>();
+	private final Map<String, Entry> queue = new LinkedHashMap<>();
+	private final Map<String, Integer> ready = new HashMap<>();
+	private volatile boolean loaded = false;
+	private int idle = 0;
+	public int compiled = 0, frombin = 0, failed = 0, taken = 0, expired = 0;
+
+	public Warmer(GLEnvironment env) {
+	    this.env = env;
+	    this.driver = driver(env.caps);
+	    Defer.later(() -> {
+		    List<Entry> load = load();
+		    if(env.caps.progbin)
+			dropbins(driver);
+		    /* Most recently used first, as those are most likely
+		     * to be wanted soon. */
+		    Collections.reverse(load);
+		    for(Entry e : load) {
+			Binary bin = env.caps.progbin ? fetchbin(driver, e.key) : null;
+			synchronized(this) {
+			    queue.put(e.key, e);
+			    if(bin != null)
+				pending.put(e.key, bin);
+			}
+		    }
+		    loaded = true;
+		    return(null);
+		});
+	}
+
+	/* Returns a linked program for the given key, if one has been
+	 * built, and otherwise makes sure none will be. */
+	public Integer take(String key) {
+	    Integer ret;
+	    synchronized(this) {
+		queue.remove(key);
+		pending.remove(key);
+		if((ret = ready.remove(key)) == null)
+		    return(null);
+		taken++;
+	    }
+	    touch(key);
+	    return(ret);
+	}
+
+	public boolean done() {
+	    synchronized(this) {
+		return(loaded && queue.isEmpty());
+	    }
+	}
+
+	private boolean linked(GL gl, int prog) {
+	    int[] buf = {0};
+	    gl.glGetProgramiv(prog, GL.GL_LINK_STATUS, buf);
+	    return(buf[0] == 1);
+	}
+
+	private int compile(GL gl, int type, String text) {
+	    int id = gl.glCreateShader(type);
+	    gl.glShaderSource(id, 1, new String[] {text}, new int[] {text.length()});
+	    gl.glCompileShader(id);
+	    int[] buf = {0};
+	    gl.glGetShaderiv(id, GL.GL_COMPILE_STATUS, buf);
+	    if(buf[0] != 1) {
+		gl.glDeleteShader(id);
+		return(0);
+	    }
+	    return(id);
+	}
+
+	private int build(GL gl, Entry e, Binary bin) {
+	    int prog = gl.glCreateProgram();
+	    if(bin != null) {
+		gl.glProgramBinary(prog, bin.format, bin.data, bin.data.remaining());
+		if((gl.glGetError() == 0) && linked(gl, prog)) {
+		    frombin++;
+		    return(prog);
+		}
+		/* Rejected, as drivers may do for any reason; build it
+		 * from source into a fresh program. */
+		gl.glDeleteProgram(prog);
+		prog = gl.glCreateProgram();
+	    }
+	    int vs = compile(gl, GL.GL_VERTEX_SHADER, e.vsrc);
+	    int fs = (vs == 0) ? 0 : compile(gl, GL.GL_FRAGMENT_SHADER, e.fsrc);
+	    if(fs != 0) {
+		gl.glAttachShader(prog, vs);
+		gl.glAttachShader(prog, fs);
+		for(int i = 0; i < e.attrnms.length; i++)
+		    gl.glBindAttribLocation(prog, e.attrlocs[i], e.attrnms[i]);
+		for(int i = 0; i < e.fragnms.length; i++)
+		    gl.glBindFragDataLocation(prog, i, e.fragnms[i]);
+		if(env.caps.progbin)
+		    gl.glProgramParameteri(prog, GL.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, 1);
+		gl.glLinkProgram(prog);
+	    }
+	    if(vs != 0)
+		gl.glDeleteShader(vs);
+	    if(fs != 0)
+		gl.glDeleteShader(fs);
+	    if((fs == 0) || !linked(gl, prog)) {
+		gl.glDeleteProgram(prog);
+		failed++;
+		forget(e.key);
+		return(0);
+	    }
+	    compiled++;
+	    if(env.caps.progbin)
+		savebin(gl, driver, e.key, prog);
+	    return(prog);
+	}
+
+	/* Builds queued programs for up to the given time. Must be
+	 * called on the GL thread. */
+	public void step(GL gl, long budget) {
+	    long st = System.nanoTime();
+	    while(true) {
+		Entry e;
+		Binary bin;
+		synchronized(this) {
+		    if(queue.isEmpty())
+			break;
+		    Iterator<Entry> i = queue.values().iterator();
+		    e = i.next();
+		    i.remove();
+		    bin = pending.remove(e.key);
+		}
+		int prog = build(gl, e, bin);
+		if(prog != 0) {
+		    synchronized(this) {
+			ready.put(e.key, prog);
+		    }
+		}
+		if(System.nanoTime() - st >= budget)
+		    return;
+	    }
+	    if(loaded && (++idle == EXPIRE)) {
+		/* What has not been asked for by now is unlikely to be
+		 * soon, and will be compiled anew if it is. */
+		Collection<Integer> left;
+		synchronized(this) {
+		    left = new ArrayList<>(ready.values());
+		    ready.clear();
+		}
+		for(int prog : left)
+		    gl.glDeleteProgram(prog);
+		expired += left.size();
+	    }
+	}
+
+	public String stats() {
+	    synchronized(this) {
+		return(String.format("%d queued, %d ready, %d compiled, %d from binaries, %d taken, %d failed, %d expired",
+				     queue.size(), ready.size(), compiled, frombin, taken, failed, expired));
+	    }
+	}
+    }
+}
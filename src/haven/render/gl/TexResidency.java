@@ -0,0 +1,116 @@
+package haven.render.gl;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/* Keeps the memory of regenerable textures within a budget, by
+ * evicting those drawn least recently. Textures that have been drawn
+ * within the last minage frames are never evicted, so that a budget
+ * smaller than the working set cannot make visible textures thrash.
+ * The policy knows nothing of GL, so it can be driven headlessly. */
+public class TexResidency {
+    public final long budget;
+    public final int minage;
+    private final Set<Resident> live = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final Map<Resident, Long> pending = new IdentityHashMap<>();
+    private long pendmem = 0, nevicted = 0, evmem = 0;
+    private int lastcand = 0;
+
+    public interface Resident {
+	/* Bytes currently used, or zero until uploaded. */
+	public long texmem();
+	/* Frame number when the texture was last drawn. */
+	public long lastuse();
+	/* Whether the texture can be dropped and later regenerated
+	 * from its description. */
+	public boolean evictable();
+	/* Drops the texture unless it has come into use since it was
+	 * found evictable, and returns whether it did. Its memory is
+	 * freed once it is eventually deleted, which is reported
+	 * through remove(). */
+	public boolean evict();
+    }
+
+    private static class Candidate {
+	final Resident r;
+	final long lastuse, mem;
+
+	Candidate(Resident r) {
+	    this.r = r;
+	    this.lastuse = r.lastuse();
+	    this.mem = r.texmem();
+	}
+    }
+
+    public TexResidency(long budget, int minage) {
+	this.budget = budget;
+	this.minage = minage;
+    }
+
+    public void add(Resident r) {
+	live.add(r);
+    }
+
+    public void remove(Resident r) {
+	live.remove(r);
+	synchronized(pending) {
+	    Long mem = pending.remove(r);
+	    if(mem != null)
+		pendmem -= mem;
+	}
+    }
+
+    /* Given the memory currently used by all textures, evicts until
+     * it would be below 90% of the budget, and returns the number of
+     * textures evicted. Memory of textures that have been evicted
+     * but not yet deleted is not counted. */
+    public int enforce(long used, long frame) {
+	if(budget <= 0)
+	    return(0);
+	synchronized(pending) {
+	    used -= pendmem;
+	}
+	if(used <= budget)
+	    return(0);
+	List<Candidate> cand = new ArrayList<>();
+	for(Resident r : live) {
+	    if((frame - r.lastuse() >= minage) && r.evictable()) {
+		Candidate c = new Candidate(r);
+		if(c.mem > 0)
+		    cand.add(c);
+	    }
+	}
+	lastcand = cand.size();
+	cand.sort((a, b) -> Long.compare(a.lastuse, b.lastuse));
+	long target = budget - (budget / 10);
+	int n = 0;
+	for(Candidate c : cand) {
+	    if(used <= target)
+		break;
+	    if(!live.remove(c.r))
+		continue;
+	    synchronized(pending) {
+		pending.put(c.r, c.mem);
+		pendmem += c.mem;
+	    }
+	    if(!c.r.evict()) {
+		synchronized(pending) {
+		    if(pending.remove(c.r) != null)
+			pendmem -= c.mem;
+		}
+		live.add(c.r);
+		continue;
+	    }
+	    used -= c.mem;
+	    n++;
+	    nevicted++;
+	    evmem += c.mem;
+	}
+	return(n);
+    }
+
+    public String stats(long used) {
+	return(String.format("%,d / %,d (%d live, %d candidates, %d evicted, %,d bytes)",
+			     used, budget, live.size(), lastcand, nevicted, evmem));
+    }
+}
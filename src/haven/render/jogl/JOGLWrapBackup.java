@@ -113,6 +113,7 @@ public class JOGLWrapBackup implements GL, WrappedJOGL {
     public void glGetIntegerv(int pname, int[] data) {back.glGetIntegerv(pname, data, 0);}
     public String glGetString(int name) {return(back.glGetString(name));}
     public String glGetStringi(int name, int index) {return(back.getGL2ES3().glGetStringi(name, index));}
+    public void glGetProgramBinary(int program, int bufsize, int[] length, int[] format, ByteBuffer binary) {back.getGL2GL3().glGetProgramBinary(program, bufsize, length, 0, format, 0, binary);}
     public void glGetProgramInfoLog(int shader, int maxlength, int[] length, byte[] infolog) {back.getGL2GL3().glGetProgramInfoLog(shader, maxlength, length, 0, infolog, 0);}
     public void glGetProgramiv(int shader, int pname, int[] buf) {back.getGL2GL3().glGetProgramiv(shader, pname, buf, 0);}
     public void glGetQueryObjectiv(int id, int pname, int[] params) {back.getGL2GL3().glGetQueryObjectiv(id, pname, params, 0);}
@@ -130,6 +131,8 @@ public class JOGLWrapBackup implements GL, WrappedJOGL {
     public void glPointSize(float size) {back.getGL2GL3().glPointSize(size);}
     public void glPolygonMode(int face, int mode) {back.getGL2GL3().glPolygonMode(face, mode);}
     public void glPolygonOffset(float factor, float units) {back.glPolygonOffset(factor, units);}
+    public void glProgramBinary(int program, int format, ByteBuffer binary, int length) {back.getGL2GL3().glProgramBinary(program, format, binary, length);}
+    public void glProgramParameteri(int program, int pname, int value) {back.getGL2GL3().glProgramParameteri(program, pname, value);}
     public void glQueryCounter(int id, int target) {back.getGL2GL3().glQueryCounter(id, target);}
     public void glReadBuffer(int buf) {back.getGL2GL3().glReadBuffer(buf);}
     public void glReadPixels(int x, int y, int width, int height, int format, int type, ByteBuffer data) {back.glReadPixels(x, y, width, height, format, type, data);}
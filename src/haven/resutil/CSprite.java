@@ -33,7 +33,12 @@ import java.util.*;
 public class CSprite extends Sprite {
     private final Coord3f cc;
     private final List<RenderTree.Node> parts = new ArrayList<>();
+    private final List<StaticBatch.Part> bparts = new ArrayList<>();
+    private boolean batchable = true;
     private final Random rnd;
+    private final Collection<RenderTree.Slot> slots = new ArrayList<>(1);
+    private final Collection<RenderTree.Slot> shown = new ArrayList<>();
+    private StaticBatch.Member batched = null;
     
     public CSprite(Owner owner, Resource res) {
 	super(owner, res);
@@ -42,7 +47,7 @@ public class CSprite extends Sprite {
 	cc = gob.getrc();
     }
 
-    public void addpart(Location loc, Pipe.Op mat, RenderTree.Node part) {
+    private void addpart0(Location loc, Pipe.Op mat, RenderTree.Node part) {
 	if((mat != null) && (mat != Pipe.Op.nil)) {
 	    /* XXX: Using unnecessarily many slots? Could potentially
 	     * intern base slots on material for memory savings. */
@@ -51,20 +56,96 @@ public class CSprite extends Sprite {
 	parts.add(loc.apply(part, false));
     }
 
+    public void addpart(Location loc, Pipe.Op mat, RenderTree.Node part) {
+	batchable = false;
+	addpart0(loc, mat, part);
+    }
+
     public void addpart(float xo, float yo, float a, Pipe.Op mat, RenderTree.Node part) {
 	Coord3f pc = new Coord3f(xo, -yo, owner.context(Glob.class).map.getcz(cc.x + xo, cc.y + yo) - cc.z);
-	Location loc = new Location(Transform.makexlate(new Matrix4f(), pc)
-				    .mul1(Transform.makerot(new Matrix4f(), Coord3f.zu, a)));
-	addpart(loc, mat, part);
+	Matrix4f xf = Transform.makexlate(new Matrix4f(), pc).mul1(Transform.makerot(new Matrix4f(), Coord3f.zu, a));
+	if((part instanceof FastMesh) && (mat != null) && (mat != Pipe.Op.nil) && StaticBatch.mergeable((FastMesh)part))
+	    bparts.add(new StaticBatch.Part((FastMesh)part, mat, xf));
+	else
+	    batchable = false;
+	addpart0(new Location(xf), mat, part);
     }
 
     public void addpart(float xo, float yo, Pipe.Op mat, RenderTree.Node part) {
 	addpart(xo, yo, (float)(rnd.nextFloat() * Math.PI * 2), mat, part);
     }
 
+    private void show(RenderTree.Slot slot) {
+	for(RenderTree.Node p : parts)
+	    shown.add(slot.add(p));
+    }
+
+    /* Moves the parts into the static batch while the gob qualifies
+     * for it, and back when it no longer does. The parts are only
+     * taken out of the sprite's own slots once the batch draws
+     * them. */
+    private void updbatch() {
+	Gob gob = (Gob)owner;
+	Coord3f pos = StaticBatch.enabled.get() ? gob.staticpos() : null;
+	RenderTree.Slot any;
+	synchronized(this) {
+	    if(slots.isEmpty())
+		return;
+	    any = slots.iterator().next();
+	    if(batched == null) {
+		if(pos != null) {
+		    /* Too large for a batch; keep drawing it as it is. */
+		    if((batched = gob.glob.oc.batch.add(gob, pos, bparts)) == null)
+			batchable = false;
+		}
+		return;
+	    }
+	    if((pos != null) && pos.equals(batched.pos) && (shown.isEmpty() || !batched.baked()))
+		return;
+	}
+	try(Locked lk = any.lock()) {
+	    synchronized(this) {
+		if(batched == null)
+		    return;
+		if((pos == null) || !pos.equals(batched.pos)) {
+		    if(shown.isEmpty()) {
+			for(RenderTree.Slot slot : slots)
+			    show(slot);
+		    }
+		    batched.remove();
+		    batched = null;
+		} else if(batched.baked()) {
+		    for(RenderTree.Slot p : shown)
+			p.remove();
+		    shown.clear();
+		}
+	    }
+	}
+    }
+
+    public boolean tick(double dt) {
+	if(batchable && !bparts.isEmpty() && (owner instanceof Gob))
+	    updbatch();
+	return(super.tick(dt));
+    }
+
     public void added(RenderTree.Slot slot) {
 	slot.ostate(Location.goback("gobx"));
-	for(RenderTree.Node p : parts)
-	    slot.add(p);
+	synchronized(this) {
+	    if((batched == null) || !shown.isEmpty() || !batched.baked())
+		show(slot);
+	    slots.add(slot);
+	}
+    }
+
+    public void removed(RenderTree.Slot slot) {
+	synchronized(this) {
+	    slots.remove(slot);
+	    shown.removeIf(p -> p.parent() == slot);
+	    if(slots.isEmpty() && (batched != null)) {
+		batched.remove();
+		batched = null;
+	    }
+	}
     }
 }
@@ -48,11 +48,11 @@ public class Curiosity extends ItemInfo.Tip implements GItem.ColorInfo {
 	this.time = time;
 	this.lph = (exp > 0 && time > 0) ? (3600 * exp / time) : 0;
 	UI ui = null;
-	if(owner instanceof Widget) {
-	    Widget wdg = (Widget)owner;
-	    if(wdg.getparent(CharWnd.class) != null)
-		ui = wdg.ui;
-	}
+	/* Asked through the context otherwise, so that shared info
+	 * lists know that this depends on its item. */
+	Widget wdg = (owner instanceof Widget) ? (Widget)owner : owner.fcontext(GItem.class, false);
+	if((wdg != null) && (wdg.getparent(CharWnd.class) != null))
+	    ui = wdg.ui;
 	this.ui = ui;
     }
 
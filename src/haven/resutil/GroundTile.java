@@ -84,13 +84,51 @@ public class GroundTile extends Tiler implements Tiler.MCons, Tiler.CTrans {
 	return(ret);
     }
 
+    /* Materials are numbered by the index of their tile among the
+     * tile layers of the tileset, and their order. */
+    private final Map<Pipe.Op, Integer> matids = new HashMap<>();
+    private List<Tile> tiles = null;
+
+    private Pipe.Op stfor(Tile t, int z) {
+	Pipe.Op ret = stfor(t.tex(), z, t.t != 'g');
+	synchronized(matids) {
+	    if(!matids.containsKey(ret)) {
+		if(tiles == null)
+		    tiles = new ArrayList<>(set.getres().layers(Tile.class));
+		int idx = tiles.indexOf(t);
+		if(idx >= 0)
+		    matids.put(ret, (idx << 16) | (z & 0xffff));
+	    }
+	}
+	return(ret);
+    }
+
+    public int matid(NodeWrap mat) {
+	synchronized(matids) {
+	    Integer id = matids.get(mat);
+	    return((id == null) ? -1 : id);
+	}
+    }
+
+    public NodeWrap material(int id) {
+	Tile t;
+	synchronized(matids) {
+	    if(tiles == null)
+		tiles = new ArrayList<>(set.getres().layers(Tile.class));
+	    if((id >>> 16) >= tiles.size())
+		return(null);
+	    t = tiles.get(id >>> 16);
+	}
+	return(stfor(t, (short)id));
+    }
+
     /* XXX: Some strange javac bug seems to make it resolve the
      * trans() references to the wrong signature, thus the name
      * distinction. */
     public void _faces(MapMesh m, Tile t, int z, Surface.Vertex[] v, float[] tcx, float[] tcy, int[] f) {
 	Tex tex = t.tex();
 	float tl = tcx(tex, 0), tt = tcy(tex, 0), tw = tcx(tex, tex.sz().x) - tl, th = tcy(tex, tex.sz().y) - tt;
-	Pipe.Op st = stfor(tex, z, t.t != 'g');
+	Pipe.Op st = stfor(t, z);
 	MeshBuf buf = MapMesh.Model.get(m, st);
 
 	MeshBuf.Tex btex = buf.layer(MeshBuf.tex);
@@ -0,0 +1,101 @@
+package haven.test;
+
+import haven.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.io.*;
+import java.net.URI;
+import java.nio.file.*;
+
+/* Runs concurrent fetches and stores against a HashDirCache in a
+ * scratch directory, with a byte budget small enough that eviction
+ * runs throughout, and reports throughput once a second. */
+public class CacheStress {
+    public final HashDirCache cache;
+    public final int keys;
+    public final AtomicLong fetches = new AtomicLong(), hits = new AtomicLong(), stores = new AtomicLong();
+
+    public CacheStress(HashDirCache cache, int keys) {
+	this.cache = cache;
+	this.keys = keys;
+    }
+
+    /* Skewed towards low keys, like resource use tends to be. */
+    private String key(Random rnd) {
+	double r = rnd.nextDouble();
+	return(String.format("stress/%d", (int)(keys * r * r)));
+    }
+
+    private void store(String name, Random rnd) throws IOException {
+	byte[] data = new byte[4096 + rnd.nextInt(61440)];
+	rnd.nextBytes(data);
+	try(OutputStream out = cache.store(name)) {
+	    out.write(data);
+	}
+	stores.incrementAndGet();
+    }
+
+    public void work(long until) {
+	Random rnd = new Random();
+	byte[] buf = new byte[65536];
+	try {
+	    while(System.nanoTime() < until) {
+		String name = key(rnd);
+		if(rnd.nextInt(5) == 0) {
+		    store(name, rnd);
+		    continue;
+		}
+		fetches.incrementAndGet();
+		try(InputStream in = cache.fetch(name)) {
+		    while(in.read(buf) >= 0);
+		    hits.incrementAndGet();
+		} catch(FileNotFoundException e) {
+		    store(name, rnd);
+		}
+	    }
+	} catch(IOException e) {
+	    throw(new RuntimeException(e));
+	}
+    }
+
+    public static void main(String[] args) throws Exception {
+	int nthreads = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+	int secs = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+	long budget = ((args.length > 2) ? Long.parseLong(args[2]) : 64) * 1048576L;
+	int keys = (args.length > 3) ? Integer.parseInt(args[3]) : 8192;
+	Path dir = Files.createTempDirectory("cachestress");
+	try {
+	    HashDirCache cache = new HashDirCache(dir, URI.create("urn:haven-cache:stress"));
+	    cache.bound(budget);
+	    CacheStress test = new CacheStress(cache, keys);
+	    long until = System.nanoTime() + (secs * 1000000000L);
+	    List<Thread> threads = new ArrayList<>();
+	    for(int i = 0; i < nthreads; i++) {
+		Thread th = new HackThread(() -> test.work(until), "Stress thread #" + i);
+		th.start();
+		threads.add(th);
+	    }
+	    long lf = 0, lh = 0, ls = 0, st = System.nanoTime();
+	    for(int s = 0; s < secs; s++) {
+		Thread.sleep(1000);
+		long f = test.fetches.get(), h = test.hits.get(), n = test.stores.get();
+		System.out.printf("%d fetch/s (%.0f%% hit), %d store/s, %.1f MB cached, %d evicted%n",
+				  f - lf, (f == lf) ? 0.0 : (100.0 * (h - lh)) / (f - lf), n - ls,
+				  cache.size() / 1048576.0, cache.nevicted.get());
+		lf = f; lh = h; ls = n;
+	    }
+	    for(Thread th : threads)
+		th.join();
+	    double t = (System.nanoTime() - st) * 1e-9;
+	    System.out.printf("%d threads: %.0f ops/s overall, %.1f MB cached of %.1f MB budget%n",
+			      nthreads, (test.fetches.get() + test.stores.get()) / t,
+			      cache.size() / 1048576.0, budget / 1048576.0);
+	} finally {
+	    try(DirectoryStream<Path> ls = Files.newDirectoryStream(dir)) {
+		for(Path p : ls)
+		    Files.deleteIfExists(p);
+	    }
+	    Files.deleteIfExists(dir);
+	}
+    }
+}
@@ -0,0 +1,225 @@
+package haven.test;
+
+import haven.*;
+import haven.render.*;
+import java.util.*;
+import java.io.*;
+import java.awt.Color;
+
+/* Builds a crowd of composites from a handful of loadouts, each a
+ * skinned body and a few garments with their own materials and some
+ * equipment hung on bones, out of resources made up in memory. Does
+ * so once building every model for every composite, as before, and
+ * once sharing builds between equal loadouts, and reports the time
+ * taken, the heap retained and the distinct model layers made. */
+public class CompositeBench {
+    public static class MemSource implements Resource.ResSource {
+	public final Map<String, byte[]> res = new HashMap<>();
+
+	public InputStream get(String name) throws IOException {
+	    byte[] data = res.get(name);
+	    if(data == null)
+		throw(new FileNotFoundException(name));
+	    return(new ByteArrayInputStream(data));
+	}
+
+	public void put(String name, Object... layers) {
+	    MessageBuf buf = new MessageBuf();
+	    buf.addbytes("Haven Resource 1".getBytes(Utils.ascii));
+	    buf.adduint16(1);
+	    for(int i = 0; i < layers.length; i += 2) {
+		byte[] data = ((MessageBuf)layers[i + 1]).fin();
+		buf.addstring((String)layers[i]);
+		buf.addint32(data.length);
+		buf.addbytes(data);
+	    }
+	    res.put(name, buf.fin());
+	}
+    }
+
+    static MessageBuf skel(String[] bones) {
+	MessageBuf buf = new MessageBuf();
+	buf.addstring("\u0001");
+	for(int i = 0; i < bones.length; i++) {
+	    buf.addstring(bones[i]);
+	    buf.addstring((i == 0) ? "" : bones[i - 1]);
+	    buf.addfloat32(0); buf.addfloat32(0); buf.addfloat32(1);
+	    buf.adduint16(0);
+	    buf.addint16((short)0); buf.addint16((short)0);
+	}
+	return(buf);
+    }
+
+    static MessageBuf vbuf(Random rnd, int nv, String[] bones) {
+	MessageBuf buf = new MessageBuf();
+	buf.adduint8(1);
+	buf.addint16((short)0);
+	buf.adduint16(nv);
+	for(String attr : new String[] {"pos2", "nrm2"}) {
+	    MessageBuf sub = new MessageBuf();
+	    sub.adduint8(1);
+	    sub.addstring("f4");
+	    for(int i = 0; i < nv * 3; i++)
+		sub.addfloat32(rnd.nextFloat());
+	    byte[] data = sub.fin();
+	    buf.addstring(attr);
+	    buf.addint32(data.length);
+	    buf.addbytes(data);
+	}
+	/* Every vertex hangs on one bone, in runs of consecutive
+	 * vertices. */
+	MessageBuf sub = new MessageBuf();
+	sub.adduint8(1);
+	sub.addstring("f4");
+	sub.adduint8(2);
+	int per = (nv + bones.length - 1) / bones.length;
+	for(int b = 0, v = 0; (b < bones.length) && (v < nv); b++, v += per) {
+	    int run = Math.min(per, nv - v);
+	    sub.addstring(bones[b]);
+	    sub.adduint16(run);
+	    sub.adduint16(v);
+	    for(int i = 0; i < run; i++)
+		sub.addfloat32(1);
+	    sub.adduint16(0);
+	    sub.adduint16(0);
+	}
+	sub.addstring("");
+	byte[] data = sub.fin();
+	buf.addstring("bones2");
+	buf.addint32(data.length);
+	buf.addbytes(data);
+	return(buf);
+    }
+
+    static MessageBuf mesh(int ntri, int matid) {
+	MessageBuf buf = new MessageBuf();
+	buf.adduint8(0);
+	buf.adduint16(ntri);
+	buf.addint16((short)matid);
+	for(int i = 0; i < ntri * 3; i++)
+	    buf.adduint16(i);
+	return(buf);
+    }
+
+    static MessageBuf mat(int id, Color col) {
+	MessageBuf buf = new MessageBuf();
+	buf.adduint16(id);
+	buf.addstring("col");
+	buf.addlist(col, col, Color.BLACK, Color.BLACK, 0.0f);
+	buf.adduint8(Message.T_END);
+	return(buf);
+    }
+
+    public static class Loadout {
+	public final List<Indir<Resource>> mods = new ArrayList<>();
+	public final List<List<Indir<Resource>>> tex = new ArrayList<>();
+	public final List<Indir<Resource>> equ = new ArrayList<>();
+	public final List<String> at = new ArrayList<>();
+
+	public List<Composited.MD> mds() {
+	    List<Composited.MD> ret = new ArrayList<>();
+	    for(int i = 0; i < mods.size(); i++)
+		ret.add(new Composited.MD(mods.get(i), ResData.wrap(tex.get(i))));
+	    return(ret);
+	}
+
+	public List<Composited.ED> eds() {
+	    List<Composited.ED> ret = new ArrayList<>();
+	    for(int i = 0; i < equ.size(); i++)
+		ret.add(new Composited.ED(0, at.get(i), new ResData(equ.get(i), Message.nil), Coord3f.o));
+	    return(ret);
+	}
+    }
+
+    static long heap() {
+	Runtime rt = Runtime.getRuntime();
+	for(int i = 0; i < 4; i++)
+	    System.gc();
+	return(rt.totalMemory() - rt.freeMemory());
+    }
+
+    public static void main(String[] args) {
+	int ngobs = (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+	int nload = (args.length > 1) ? Integer.parseInt(args[1]) : 6;
+	Config.cmdline(new String[0]);
+	Random rnd = new Random(1);
+	String[] bones = new String[24];
+	for(int i = 0; i < bones.length; i++)
+	    bones[i] = "b" + i;
+	MemSource src = new MemSource();
+	src.put("bench/skel", "skel", skel(bones));
+	src.put("bench/body", "vbuf2", vbuf(rnd, 1800, bones), "mesh", mesh(600, -1));
+	for(int i = 0; i < 8; i++)
+	    src.put("bench/garb" + i, "vbuf2", vbuf(rnd, 600, bones), "mesh", mesh(200, -1));
+	for(int i = 0; i < 12; i++)
+	    src.put("bench/mat" + i, "mat2", mat(0, new Color(rnd.nextInt(0x1000000))));
+	for(int i = 0; i < 4; i++)
+	    src.put("bench/tool" + i, "vbuf2", vbuf(rnd, 300, bones), "mesh", mesh(100, 0), "mat2", mat(0, Color.GRAY));
+	Resource.Pool pool = new Resource.Pool(src);
+	Skeleton skel = pool.loadwait("bench/skel").layer(Skeleton.Res.class).s;
+
+	List<Loadout> loads = new ArrayList<>();
+	for(int l = 0; l < nload; l++) {
+	    Loadout ld = new Loadout();
+	    ld.mods.add(pool.loadwait("bench/body").indir());
+	    ld.tex.add(Arrays.asList(pool.loadwait("bench/mat" + rnd.nextInt(12)).indir()));
+	    for(int g = 0; g < 3; g++) {
+		ld.mods.add(pool.loadwait("bench/garb" + rnd.nextInt(8)).indir());
+		ld.tex.add(Arrays.asList(pool.loadwait("bench/mat" + rnd.nextInt(12)).indir(), pool.loadwait("bench/mat" + rnd.nextInt(12)).indir()));
+	    }
+	    for(int e = 0; e < 2; e++) {
+		ld.equ.add(pool.loadwait("bench/tool" + rnd.nextInt(4)).indir());
+		ld.at.add(bones[rnd.nextInt(bones.length)]);
+	    }
+	    loads.add(ld);
+	}
+	int nmods = 0;
+	for(Loadout ld : loads)
+	    nmods += ld.mods.size();
+
+	/* Twice over, the first round warming the JIT up. */
+	for(boolean share : new boolean[] {false, true, false, true}) {
+	    Composited.sharebuilds.set(share);
+	    long h0 = heap();
+	    long st = System.nanoTime();
+	    RenderTree tree = new RenderTree();
+	    List<Composited> crowd = new ArrayList<>();
+	    for(int i = 0; i < ngobs; i++) {
+		Loadout ld = loads.get(i % loads.size());
+		Composited comp = new Composited(skel);
+		comp.chmod(ld.mds());
+		comp.chequ(ld.eds());
+		tree.add(comp);
+		crowd.add(comp);
+	    }
+	    tree.commit();
+	    double el = (System.nanoTime() - st) * 1e-6;
+	    for(Composited comp : crowd)
+		comp.tick(0.1);
+	    long h1 = heap();
+	    Set<Composited.Layer> layers = Collections.newSetFromMap(new IdentityHashMap<>());
+	    Set<Composited.Build> builds = Collections.newSetFromMap(new IdentityHashMap<>());
+	    for(Composited comp : crowd) {
+		for(Composited.Model mod : comp.mod) {
+		    builds.add(mod.build);
+		    layers.addAll(mod.lay);
+		}
+	    }
+	    System.out.printf("%s: %,d composites of %,d loadouts built in %.1f ms, %,.0f bytes retained each, %,d model builds, %,d layers%n",
+			      share ? "shared" : "per gob", ngobs, loads.size(), el, (double)(h1 - h0) / ngobs, builds.size(), layers.size());
+	    if(share && (builds.size() > nmods))
+		throw(new AssertionError(builds.size() + " builds for " + nmods + " distinct models"));
+	    /* Each composite keeps its own pose. */
+	    Set<Skeleton.Pose> poses = Collections.newSetFromMap(new IdentityHashMap<>());
+	    for(Composited comp : crowd) {
+		for(Composited.Model mod : comp.mod)
+		    poses.add(mod.morph.pose);
+	    }
+	    if(poses.size() != ngobs)
+		throw(new AssertionError(poses.size() + " poses for " + ngobs + " composites"));
+	    crowd.clear();
+	    tree = null;
+	}
+	System.out.println("  " + Composited.buildstats());
+    }
+}
@@ -0,0 +1,124 @@
+package haven.test;
+
+import haven.*;
+import haven.MapFile.ExportFilter;
+import haven.test.MapUpdateStress.MemStore;
+import haven.test.MapUpdateStress.World;
+import java.util.*;
+import me.ender.minimap.Marker;
+
+/* Explores a few segments of synthetic grids into a MapFile kept in
+ * memory, edits some grids of one of them, and exports the whole map
+ * and then what was modified since the edits began. Reports the time
+ * and size of each, against an incremental export that loads every
+ * grid to tell its modification time, as was done before. Checks
+ * that incremental exports carry only the edited grids, write no
+ * empty chunks, report progress up to completion, and bring a copy
+ * of the map up to date when imported on top of a full export. */
+public class ExportBench {
+    static class Progress implements MapFile.ExportStatus {
+	int cs, ns, cg, ng;
+
+	public void grid(int cs, int ns, int cg, int ng) {
+	    this.cs = cs; this.ns = ns; this.cg = cg; this.ng = ng;
+	}
+    }
+
+    static byte[] export(MapFile file, ExportFilter filter, MapFile.ExportStatus prog) throws InterruptedException {
+	MessageBuf buf = new MessageBuf();
+	file.export2(buf, filter, prog);
+	return(buf.fin());
+    }
+
+    public static void main(String[] args) throws Exception {
+	int size = (args.length > 0) ? Integer.parseInt(args[0]) : 24;
+	int nedits = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+	Config.cmdline(new String[0]);
+	Random rnd = new Random(1);
+	World world = new World(rnd, 8);
+	MapFile file = new MapFile(new MemStore(), "");
+	/* Regions far enough apart to be segments of their own. */
+	for(int s = 0; s < 3; s++)
+	    world.explore(file, s * 100, (s * 100) + size, 0, size);
+	file.flush();
+	byte[] base = export(file, ExportFilter.all, null);
+
+	Thread.sleep(5);
+	long since = System.currentTimeMillis();
+	List<MCache.Grid> first = new ArrayList<>();
+	for(MCache.Grid g : world.grids.values()) {
+	    if(g.gc.x < 100)
+		first.add(g);
+	}
+	Set<MCache.Grid> edited = new HashSet<>();
+	for(int i = 0; i < nedits; i++) {
+	    MCache.Grid g = first.get(rnd.nextInt(first.size()));
+	    world.touch(g);
+	    file.update(world.map, Collections.singletonList(g));
+	    edited.add(g);
+	}
+	file.sync();
+	file.flush();
+
+	ExportFilter inc = ExportFilter.since(ExportFilter.all, since);
+	/* Leaving grids out only once loaded. */
+	ExportFilter loading = new ExportFilter() {
+		public boolean includeseg(long id) {return(true);}
+		public boolean includegrid(MapFile.Segment seg, Coord sc, long id) {return(true);}
+		public boolean includemark(Marker mark) {return(true);}
+		public boolean includedata(MapFile.Grid grid) {return(grid.mtime >= since);}
+	    };
+	byte[] full = null, part = null, old = null;
+	Progress prog = new Progress();
+	/* Twice over, the first round warming the JIT up. */
+	for(int round = 0; round < 2; round++) {
+	    long st = System.nanoTime();
+	    full = export(file, ExportFilter.all, null);
+	    double tfull = (System.nanoTime() - st) * 1e-6;
+	    st = System.nanoTime();
+	    old = export(file, loading, null);
+	    double told = (System.nanoTime() - st) * 1e-6;
+	    prog = new Progress();
+	    st = System.nanoTime();
+	    part = export(file, inc, prog);
+	    double tpart = (System.nanoTime() - st) * 1e-6;
+	    if(round > 0) {
+		System.out.printf("full: %,d grids in %.1f ms, %,d bytes%n", world.grids.size(), tfull, full.length);
+		System.out.printf("incremental, loading every grid: %.1f ms, %,d bytes%n", told, old.length);
+		System.out.printf("incremental: %d edited grids in %.1f ms, %,d bytes%n", edited.size(), tpart, part.length);
+	    }
+	}
+
+	int grids = 0, chunks = 0;
+	Message in = new MessageBuf(part);
+	in.bytes("Haven Mapfile 2".length());
+	while(in.uint8() != 0) {
+	    Message z = new ZMessage(new MessageBuf(in.bytes(in.int32())));
+	    int n = 0;
+	    while(!z.eom()) {
+		String type = z.string();
+		z.bytes(z.int32());
+		if(type.equals("grid"))
+		    grids++;
+		n++;
+	    }
+	    if(n == 0)
+		throw(new AssertionError("empty chunk written"));
+	    chunks++;
+	}
+	System.out.printf("incremental: %d chunks, %d grids; progress at %d/%d in segment %d/%d%n", chunks, grids, prog.cg, prog.ng, prog.cs + 1, prog.ns);
+	if(grids != edited.size())
+	    throw(new AssertionError(grids + " grids exported for " + edited.size() + " edited"));
+	if((prog.cs + 1 != prog.ns) || (prog.cg != prog.ng))
+	    throw(new AssertionError("progress not reported through to completion"));
+
+	MapFile copy = new MapFile(new MemStore(), "");
+	copy.reimport(new MessageBuf(base), MapFile.ImportFilter.all);
+	copy.reimport(new MessageBuf(part), MapFile.ImportFilter.all);
+	copy.flush();
+	for(MCache.Grid g : world.grids.values()) {
+	    if(World.version(MapFile.Grid.load(copy, g.id)) != g.seq)
+		throw(new AssertionError("grid " + g.gc + " not brought up to date"));
+	}
+    }
+}
@@ -0,0 +1,142 @@
+package haven.test;
+
+import haven.*;
+import haven.render.*;
+import haven.render.gl.*;
+import java.util.*;
+import java.io.*;
+
+/* Renders a scripted scene, a field of objects sharing a few meshes
+ * and materials of which a share move, appear and disappear every
+ * frame, into a NullEnvironment, timing the draw list's encoding and
+ * the environment's processing of it. The last frames are recorded
+ * through a GLRecorder and played back into a fresh NullGL, which must
+ * receive exactly the calls the recorded frames made. */
+public class GLReplayBench {
+    public static class Obj {
+	public final FastMesh mesh;
+	public final Pipe.Op mat;
+	public Coord3f pos;
+	public RenderTree.Slot slot;
+
+	public Obj(FastMesh mesh, Pipe.Op mat, Coord3f pos) {
+	    this.mesh = mesh;
+	    this.mat = mat;
+	    this.pos = pos;
+	}
+
+	public Pipe.Op state() {
+	    return(Pipe.Op.compose(mat, Location.xlate(pos)));
+	}
+    }
+
+    public static void main(String[] args) throws IOException {
+	int nobj = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+	int nframes = (args.length > 1) ? Integer.parseInt(args[1]) : 300;
+	int nrec = (args.length > 2) ? Integer.parseInt(args[2]) : 60;
+	double churn = (args.length > 3) ? Double.parseDouble(args[3]) : 0.02;
+	Config.cmdline(new String[0]);
+	Random rnd = new Random(1);
+	Area area = Area.sized(Coord.z, new Coord(1024, 768));
+	NullGL gl = new NullGL();
+	NullEnvironment env = new NullEnvironment(gl, area);
+
+	FastMesh[] meshes = new FastMesh[8];
+	for(int i = 0; i < meshes.length; i++)
+	    meshes[i] = StaticBatchBench.mkmesh(rnd, 16 + (i * 16));
+	Pipe.Op[] mats = new Pipe.Op[6];
+	for(int i = 0; i < mats.length; i++)
+	    mats[i] = new BaseColor(rnd.nextFloat(), rnd.nextFloat(), rnd.nextFloat(), 1);
+	Pipe.Op base = Pipe.Op.compose(new States.Viewport(area), Homo3D.state,
+				       Projection.frustum(-1, 1, -0.75f, 0.75f, 1, 5000),
+				       Camera.pointed(Coord3f.o, 500, (float)Math.PI / 4, 0),
+				       new FragColor<>(FragColor.defcolor), new DepthBuffer<>(DepthBuffer.defdepth),
+				       new States.Depthtest(States.Depthtest.Test.LE), new States.Facecull());
+
+	RenderTree tree = new RenderTree();
+	RenderTree.Slot root = tree.add((RenderTree.Node)null, base);
+	DrawList back = env.drawlist();
+	InstanceList instancer = new InstanceList(tree);
+	instancer.add(back, Rendered.class);
+	instancer.syncadd(tree, Rendered.class);
+	List<Obj> objs = new ArrayList<>();
+	for(int i = 0; i < nobj; i++) {
+	    Obj o = new Obj(meshes[rnd.nextInt(meshes.length)], mats[rnd.nextInt(mats.length)],
+			    Coord3f.of((rnd.nextFloat() - 0.5f) * 1000, (rnd.nextFloat() - 0.5f) * 1000, 0));
+	    o.slot = root.add(o.mesh, o.state());
+	    objs.add(o);
+	}
+
+	ByteArrayOutputStream recbuf = new ByteArrayOutputStream();
+	GLRecorder rec = null;
+	long[] recfrom = null;
+	long tdraw = 0, tproc = 0, tmax = 0;
+	for(int f = 0; f < nframes; f++) {
+	    if(f == nframes - nrec) {
+		recfrom = gl.calls.clone();
+		env.record(rec = new GLRecorder(recbuf, nrec));
+	    }
+	    long st = System.nanoTime();
+	    /* A share of the objects move, and as many are replaced. */
+	    int n = (int)(objs.size() * churn);
+	    for(int i = 0; i < n; i++) {
+		Obj o = objs.get(rnd.nextInt(objs.size()));
+		o.pos = o.pos.add(rnd.nextFloat() - 0.5f, rnd.nextFloat() - 0.5f, 0);
+		o.slot.ostate(o.state());
+	    }
+	    for(int i = 0; i < n; i++) {
+		int idx = rnd.nextInt(objs.size());
+		objs.get(idx).slot.remove();
+		Obj o = new Obj(meshes[rnd.nextInt(meshes.length)], mats[rnd.nextInt(mats.length)],
+				Coord3f.of((rnd.nextFloat() - 0.5f) * 1000, (rnd.nextFloat() - 0.5f) * 1000, 0));
+		o.slot = root.add(o.mesh, o.state());
+		objs.set(idx, o);
+	    }
+	    tree.commit();
+	    GLRender g = env.render();
+	    Pipe fb = new BufPipe().prep(base);
+	    g.clear(fb, FragColor.fragcol, FColor.BLACK);
+	    g.clear(fb, 1.0);
+	    back.draw(g);
+	    env.submit(g);
+	    long mt = System.nanoTime();
+	    env.process(gl);
+	    long et = System.nanoTime();
+	    if(f > 0) {
+		/* The first frame compiles every program. */
+		tdraw += mt - st;
+		tproc += et - mt;
+		tmax = Math.max(tmax, et - st);
+	    }
+	}
+	System.out.printf("%,d objects, %,d frames: %.3f ms to update and draw, %.3f ms to process, %.3f ms at most per frame%n",
+			  nobj, nframes, tdraw * 1e-6 / (nframes - 1), tproc * 1e-6 / (nframes - 1), tmax * 1e-6);
+	System.out.printf("  %,.0f GL calls per frame; %s%n", (double)gl.total() / nframes, back.stats());
+	Integer[] byuse = new Integer[gl.calls.length];
+	for(int i = 0; i < byuse.length; i++)
+	    byuse[i] = i;
+	Arrays.sort(byuse, (a, b) -> Long.compare(gl.calls[b], gl.calls[a]));
+	for(int i = 0; (i < 6) && (gl.calls[byuse[i]] > 0); i++)
+	    System.out.printf("    %,.1f %s%n", (double)gl.calls[byuse[i]] / nframes, GLRecorder.calls[byuse[i]]);
+	back.dispose();
+	instancer.dispose();
+	if(!rec.done())
+	    throw(new AssertionError("recorder not done after " + nrec + " frames"));
+
+	byte[] data = recbuf.toByteArray();
+	GLRecorder.Player player = new GLRecorder.Player(new ByteArrayInputStream(data));
+	NullGL replay = new NullGL();
+	long st = System.nanoTime();
+	for(int f = 0; f < player.frames.size(); f++)
+	    player.play(f, replay);
+	double el = (System.nanoTime() - st) * 1e-6;
+	System.out.printf("recorded %,d frames in %,d bytes (%,.0f per frame), replayed %,d calls in %.1f ms%n",
+			  player.frames.size(), data.length, (double)data.length / player.frames.size(), player.ncalls, el);
+	if(player.frames.size() != nrec)
+	    throw(new AssertionError("recorded " + player.frames.size() + " frames"));
+	for(int i = 0; i < gl.calls.length; i++) {
+	    if(replay.calls[i] != gl.calls[i] - recfrom[i])
+		throw(new AssertionError(String.format("%s: %d replayed, %d recorded", GLRecorder.calls[i], replay.calls[i], gl.calls[i] - recfrom[i])));
+	}
+    }
+}
@@ -0,0 +1,118 @@
+package haven.test;
+
+import haven.*;
+import haven.render.*;
+import java.util.*;
+
+/* Simulates a long session walking through many areas, each with its
+ * own objects, drawn with hitbox-like outlines from a GeomCache in a
+ * VertexPool. Some kinds of objects recur everywhere, and others are
+ * only ever seen in one area, after which nothing refers to them.
+ * Samples the cache, the pool and the heap as it goes, and checks
+ * that all of them level off, against what keeping every outline
+ * forever, as Hitbox used to, comes to. */
+public class GeomCacheSoak {
+    /* Stands in for a resource, which is equal by name. */
+    public static class Res {
+	public final String name;
+
+	public Res(String name) {
+	    this.name = name;
+	}
+
+	public boolean equals(Object o) {
+	    return((o instanceof Res) && ((Res)o).name.equals(name));
+	}
+
+	public int hashCode() {
+	    return(name.hashCode());
+	}
+    }
+
+    static VertexPool.Range outline(VertexPool pool, Res res) {
+	Random rnd = new Random(res.name.hashCode());
+	int nv = 8 * (1 + rnd.nextInt(3));
+	float[] box = new float[nv * 3];
+	for(int i = 0; i < box.length; i++)
+	    box[i] = rnd.nextFloat() * 10;
+	VertexPool.Range ret = pool.range(Model.Mode.LINES);
+	ret.set(box, nv);
+	return(ret);
+    }
+
+    static long heap() {
+	Runtime rt = Runtime.getRuntime();
+	for(int i = 0; i < 4; i++)
+	    System.gc();
+	return(rt.totalMemory() - rt.freeMemory());
+    }
+
+    public static void main(String[] args) {
+	int nareas = (args.length > 0) ? Integer.parseInt(args[0]) : 400;
+	int ngobs = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+	int nframes = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+	Config.cmdline(new String[0]);
+	for(boolean bounded : new boolean[] {false, true}) {
+	    Random rnd = new Random(1);
+	    VertexPool pool = new VertexPool(VertexPool.POS, 256);
+	    VertexPoolBench.Device dev = new VertexPoolBench.Device();
+	    GeomCache<Res, VertexPool.Range> cache = new GeomCache<>(4096, 1 << 20, VertexPool.Range::bytes, VertexPool.Range::used);
+	    Map<Res, VertexPool.Range> forever = new HashMap<>();
+	    RenderTree tree = new RenderTree();
+	    List<Res> common = new ArrayList<>();
+	    for(int i = 0; i < 3000; i++)
+		common.add(new Res("common/" + i));
+	    long[] heap = new long[4];
+	    int[] cap = new int[4];
+	    long st = System.nanoTime();
+	    for(int a = 0; a < nareas; a++) {
+		/* Half of the area's objects are its own. */
+		List<Res> local = new ArrayList<>();
+		for(int i = 0; i < ngobs / 4; i++)
+		    local.add(new Res("area" + a + "/" + i));
+		List<RenderTree.Slot> gobs = new ArrayList<>();
+		for(int i = 0; i < ngobs; i++) {
+		    Res res = ((i % 2) == 0) ? local.get(rnd.nextInt(local.size())) : common.get(rnd.nextInt(common.size()));
+		    VertexPool.Range r;
+		    if(bounded)
+			r = cache.get(res, k -> outline(pool, k));
+		    else
+			r = forever.computeIfAbsent(res, k -> outline(pool, k));
+		    gobs.add(tree.add(r));
+		}
+		for(int f = 0; f < nframes; f++) {
+		    pool.commit(dev.render);
+		    tree.commit();
+		}
+		for(RenderTree.Slot slot : gobs)
+		    slot.remove();
+		local = null;
+		gobs = null;
+		if(((a + 1) % (nareas / 4)) == 0) {
+		    int q = ((a + 1) / (nareas / 4)) - 1;
+		    heap[q] = heap();
+		    cap[q] = pool.capacity();
+		    System.out.printf("  %s, after %,d areas: %,d KB heap, %,d vertices pooled; %s%n",
+				      bounded ? "bounded" : "forever", a + 1, heap[q] >> 10, cap[q],
+				      bounded ? cache.stats() : String.format("%,d entries", forever.size()));
+		}
+	    }
+	    System.out.printf("%s: %,d areas of %,d gobs in %.1f ms; %s%n", bounded ? "bounded" : "forever",
+			      nareas, ngobs, (System.nanoTime() - st) * 1e-6, pool.stats());
+	    if(bounded) {
+		if(cache.size() > cache.maxn)
+		    throw(new AssertionError(cache.size() + " entries cached"));
+		if(cache.bytes() > cache.maxbytes)
+		    throw(new AssertionError(cache.bytes() + " bytes cached"));
+		if(cache.expired == 0)
+		    throw(new AssertionError("no entries expired with their keys"));
+		/* Steady state: neither the pool nor the heap keep
+		 * growing in the second half. */
+		if(cap[3] > cap[1])
+		    throw(new AssertionError("pool grew from " + cap[1] + " to " + cap[3] + " vertices"));
+		if(heap[3] > (heap[1] * 5 / 4) + (4 << 20))
+		    throw(new AssertionError("heap grew from " + heap[1] + " to " + heap[3] + " bytes"));
+	    }
+	}
+    }
+}
@@ -0,0 +1,82 @@
+package haven.test;
+
+import haven.*;
+import java.util.*;
+
+/* Fills a 3x3 block of synthetic map grids and times 1M bilinear
+ * height samples spread across the grid borders, through the former
+ * per-corner grid lookup, through MCache.getcz and through a held
+ * HeightMap snapshot, checking that all agree. */
+public class HeightBench {
+    public static void fill(MCache map, Coord gc, Random rnd) {
+	MessageBuf buf = new MessageBuf();
+	buf.addcoord(gc);
+	buf.adduint8(1);
+	buf.addstring("h");
+	int n = MCache.cmaps.x * MCache.cmaps.y;
+	buf.adduint8(0x80);
+	buf.addint32(1 + (n * 4));
+	buf.adduint8(3);
+	for(int i = 0; i < n; i++)
+	    buf.addfloat32(rnd.nextFloat() * 10);
+	map.request(gc);
+	map.mapdata2(new MessageBuf(buf.fin()));
+    }
+
+    /* What MCache.getcz did before HeightMap. */
+    public static double legacy(MCache map, double px, double py) {
+	double tw = MCache.tilesz.x, th = MCache.tilesz.y;
+	Coord ul = Coord.of(Utils.floordiv(px, tw), Utils.floordiv(py, th));
+	double sx = (px - (ul.x * tw)) / tw;
+	double sy = (py - (ul.y * th)) / th;
+	double[] z = new double[4];
+	Coord[] c = {ul, ul.add(1, 0), ul.add(0, 1), ul.add(1, 1)};
+	for(int i = 0; i < 4; i++)
+	    z[i] = CFG.FLAT_TERRAIN.get() ? 0 : map.getfz2(c[i]);
+	return(((1.0f - sy) * (((1.0f - sx) * z[0]) + (sx * z[1]))) +
+	       (sy * (((1.0f - sx) * z[2]) + (sx * z[3]))));
+    }
+
+    public static void main(String[] args) {
+	int samples = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+	int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+	/* CFG must not be the first to initialize Config. */
+	Config.cmdline(new String[0]);
+	MCache map = new MCache(null);
+	Random rnd = new Random(1);
+	for(int y = -1; y <= 1; y++) {
+	    for(int x = -1; x <= 1; x++)
+		fill(map, Coord.of(x, y), rnd);
+	}
+	/* Points within two tiles of the grid borders of the center
+	 * grid, so that many samples straddle two or four grids. */
+	double[] xy = new double[samples * 2];
+	double gw = MCache.cmaps.x * MCache.tilesz.x, gh = MCache.cmaps.y * MCache.tilesz.y;
+	double bw = MCache.tilesz.x * 2;
+	for(int i = 0; i < samples; i++) {
+	    xy[i * 2]     = (rnd.nextBoolean() ? 0 : gw) + ((rnd.nextDouble() - 0.5) * bw * 2);
+	    xy[i * 2 + 1] = rnd.nextDouble() * gh;
+	    if(rnd.nextBoolean()) {
+		double t = xy[i * 2]; xy[i * 2] = xy[i * 2 + 1]; xy[i * 2 + 1] = t;
+	    }
+	}
+	float[] a = new float[samples], b = new float[samples], c = new float[samples];
+	for(int r = 0; r < rounds; r++) {
+	    long st = System.nanoTime();
+	    for(int i = 0; i < samples; i++)
+		a[i] = (float)legacy(map, xy[i * 2], xy[i * 2 + 1]);
+	    double t0 = (System.nanoTime() - st) * 1e-9;
+	    st = System.nanoTime();
+	    for(int i = 0; i < samples; i++)
+		b[i] = (float)map.getcz(xy[i * 2], xy[i * 2 + 1]);
+	    double t1 = (System.nanoTime() - st) * 1e-9;
+	    st = System.nanoTime();
+	    map.heightmap().getcz(xy, 0, c, 0, samples);
+	    double t2 = (System.nanoTime() - st) * 1e-9;
+	    if(!Arrays.equals(a, b) || !Arrays.equals(a, c))
+		throw(new AssertionError("height samplers disagree"));
+	    System.out.printf("%d samples: legacy %.1f ns, getcz %.1f ns, bulk snapshot %.1f ns per sample%n",
+			      samples, t0 * 1e9 / samples, t1 * 1e9 / samples, t2 * 1e9 / samples);
+	}
+    }
+}
@@ -0,0 +1,202 @@
+package haven.test;
+
+import haven.*;
+import java.util.*;
+import java.lang.ref.*;
+
+/* Fills inventories with items of a few kinds, each with raw info
+ * made up of resource-coded tooltips and plain strings, out of
+ * resources made up in memory, and builds the info of every item.
+ * Does so once building every list per item, as before, and once
+ * through the shared info cache, and reports the time taken and the
+ * lists built. Checks that items differing only in sprite data get
+ * lists of their own, that infos asking for their item are never
+ * shared, and that shared lists keep neither items nor their session
+ * alive. */
+public class InventoryBench {
+    public static class Wear implements ItemInfo.InfoFactory {
+	public ItemInfo build(ItemInfo.Owner owner, ItemInfo.Raw raw, Object... args) {
+	    return(new ItemInfo.AdHoc(owner, String.format("Wear: %d/%d", (Integer)args[1], (Integer)args[2])));
+	}
+    }
+
+    public static class Quality implements ItemInfo.InfoFactory {
+	public ItemInfo build(ItemInfo.Owner owner, ItemInfo.Raw raw, Object... args) {
+	    return(new ItemInfo.AdHoc(owner, String.format("Quality: %.1f", ((Number)args[1]).doubleValue())));
+	}
+    }
+
+    /* Like study infos, depends on the item it is for. */
+    public static class Study implements ItemInfo.InfoFactory {
+	public ItemInfo build(ItemInfo.Owner owner, ItemInfo.Raw raw, Object... args) {
+	    GItem item = owner.fcontext(GItem.class, false);
+	    return(new ItemInfo.AdHoc(owner, String.format("Studied: %d%%", (item == null) ? 0 : item.meter)));
+	}
+    }
+
+    static MessageBuf tooltip(String text) {
+	MessageBuf buf = new MessageBuf();
+	buf.addbytes(text.getBytes(Utils.utf8));
+	return(buf);
+    }
+
+    static MessageBuf codeentry(Class<?> cl) {
+	MessageBuf buf = new MessageBuf();
+	buf.adduint8(1);
+	buf.addstring("tt");
+	buf.addstring(cl.getName());
+	buf.addstring("");
+	buf.addstring("");
+	return(buf);
+    }
+
+    public static class Item extends GItem {
+	private final Resource.Resolver rr;
+
+	public Item(Resource.Resolver rr, Indir<Resource> res, byte[] sdt) {
+	    super(res, new MessageBuf(sdt));
+	    this.rr = rr;
+	}
+
+	public <T> T context(Class<T> cl) {
+	    if(cl == Resource.Resolver.class)
+		return(cl.cast(rr));
+	    return(super.context(cl));
+	}
+    }
+
+    static boolean studied(int kind) {
+	return((kind % 16) == 9);
+    }
+
+    static long heap() {
+	Runtime rt = Runtime.getRuntime();
+	for(int i = 0; i < 4; i++)
+	    System.gc();
+	return(rt.totalMemory() - rt.freeMemory());
+    }
+
+    public static void main(String[] args) {
+	int nitems = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+	int nopen = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+	Config.cmdline(new String[0]);
+	CompositeBench.MemSource src = new CompositeBench.MemSource();
+	for(int i = 0; i < 16; i++)
+	    src.put("bench/item" + i, "tooltip", tooltip("Item " + i));
+	/* Stand-ins for the local resources item infos refer to. */
+	for(String nm : new String[] {"ahard", "asoft", "detect", "sneak", "mine"})
+	    src.put("gfx/hud/chr/custom/" + nm);
+	Resource.local().add(src);
+	src.put("bench/tt/wear", "codeentry", codeentry(Wear.class));
+	src.put("bench/tt/q", "codeentry", codeentry(Quality.class));
+	src.put("bench/tt/study", "codeentry", codeentry(Study.class));
+	Resource.Pool pool = new Resource.Pool(src);
+	Map<Integer, Indir<Resource>> ids = new HashMap<>();
+	ids.put(1, pool.loadwait("bench/tt/wear").indir());
+	ids.put(2, pool.loadwait("bench/tt/q").indir());
+	ids.put(3, pool.loadwait("bench/tt/study").indir());
+	Resource.Resolver rr = ids::get;
+
+	/* Items of a kind share resource, sprite data and raw info,
+	 * save for the studied kinds, whose info depends on the
+	 * item. Kinds sixteen apart differ only in sprite data. */
+	int nkinds = 40, nstudy = 0;
+	List<Indir<Resource>> kres = new ArrayList<>();
+	byte[][] ksdt = new byte[nkinds][];
+	Object[][] kinfo = new Object[nkinds][];
+	for(int k = 0; k < nkinds; k++) {
+	    Random krnd = new Random(k % 16);
+	    kres.add(pool.loadwait("bench/item" + (k % 16)).indir());
+	    ksdt[k] = new byte[] {(byte)(k / 16)};
+	    List<Object> info = new ArrayList<>();
+	    info.add(new Object[] {1, krnd.nextInt(100), 100});
+	    info.add(new Object[] {2, krnd.nextInt(20) * 5.0});
+	    if(studied(k)) {
+		info.add(new Object[] {3});
+		nstudy++;
+	    }
+	    for(int i = 0; i < 3; i++)
+		info.add("Property " + krnd.nextInt(1000));
+	    kinfo[k] = info.toArray();
+	}
+	Random rnd = new Random(1);
+
+	/* Twice over, the first round warming the JIT up. */
+	for(boolean share : new boolean[] {false, true, false, true}) {
+	    ItemInfo.InfoCache.clear();
+	    ItemInfo.InfoCache.enabled = share;
+	    Set<List<ItemInfo>> lists = Collections.newSetFromMap(new IdentityHashMap<>());
+	    List<WeakReference<GItem>> gone = new ArrayList<>();
+	    long st = System.nanoTime();
+	    for(int o = 0; o < nopen; o++) {
+		List<GItem> inv = new ArrayList<>();
+		for(int i = 0; i < nitems; i++) {
+		    int k = rnd.nextInt(nkinds);
+		    GItem item = new Item(rr, kres.get(k), ksdt[k]);
+		    item.uimsg("tt", kinfo[k]);
+		    List<ItemInfo> info = item.info();
+		    lists.add(info);
+		    if(share && studied(k)) {
+			if(info instanceof ItemInfo.InfoCache.Shared)
+			    throw(new AssertionError("item-dependent info was shared"));
+			for(ItemInfo inf : info) {
+			    if(inf.owner != item)
+				throw(new AssertionError("item-dependent info owned by " + inf.owner));
+			}
+		    }
+		    inv.add(item);
+		}
+		if(o == 0) {
+		    for(GItem item : inv)
+			gone.add(new WeakReference<>(item));
+		}
+	    }
+	    double el = (System.nanoTime() - st) * 1e-6;
+	    System.out.printf("%s: %,d inventories of %,d items in %.1f ms, %,d info lists%n",
+			      share ? "shared" : "per item", nopen, nitems, el, lists.size());
+	    if(share) {
+		/* One list per kind, one per studied item. */
+		int nstudied = 0, nshared = 0;
+		for(List<ItemInfo> info : lists) {
+		    if(info instanceof ItemInfo.InfoCache.Shared) {
+			nshared++;
+			for(ItemInfo inf : info) {
+			    if(inf.owner instanceof GItem)
+				throw(new AssertionError("shared info owned by an item"));
+			}
+		    } else {
+			nstudied++;
+		    }
+		}
+		if(nshared != nkinds - nstudy)
+		    throw(new AssertionError(nshared + " shared lists for " + (nkinds - nstudy) + " kinds"));
+		System.out.printf("  %,d shared, %,d per item; %s%n", nshared, nstudied, ItemInfo.InfoCache.stats());
+		lists.clear();
+		heap();
+		int alive = 0;
+		for(WeakReference<GItem> ref : gone) {
+		    if(ref.get() != null)
+			alive++;
+		}
+		if(alive > 0)
+		    throw(new AssertionError(alive + " closed items kept alive"));
+	    }
+	}
+	/* A session logged out of must not be kept alive by the
+	 * lists built for it. */
+	ItemInfo.InfoCache.enabled = true;
+	Resource.Resolver orr = ids::get;
+	for(int k = 0; k < nkinds; k++) {
+	    GItem item = new Item(orr, kres.get(k), ksdt[k]);
+	    item.uimsg("tt", kinfo[k]);
+	    item.info();
+	}
+	WeakReference<Resource.Resolver> closed = new WeakReference<>(orr);
+	orr = null;
+	heap();
+	if(closed.get() != null)
+	    throw(new AssertionError("info cache keeps a closed session alive"));
+	ItemInfo.InfoCache.clear(null);
+	System.out.printf("closed session released; %s%n", ItemInfo.InfoCache.stats());
+    }
+}
@@ -0,0 +1,244 @@
+package haven.test;
+
+import haven.*;
+import haven.render.*;
+import haven.test.CompositeBench.MemSource;
+import haven.test.MapUpdateStress.MemStore;
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
+
+/* Builds the cuts of a synthetic grid laid with ground tilesets made
+ * up in memory, with transitions between them, and times building
+ * them against handing them out again from the memory tier and from
+ * the disk tier of MapMesh.Cache. Checks that cuts restored from
+ * disk have the same materials, vertices and indices as built ones,
+ * and that changed tiles or tileset versions are not taken for
+ * stored cuts. */
+public class MapMeshBench {
+    static final int nsets = 4;
+
+    static byte[] png(Random rnd) throws IOException {
+	BufferedImage img = new BufferedImage(32, 32, BufferedImage.TYPE_INT_ARGB);
+	for(int y = 0; y < 32; y++) {
+	    for(int x = 0; x < 32; x++)
+		img.setRGB(x, y, 0xff000000 | rnd.nextInt(0x1000000));
+	}
+	ByteArrayOutputStream buf = new ByteArrayOutputStream();
+	ImageIO.write(img, "PNG", buf);
+	return(buf.toByteArray());
+    }
+
+    static MessageBuf tile(char t, int id, byte[] img) {
+	MessageBuf buf = new MessageBuf();
+	buf.adduint8(t);
+	buf.adduint8(id);
+	buf.adduint16(1);
+	buf.addbytes(img);
+	return(buf);
+    }
+
+    /* A ground tileset of two tiles, with border and corner
+     * transitions of every shape. */
+    static void tileset(MemSource src, String name, Random rnd) throws IOException {
+	List<Object> layers = new ArrayList<>();
+	layers.add("tileset2");
+	layers.add(new MessageBuf());
+	for(int i = 0; i < 2; i++) {
+	    layers.add("tile");
+	    layers.add(tile('g', 0, png(rnd)));
+	}
+	for(char t : new char[] {'b', 'c'}) {
+	    for(int id = 1; id <= 15; id++) {
+		layers.add("tile");
+		layers.add(tile(t, id, png(rnd)));
+	    }
+	}
+	src.put(name, layers.toArray());
+    }
+
+    static void fill(MCache map, Coord gc, long id, Random rnd) {
+	MessageBuf buf = new MessageBuf();
+	buf.addcoord(gc);
+	buf.adduint8(1);
+	MessageBuf m = new MessageBuf();
+	m.addint64(id);
+	layer(buf, "m", m);
+	MessageBuf t = new MessageBuf();
+	for(int i = 0; i < nsets; i++) {
+	    t.adduint8(i);
+	    t.addstring("bench/tiles/t" + i);
+	    t.adduint16(1);
+	}
+	t.adduint8(255);
+	Coord ul = gc.mul(MCache.cmaps);
+	for(int y = 0; y < MCache.cmaps.y; y++) {
+	    for(int x = 0; x < MCache.cmaps.x; x++) {
+		Coord tc = ul.add(x, y);
+		t.adduint8(Math.floorMod(((tc.x >> 3) * 31) + ((tc.y >> 3) * 17), nsets));
+	    }
+	}
+	layer(buf, "t", t);
+	MessageBuf h = new MessageBuf();
+	h.adduint8(3);
+	for(int y = 0; y < MCache.cmaps.y; y++) {
+	    for(int x = 0; x < MCache.cmaps.x; x++)
+		h.addfloat32((float)(Math.sin((ul.x + x) * 0.1) * Math.cos((ul.y + y) * 0.07) * 5) + (rnd.nextFloat() * 0.2f));
+	}
+	layer(buf, "h", h);
+	map.request(gc);
+	map.mapdata2(new MessageBuf(buf.fin()));
+    }
+
+    static void layer(MessageBuf buf, String name, MessageBuf data) {
+	byte[] bd = data.fin();
+	buf.addstring(name);
+	buf.adduint8(0x80);
+	buf.addint32(bd.length);
+	buf.addbytes(bd);
+    }
+
+    /* As MCache.Grid.Cut seeds its builds. */
+    static Random rnd(long id, Coord cc) {
+	Random rnd = new Random(id);
+	rnd.setSeed(rnd.nextInt() ^ cc.x);
+	rnd.setSeed(rnd.nextInt() ^ cc.y);
+	return(rnd);
+    }
+
+    static final long gridid = 1;
+    static List<MapMesh> getall(MapMesh.Cache cache, MCache map) {
+	List<MapMesh> ret = new ArrayList<>();
+	for(int y = 0; y < MCache.cutn.y; y++) {
+	    for(int x = 0; x < MCache.cutn.x; x++) {
+		Coord cc = Coord.of(x, y);
+		ret.add(cache.get(map, gridid, rnd(gridid, cc), cc.mul(MCache.cutsz), MCache.cutsz));
+	    }
+	}
+	return(ret);
+    }
+
+    static void releaseall(MapMesh.Cache cache, List<MapMesh> meshes) {
+	for(MapMesh mesh : meshes)
+	    cache.release(mesh);
+    }
+
+    static double time(Runnable task) {
+	long st = System.nanoTime();
+	task.run();
+	return((System.nanoTime() - st) * 1e-6);
+    }
+
+    /* Whole buffers, whatever their positions. */
+    static boolean equals(FloatBuffer a, FloatBuffer b) {
+	if(a.capacity() != b.capacity())
+	    return(false);
+	for(int i = 0; i < a.capacity(); i++) {
+	    if(Float.floatToIntBits(a.get(i)) != Float.floatToIntBits(b.get(i)))
+		return(false);
+	}
+	return(true);
+    }
+
+    static boolean equals(ShortBuffer a, ShortBuffer b) {
+	if(a.capacity() != b.capacity())
+	    return(false);
+	for(int i = 0; i < a.capacity(); i++) {
+	    if(a.get(i) != b.get(i))
+		return(false);
+	}
+	return(true);
+    }
+
+    static void compare(MapMesh a, MapMesh b) {
+	if(a.parts().size() != b.parts().size())
+	    throw(new AssertionError(b + ": " + b.parts().size() + " parts restored for " + a.parts().size() + " built"));
+	for(int i = 0; i < a.parts().size(); i++) {
+	    NodeWrap.Wrapping pa = (NodeWrap.Wrapping)a.parts().get(i), pb = (NodeWrap.Wrapping)b.parts().get(i);
+	    if(!pa.wrap().equals(pb.wrap()))
+		throw(new AssertionError(b + ": material of part " + i + " differs"));
+	    FastMesh ma = (FastMesh)pa.wrapped(), mb = (FastMesh)pb.wrapped();
+	    if(!equals(ma.indb, mb.indb) || (ma.vert.bufs.length != mb.vert.bufs.length))
+		throw(new AssertionError(b + ": indices or arrays of part " + i + " differ"));
+	    for(int o = 0; o < ma.vert.bufs.length; o++) {
+		FloatBuffer da = ((VertexBuf.FloatData)ma.vert.bufs[o]).data, db = ((VertexBuf.FloatData)mb.vert.bufs[o]).data;
+		if((ma.vert.bufs[o].getClass() != mb.vert.bufs[o].getClass()) || !equals(da, db))
+		    throw(new AssertionError(b + ": vertex array " + o + " of part " + i + " differs"));
+	    }
+	}
+    }
+
+    public static void main(String[] args) throws Exception {
+	Config.cmdline(new String[0]);
+	Random rnd = new Random(1);
+	MemSource src = new MemSource();
+	for(int i = 0; i < nsets; i++)
+	    tileset(src, "bench/tiles/t" + i, rnd);
+	Resource.Pool pool = new Resource.Pool(src);
+	MCache map = new MCache(null);
+	for(int y = -1; y <= 1; y++) {
+	    for(int x = -1; x <= 1; x++)
+		fill(map, Coord.of(x, y), (x == 0) && (y == 0) ? gridid : 100 + (x * 3) + y, rnd);
+	}
+	for(int i = 0; i < nsets; i++) {
+	    pool.loadwait("bench/tiles/t" + i, 1);
+	    map.nsets[i] = new Resource.Spec(pool, "bench/tiles/t" + i, 1);
+	}
+	int ncuts = MCache.cutn.x * MCache.cutn.y;
+
+	MemStore store = new MemStore();
+	List<MapMesh> built = null, restored = null;
+	/* Several times over, the first rounds warming the JIT up. */
+	for(int round = 0; round < 5; round++) {
+	    MapMesh.Cache plain = new MapMesh.Cache(0);
+	    List<List<MapMesh>> res = new ArrayList<>();
+	    double tbuild = time(() -> res.add(getall(plain, map)));
+	    built = res.get(0);
+
+	    MapMesh.Cache mem = new MapMesh.Cache(ncuts);
+	    releaseall(mem, getall(mem, map));
+	    double tmem = time(() -> releaseall(mem, getall(mem, map)));
+
+	    store.files.clear();
+	    MapMesh.Cache writer = new MapMesh.Cache(0, store);
+	    double tstore = time(() -> releaseall(writer, getall(writer, map)));
+	    MapMesh.Cache reader = new MapMesh.Cache(0, store);
+	    res.clear();
+	    double tdisk = time(() -> res.add(getall(reader, map)));
+	    restored = res.get(0);
+	    if(round == 4) {
+		long bytes = 0;
+		for(byte[] data : store.files.values())
+		    bytes += data.length;
+		System.out.printf("build: %.2f ms per cut%n", tbuild / ncuts);
+		System.out.printf("build and store: %.2f ms per cut, %,d bytes stored per cut%n", tstore / ncuts, bytes / Math.max(store.files.size(), 1));
+		System.out.printf("memory hit: %.3f ms per cut%n", tmem / ncuts);
+		System.out.printf("disk hit: %.2f ms per cut%n", tdisk / ncuts);
+		System.out.println(MapMesh.Cache.stats());
+	    }
+	    for(int i = 0; i < ncuts; i++)
+		compare(built.get(i), restored.get(i));
+	    if(store.files.size() != ncuts)
+		throw(new AssertionError(store.files.size() + " cuts stored of " + ncuts));
+	    releaseall(reader, restored);
+	    releaseall(plain, built);
+	}
+
+	/* Neither another version of a tileset nor changed tiles may
+	 * be taken for what was stored. */
+	String name = new MapMesh.Cache.Key(map, gridid, Coord.z, MCache.cutsz).name();
+	map.nsets[0] = new Resource.Spec(pool, "bench/tiles/t0", 2);
+	if(new MapMesh.Cache.Key(map, gridid, Coord.z, MCache.cutsz).name().equals(name))
+	    throw(new AssertionError("cuts of another tileset version stored under the same name"));
+	map.nsets[0] = new Resource.Spec(pool, "bench/tiles/t0", 1);
+	MapMesh.Cache reader = new MapMesh.Cache(0, store);
+	int stored = store.files.size();
+	MCache.Grid g = map.getgrid(Coord.z);
+	g.tiles[0] = (g.tiles[0] + 1) % nsets;
+	releaseall(reader, getall(reader, map));
+	if(store.files.size() != stored + 1)
+	    throw(new AssertionError((store.files.size() - stored) + " cuts stored anew after changing one tile"));
+    }
+}
@@ -0,0 +1,212 @@
+package haven.test;
+
+import haven.*;
+import haven.MapFile.DataGrid;
+import haven.MapFile.Segment;
+import java.util.*;
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/* Explores a map of synthetic grids into a MapFile kept in a store
+ * slower than the updates coming in, and then updates single grids
+ * at random, while another thread keeps reading them back both from
+ * their segment and through Grid.load, as minimap rendering does. A
+ * grid once seen in its segment must never load as an older version,
+ * not even between the update releasing the map lock and its save
+ * being queued, and every grid must be stored as last updated once
+ * the writes have been flushed. */
+public class MapUpdateStress {
+    /* A ResCache in memory, taking the given time for every file
+     * written. */
+    public static class MemStore implements ResCache {
+	public final Map<String, byte[]> files = new ConcurrentHashMap<>();
+	public final long delay;
+
+	public MemStore(long delay) {
+	    this.delay = delay;
+	}
+
+	public MemStore() {
+	    this(0);
+	}
+
+	public OutputStream store(String name) {
+	    return(new ByteArrayOutputStream() {
+		    public void close() {
+			if(delay > 0)
+			    LockSupport.parkNanos(delay);
+			files.put(name, toByteArray());
+		    }
+		});
+	}
+
+	public InputStream fetch(String name) throws IOException {
+	    byte[] data = files.get(name);
+	    if(data == null)
+		throw(new FileNotFoundException(name));
+	    return(new ByteArrayInputStream(data));
+	}
+    }
+
+    /* Grids as the server would send them, with tilesets made up in
+     * memory, laid out in regions of the same tile. The height of
+     * the first tile of every grid is its sequence number, so that
+     * versions can be told apart once saved. */
+    public static class World {
+	public final MCache map = new MCache(null);
+	public final Map<Coord, MCache.Grid> grids = new HashMap<>();
+	public final int nsets;
+	private final Random rnd;
+	private long nextid = 1;
+
+	public World(Random rnd, int nsets) {
+	    this.rnd = rnd;
+	    this.nsets = nsets;
+	    CompositeBench.MemSource src = new CompositeBench.MemSource();
+	    for(int i = 0; i < nsets; i++)
+		src.put("bench/tiles/t" + i, "tileset2", new MessageBuf());
+	    Resource.Pool pool = new Resource.Pool(src);
+	    for(int i = 0; i < nsets; i++)
+		map.nsets[i] = new Resource.Spec(pool, "bench/tiles/t" + i, 1);
+	}
+
+	public MCache.Grid grid(Coord gc) {
+	    MCache.Grid g = grids.get(gc);
+	    if(g == null) {
+		g = map.new Grid(gc);
+		g.id = nextid++;
+		g.seq = 0;
+		for(int y = 0, i = 0; y < MCache.cmaps.y; y++) {
+		    for(int x = 0; x < MCache.cmaps.x; x++, i++) {
+			Coord tc = g.ul.add(x, y);
+			g.tiles[i] = Math.floorMod(((tc.x >> 4) * 31) + ((tc.y >> 4) * 17), nsets);
+			/* Heights the map file stores exactly. */
+			g.z[i] = rnd.nextInt(64) * 0.25f;
+		    }
+		}
+		g.z[0] = g.seq;
+		@SuppressWarnings({"unchecked", "rawtypes"}) Indir<Resource>[] ols = new Indir[0];
+		g.ols = ols;
+		g.ol = new boolean[0][];
+		grids.put(gc, g);
+	    }
+	    return(g);
+	}
+
+	/* Lays a patch of some other tile somewhere on the grid. */
+	public void touch(MCache.Grid g) {
+	    int t = rnd.nextInt(nsets);
+	    Coord ul = Coord.of(rnd.nextInt(MCache.cmaps.x - 10), rnd.nextInt(MCache.cmaps.y - 10));
+	    for(int y = 0; y < 10; y++) {
+		for(int x = 0; x < 10; x++)
+		    g.tiles[(ul.x + x) + ((ul.y + y) * MCache.cmaps.x)] = t;
+	    }
+	    g.seq++;
+	    g.z[0] = g.seq;
+	}
+
+	public static int version(DataGrid g) {
+	    return((g == null) ? -1 : (int)g.zmap[0]);
+	}
+
+	public List<MCache.Grid> view(Coord gc) {
+	    List<MCache.Grid> ret = new ArrayList<>();
+	    for(int y = -1; y <= 1; y++) {
+		for(int x = -1; x <= 1; x++)
+		    ret.add(grid(gc.add(x, y)));
+	    }
+	    return(ret);
+	}
+
+	public MCache.Grid random() {
+	    List<MCache.Grid> all = new ArrayList<>(grids.values());
+	    return(all.get(rnd.nextInt(all.size())));
+	}
+
+	public Segment segment(MapFile file, MCache.Grid g) {
+	    file.lock.readLock().lock();
+	    try {
+		return(file.segments.get(file.gridinfo.get(g.id).seg));
+	    } finally {
+		file.lock.readLock().unlock();
+	    }
+	}
+
+	/* Walks the given rows back and forth, in views overlapping
+	 * one another and whatever has been seen, as the client would
+	 * keep to one segment. */
+	public void explore(MapFile file, int x0, int x1, int y0, int y1) throws InterruptedException {
+	    for(int y = y0; y < y1; y += 2) {
+		for(int i = x0; i < x1; i += 2) {
+		    int x = (((y - y0) / 2) % 2 == 0) ? i : (x1 - 1 - (i - x0));
+		    file.update(map, view(Coord.of(x, y)));
+		    file.sync();
+		}
+	    }
+	}
+    }
+
+    public static void main(String[] args) throws Exception {
+	int nupd = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+	int size = (args.length > 1) ? Integer.parseInt(args[1]) : 24;
+	Config.cmdline(new String[0]);
+	World world = new World(new Random(1), 8);
+	/* Slow enough for the write queue to fill up. */
+	MapFile file = new MapFile(new MemStore(200000), "");
+	world.explore(file, 0, size, 0, size);
+	file.flush();
+	Segment seg = world.segment(file, world.grid(Coord.z));
+	List<MCache.Grid> all = new ArrayList<>(world.grids.values());
+	for(MCache.Grid g : all) {
+	    if(world.segment(file, g) != seg)
+		throw(new AssertionError("grid " + g.gc + " not in the explored segment"));
+	}
+
+	AtomicBoolean done = new AtomicBoolean(false);
+	long[] reads = {0}, stale = {0};
+	Thread reader = new Thread(() -> {
+		Random rnd = new Random(2);
+		/* Held on to, so that the segment keeps them current. */
+		Map<Long, Indir<MapFile.Grid>> held = new HashMap<>();
+		while(!done.get()) {
+		    MCache.Grid g = all.get(rnd.nextInt(all.size()));
+		    int seen;
+		    file.lock.readLock().lock();
+		    try {
+			seen = World.version(Loading.waitfor(held.computeIfAbsent(g.id, id -> seg.grid(id))));
+		    } finally {
+			file.lock.readLock().unlock();
+		    }
+		    if(World.version(MapFile.Grid.load(file, g.id)) < seen)
+			stale[0]++;
+		    reads[0]++;
+		}
+	    }, "Stress reader");
+	reader.start();
+	Random rnd = new Random(3);
+	long st = System.nanoTime();
+	for(int i = 0; i < nupd; i++) {
+	    MCache.Grid g = all.get(rnd.nextInt(all.size()));
+	    world.touch(g);
+	    file.update(world.map, Collections.singletonList(g));
+	}
+	double el = (System.nanoTime() - st) * 1e-6;
+	done.set(true);
+	reader.join();
+	file.sync();
+	file.flush();
+	int lost = 0;
+	for(MCache.Grid g : all) {
+	    if(World.version(MapFile.Grid.load(file, g.id)) != g.seq)
+		lost++;
+	}
+	System.out.printf("%,d updates of %,d grids in %.1f ms, %,d reads alongside, %d stale; %s%n",
+			  nupd, all.size(), el, reads[0], stale[0], file.stats());
+	if(stale[0] > 0)
+	    throw(new AssertionError(stale[0] + " grids loaded older than seen in their segment"));
+	if(lost > 0)
+	    throw(new AssertionError(lost + " grids not stored as last updated"));
+    }
+}
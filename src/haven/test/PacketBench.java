@@ -0,0 +1,234 @@
+package haven.test;
+
+import haven.*;
+import java.util.*;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+
+/* Replays a session recording (as written by Connection.Recorder)
+ * through the decoding of OBJDATA and MAPDATA datagrams, and reports
+ * time and allocation per datagram of each type. Each datagram is
+ * decoded both through a single reused cursor over the receive
+ * buffer, as Connection does, and through a copy of its own, as was
+ * done before. Without a recording given, one is synthesized from
+ * object deltas and fragmented grids and recorded through
+ * Connection.Recorder first. Checks that both ways decode the same
+ * deltas and fill every grid. */
+public class PacketBench {
+    static class Stats {
+	int n;
+	long ns, bytes;
+    }
+
+    static class Counter {
+	long deltas, attrs, abytes;
+
+	void add(OCache.ObjDelta delta) {
+	    deltas++;
+	    for(OCache.AttrDelta attr : delta.attrs) {
+		attrs++;
+		abytes += attr.rt - attr.rh;
+	    }
+	}
+    }
+
+    /* Fills every grid it is sent, as though requested. */
+    static class Map extends MCache {
+	int filled;
+
+	Map() {super(null);}
+
+	public void mapdata2(Message msg) {
+	    int rh = msg.rh;
+	    request(msg.coord());
+	    msg.rh = rh;
+	    super.mapdata2(msg);
+	    filled++;
+	}
+    }
+
+    static final com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    static long alloc() {
+	return(mx.getThreadAllocatedBytes(Thread.currentThread().getId()));
+    }
+
+    static byte[] objdata(Random rnd, int[] frame) {
+	MessageBuf buf = new MessageBuf();
+	for(int n = 5 + rnd.nextInt(20); n > 0; n--) {
+	    buf.adduint8(0);
+	    buf.adduint32(1 + rnd.nextInt(5000));
+	    buf.addint32(frame[0]++);
+	    for(int a = 1 + rnd.nextInt(4); a > 0; a--) {
+		if(rnd.nextBoolean()) {
+		    int len = 2 + rnd.nextInt(15);
+		    buf.adduint8(((len - 1) << 3) | (1 + rnd.nextInt(7)));
+		    buf.addbytes(bytes(rnd, len));
+		} else {
+		    int len = 2 + rnd.nextInt(40);
+		    buf.adduint8(0x80 | (1 + rnd.nextInt(30)));
+		    buf.adduint8(len);
+		    buf.addbytes(bytes(rnd, len));
+		}
+	    }
+	    buf.adduint8(OCache.OD_END);
+	}
+	return(buf.fin());
+    }
+
+    static byte[] bytes(Random rnd, int len) {
+	byte[] ret = new byte[len];
+	rnd.nextBytes(ret);
+	return(ret);
+    }
+
+    static void layer(MessageBuf buf, String name, byte[] data) {
+	buf.addstring(name);
+	buf.adduint8(0x80);
+	buf.addint32(data.length);
+	buf.addbytes(data);
+    }
+
+    static byte[] grid(Random rnd, Coord gc, long id) {
+	MessageBuf sub = new MessageBuf();
+	MessageBuf m = new MessageBuf();
+	m.addint64(id);
+	layer(sub, "m", m.fin());
+	MessageBuf t = new MessageBuf();
+	int nsets = 8;
+	for(int i = 0; i < nsets; i++) {
+	    t.adduint16(i);
+	    t.adduint16(i);
+	    t.addstring("gfx/tiles/bench" + i);
+	    t.adduint16(1);
+	}
+	t.adduint16(65535);
+	for(int i = 0, c = 0; i < MCache.cmaps.x * MCache.cmaps.y; i++) {
+	    if(rnd.nextInt(10) == 0)
+		c = rnd.nextInt(nsets);
+	    t.adduint8(c);
+	}
+	layer(sub, "t2", t.fin());
+	MessageBuf h = new MessageBuf();
+	h.adduint8(2);
+	h.addfloat32(0);
+	h.addfloat32(0.01f);
+	for(int y = 0; y < MCache.cmaps.y; y++) {
+	    for(int x = 0; x < MCache.cmaps.x; x++)
+		h.adduint16((int)(2000 + 1000 * Math.sin(x * 0.1) * Math.cos(y * 0.07)) + rnd.nextInt(8));
+	}
+	layer(sub, "h", h.fin());
+	MessageBuf z = new MessageBuf();
+	ZMessage zc = new ZMessage(z);
+	zc.addbytes(sub.fin());
+	zc.finish();
+	MessageBuf buf = new MessageBuf();
+	buf.addcoord(gc);
+	buf.adduint8(1);
+	layer(buf, "z", z.fin());
+	return(buf.fin());
+    }
+
+    static File synthesize(int nobj, int ngrids) throws IOException {
+	File file = File.createTempFile("packets", ".rec");
+	file.deleteOnExit();
+	Random rnd = new Random(1);
+	Connection.Recorder rec = new Connection.Recorder(file);
+	double time = 0;
+	int[] frame = {0};
+	int pktid = 0;
+	for(int g = 0, o = 0; (g < ngrids) || (o < nobj); time += 0.001) {
+	    if((g < ngrids) && ((o >= nobj) || (rnd.nextInt(nobj / ngrids + 1) == 0))) {
+		byte[] data = grid(rnd, Coord.of(g % 10, g / 10), g + 1);
+		for(int off = 0; off < data.length; off += 1000) {
+		    int len = Math.min(data.length - off, 1000);
+		    MessageBuf buf = new MessageBuf();
+		    buf.addint32(pktid);
+		    buf.adduint16(off);
+		    buf.adduint16(data.length);
+		    buf.addbytes(data, off, len);
+		    byte[] pkt = buf.fin();
+		    rec.recv(time, Session.MSG_MAPDATA, pkt, 0, pkt.length);
+		}
+		pktid++;
+		g++;
+	    } else {
+		byte[] pkt = objdata(rnd, frame);
+		rec.recv(time, Session.MSG_OBJDATA, pkt, 0, pkt.length);
+		o++;
+	    }
+	}
+	rec.close();
+	return(file);
+    }
+
+    static Stats[] replay(List<ReplayServer.Record> recs, boolean cursor, Counter cnt, Map map) {
+	Stats obj = new Stats(), mapd = new Stats();
+	/* As received, a datagram following its type byte. */
+	byte[] raw = new byte[65536];
+	MessageBuf cur = new PMessage(0);
+	for(ReplayServer.Record rec : recs) {
+	    Stats st;
+	    if(rec.type == Session.MSG_OBJDATA)
+		st = obj;
+	    else if(rec.type == Session.MSG_MAPDATA)
+		st = mapd;
+	    else
+		continue;
+	    System.arraycopy(rec.data, 0, raw, 1, rec.data.length);
+	    long a = alloc(), t = System.nanoTime();
+	    Message msg;
+	    if(cursor)
+		msg = cur.reset(raw, 1, rec.data.length);
+	    else
+		msg = new PMessage(rec.type, Arrays.copyOfRange(raw, 1, 1 + rec.data.length));
+	    if(rec.type == Session.MSG_OBJDATA)
+		Connection.objdata(msg, cnt::add);
+	    else
+		map.mapdata(msg);
+	    st.ns += System.nanoTime() - t;
+	    st.bytes += alloc() - a;
+	    st.n++;
+	}
+	return(new Stats[] {obj, mapd});
+    }
+
+    static void report(String mode, String type, Stats st) {
+	if(st.n == 0)
+	    return;
+	System.out.printf("%s %s: %,d datagrams, %,.0f ns/datagram, %,.0f bytes/datagram%n", mode, type, st.n, (double)st.ns / st.n, (double)st.bytes / st.n);
+    }
+
+    public static void main(String[] args) throws Exception {
+	Config.cmdline(new String[0]);
+	File file = (args.length > 0) ? new File(args[0]) : synthesize(5000, 40);
+	List<ReplayServer.Record> recs = ReplayServer.load(file);
+	Counter[] cnt = new Counter[2];
+	Stats[][] res = new Stats[2][];
+	int[] filled = new int[2];
+	/* Twice over, the first round warming the JIT up. */
+	for(int round = 0; round < 2; round++) {
+	    for(int mode = 0; mode < 2; mode++) {
+		Map map = new Map();
+		cnt[mode] = new Counter();
+		res[mode] = replay(recs, mode == 1, cnt[mode], map);
+		filled[mode] = map.filled;
+	    }
+	}
+	String[] modes = {"copied", "cursor"};
+	for(int mode = 0; mode < 2; mode++) {
+	    report(modes[mode], "OBJDATA", res[mode][0]);
+	    report(modes[mode], "MAPDATA", res[mode][1]);
+	    System.out.printf("%s: %,d deltas, %,d attributes, %d grids filled%n", modes[mode], cnt[mode].deltas, cnt[mode].attrs, filled[mode]);
+	}
+	if((cnt[0].deltas != cnt[1].deltas) || (cnt[0].attrs != cnt[1].attrs) || (cnt[0].abytes != cnt[1].abytes))
+	    throw(new AssertionError("cursor and copy decode differently"));
+	if(filled[0] != filled[1])
+	    throw(new AssertionError(filled[0] + " grids filled from copies, " + filled[1] + " through the cursor"));
+	if((args.length == 0) && ((filled[1] != 40) || (cnt[1].deltas == 0)))
+	    throw(new AssertionError(filled[1] + " grids filled, " + cnt[1].deltas + " deltas decoded"));
+	for(int i = 0; i < 2; i++) {
+	    if((res[1][i].n > 0) && (res[1][i].bytes > res[0][i].bytes))
+		throw(new AssertionError("decoding through the cursor allocates more than copying"));
+	}
+    }
+}
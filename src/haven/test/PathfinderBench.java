@@ -0,0 +1,211 @@
+package haven.test;
+
+import haven.*;
+import java.util.*;
+
+import static haven.MCache.cmaps;
+import static haven.MCache.tilesz;
+
+/* Finds paths across a synthetic map of lakes and walls of deep
+ * water, strewn with boxes standing in for trees and boulders, and
+ * reports the latency of queries over short, medium and long
+ * distances, of queries whose goal cannot be reached, and the cost
+ * of updating the navigation grid when map grids change and gobs
+ * move. Checks that goals cut off by water are never reached. */
+public class PathfinderBench {
+    /* Map grids made up on request rather than sent by a server. */
+    public static class Terrain extends MCache {
+	public final Map<Coord, Grid> made = new HashMap<>();
+	public final List<int[]> lakes = new ArrayList<>(), walls = new ArrayList<>();
+	private long nextid = 1;
+
+	public Terrain(Random rnd, int size, int nlakes, int nwalls) {
+	    super(null);
+	    nsets[0] = new Resource.Spec(null, "gfx/tiles/grass");
+	    nsets[1] = new Resource.Spec(null, "gfx/tiles/deep");
+	    for(int i = 0; i < nlakes; i++)
+		lakes.add(new int[] {rnd.nextInt(size), rnd.nextInt(size), 3 + rnd.nextInt(12)});
+	    /* Walls with a gap somewhere along them. */
+	    for(int i = 0; i < nwalls; i++) {
+		int len = 20 + rnd.nextInt(60);
+		walls.add(new int[] {rnd.nextInt(size), rnd.nextInt(size), len, rnd.nextInt(2), rnd.nextInt(len - 4)});
+	    }
+	}
+
+	public boolean deep(int x, int y) {
+	    for(int[] l : lakes) {
+		int dx = x - l[0], dy = y - l[1];
+		if((dx * dx) + (dy * dy) < l[2] * l[2])
+		    return(true);
+	    }
+	    for(int[] w : walls) {
+		int along = (w[3] == 0) ? (x - w[0]) : (y - w[1]);
+		int across = (w[3] == 0) ? (y - w[1]) : (x - w[0]);
+		if((across == 0) && (along >= 0) && (along < w[2]) && ((along < w[4]) || (along >= w[4] + 3)))
+		    return(true);
+	    }
+	    return(false);
+	}
+
+	public Grid getgrid(Coord gc) {
+	    synchronized(made) {
+		Grid g = made.get(gc);
+		if(g == null) {
+		    g = new Grid(gc);
+		    g.id = nextid++;
+		    for(int y = 0, i = 0; y < cmaps.y; y++) {
+			for(int x = 0; x < cmaps.x; x++, i++)
+			    g.tiles[i] = deep(g.ul.x + x, g.ul.y + y) ? 1 : 0;
+		    }
+		    made.put(gc, g);
+		}
+		return(g);
+	    }
+	}
+
+	public void set(Coord tc, int t) {
+	    Grid g = getgridt(tc);
+	    g.tiles[(tc.x - g.ul.x) + ((tc.y - g.ul.y) * cmaps.x)] = t;
+	    g.seq++;
+	}
+
+	/* Changes a patch of the grid, as a newer version of it from
+	 * the server would. */
+	public void touch(Grid g, Random rnd) {
+	    Coord ul = Coord.of(rnd.nextInt(cmaps.x - 4), rnd.nextInt(cmaps.y - 4));
+	    for(int y = 0; y < 4; y++) {
+		for(int x = 0; x < 4; x++)
+		    g.tiles[(ul.x + x) + ((ul.y + y) * cmaps.x)] ^= 1;
+	    }
+	    g.seq++;
+	}
+    }
+
+    /* Takes every gob for a box of its own size. */
+    public static class Boxes extends Pathfinder {
+	public final Map<Gob, Double> sizes = new HashMap<>();
+
+	public Boxes(MCache map, Iterable<Gob> gobs) {
+	    super(map, gobs);
+	}
+
+	protected List<Coord2d[]> polygons(Gob gob) {
+	    double r = sizes.get(gob);
+	    return(Collections.singletonList(new Coord2d[] {
+			Coord2d.of(-r, -r), Coord2d.of(r, -r), Coord2d.of(r, r), Coord2d.of(-r, r),
+		    }));
+	}
+
+	protected boolean obstacle(Gob gob, Gob self) {
+	    return(gob != self);
+	}
+    }
+
+    static Coord2d free(Terrain map, Random rnd, Coord2d near, double dist) {
+	while(true) {
+	    double a = rnd.nextDouble() * Math.PI * 2;
+	    Coord2d c = near.add(Coord2d.sc(a, dist * tilesz.x));
+	    Coord tc = c.floor(tilesz);
+	    if(!map.deep(tc.x, tc.y))
+		return(c);
+	}
+    }
+
+    public static void main(String[] args) {
+	int size = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+	int nq = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+	Config.cmdline(new String[0]);
+	Random rnd = new Random(1);
+	Terrain map = new Terrain(rnd, size, size * size / 2000, size * size / 4000);
+	Glob glob = new Glob(null);
+	List<Gob> gobs = new ArrayList<>();
+	Boxes pf = new Boxes(map, gobs);
+	for(int i = 0; i < size * size / 50; i++) {
+	    Coord2d rc = Coord2d.of(rnd.nextDouble() * size, rnd.nextDouble() * size).mul(tilesz);
+	    Gob gob = new Gob(glob, rc, i + 1);
+	    gob.a = rnd.nextDouble() * Math.PI * 2;
+	    gobs.add(gob);
+	    pf.sizes.put(gob, 2 + (rnd.nextDouble() * 6));
+	}
+	Coord2d mid = Coord2d.of(size / 2, size / 2).mul(tilesz);
+	/* Load the map around the middle, as walking about would. */
+	pf.find(mid, free(map, rnd, mid, 200), null);
+
+	/* Twice over, the first round warming the JIT up. */
+	for(int round = 0; round < 2; round++) {
+	    for(double dist : new double[] {10, 40, 150}) {
+		double[] lat = new double[nq];
+		int found = 0, wp = 0;
+		for(int i = 0; i < nq; i++) {
+		    Coord2d from = free(map, rnd, mid, rnd.nextDouble() * 100);
+		    Coord2d to = free(map, rnd, from, dist);
+		    long st = System.nanoTime();
+		    List<Coord2d> path = pf.find(from, to, null);
+		    lat[i] = (System.nanoTime() - st) * 1e-6;
+		    if(path != null) {
+			found++;
+			wp += path.size();
+		    }
+		}
+		Arrays.sort(lat);
+		if(round > 0)
+		    System.out.printf("%3.0f tiles: %d of %d found, %.1f waypoints avg, %.2f ms median, %.2f ms 95th, %.2f ms max%n",
+				      dist, found, nq, (double)wp / Math.max(found, 1), lat[nq / 2], lat[nq * 95 / 100], lat[nq - 1]);
+	    }
+	}
+
+	/* Goals ringed in by water, searched for in vain. */
+	double[] lat = new double[20];
+	for(int i = 0; i < lat.length; i++) {
+	    Coord2d from = free(map, rnd, mid, rnd.nextDouble() * 100);
+	    Coord2d to = from.add(Coord2d.sc(rnd.nextDouble() * Math.PI * 2, 200 * tilesz.x));
+	    Coord tc = to.floor(tilesz);
+	    /* Deep water all around the goal, a ring wider than the
+	     * walker is, but the goal itself dry. */
+	    for(int y = -3; y <= 3; y++) {
+		for(int x = -3; x <= 3; x++)
+		    map.set(tc.add(x, y), ((Math.abs(x) <= 1) && (Math.abs(y) <= 1)) ? 0 : 1);
+	    }
+	    long st = System.nanoTime();
+	    if(pf.find(from, to, null) != null)
+		throw(new AssertionError("found a way through water"));
+	    lat[i] = (System.nanoTime() - st) * 1e-6;
+	}
+	Arrays.sort(lat);
+	System.out.printf("unreachable: %.2f ms median, %.2f ms max%n", lat[lat.length / 2], lat[lat.length - 1]);
+
+	/* Updates, timed as the difference to the same query made
+	 * again with nothing changed. */
+	Coord2d from = free(map, rnd, mid, 0), to = free(map, rnd, from, 100);
+	List<MCache.Grid> near = new ArrayList<>();
+	for(MCache.Grid g : map.made.values()) {
+	    if(g.ul.mul(tilesz).dist(mid) < 120 * tilesz.x)
+		near.add(g);
+	}
+	double gupd = 0, fupd = 0;
+	int nmoved = 0;
+	for(int i = 0; i < 20; i++) {
+	    pf.find(from, to, null);
+	    long st = System.nanoTime();
+	    pf.find(from, to, null);
+	    double base = System.nanoTime() - st;
+	    for(MCache.Grid g : near)
+		map.touch(g, rnd);
+	    st = System.nanoTime();
+	    pf.find(from, to, null);
+	    gupd += System.nanoTime() - st - base;
+	    for(Gob gob : gobs) {
+		if(gob.rc.dist(mid) < 120 * tilesz.x) {
+		    gob.rc = gob.rc.add(rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5);
+		    nmoved++;
+		}
+	    }
+	    st = System.nanoTime();
+	    pf.find(from, to, null);
+	    fupd += System.nanoTime() - st - base;
+	}
+	System.out.printf("updates: %.3f ms per map grid changed (%d at a time), %.4f ms per gob moved (%d at a time)%n",
+			  gupd * 1e-6 / (20 * near.size()), near.size(), fupd * 1e-6 / nmoved, nmoved / 20);
+	System.out.println(Pathfinder.stats());
+    }
+}
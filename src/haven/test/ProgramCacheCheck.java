@@ -0,0 +1,104 @@
+package haven.test;
+
+import haven.*;
+import haven.render.*;
+import haven.render.gl.*;
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+
+/* Renders a scene using a handful of different programs into a
+ * NullEnvironment with a ProgramCache in a temporary directory, and
+ * then does so again in new JVMs, once where the GL can load program
+ * binaries and once where it cannot. There, every program must be
+ * taken from the warmed cache, without any compiling after warming,
+ * and none at all with binaries. This also checks that the
+ * manifest's keys do not depend on anything that changes between
+ * sessions. */
+public class ProgramCacheCheck {
+    static void render(NullGL gl, NullEnvironment env, int nframes) {
+	Random rnd = new Random(1);
+	Area area = env.shape();
+	FastMesh[] meshes = new FastMesh[3];
+	for(int i = 0; i < meshes.length; i++)
+	    meshes[i] = StaticBatchBench.mkmesh(rnd, 16);
+	TexI tex = new TexI(new java.awt.image.BufferedImage(16, 16, java.awt.image.BufferedImage.TYPE_INT_ARGB));
+	Pipe.Op[] mats = {
+	    new BaseColor(1, 0, 0, 1),
+	    new MixColor(0, 1, 0, 1),
+	    Pipe.Op.compose(new BaseColor(0, 0, 1, 1), new MixColor(1, 1, 0, 1)),
+	    Pipe.Op.compose(new BaseColor(1, 1, 1, 1), new States.LineWidth(2)),
+	    tex.st(),
+	    Pipe.Op.compose(tex.st(), new MixColor(1, 0, 1, 1)),
+	};
+	Pipe.Op base = Pipe.Op.compose(new States.Viewport(area), Homo3D.state,
+				       Projection.frustum(-1, 1, -0.75f, 0.75f, 1, 5000),
+				       Camera.pointed(Coord3f.o, 500, (float)Math.PI / 4, 0),
+				       new FragColor<>(FragColor.defcolor), new DepthBuffer<>(DepthBuffer.defdepth),
+				       new States.Depthtest(States.Depthtest.Test.LE));
+	RenderTree tree = new RenderTree();
+	RenderTree.Slot root = tree.add((RenderTree.Node)null, base);
+	DrawList back = env.drawlist();
+	back.syncadd(tree, Rendered.class);
+	for(int i = 0; i < 100; i++)
+	    root.add(meshes[i % meshes.length], Pipe.Op.compose(mats[i % mats.length], Location.xlate(Coord3f.of(i * 10, 0, 0))));
+	for(int f = 0; f < nframes; f++) {
+	    tree.commit();
+	    GLRender g = env.render();
+	    back.draw(g);
+	    env.submit(g);
+	    env.process(gl);
+	}
+	back.dispose();
+    }
+
+    static void await(String what, java.util.function.BooleanSupplier cond) throws InterruptedException {
+	for(int i = 0; !cond.getAsBoolean(); i++) {
+	    if(i > 5000)
+		throw(new AssertionError("timed out waiting for " + what));
+	    Thread.sleep(1);
+	}
+    }
+
+    public static void main(String[] args) throws Exception {
+	Config.cmdline(new String[0]);
+	boolean second = args.length > 0;
+	Path dir = second ? Paths.get(args[0]) : Files.createTempDirectory("progcache");
+	boolean progbin = !second || args[1].equals("bin");
+	ProgramCache cache = new ProgramCache(dir, 512);
+	NullGL gl = new NullGL(progbin);
+	NullEnvironment env = new NullEnvironment(gl, Area.sized(Coord.z, new Coord(800, 600)), cache);
+	int compile = Arrays.asList(GLRecorder.calls).indexOf("glCompileShader(int)");
+	int load = Arrays.asList(GLRecorder.calls).indexOf("glProgramBinary(int,int,ByteBuffer,int)");
+	if(!second) {
+	    render(gl, env, 3);
+	    int nprogs = env.numprogs();
+	    await("binaries", () -> cache.binstored.get() >= nprogs);
+	    cache.save();
+	    System.out.printf("first session: %d programs, %d shaders compiled, %d binaries stored%n", nprogs, gl.calls[compile], cache.binstored.get());
+	    if(cache.load().size() != nprogs)
+		throw(new AssertionError("manifest holds " + cache.load().size() + " programs"));
+	    int rv = 0;
+	    for(String mode : new String[] {"bin", "src"}) {
+		Process sub = new ProcessBuilder(System.getProperty("java.home") + "/bin/java", "-cp", System.getProperty("java.class.path"),
+						 ProgramCacheCheck.class.getName(), dir.toString(), mode).inheritIO().start();
+		rv |= sub.waitFor();
+	    }
+	    for(Path p : Files.walk(dir).sorted(Comparator.reverseOrder()).toArray(Path[]::new))
+		Files.delete(p);
+	    if(rv != 0)
+		throw(new AssertionError("later session failed"));
+	} else {
+	    await("warming", () -> {env.process(gl); return(env.warmer.done());});
+	    long loaded = gl.calls[load], warmed = gl.calls[compile];
+	    render(gl, env, 3);
+	    int nprogs = env.numprogs();
+	    System.out.printf("%s session: %d programs, %d loaded and %d shaders compiled while warming, %d after; %s%n",
+			      progbin ? "binary" : "source", nprogs, loaded, warmed, gl.calls[compile] - warmed, env.warmer.stats());
+	    if((gl.calls[compile] != warmed) || (progbin && (warmed != 0)))
+		throw(new AssertionError("programs compiled despite the cache"));
+	    if(env.warmer.taken != nprogs)
+		throw(new AssertionError(env.warmer.taken + " of " + nprogs + " programs taken from the cache"));
+	}
+    }
+}
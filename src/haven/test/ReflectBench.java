@@ -0,0 +1,166 @@
+package haven.test;
+
+import haven.*;
+import java.util.*;
+import java.lang.reflect.Field;
+import me.ender.Reflect;
+
+/* Compares cached field access through me.ender.Reflect with the
+ * uncached lookup it used to do, first for single reads and then for
+ * a filter pass over 10k synthetic items shaped like what item
+ * filters and quality lists introspect. */
+public class ReflectBench {
+    public static class Info extends ItemInfo {
+	public Info() {super(null);}
+    }
+
+    public static class Quality extends Info {
+	public final String name;
+	public final double q;
+
+	public Quality(String name, double q) {
+	    this.name = name;
+	    this.q = q;
+	}
+    }
+
+    public static class Gast extends Info {
+	public final double fev, glut;
+
+	public Gast(double fev, double glut) {
+	    this.fev = fev;
+	    this.glut = glut;
+	}
+    }
+
+    public static class Wear extends Info {
+	public final int d, m;
+
+	public Wear(int d, int m) {
+	    this.d = d;
+	    this.m = m;
+	}
+    }
+
+    /* The previous implementation, kept here for comparison. */
+    private static Field legacyfield(Object obj, String name) throws NoSuchFieldException {
+	Class<?> cls = obj.getClass();
+	while(true) {
+	    try {
+		Field f = cls.getDeclaredField(name);
+		f.setAccessible(true);
+		return(f);
+	    } catch(NoSuchFieldException e) {
+		cls = cls.getSuperclass();
+		if(cls == null)
+		    throw(e);
+	    }
+	}
+    }
+
+    private static double legacydouble(Object obj, String name) {
+	try {
+	    return(legacyfield(obj, name).getDouble(obj));
+	} catch(NoSuchFieldException | IllegalAccessException e) {
+	    return(0);
+	}
+    }
+
+    private static Object legacyget(Object obj, String name) {
+	try {
+	    return(legacyfield(obj, name).get(obj));
+	} catch(NoSuchFieldException | IllegalAccessException e) {
+	    return(null);
+	}
+    }
+
+    private static boolean legacyhas(Object obj, String name) {
+	try {
+	    legacyfield(obj, name);
+	    return(true);
+	} catch(NoSuchFieldException e) {
+	    return(false);
+	}
+    }
+
+    public static List<List<ItemInfo>> items(int n) {
+	Random rnd = new Random(1);
+	String[] qnames = {"Quality", "Essence", "Substance", "Vitality"};
+	List<List<ItemInfo>> ret = new ArrayList<>();
+	for(int i = 0; i < n; i++) {
+	    List<ItemInfo> info = new ArrayList<>();
+	    info.add(new Quality(qnames[rnd.nextInt(qnames.length)], rnd.nextDouble() * 100));
+	    if(rnd.nextBoolean())
+		info.add(new Gast(rnd.nextDouble(), rnd.nextDouble()));
+	    if(rnd.nextInt(4) == 0)
+		info.add(new Wear(rnd.nextInt(100), 100));
+	    ret.add(info);
+	}
+	return(ret);
+    }
+
+    /* Matches "q>50 and fep>0.5 or has wear", reading fields by name the
+     * way ItemFilter and QualityList do, including probes for fields
+     * that are absent. */
+    public static int filter(List<List<ItemInfo>> items, boolean legacy) {
+	int ret = 0;
+	for(List<ItemInfo> info : items) {
+	    double q = 0, fev = 0;
+	    boolean wear = false;
+	    for(ItemInfo inf : info) {
+		if(legacy) {
+		    if(legacyhas(inf, "q") && (legacyget(inf, "name") != null))
+			q = Math.max(q, legacydouble(inf, "q"));
+		    fev += legacydouble(inf, "fev");
+		    wear |= legacyhas(inf, "m") && legacyhas(inf, "d");
+		} else {
+		    if(Reflect.hasField(inf, "q") && (Reflect.getFieldValueString(inf, "name") != null))
+			q = Math.max(q, Reflect.getFieldValueDouble(inf, "q"));
+		    fev += Reflect.getFieldValueDouble(inf, "fev");
+		    wear |= Reflect.hasField(inf, "m") && Reflect.hasField(inf, "d");
+		}
+	    }
+	    if(((q > 50) && (fev > 0.5)) || wear)
+		ret++;
+	}
+	return(ret);
+    }
+
+    private static double time(Runnable task, int reps) {
+	long st = System.nanoTime();
+	for(int i = 0; i < reps; i++)
+	    task.run();
+	return((System.nanoTime() - st) * 1e-9);
+    }
+
+    private static volatile double sink;
+
+    public static void main(String[] args) {
+	int reps = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+	int n = 1000000;
+	Gast g = new Gast(0.5, 0.25);
+	List<List<ItemInfo>> items = items(10000);
+	for(int r = 0; r < reps; r++) {
+	    double ol = time(() -> {
+		    double s = 0;
+		    for(int i = 0; i < n; i++)
+			s += legacydouble(g, "fev");
+		    sink = s;
+		}, 1);
+	    double nw = time(() -> {
+		    double s = 0;
+		    for(int i = 0; i < n; i++)
+			s += Reflect.getFieldValueDouble(g, "fev");
+		    sink = s;
+		}, 1);
+	    System.out.printf("field read: legacy %.1f ns, cached %.1f ns%n", ol * 1e9 / n, nw * 1e9 / n);
+	    int[] c = new int[2];
+	    double fl = time(() -> c[0] = filter(items, true), 10);
+	    double fn = time(() -> c[1] = filter(items, false), 10);
+	    if(c[0] != c[1])
+		throw(new AssertionError(String.format("filter mismatch: %d vs %d", c[0], c[1])));
+	    System.out.printf("filter over %d items (%d matched): legacy %.2f ms, cached %.2f ms%n",
+			      items.size(), c[1], fl * 100, fn * 100);
+	}
+    }
+}
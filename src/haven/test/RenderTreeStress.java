@@ -0,0 +1,164 @@
+package haven.test;
+
+import haven.*;
+import haven.render.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/* Runs producer threads adding, restating and removing slots in a
+ * RenderTree while a render thread locks the tree for a simulated
+ * draw every frame, and reports how long producers spend in tree
+ * calls and how long each frame's commit of client changes takes,
+ * for an immediate or a journaled tree. */
+public class RenderTreeStress {
+    public static class Leaf implements RenderTree.Node {
+    }
+
+    /* Stands in for a draw list: membership-checked, with some work
+     * per added slot. */
+    public static class Counter implements RenderList<RenderTree.Node> {
+	public final Set<RenderList.Slot<?>> slots = new HashSet<>();
+	public final AtomicLong adds = new AtomicLong(), removes = new AtomicLong(), updates = new AtomicLong(), gupdates = new AtomicLong();
+	public final int work;
+	public volatile long sink;
+
+	public Counter(int work) {
+	    this.work = work;
+	}
+
+	private void work(RenderList.Slot<?> slot) {
+	    GroupPipe st = slot.state();
+	    long h = 0;
+	    for(int i = 0; i < work; i++)
+		h = (h * 31) + st.nstates() + i;
+	    sink = h;
+	}
+
+	public void add(RenderList.Slot<? extends RenderTree.Node> slot) {
+	    work(slot);
+	    synchronized(this) {
+		if(!slots.add(slot))
+		    throw(new AssertionError("duplicate add"));
+	    }
+	    adds.incrementAndGet();
+	}
+
+	public void remove(RenderList.Slot<? extends RenderTree.Node> slot) {
+	    synchronized(this) {
+		if(!slots.remove(slot))
+		    throw(new AssertionError("removing non-present slot"));
+	    }
+	    removes.incrementAndGet();
+	}
+
+	public void update(RenderList.Slot<? extends RenderTree.Node> slot) {
+	    synchronized(this) {
+		if(!slots.contains(slot))
+		    throw(new AssertionError("updating non-present slot"));
+	    }
+	    work(slot);
+	    updates.incrementAndGet();
+	}
+
+	public void update(Pipe group, int[] mask) {
+	    gupdates.incrementAndGet();
+	}
+    }
+
+    public final RenderTree tree;
+    public final Counter list;
+    public final AtomicLong ops = new AtomicLong(), optime = new AtomicLong();
+    public final AtomicLong frames = new AtomicLong(), committime = new AtomicLong(), maxcommit = new AtomicLong();
+    private volatile boolean running = true;
+
+    public RenderTreeStress(boolean journaled, int work) {
+	this.tree = new RenderTree(journaled);
+	this.list = new Counter(work);
+	list.syncadd(tree, RenderTree.Node.class);
+    }
+
+    private void timed(Runnable op) {
+	long st = System.nanoTime();
+	op.run();
+	optime.addAndGet(System.nanoTime() - st);
+	ops.incrementAndGet();
+    }
+
+    /* Each group is a gob of sorts: a slot with a state and a few
+     * leaves, restated a few times and then removed, sometimes
+     * before it has been drawn at all. */
+    public void produce(int pause) {
+	Random rnd = new Random();
+	Deque<RenderTree.Slot> live = new ArrayDeque<>();
+	while(running) {
+	    RenderTree.Slot[] grp = {null};
+	    timed(() -> grp[0] = tree.add((RenderTree.Node)null, new States.LineWidth(1 + rnd.nextInt(4))));
+	    int nl = 1 + rnd.nextInt(4);
+	    for(int i = 0; i < nl; i++)
+		timed(() -> grp[0].add(new Leaf()));
+	    for(int i = rnd.nextInt(3); i > 0; i--)
+		timed(() -> grp[0].ostate(new States.LineWidth(1 + rnd.nextInt(4))));
+	    live.add(grp[0]);
+	    if(live.size() > 64) {
+		RenderTree.Slot old = (rnd.nextInt(4) == 0) ? live.pollLast() : live.pollFirst();
+		timed(old::remove);
+	    }
+	    if(pause > 0)
+		java.util.concurrent.locks.LockSupport.parkNanos(pause * 1000L);
+	}
+	while(!live.isEmpty()) {
+	    RenderTree.Slot old = live.poll();
+	    timed(old::remove);
+	}
+    }
+
+    public void render(int drawus) {
+	while(running) {
+	    long st = System.nanoTime();
+	    tree.commit();
+	    long ct = System.nanoTime() - st;
+	    committime.addAndGet(ct);
+	    maxcommit.accumulateAndGet(ct, Math::max);
+	    try(Locked lk = tree.lock()) {
+		long until = System.nanoTime() + (drawus * 1000L);
+		while(System.nanoTime() < until);
+	    }
+	    frames.incrementAndGet();
+	    Thread.yield();
+	}
+    }
+
+    public static void run(boolean journaled, int nthreads, int secs, int work, int drawus, int pause) throws InterruptedException {
+	RenderTreeStress test = new RenderTreeStress(journaled, work);
+	List<Thread> threads = new ArrayList<>();
+	for(int i = 0; i < nthreads; i++)
+	    threads.add(new HackThread(() -> test.produce(pause), "Producer #" + i));
+	Thread rt = new HackThread(() -> test.render(drawus), "Render");
+	threads.forEach(Thread::start);
+	rt.start();
+	Thread.sleep(secs * 1000L);
+	test.running = false;
+	for(Thread th : threads)
+	    th.join();
+	rt.join();
+	test.tree.commit();
+	if(!test.list.slots.isEmpty() || (test.list.adds.get() != test.list.removes.get()))
+	    throw(new AssertionError(String.format("client out of sync: %d left, %d adds, %d removes", test.list.slots.size(), test.list.adds.get(), test.list.removes.get())));
+	long ops = test.ops.get(), frames = Math.max(test.frames.get(), 1);
+	System.out.printf("%s, %d producers: %,d tree ops/s, %.2f us per op; %d frames, commit %.3f ms avg, %.3f ms max; client: %,d adds, %,d updates, %,d group updates%n",
+			  journaled ? "journaled" : "immediate", nthreads, ops / secs, (test.optime.get() * 1e-3) / Math.max(ops, 1),
+			  frames, (test.committime.get() * 1e-6) / frames, test.maxcommit.get() * 1e-6,
+			  test.list.adds.get(), test.list.updates.get(), test.list.gupdates.get());
+	System.out.println("  tree: " + test.tree.stats());
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+	int nthreads = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+	int secs = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+	int work = (args.length > 2) ? Integer.parseInt(args[2]) : 2000;
+	int drawus = (args.length > 3) ? Integer.parseInt(args[3]) : 8000;
+	int pause = (args.length > 4) ? Integer.parseInt(args[4]) : 200;
+	run(false, nthreads, secs, work, drawus, pause);
+	run(true, nthreads, secs, work, drawus, pause);
+    }
+}
@@ -0,0 +1,177 @@
+package haven.test;
+
+import haven.*;
+import java.util.*;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/* Local stand-in for a game server, which answers session requests
+ * and plays back a recorded server stream (as written by
+ * Connection.Recorder) to every client that connects. */
+public class ReplayServer implements Runnable {
+    public final List<Record> records;
+    public final DatagramChannel sk;
+    public final double rate;
+    private final Map<SocketAddress, Player> players = new HashMap<>();
+
+    public static class Record {
+	public final double time;
+	public final int type;
+	public final byte[] data;
+
+	public Record(double time, int type, byte[] data) {
+	    this.time = time;
+	    this.type = type;
+	    this.data = data;
+	}
+    }
+
+    public static List<Record> load(File file) throws IOException {
+	List<Record> ret = new ArrayList<>();
+	try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+	    if(!in.readUTF().equals(Connection.Recorder.SIG))
+		throw(new IOException("Not a session recording: " + file));
+	    while(true) {
+		double time;
+		try {
+		    time = in.readDouble();
+		} catch(EOFException e) {
+		    break;
+		}
+		int type = in.readUnsignedByte();
+		byte[] data = new byte[in.readInt()];
+		in.readFully(data);
+		/* Session handshakes are answered by the server itself. */
+		if(type != Session.MSG_SESS)
+		    ret.add(new Record(time, type, data));
+	    }
+	}
+	return(ret);
+    }
+
+    public ReplayServer(List<Record> records, int port, double rate) throws IOException {
+	this.records = records;
+	this.rate = rate;
+	this.sk = DatagramChannel.open();
+	sk.bind(new InetSocketAddress(InetAddress.getByName("localhost"), port));
+    }
+
+    public class Player extends HackThread {
+	public final SocketAddress addr;
+	public volatile int sent = 0;
+	public volatile boolean done = false;
+
+	Player(SocketAddress addr) {
+	    super("Replay to " + addr);
+	    setDaemon(true);
+	    this.addr = addr;
+	}
+
+	public void run() {
+	    try {
+		if(records.isEmpty())
+		    return;
+		double t0 = records.get(0).time, st = Utils.rtime();
+		for(Record rec : records) {
+		    double wait = st + ((rec.time - t0) / rate) - Utils.rtime();
+		    if(wait > 0)
+			Thread.sleep((long)(wait * 1000));
+		    send(addr, rec.type, rec.data);
+		    sent++;
+		}
+	    } catch(InterruptedException e) {
+	    } finally {
+		done = true;
+	    }
+	}
+    }
+
+    private void send(SocketAddress addr, int type, byte[] data) {
+	ByteBuffer buf = ByteBuffer.allocate(data.length + 1);
+	buf.put((byte)type);
+	buf.put(data);
+	buf.flip();
+	try {
+	    sk.send(buf, addr);
+	} catch(IOException e) {
+	}
+    }
+
+    /* Acknowledges every reliable message a client sends, so that it
+     * doesn't keep retransmitting them. */
+    private void ackrel(SocketAddress addr, ByteBuffer msg) {
+	int seq = msg.getShort() & 0xffff, n = 0;
+	while(msg.hasRemaining()) {
+	    int type = msg.get() & 0xff;
+	    if((type & 0x80) != 0)
+		msg.position(msg.position() + (msg.getShort() & 0xffff));
+	    else
+		msg.position(msg.limit());
+	    n++;
+	}
+	if(n > 0) {
+	    int last = (seq + n - 1) & 0xffff;
+	    send(addr, Session.MSG_ACK, new byte[] {(byte)last, (byte)(last >> 8)});
+	}
+    }
+
+    public Collection<Player> players() {
+	synchronized(players) {
+	    return(new ArrayList<>(players.values()));
+	}
+    }
+
+    public void run() {
+	ByteBuffer buf = ByteBuffer.allocate(65536).order(ByteOrder.LITTLE_ENDIAN);
+	try {
+	    while(true) {
+		buf.clear();
+		SocketAddress from = sk.receive(buf);
+		buf.flip();
+		if(!buf.hasRemaining())
+		    continue;
+		int type = buf.get() & 0xff;
+		synchronized(players) {
+		    Player pl = players.get(from);
+		    switch(type) {
+		    case Session.MSG_SESS:
+			send(from, Session.MSG_SESS, new byte[] {0});
+			if(pl == null) {
+			    players.put(from, pl = new Player(from));
+			    pl.start();
+			}
+			break;
+		    case Session.MSG_REL:
+			ackrel(from, buf);
+			break;
+		    case Session.MSG_CLOSE:
+			send(from, Session.MSG_CLOSE, new byte[0]);
+			if(pl != null) {
+			    pl.interrupt();
+			    players.remove(from);
+			}
+			break;
+		    }
+		}
+	    }
+	} catch(ClosedByInterruptException e) {
+	} catch(IOException e) {
+	    throw(new RuntimeException(e));
+	} finally {
+	    for(Player pl : players())
+		pl.interrupt();
+	}
+    }
+
+    public static void main(String[] args) throws IOException {
+	if(args.length < 1) {
+	    System.err.println("usage: ReplayServer RECORDING [PORT] [RATE]");
+	    System.exit(1);
+	}
+	int port = (args.length > 1) ? Integer.parseInt(args[1]) : 1870;
+	double rate = (args.length > 2) ? Double.parseDouble(args[2]) : 1.0;
+	new ReplayServer(load(new File(args[0])), port, rate).run();
+    }
+}
@@ -0,0 +1,143 @@
+package haven.test;
+
+import haven.*;
+import java.util.*;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+
+/* Replays a recorded session to a number of headless clients through
+ * a local ReplayServer, and reports how much time the clients spend
+ * on the network and world-state paths. */
+public class ReplayTest extends BaseTest {
+    public final ReplayServer server;
+    public final int num;
+    public final List<Client> clients = new ArrayList<>();
+
+    public class Client extends TestClient {
+	public volatile long tickn, ticktime;
+	private long lastalloc = 0;
+
+	public Client(String user) {
+	    super(user, TestClient.localhost(server.sk.socket().getLocalPort()));
+	}
+
+	void tick() {
+	    UI ui = this.ui;
+	    if((ui == null) || (ui.sess == null))
+		return;
+	    long st = System.nanoTime();
+	    synchronized(ui) {
+		ui.sess.glob.ctick();
+		ui.tick();
+	    }
+	    tickn++;
+	    ticktime += System.nanoTime() - st;
+	}
+
+	/* Bytes allocated by the client's live threads since the last
+	 * call; threads that have exited are not counted. */
+	long alloc() {
+	    java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+	    if(!(mx instanceof com.sun.management.ThreadMXBean))
+		return(-1);
+	    Thread[] th = new Thread[tg.activeCount() * 2 + 16];
+	    int n = tg.enumerate(th);
+	    long[] ids = new long[n];
+	    for(int i = 0; i < n; i++)
+		ids[i] = th[i].getId();
+	    long tot = 0;
+	    for(long a : ((com.sun.management.ThreadMXBean)mx).getThreadAllocatedBytes(ids)) {
+		if(a > 0)
+		    tot += a;
+	    }
+	    long ret = Math.max(tot - lastalloc, 0);
+	    lastalloc = tot;
+	    return(ret);
+	}
+    }
+
+    public ReplayTest(ReplayServer server, int num) {
+	this.server = server;
+	this.num = num;
+    }
+
+    public void run() {
+	Thread srv = new HackThread(tg, server, "Replay server");
+	srv.setDaemon(true);
+	srv.start();
+	try {
+	    for(int i = 0; i < num; i++) {
+		Client c = new Client("replay" + (i + 1));
+		clients.add(c);
+		c.start();
+	    }
+	    Map<Client, Session.Stats> last = new HashMap<>();
+	    double lastrep = Utils.rtime();
+	    while(true) {
+		Thread.sleep(50);
+		boolean alive = false;
+		for(Client c : clients) {
+		    if(c.alive()) {
+			alive = true;
+			c.tick();
+		    }
+		}
+		double now = Utils.rtime();
+		if(now - lastrep >= 1.0) {
+		    report(last, now - lastrep);
+		    lastrep = now;
+		}
+		boolean done = true;
+		for(ReplayServer.Player pl : server.players())
+		    done &= pl.done;
+		if(!alive || (done && !server.players().isEmpty())) {
+		    report(last, now - lastrep);
+		    printf("Replay finished");
+		    break;
+		}
+	    }
+	} catch(InterruptedException e) {
+	} finally {
+	    for(Client c : clients)
+		c.stop();
+	    srv.interrupt();
+	}
+    }
+
+    private void report(Map<Client, Session.Stats> last, double dt) {
+	for(Client c : clients) {
+	    Session sess = c.sess;
+	    if(sess == null)
+		continue;
+	    Session.Stats cur = sess.stats.copy(), prev = last.get(c);
+	    last.put(c, cur);
+	    long objn = cur.objn - ((prev == null) ? 0 : prev.objn), objt = cur.objtime - ((prev == null) ? 0 : prev.objtime);
+	    long mapn = cur.mapn - ((prev == null) ? 0 : prev.mapn), mapt = cur.maptime - ((prev == null) ? 0 : prev.maptime);
+	    long tickn = c.tickn, tickt = c.ticktime;
+	    c.tickn = 0; c.ticktime = 0;
+	    printf("%s: tick %.3f ms, ui msgs %d (%.3f ms avg), objdata %d (%.3f ms avg), mapdata %d (%.3f ms avg), uiq %d, relq %d, alloc %.1f MB/s",
+		   c.user,
+		   (tickn == 0) ? 0.0 : (tickt * 1e-6) / tickn,
+		   c.msgn, (c.msgn == 0) ? 0.0 : (c.msgtime * 1e-6) / c.msgn,
+		   objn, (objn == 0) ? 0.0 : (objt * 1e-6) / objn,
+		   mapn, (mapn == 0) ? 0.0 : (mapt * 1e-6) / mapn,
+		   sess.uiqueue(), sess.conn.pending(),
+		   c.alloc() / (dt * 1048576.0));
+	}
+    }
+
+    public static void usage() {
+	System.err.println("usage: ReplayTest RECORDING [NUM] [RATE]");
+    }
+
+    public static void main(String[] args) throws IOException {
+	if(args.length < 1) {
+	    usage();
+	    System.exit(1);
+	}
+	int num = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+	double rate = (args.length > 2) ? Double.parseDouble(args[2]) : 1.0;
+	ReplayServer server = new ReplayServer(ReplayServer.load(new File(args[0])), 0, rate);
+	new ReplayTest(server, num).start();
+    }
+}
@@ -0,0 +1,85 @@
+package haven.test;
+
+import haven.*;
+import java.util.*;
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import com.sun.net.httpserver.*;
+
+/* Measures cold resource loading against a local HTTP server that
+ * serves .res files from a directory with injected latency. */
+public class ResFetchTest {
+    public static HttpServer serve(Path dir, int latency) throws IOException {
+	HttpServer srv = HttpServer.create(new InetSocketAddress(InetAddress.getByName("localhost"), 0), 64);
+	srv.createContext("/", ex -> {
+		try {
+		    Thread.sleep(latency);
+		    Path p = dir.resolve(ex.getRequestURI().getPath().substring(1));
+		    if(!p.normalize().startsWith(dir) || !Files.isRegularFile(p)) {
+			ex.sendResponseHeaders(404, -1);
+		    } else {
+			byte[] data = Files.readAllBytes(p);
+			ex.sendResponseHeaders(200, data.length);
+			try(OutputStream out = ex.getResponseBody()) {
+			    out.write(data);
+			}
+		    }
+		} catch(InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		} finally {
+		    ex.close();
+		}
+	    });
+	srv.setExecutor(java.util.concurrent.Executors.newCachedThreadPool());
+	srv.start();
+	return(srv);
+    }
+
+    public static List<String> names(Path dir) throws IOException {
+	List<String> ret = new ArrayList<>();
+	Files.walk(dir).filter(p -> p.toString().endsWith(".res")).forEach(p -> {
+		String nm = dir.relativize(p).toString().replace(File.separatorChar, '/');
+		ret.add(nm.substring(0, nm.length() - 4));
+	    });
+	return(ret);
+    }
+
+    public static void main(String[] args) throws Exception {
+	if(args.length < 1) {
+	    System.err.println("usage: ResFetchTest RESDIR [LATENCY-MS] [LOADERS]");
+	    System.exit(1);
+	}
+	Path dir = Paths.get(args[0]).toAbsolutePath().normalize();
+	int latency = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+	int loaders = (args.length > 2) ? Integer.parseInt(args[2]) : Resource.resloaders.get();
+	System.setProperty("http.maxConnections", String.valueOf(loaders));
+	HttpServer srv = serve(dir, latency);
+	try {
+	    List<String> names = names(dir);
+	    URL base = new URL("http", "localhost", srv.getAddress().getPort(), "/");
+	    Resource.Pool pool = new Resource.Pool(new Resource.HttpSource(base));
+	    pool.nloaders = loaders;
+	    long st = System.nanoTime();
+	    List<Indir<Resource>> queued = new ArrayList<>();
+	    for(String nm : names)
+		queued.add(pool.load(nm, -1, 0));
+	    double first = -1;
+	    int failed = 0;
+	    for(Indir<Resource> res : queued) {
+		try {
+		    Loading.waitfor(res);
+		} catch(RuntimeException e) {
+		    failed++;
+		}
+		if(first < 0)
+		    first = (System.nanoTime() - st) * 1e-6;
+	    }
+	    double total = (System.nanoTime() - st) * 1e-6;
+	    System.out.printf("%d resources (%d failed), %d ms latency, %d loaders: first %.1f ms, total %.1f ms%n",
+			      names.size(), failed, latency, loaders, first, total);
+	} finally {
+	    srv.stop(0);
+	}
+    }
+}
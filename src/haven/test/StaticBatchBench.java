@@ -0,0 +1,175 @@
+package haven.test;
+
+import haven.*;
+import haven.render.*;
+import java.util.*;
+import java.nio.*;
+
+/* Plants a synthetic crop field, with the parts of each plant laid
+ * out like GrowingPlant does, once as per-gob slots and once through
+ * StaticBatch, and reports the number of drawn slots, the merged
+ * buffer sizes and the time taken to build the batch and to rebuild
+ * it after a share of the plants change stage. */
+public class StaticBatchBench {
+    public static class Counter implements RenderList<Rendered> {
+	public int live = 0, adds = 0;
+
+	public synchronized void add(RenderList.Slot<? extends Rendered> slot) {live++; adds++;}
+	public synchronized void remove(RenderList.Slot<? extends Rendered> slot) {live--;}
+	public void update(RenderList.Slot<? extends Rendered> slot) {}
+	public void update(Pipe group, int[] mask) {}
+    }
+
+    public static FastMesh mkmesh(Random rnd, int ntri) {
+	int nv = ntri * 3;
+	FloatBuffer pos = Utils.wfbuf(nv * 3), nrm = Utils.wfbuf(nv * 3), tex = Utils.wfbuf(nv * 2);
+	short[] ind = new short[nv];
+	for(int i = 0; i < nv; i++) {
+	    pos.put((rnd.nextFloat() - 0.5f) * 2).put((rnd.nextFloat() - 0.5f) * 2).put(rnd.nextFloat() * 6);
+	    nrm.put(0).put(0).put(1);
+	    tex.put(rnd.nextFloat()).put(rnd.nextFloat());
+	    ind[i] = (short)i;
+	}
+	return(new FastMesh(new VertexBuf(new VertexBuf.VertexData(pos), new VertexBuf.NormalData(nrm), new VertexBuf.TexelData(tex)), ind));
+    }
+
+    public static class Plant {
+	public final Coord3f pos;
+	public final List<StaticBatch.Part> parts = new ArrayList<>();
+	public StaticBatch.Member member;
+
+	public Plant(Coord3f pos) {
+	    this.pos = pos;
+	}
+    }
+
+    /* What GrowingPlant(num) places at one gob. */
+    public static Plant plant(Random rnd, Coord3f pos, FastMesh[] var, Pipe.Op mat, int num) {
+	Plant ret = new Plant(pos);
+	for(int i = 0; i < num; i++) {
+	    Coord3f pc = Coord3f.of((rnd.nextFloat() * 11f) - 5.5f, -((rnd.nextFloat() * 11f) - 5.5f), 0);
+	    Matrix4f xf = Transform.makexlate(new Matrix4f(), pc).mul1(Transform.makerot(new Matrix4f(), Coord3f.zu, (float)(rnd.nextFloat() * Math.PI * 2)));
+	    ret.parts.add(new StaticBatch.Part(var[rnd.nextInt(var.length)], mat, xf));
+	}
+	return(ret);
+    }
+
+    public static void main(String[] args) {
+	int side = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+	int num = (args.length > 1) ? Integer.parseInt(args[1]) : 9;
+	double churn = (args.length > 2) ? Double.parseDouble(args[2]) : 0.01;
+	Config.cmdline(new String[0]);
+	Random rnd = new Random(1);
+	/* Two crops of three stages each, with a few variants per
+	 * stage, each crop with its own material. */
+	int ncrops = 2, nstages = 3;
+	Pipe.Op[] mats = new Pipe.Op[ncrops];
+	FastMesh[][][] var = new FastMesh[ncrops][nstages][];
+	for(int c = 0; c < ncrops; c++) {
+	    mats[c] = new States.LineWidth(c + 1);
+	    for(int s = 0; s < nstages; s++) {
+		var[c][s] = new FastMesh[3];
+		for(int v = 0; v < 3; v++)
+		    var[c][s][v] = mkmesh(rnd, 8 + (s * 8));
+	    }
+	}
+	List<Plant> field = new ArrayList<>();
+	int[] crop = new int[side * side];
+	for(int y = 0; y < side; y++) {
+	    for(int x = 0; x < side; x++) {
+		int c = (x < side / 2) ? 0 : 1;
+		Coord3f pos = Coord3f.of((float)((x + 0.5) * MCache.tilesz.x), -(float)((y + 0.5) * MCache.tilesz.y), 0);
+		crop[field.size()] = c;
+		field.add(plant(rnd, pos, var[c][rnd.nextInt(nstages)], mats[c], num));
+	    }
+	}
+	long partverts = 0;
+	for(Plant p : field) {
+	    for(StaticBatch.Part pt : p.parts)
+		partverts += pt.mesh.vert.num;
+	}
+
+	/* Per gob, as CSprite adds them. */
+	{
+	    RenderTree tree = new RenderTree();
+	    Counter cl = new Counter();
+	    cl.syncadd(tree, Rendered.class);
+	    long st = System.nanoTime();
+	    for(Plant p : field) {
+		RenderTree.Slot gs = tree.add((RenderTree.Node)null, new Location(Transform.makexlate(new Matrix4f(), p.pos), "gobx"));
+		for(StaticBatch.Part pt : p.parts)
+		    gs.add(new Location(pt.xf).apply(pt.mat.apply(pt.mesh), false));
+	    }
+	    System.out.printf("%,d plants, %,d parts, %,d vertices%n", field.size(), field.size() * num, partverts);
+	    System.out.printf("per gob: %,d drawn slots, %.1f ms to add%n", cl.live, (System.nanoTime() - st) * 1e-6);
+	}
+
+	/* Batched. */
+	RenderTree tree = new RenderTree();
+	Counter cl = new Counter();
+	cl.syncadd(tree, Rendered.class);
+	StaticBatch batch = new StaticBatch();
+	tree.add(batch);
+	long st = System.nanoTime();
+	for(Plant p : field)
+	    p.member = batch.add(null, p.pos, p.parts);
+	int nb = batch.update(true);
+	System.out.printf("batched: %,d drawn slots, %,d meshes built in %.1f ms%n", cl.live, nb, (System.nanoTime() - st) * 1e-6);
+	System.out.println("  " + batch.stats());
+	for(Plant p : field) {
+	    if(!p.member.baked())
+		throw(new AssertionError("member not baked after a full update"));
+	}
+	for(int r = 0; r < 10; r++) {
+	    boolean async = (r % 2) == 1;
+	    /* A share of the plants grow a stage, which replaces their
+	     * sprites. */
+	    int n = (int)(field.size() * churn);
+	    st = System.nanoTime();
+	    for(int i = 0; i < n; i++) {
+		int idx = rnd.nextInt(field.size());
+		Plant op = field.get(idx);
+		op.member.remove();
+		Plant np = plant(rnd, op.pos, var[crop[idx]][rnd.nextInt(nstages)], mats[crop[idx]], num);
+		np.member = batch.add(null, np.pos, np.parts);
+		field.set(idx, np);
+	    }
+	    if(!async) {
+		nb = batch.update(true);
+		System.out.printf("%,d plants changed: %,d meshes rebuilt in %.1f ms, %,d drawn slots%n", n, nb, (System.nanoTime() - st) * 1e-6, cl.live);
+	    } else {
+		/* As from OCache ticks, rebuilding on Defer threads. */
+		nb = 0;
+		double maxtick = 0;
+		while(batch.pending() > 0) {
+		    long ts = System.nanoTime();
+		    nb += batch.update(false);
+		    maxtick = Math.max(maxtick, (System.nanoTime() - ts) * 1e-6);
+		    try {
+			Thread.sleep(16);
+		    } catch(InterruptedException e) {
+			throw(new RuntimeException(e));
+		    }
+		}
+		System.out.printf("%,d plants changed: %,d meshes swapped in %.1f ms by ticks taking at most %.2f ms, %,d drawn slots%n", n, nb, (System.nanoTime() - st) * 1e-6, maxtick, cl.live);
+	    }
+	    for(Plant p : field) {
+		if(!p.member.baked())
+		    throw(new AssertionError("member not baked after its rebuild"));
+	    }
+	}
+	System.out.println("  " + batch.stats());
+	long bverts = 0;
+	for(Plant p : field) {
+	    for(StaticBatch.Part pt : p.parts)
+		bverts += pt.mesh.vert.num;
+	}
+	if(!batch.stats().contains(String.format("%,d vertices", bverts)))
+	    throw(new AssertionError("batched vertex count does not match the field"));
+	for(Plant p : field)
+	    p.member.remove();
+	batch.update(true);
+	if(cl.live != 0)
+	    throw(new AssertionError(cl.live + " slots left after removing every plant"));
+    }
+}
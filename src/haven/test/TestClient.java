@@ -42,13 +42,14 @@ public class TestClient implements Runnable, UI.Context {
     public boolean loop = false;
     public Collection<Robot> robots = new HashSet<Robot>();
     private static Object errsync = new Object();
+    public long msgn, msgtime;
     
     public TestClient(String user) {
-	try {
-	    addr = new InetSocketAddress(InetAddress.getByName("localhost"), 1870);
-	} catch(java.net.UnknownHostException e) {
-	    throw(new RuntimeException("localhost not known"));
-	}
+	this(user, localhost(1870));
+    }
+
+    public TestClient(String user, InetSocketAddress addr) {
+	this.addr = addr;
 	this.user = user;
 	this.cookie = new byte[64];
 	tg = new ThreadGroup(HackThread.tg(), "Test client") {
@@ -62,6 +63,14 @@ public class TestClient implements Runnable, UI.Context {
 	    };
     }
     
+    public static InetSocketAddress localhost(int port) {
+	try {
+	    return(new InetSocketAddress(InetAddress.getByName("localhost"), port));
+	} catch(java.net.UnknownHostException e) {
+	    throw(new RuntimeException("localhost not known"));
+	}
+    }
+    
     public void connect() throws InterruptedException {
 	sess = new Session(addr, user, cookie);
     }
@@ -88,7 +97,9 @@ public class TestClient implements Runnable, UI.Context {
 	}
 	
 	public void newwidget(int id, String type, int parent, Object[] pargs, Object... cargs) throws InterruptedException {
+	    long st = System.nanoTime();
 	    super.newwidget(id, type, parent, pargs, cargs);
+	    msgn++; msgtime += System.nanoTime() - st;
 	    Widget w = getwidget(id);
 	    synchronized(robots) {
 		for(Robot r : robots)
@@ -111,7 +122,9 @@ public class TestClient implements Runnable, UI.Context {
 		for(Robot r : robots)
 		    r.uimsg(id, w, msg, args);
 	    }
+	    long st = System.nanoTime();
 	    super.uimsg(id, msg, args);
+	    msgn++; msgtime += System.nanoTime() - st;
 	}
     }
 
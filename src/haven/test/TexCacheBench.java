@@ -0,0 +1,159 @@
+package haven.test;
+
+import haven.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import javax.imageio.ImageIO;
+
+/* Loads a synthetic area's worth of PNG textures with mipmaps the way
+ * TexL prepares them, once without the texture cache, once cold
+ * (decoding and storing every texture) and once warm (mapping every
+ * texture from the cache), on as many threads as Defer would use, and
+ * checks that the cached pixels are the ones generated. */
+public class TexCacheBench {
+    public static class Src {
+	public final byte[] png;
+	public final Coord sz;
+	public final Mipmapper mipmap;
+	public final byte[] key;
+
+	public Src(byte[] png, Coord sz, Mipmapper mipmap) {
+	    this.png = png;
+	    this.sz = sz;
+	    this.mipmap = mipmap;
+	    this.key = TexCache.key(TexCache.digest().digest(png), sz, Mipmapper.name(mipmap));
+	}
+    }
+
+    /* Smooth noise with some detail, so that PNG compresses it about
+     * as well as it does real terrain and object textures. */
+    public static byte[] mkpng(Random rnd, Coord sz) throws IOException {
+	BufferedImage img = new BufferedImage(sz.x, sz.y, BufferedImage.TYPE_4BYTE_ABGR);
+	WritableRaster r = img.getRaster();
+	double fx = rnd.nextDouble() * 0.1, fy = rnd.nextDouble() * 0.1;
+	int[] px = new int[4];
+	for(int y = 0; y < sz.y; y++) {
+	    for(int x = 0; x < sz.x; x++) {
+		double v = Math.sin(x * fx) * Math.cos(y * fy);
+		px[0] = (int)(128 + (v * 100)) + rnd.nextInt(16);
+		px[1] = (int)(128 - (v * 60)) + rnd.nextInt(16);
+		px[2] = 96 + rnd.nextInt(32);
+		px[3] = (rnd.nextInt(8) == 0) ? 0 : 255;
+		r.setPixel(x, y, px);
+	    }
+	}
+	ByteArrayOutputStream buf = new ByteArrayOutputStream();
+	ImageIO.write(img, "PNG", buf);
+	return(buf.toByteArray());
+    }
+
+    public static byte[][] generate(Src src) {
+	try {
+	    BufferedImage img = Resource.readimage(new ByteArrayInputStream(src.png));
+	    return(TexL.levels(img, src.sz, src.mipmap));
+	} catch(IOException e) {
+	    throw(new RuntimeException(e));
+	}
+    }
+
+    private static volatile long sink;
+
+    public static long consume(ByteBuffer buf) {
+	/* Stands in for the copy into a fill buffer. */
+	byte[] tmp = new byte[buf.remaining()];
+	buf.duplicate().get(tmp);
+	return(tmp[tmp.length - 1]);
+    }
+
+    public static double run(ExecutorService pool, List<Callable<Long>> tasks) throws Exception {
+	long st = System.nanoTime();
+	long s = 0;
+	for(Future<Long> f : pool.invokeAll(tasks))
+	    s += f.get();
+	sink = s;
+	return((System.nanoTime() - st) * 1e-6);
+    }
+
+    public static void main(String[] args) throws Exception {
+	int ntex = (args.length > 0) ? Integer.parseInt(args[0]) : 300;
+	int nthreads = (args.length > 1) ? Integer.parseInt(args[1]) : Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+	/* Resource must not be the first to initialize Config. */
+	Config.cmdline(new String[0]);
+	Random rnd = new Random(1);
+	Mipmapper[] algs = {Mipmapper.avg, Mipmapper.avg, Mipmapper.dav, Mipmapper.cnt};
+	List<Src> srcs = new ArrayList<>();
+	long pngsz = 0, pixsz = 0;
+	for(int i = 0; i < ntex; i++) {
+	    int dim = 128 << Math.min(rnd.nextInt(4), rnd.nextInt(4));
+	    Coord sz = Coord.of(dim, dim);
+	    Src src = new Src(mkpng(rnd, sz), sz, algs[rnd.nextInt(algs.length)]);
+	    srcs.add(src);
+	    pngsz += src.png.length;
+	}
+	Path dir = Files.createTempDirectory("texcache");
+	TexCache cache = new TexCache(dir, 0);
+	ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+	try {
+	    List<Callable<Long>> plain = new ArrayList<>(), cold = new ArrayList<>(), warm = new ArrayList<>();
+	    for(int i = 0; i < ntex; i++) {
+		Src src = srcs.get(i);
+		plain.add(() -> {
+		    long s = 0;
+		    for(byte[] lev : generate(src))
+			s += consume(ByteBuffer.wrap(lev));
+		    return(s);
+		});
+		cold.add(() -> {
+		    int nl = TexL.nlevels(src.sz, src.mipmap);
+		    ByteBuffer[] c = cache.fetch(src.key, src.sz, nl);
+		    if(c != null)
+			throw(new AssertionError("hit on a cold cache"));
+		    byte[][] levels = generate(src);
+		    long s = 0;
+		    for(byte[] lev : levels)
+			s += consume(ByteBuffer.wrap(lev));
+		    cache.store(src.key, src.sz, levels);
+		    return(s);
+		});
+		warm.add(() -> {
+		    ByteBuffer[] c = cache.fetch(src.key, src.sz, TexL.nlevels(src.sz, src.mipmap));
+		    if(c == null)
+			throw(new AssertionError("miss on a warm cache"));
+		    long s = 0;
+		    for(ByteBuffer lev : c)
+			s += consume(lev);
+		    return(s);
+		});
+	    }
+	    for(Src src : srcs) {
+		for(byte[] lev : generate(src))
+		    pixsz += lev.length;
+	    }
+	    System.out.printf("%d textures, %.1f MB of PNG, %.1f MB of pixels with mipmaps, %d threads%n",
+			      ntex, pngsz / 1048576.0, pixsz / 1048576.0, nthreads);
+	    double tp = run(pool, plain);
+	    double tc = run(pool, cold);
+	    double tw = run(pool, warm);
+	    System.out.printf("uncached %.1f ms, cold %.1f ms, warm %.1f ms%n", tp, tc, tw);
+	    for(int r = 0; r < 3; r++)
+		System.out.printf("warm again: %.1f ms%n", run(pool, warm));
+	    for(Src src : srcs) {
+		byte[][] want = generate(src);
+		ByteBuffer[] got = cache.fetch(src.key, src.sz, want.length);
+		for(int i = 0; i < want.length; i++) {
+		    if(!got[i].equals(ByteBuffer.wrap(want[i])))
+			throw(new AssertionError("cached pixels differ"));
+		}
+	    }
+	    System.out.println(cache.stats());
+	} finally {
+	    pool.shutdown();
+	    for(Path p : (Iterable<Path>)Files.walk(dir).sorted(Comparator.reverseOrder())::iterator)
+		Files.delete(p);
+	}
+    }
+}
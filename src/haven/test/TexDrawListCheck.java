@@ -0,0 +1,112 @@
+package haven.test;
+
+import haven.*;
+import haven.render.*;
+import haven.render.gl.*;
+import java.util.*;
+import java.awt.image.BufferedImage;
+
+/* Draws textured meshes through a draw list into a NullEnvironment
+ * with a texture budget smaller than the textures on screen, for
+ * longer than the residency keeps textures after their last use.
+ * Textures that stay on screen must neither be evicted nor uploaded
+ * again, while those of a scene that has been left must be. */
+public class TexDrawListCheck {
+    static List<TexI> textures(Random rnd, int n, int sz) {
+	List<TexI> ret = new ArrayList<>();
+	for(int i = 0; i < n; i++) {
+	    BufferedImage img = new BufferedImage(sz, sz, BufferedImage.TYPE_INT_ARGB);
+	    img.setRGB(0, 0, rnd.nextInt());
+	    ret.add(new TexI(img));
+	}
+	return(ret);
+    }
+
+    static List<RenderTree.Slot> scene(RenderTree.Slot root, Random rnd, List<TexI> texs) {
+	List<RenderTree.Slot> ret = new ArrayList<>();
+	for(int i = 0; i < texs.size(); i++)
+	    ret.add(root.add(StaticBatchBench.mkmesh(rnd, 16), Pipe.Op.compose(texs.get(i).st(), Location.xlate(Coord3f.of(i * 10, 0, 0)))));
+	return(ret);
+    }
+
+    static void frames(NullGL gl, NullEnvironment env, RenderTree tree, DrawList back, int n) {
+	for(int f = 0; f < n; f++) {
+	    tree.commit();
+	    GLRender g = env.render();
+	    back.draw(g);
+	    env.submit(g);
+	    env.process(gl);
+	}
+    }
+
+    static Map<TexI, Object> resident(List<TexI> texs) {
+	Map<TexI, Object> ret = new IdentityHashMap<>();
+	for(TexI tex : texs)
+	    ret.put(tex, tex.st().data.tex.ro);
+	return(ret);
+    }
+
+    public static void main(String[] args) {
+	int ntex = (args.length > 0) ? Integer.parseInt(args[0]) : 40;
+	int nframes = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+	Config.cmdline(new String[0]);
+	/* 1 MB, against 64 kB for each texture. */
+	GLEnvironment.texbudget.set(1);
+	NullGL gl = new NullGL();
+	NullEnvironment env = new NullEnvironment(gl, Area.sized(Coord.z, new Coord(800, 600)));
+	int upload = Arrays.asList(GLRecorder.calls).indexOf("glTexImage2D(int,int,int,int,int,int,int,int,ByteBuffer)");
+	int delete = Arrays.asList(GLRecorder.calls).indexOf("glDeleteTextures(int,int[])");
+	Random rnd = new Random(1);
+	Area area = env.shape();
+	Pipe.Op base = Pipe.Op.compose(new States.Viewport(area), Homo3D.state,
+				       Projection.frustum(-1, 1, -0.75f, 0.75f, 1, 5000),
+				       Camera.pointed(Coord3f.o, 500, (float)Math.PI / 4, 0),
+				       new FragColor<>(FragColor.defcolor), new DepthBuffer<>(DepthBuffer.defdepth),
+				       new States.Depthtest(States.Depthtest.Test.LE));
+	RenderTree tree = new RenderTree();
+	RenderTree.Slot root = tree.add((RenderTree.Node)null, base);
+	DrawList back = env.drawlist();
+	back.syncadd(tree, Rendered.class);
+
+	/* A scene that stays on screen. */
+	List<TexI> first = textures(rnd, ntex, 128);
+	List<RenderTree.Slot> slots = scene(root, rnd, first);
+	frames(gl, env, tree, back, 1);
+	Map<TexI, Object> before = resident(first);
+	long up0 = gl.calls[upload];
+	frames(gl, env, tree, back, nframes);
+	System.out.printf("on screen: %,d frames, %d uploads, %d deletions; %s%n", nframes + 1, gl.calls[upload], gl.calls[delete], env.texstats());
+	for(TexI tex : first) {
+	    if(tex.st().data.tex.ro != before.get(tex))
+		throw(new AssertionError("texture evicted while on screen"));
+	}
+	if(gl.calls[upload] != up0)
+	    throw(new AssertionError((gl.calls[upload] - up0) + " textures uploaded again while on screen"));
+
+	/* Leaving it for another. */
+	for(RenderTree.Slot slot : slots)
+	    slot.remove();
+	List<TexI> second = textures(rnd, ntex, 128);
+	scene(root, rnd, second);
+	frames(gl, env, tree, back, 1);
+	before = resident(second);
+	up0 = gl.calls[upload];
+	frames(gl, env, tree, back, nframes);
+	int left = 0;
+	for(TexI tex : first) {
+	    if(tex.st().data.tex.ro != null)
+		left++;
+	}
+	System.out.printf("left: %,d frames, %d uploads, %d deletions, %d of %d old textures resident; %s%n",
+			  nframes + 1, gl.calls[upload], gl.calls[delete], left, ntex, env.texstats());
+	for(TexI tex : second) {
+	    if(tex.st().data.tex.ro != before.get(tex))
+		throw(new AssertionError("texture evicted while on screen"));
+	}
+	if(gl.calls[upload] != up0)
+	    throw(new AssertionError((gl.calls[upload] - up0) + " textures uploaded again while on screen"));
+	if(left == ntex)
+	    throw(new AssertionError("no textures evicted from the scene left"));
+	back.dispose();
+    }
+}
@@ -0,0 +1,116 @@
+package haven.test;
+
+import java.util.*;
+import haven.render.gl.TexResidency;
+
+/* Drives the texture residency policy with simulated textures, a
+ * drifting working set and a budget smaller than the total, and
+ * checks that recently drawn or unevictable textures are never
+ * dropped and that usage settles below the budget. */
+public class TexResidencyTest {
+    public static class Tex implements TexResidency.Resident {
+	public final TexResidencyTest sim;
+	public final long size;
+	public final boolean fixed;
+	public long mem = 0, lastuse = -1;
+	public boolean evicted = false;
+
+	public Tex(TexResidencyTest sim, long size, boolean fixed) {
+	    this.sim = sim;
+	    this.size = size;
+	    this.fixed = fixed;
+	}
+
+	public long texmem() {return(mem);}
+	public long lastuse() {return(lastuse);}
+	public boolean evictable() {return(!fixed);}
+
+	public boolean evict() {
+	    if(fixed)
+		throw(new AssertionError("unevictable texture evicted"));
+	    if(sim.frame - lastuse < sim.res.minage)
+		throw(new AssertionError(String.format("texture evicted %d frames after use", sim.frame - lastuse)));
+	    evicted = true;
+	    sim.nevicted++;
+	    /* Deletion happens in a later frame, as with GL. */
+	    sim.deleting.add(this);
+	    return(true);
+	}
+
+	public void draw() {
+	    if(mem == 0) {
+		if(evicted)
+		    sim.nreloaded++;
+		evicted = false;
+		sim.used += mem = size;
+		sim.res.add(this);
+	    }
+	    lastuse = sim.frame;
+	}
+    }
+
+    public final TexResidency res;
+    public final List<Tex> texs = new ArrayList<>();
+    public final List<Tex> deleting = new ArrayList<>();
+    public long used = 0, frame = 0;
+    public int nevicted = 0, nreloaded = 0;
+
+    public TexResidencyTest(long budget, int minage) {
+	this.res = new TexResidency(budget, minage);
+    }
+
+    public void delete() {
+	for(Tex t : deleting) {
+	    used -= t.mem;
+	    t.mem = 0;
+	    res.remove(t);
+	}
+	deleting.clear();
+    }
+
+    public void frame(Random rnd, int center, int spread) {
+	frame++;
+	delete();
+	for(int i = 0; i < 50; i++) {
+	    int idx = center + (int)(rnd.nextGaussian() * spread);
+	    texs.get(Math.floorMod(idx, texs.size())).draw();
+	}
+	res.enforce(used, frame);
+    }
+
+    public static void main(String[] args) {
+	int ntex = (args.length > 0) ? Integer.parseInt(args[0]) : 4000;
+	long budget = ((args.length > 1) ? Long.parseLong(args[1]) : 512) * 1048576L;
+	int frames = (args.length > 2) ? Integer.parseInt(args[2]) : 20000;
+	Random rnd = new Random(1);
+	TexResidencyTest sim = new TexResidencyTest(budget, 600);
+	for(int i = 0; i < ntex; i++) {
+	    int dim = 64 << rnd.nextInt(5);
+	    sim.texs.add(new Tex(sim, dim * dim * 4L, rnd.nextInt(20) == 0));
+	}
+	long fixed = 0, peak = 0;
+	for(int f = 0; f < frames; f++) {
+	    /* The player walks slowly through the texture set. */
+	    sim.frame(rnd, f / 4, 40);
+	    peak = Math.max(peak, sim.used);
+	    if((f % 1000) == 999) {
+		System.out.printf("frame %d: %.1f MB used, %d evicted, %d reloaded; %s%n", f + 1, sim.used / 1048576.0,
+				  sim.nevicted, sim.nreloaded, sim.res.stats(sim.used));
+	    }
+	}
+	sim.delete();
+	for(Tex t : sim.texs) {
+	    if(t.fixed)
+		fixed += t.mem;
+	}
+	long recent = 0;
+	for(Tex t : sim.texs) {
+	    if(!t.fixed && (sim.frame - t.lastuse < sim.res.minage))
+		recent += t.mem;
+	}
+	System.out.printf("peak %.1f MB, final %.1f MB of %.1f MB budget (%.1f MB unevictable, %.1f MB recent)%n",
+			  peak / 1048576.0, sim.used / 1048576.0, budget / 1048576.0, fixed / 1048576.0, recent / 1048576.0);
+	if((sim.used > budget) && (sim.used - fixed - recent > budget))
+	    throw(new AssertionError("usage not brought under budget"));
+    }
+}
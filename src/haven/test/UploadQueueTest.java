@@ -0,0 +1,133 @@
+package haven.test;
+
+import integrations.mapv4.MappingClient;
+import integrations.mapv4.UploadQueue;
+import com.sun.net.httpserver.HttpServer;
+import java.util.*;
+import java.util.regex.*;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/* Queues grid uploads for a stand-in mapping server on the loopback
+ * interface that refuses them, then lets it accept them slowly. The
+ * queue must keep failed uploads on disk, within its limits of count
+ * and age, dropping the oldest first and saying which it dropped,
+ * must resend them in order, and must take new failures while
+ * resending. */
+public class UploadQueueTest {
+    static final Pattern idfield = Pattern.compile("name=\"id\"\r\n(?:[^\r]+\r\n)*\r\n([^\r]*)\r\n");
+
+    static class Server {
+	final HttpServer http;
+	final List<String> received = Collections.synchronizedList(new ArrayList<>());
+	volatile int status = 503;
+	volatile long delay = 0;
+	volatile int attempts = 0;
+
+	Server() throws IOException {
+	    http = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+	    http.createContext("/gridUpload", ex -> {
+		    attempts++;
+		    String body;
+		    try(InputStream in = ex.getRequestBody()) {
+			body = new String(haven.Utils.readall(in), StandardCharsets.ISO_8859_1);
+		    }
+		    try {
+			Thread.sleep(delay);
+		    } catch(InterruptedException e) {
+		    }
+		    int st = status;
+		    if(st == 200) {
+			Matcher m = idfield.matcher(body);
+			received.add(m.find() ? m.group(1) : "?");
+		    }
+		    byte[] resp = "ok".getBytes(StandardCharsets.UTF_8);
+		    ex.sendResponseHeaders(st, resp.length);
+		    try(OutputStream out = ex.getResponseBody()) {
+			out.write(resp);
+		    }
+		});
+	    http.start();
+	}
+
+	String endpoint() {
+	    return("http://127.0.0.1:" + http.getAddress().getPort());
+	}
+    }
+
+    static File tmpdir() throws IOException {
+	File dir = File.createTempFile("mapv4-queue", "");
+	dir.delete();
+	dir.mkdirs();
+	dir.deleteOnExit();
+	return(dir);
+    }
+
+    static UploadQueue.Upload grid(int n) {
+	return(UploadQueue.Upload.grid(String.format("grid%03d", n), "{}", new byte[1024]));
+    }
+
+    public static void main(String[] args) throws Exception {
+	haven.Config.cmdline(new String[0]);
+	Server srv = new Server();
+	File dir = tmpdir();
+	List<String> dropped = new ArrayList<>();
+	UploadQueue queue = new UploadQueue(() -> dir, e -> MappingClient.send(srv.endpoint(), e), e -> dropped.add(e.fields[0]));
+	queue.maxfiles = 8;
+	try {
+	    /* Refused, and kept up to the limit, oldest dropped. */
+	    for(int i = 0; i < 12; i++)
+		queue.add(grid(i));
+	    queue.run();
+	    System.out.printf("refused: %d attempts, %d queued, %d dropped%n", srv.attempts, queue.size(), queue.dropped());
+	    if(srv.attempts != 1)
+		throw(new AssertionError(srv.attempts + " attempts against a refusing server"));
+	    if((queue.size() != 8) || (queue.dropped() != 4))
+		throw(new AssertionError(queue.size() + " queued, " + queue.dropped() + " dropped"));
+	    if(!dropped.equals(Arrays.asList("grid000", "grid001", "grid002", "grid003")))
+		throw(new AssertionError("told of dropping " + dropped));
+
+	    /* Accepted slowly, while more fail meanwhile. */
+	    srv.status = 200;
+	    srv.delay = 200;
+	    Thread th = new Thread(queue, "Resender");
+	    th.start();
+	    while(srv.attempts < 2)
+		Thread.sleep(10);
+	    long st = System.nanoTime();
+	    queue.add(grid(12));
+	    double el = (System.nanoTime() - st) * 1e-6;
+	    th.join();
+	    System.out.printf("accepted: %d uploads, queued another in %.1f ms while resending%n", srv.received.size(), el);
+	    if(el > 100)
+		throw(new AssertionError(String.format("queueing waited %.1f ms for resending", el)));
+	    srv.delay = 0;
+	    queue.run();
+	    List<String> expect = new ArrayList<>();
+	    for(int i = 4; i <= 12; i++)
+		expect.add(String.format("grid%03d", i));
+	    if(!srv.received.equals(expect))
+		throw(new AssertionError("received " + srv.received + ", expected " + expect));
+	    if(queue.size() != 0)
+		throw(new AssertionError(queue.size() + " uploads left queued"));
+
+	    /* Too old to be worth sending. */
+	    srv.status = 503;
+	    queue.maxage = 50;
+	    queue.add(grid(13));
+	    Thread.sleep(100);
+	    srv.status = 200;
+	    queue.run();
+	    System.out.printf("expired: %d queued, %d dropped, %d received%n", queue.size(), queue.dropped(), srv.received.size());
+	    if((queue.size() != 0) || (srv.received.size() != expect.size()))
+		throw(new AssertionError("expired upload sent"));
+	    if(!dropped.equals(Arrays.asList("grid000", "grid001", "grid002", "grid003", "grid013")))
+		throw(new AssertionError("told of dropping " + dropped));
+	} finally {
+	    srv.http.stop(0);
+	    for(File f : dir.listFiles())
+		f.delete();
+	}
+    }
+}
@@ -0,0 +1,200 @@
+package haven.test;
+
+import haven.*;
+import haven.render.*;
+import java.util.*;
+import java.nio.*;
+import java.lang.reflect.*;
+
+/* Simulates a map with a number of moving gobs whose path lines are
+ * rewritten every frame, some starting and stopping, alongside static
+ * hitbox outlines, all in one VertexPool. Uploads go to a simulated
+ * device copy of the pool's buffer through the pool's own partial
+ * fills, which is checked against the pool's contents at the end.
+ * Reports buffers, models and bytes per frame, against what building
+ * a new static buffer and model for every change did. */
+public class VertexPoolBench {
+    /* Mirrors the contents of the buffers the pool has uploaded. */
+    public static class Device {
+	public DataBuffer cur = null;
+	public byte[] mem;
+	public long bytes = 0, updates = 0, full = 0;
+
+	public final Environment env = proxy(Environment.class, (m, args) -> {
+		if(m.getName().equals("fillbuf")) {
+		    DataBuffer tgt = (DataBuffer)args[0];
+		    int from = (args.length > 1) ? (Integer)args[1] : 0, to = (args.length > 1) ? (Integer)args[2] : tgt.size();
+		    return(fillbuf(to - from));
+		}
+		throw(new UnsupportedOperationException(m.getName()));
+	    });
+
+	@SuppressWarnings("unchecked")
+	public final Render render = proxy(Render.class, (m, args) -> {
+		if(m.getName().equals("update") && (args.length == 4)) {
+		    update((VertexArray.Buffer)args[0], (DataBuffer.PartFiller<VertexArray.Buffer>)args[1], (Integer)args[2], (Integer)args[3]);
+		    return(null);
+		}
+		if(m.getName().equals("env"))
+		    return(env);
+		throw(new UnsupportedOperationException(m.getName()));
+	    });
+
+	private static FillBuffer fillbuf(int sz) {
+	    ByteBuffer data = ByteBuffer.allocate(sz).order(ByteOrder.nativeOrder());
+	    return(new FillBuffer() {
+		    public int size() {return(sz);}
+		    public boolean compatible(Environment env) {return(true);}
+		    public ByteBuffer push() {return(data);}
+		    public void pull(ByteBuffer buf) {data.put(buf); data.rewind();}
+		    public void dispose() {}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> iface, java.util.function.BiFunction<Method, Object[], Object> h) {
+	    return((T)Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[] {iface}, (p, m, args) -> h.apply(m, (args == null) ? new Object[0] : args)));
+	}
+
+	private void put(DataBuffer.Filler<VertexArray.Buffer> fill, VertexArray.Buffer buf, int from, int to) {
+	    FillBuffer data = (fill instanceof DataBuffer.PartFiller) ? ((DataBuffer.PartFiller<VertexArray.Buffer>)fill).fill(buf, env, from, to) : fill.fill(buf, env);
+	    ByteBuffer src = data.push();
+	    src.rewind();
+	    src.get(mem, from, to - from);
+	    bytes += to - from;
+	}
+
+	@SuppressWarnings("unchecked")
+	public void update(VertexArray.Buffer buf, DataBuffer.PartFiller<VertexArray.Buffer> fill, int from, int to) {
+	    if(buf != cur) {
+		/* As when the backend first prepares a buffer. */
+		cur = buf;
+		mem = new byte[buf.size()];
+		put((DataBuffer.Filler<VertexArray.Buffer>)buf.init, buf, 0, buf.size());
+		full++;
+	    }
+	    put(fill, buf, from, to);
+	    updates++;
+	}
+    }
+
+    public static class Counter implements RenderList<Rendered> {
+	public int live = 0, updates = 0;
+
+	public synchronized void add(RenderList.Slot<? extends Rendered> slot) {live++;}
+	public synchronized void remove(RenderList.Slot<? extends Rendered> slot) {live--;}
+	public synchronized void update(RenderList.Slot<? extends Rendered> slot) {updates++;}
+	public void update(Pipe group, int[] mask) {}
+    }
+
+    public static class Path {
+	public final VertexPool.Range lines;
+	public float[] buf = new float[16 * 6];
+	public int n;
+
+	public Path(VertexPool pool) {
+	    lines = pool.range(Model.Mode.LINES);
+	}
+
+	public void add(float ax, float ay, float bx, float by) {
+	    if((n + 2) * 3 > buf.length)
+		buf = Arrays.copyOf(buf, buf.length * 2);
+	    int i = n * 3;
+	    buf[i++] = ax; buf[i++] = -ay; buf[i++] = 1;
+	    buf[i++] = bx; buf[i++] = -by; buf[i++] = 1;
+	    n += 2;
+	}
+    }
+
+    public static void main(String[] args) {
+	int ngobs = (args.length > 0) ? Integer.parseInt(args[0]) : 300;
+	int nframes = (args.length > 1) ? Integer.parseInt(args[1]) : 600;
+	int nboxes = (args.length > 2) ? Integer.parseInt(args[2]) : 500;
+	Config.cmdline(new String[0]);
+	Random rnd = new Random(1);
+	VertexPool pool = new VertexPool(VertexPool.POS, 256);
+	Device dev = new Device();
+	RenderTree tree = new RenderTree();
+	Counter cl = new Counter();
+	cl.syncadd(tree, Rendered.class);
+
+	/* Six path categories, as PathVisualizer has. */
+	Path[] paths = new Path[6];
+	for(int i = 0; i < paths.length; i++) {
+	    paths[i] = new Path(pool);
+	    tree.add(paths[i].lines);
+	}
+	for(int i = 0; i < nboxes; i++) {
+	    int nv = 8 * (1 + rnd.nextInt(3));
+	    float[] box = new float[nv * 3];
+	    for(int o = 0; o < box.length; o++)
+		box[o] = rnd.nextFloat() * 10;
+	    VertexPool.Range r = pool.range(Model.Mode.LINES);
+	    r.set(box, nv);
+	    tree.add(r);
+	}
+	double[][] gobs = new double[ngobs][5];
+	for(double[] g : gobs) {
+	    g[0] = rnd.nextDouble() * 1000; g[1] = rnd.nextDouble() * 1000;
+	    g[2] = g[0] + (rnd.nextDouble() * 100); g[3] = g[1] + (rnd.nextDouble() * 100);
+	    g[4] = rnd.nextInt(paths.length);
+	}
+	boolean[] moving = new boolean[ngobs];
+	Arrays.fill(moving, true);
+
+	long oldbufs = 0, oldbytes = 0;
+	tree.commit();
+	int upd0 = cl.updates;
+	long st = System.nanoTime();
+	for(int f = 0; f < nframes; f++) {
+	    /* A few gobs start or stop moving. */
+	    for(int i = 0; i < ngobs / 100; i++) {
+		int g = rnd.nextInt(ngobs);
+		moving[g] = !moving[g];
+	    }
+	    for(Path p : paths)
+		p.n = 0;
+	    for(int i = 0; i < ngobs; i++) {
+		if(!moving[i])
+		    continue;
+		double[] g = gobs[i];
+		double dx = g[2] - g[0], dy = g[3] - g[1], d = Math.hypot(dx, dy);
+		if(d > 1) {
+		    g[0] += dx / d; g[1] += dy / d;
+		} else {
+		    g[2] = g[0] + (rnd.nextDouble() * 200) - 100; g[3] = g[1] + (rnd.nextDouble() * 200) - 100;
+		}
+		paths[(int)g[4]].add((float)g[0], (float)g[1], (float)g[2], (float)g[3]);
+	    }
+	    for(Path p : paths) {
+		p.lines.set(p.buf, p.n);
+		if(p.n > 0) {
+		    /* A new static buffer and model for every path set
+		     * whose lines changed, as before. */
+		    oldbufs++;
+		    oldbytes += p.n * 12;
+		}
+	    }
+	    pool.commit(dev.render);
+	    tree.commit();
+	}
+	double el = (System.nanoTime() - st) * 1e-6;
+	System.out.printf("%,d moving gobs, %,d hitboxes, %,d frames in %.1f ms%n", ngobs, nboxes, nframes, el);
+	System.out.printf("before: %.1f buffers and models, %,.0f bytes per frame%n", (double)oldbufs / nframes, (double)oldbytes / nframes);
+	System.out.printf("pooled: %.3f buffers, %.2f model changes, %,.0f bytes in %.2f uploads per frame%n",
+			  (double)pool.grown / nframes, (double)(cl.updates - upd0) / nframes, (double)dev.bytes / nframes, (double)dev.updates / nframes);
+	System.out.println("  " + pool.stats());
+
+	/* The simulated device must hold what the pool holds, for
+	 * every range in use. */
+	float[] want = new float[pool.capacity() * 3];
+	pool.fill((VertexArray.Buffer)dev.cur, dev.env, 0, dev.mem.length).push().asFloatBuffer().get(want);
+	FloatBuffer got = ByteBuffer.wrap(dev.mem).order(ByteOrder.nativeOrder()).asFloatBuffer();
+	for(int i = 0; i < want.length; i++) {
+	    if(Float.floatToRawIntBits(want[i]) != Float.floatToRawIntBits(got.get(i)))
+		throw(new AssertionError("device copy differs at vertex " + (i / 3)));
+	}
+	if(cl.live != paths.length + nboxes)
+	    throw(new AssertionError("drawn ranges: " + cl.live));
+    }
+}
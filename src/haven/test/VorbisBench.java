@@ -0,0 +1,97 @@
+package haven.test;
+
+import haven.*;
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+import java.lang.management.ManagementFactory;
+import dolda.xiphutil.VorbisStream;
+
+/* Decodes every audio layer found in a directory of .res files (or
+ * plain .ogg files) and reports the real-time decode factor and the
+ * bytes allocated per second of decoded audio. */
+public class VorbisBench {
+    public static class Clip {
+	public final String name;
+	public final byte[] data;
+
+	public Clip(String name, byte[] data) {
+	    this.name = name;
+	    this.data = data;
+	}
+    }
+
+    public static List<Clip> corpus(Path dir) throws IOException {
+	List<Clip> ret = new ArrayList<>();
+	Resource.Pool pool = new Resource.Pool(new Resource.FileSource(dir));
+	List<Path> files = new ArrayList<>();
+	Files.walk(dir).filter(Files::isRegularFile).forEach(files::add);
+	Collections.sort(files);
+	for(Path p : files) {
+	    String nm = dir.relativize(p).toString().replace(File.separatorChar, '/');
+	    if(nm.endsWith(".ogg")) {
+		ret.add(new Clip(nm, Files.readAllBytes(p)));
+	    } else if(nm.endsWith(".res")) {
+		Resource res;
+		try {
+		    res = Loading.waitfor(pool.load(nm.substring(0, nm.length() - 4)));
+		} catch(RuntimeException e) {
+		    System.err.printf("%s: %s%n", nm, e);
+		    continue;
+		}
+		int i = 0;
+		for(Resource.Audio clip : res.layers(Resource.audio))
+		    ret.add(new Clip(res.name + "#" + (i++), clip.coded));
+	    }
+	}
+	return(ret);
+    }
+
+    private static long allocated() {
+	java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+	if(!(mx instanceof com.sun.management.ThreadMXBean))
+	    return(-1);
+	return(((com.sun.management.ThreadMXBean)mx).getThreadAllocatedBytes(Thread.currentThread().getId()));
+    }
+
+    /* Returns {samples, rate, nanoseconds, bytes allocated}. */
+    public static long[] decode(Clip clip) throws IOException {
+	double[][] buf = new double[2][512];
+	long a0 = allocated(), st = System.nanoTime();
+	VorbisStream vs = new VorbisStream(new ByteArrayInputStream(clip.data));
+	long samples = 0;
+	while(true) {
+	    int ret = vs.decode(buf, 0, buf[0].length);
+	    if(ret < 0)
+		break;
+	    samples += ret;
+	}
+	long t = System.nanoTime() - st, a = allocated() - a0;
+	return(new long[] {samples, vs.rate, t, a});
+    }
+
+    public static void main(String[] args) throws IOException {
+	if(args.length < 1) {
+	    System.err.println("usage: VorbisBench DIR [ROUNDS]");
+	    System.exit(1);
+	}
+	List<Clip> clips = corpus(Paths.get(args[0]));
+	int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+	if(clips.isEmpty()) {
+	    System.err.println("no audio found");
+	    System.exit(1);
+	}
+	System.out.printf("%d clips, %d rounds%n", clips.size(), rounds);
+	for(int r = 0; r < rounds; r++) {
+	    double audio = 0, time = 0, alloc = 0;
+	    for(Clip clip : clips) {
+		long[] res = decode(clip);
+		audio += (double)res[0] / res[1];
+		time += res[2] * 1e-9;
+		alloc += res[3];
+	    }
+	    System.out.printf("round %d: %.1f s audio in %.3f s, %.0fx real-time, %.1f kB allocated per audio second%n",
+			      r + 1, audio, time, audio / time, (alloc / 1024) / audio);
+	}
+    }
+}
@@ -0,0 +1,112 @@
+package haven.test;
+
+import haven.*;
+import haven.MapFile.DataGrid;
+import haven.MapFile.Segment;
+import haven.MapFile.ZoomGrid;
+import haven.test.MapUpdateStress.MemStore;
+import haven.test.MapUpdateStress.World;
+import java.util.*;
+
+/* Explores a map of synthetic grids into a MapFile kept in memory,
+ * views every level of its zoom pyramid, and then edits single grids
+ * at random. Reports the time taken to propagate each edit up the
+ * pyramid, against invalidating the ancestors and rebuilding them
+ * from their children on view, as was done before. Then explores
+ * further, so that new grids appear beneath ancestors whose lower
+ * levels do not exist yet, and checks that every zoomed grid still
+ * being viewed matches one rebuilt from scratch. */
+public class ZoomUpdateBench {
+    static Coord zc(Coord gc, int lvl) {
+	int m = ~((1 << lvl) - 1);
+	return(Coord.of(gc.x & m, gc.y & m));
+    }
+
+    static boolean same(DataGrid a, DataGrid b) {
+	if((a == null) || (b == null))
+	    return(a == b);
+	if(!Arrays.equals(a.zmap, b.zmap))
+	    return(false);
+	for(int i = 0; i < a.tiles.length; i++) {
+	    if(!a.tilesets[a.tiles[i]].res.name.equals(b.tilesets[b.tiles[i]].res.name))
+		return(false);
+	}
+	return(true);
+    }
+
+    public static void main(String[] args) throws Exception {
+	int size = (args.length > 0) ? Integer.parseInt(args[0]) : 24;
+	int nedits = (args.length > 1) ? Integer.parseInt(args[1]) : 300;
+	int top = 5;
+	Config.cmdline(new String[0]);
+	Random rnd = new Random(1);
+	World world = new World(rnd, 8);
+	MapFile file = new MapFile(new MemStore(), "");
+	long st = System.nanoTime();
+	world.explore(file, 0, size, 0, size);
+	System.out.printf("explored %,d grids in %.1f ms; %s%n", world.grids.size(), (System.nanoTime() - st) * 1e-6, file.stats());
+	Segment seg = world.segment(file, world.grid(Coord.z));
+
+	/* View the whole pyramid, as the map window would, and keep
+	 * viewing it. */
+	Map<MapFile.ZoomCoord, Indir<? extends DataGrid>> viewed = new HashMap<>();
+	for(Coord gc : world.grids.keySet()) {
+	    for(int lvl = 1; lvl <= top; lvl++) {
+		Coord pc = zc(gc, lvl);
+		viewed.computeIfAbsent(new MapFile.ZoomCoord(lvl, pc), k -> seg.grid(k.lvl, k.c));
+	    }
+	}
+	for(Indir<? extends DataGrid> zg : viewed.values())
+	    Loading.waitfor(zg);
+
+	/* Twice over, the first round warming the JIT up. */
+	for(int round = 0; round < 2; round++) {
+	    long inc = 0, reb = 0;
+	    for(int e = 0; e < nedits; e++) {
+		MCache.Grid g = world.random();
+		if(world.segment(file, g) != seg)
+		    throw(new AssertionError("grid " + g.gc + " not in the explored segment"));
+		world.touch(g);
+		file.update(world.map, Collections.singletonList(g));
+		st = System.nanoTime();
+		file.sync();
+		inc += System.nanoTime() - st;
+		/* The first segment is placed where the world is. */
+		Coord sc = g.gc;
+		st = System.nanoTime();
+		file.lock.readLock().lock();
+		try {
+		    ZoomGrid.inval(file, seg.id, sc);
+		    for(int lvl = 1; lvl <= top; lvl++)
+			ZoomGrid.fetch(file, seg, lvl, zc(sc, lvl));
+		} finally {
+		    file.lock.readLock().unlock();
+		}
+		reb += System.nanoTime() - st;
+	    }
+	    System.out.printf("%,d edits: %.3f ms each updating the pyramid, %.3f ms each invalidating and rebuilding it%n",
+			      nedits, inc * 1e-6 / nedits, reb * 1e-6 / nedits);
+	}
+
+	/* Explore beyond what has been seen. */
+	world.explore(file, 0, 2 * size, size, size + 9);
+	world.explore(file, size, 2 * size, 0, size);
+	int bad = 0;
+	for(Map.Entry<MapFile.ZoomCoord, Indir<? extends DataGrid>> ent : viewed.entrySet()) {
+	    MapFile.ZoomCoord zc = ent.getKey();
+	    DataGrid cached = Loading.waitfor(ent.getValue());
+	    DataGrid fresh;
+	    file.lock.readLock().lock();
+	    try {
+		fresh = ZoomGrid.from(file, seg, zc.lvl, zc.c);
+	    } finally {
+		file.lock.readLock().unlock();
+	    }
+	    if(!same(cached, fresh))
+		bad++;
+	}
+	System.out.printf("%,d grids explored, %d of %d viewed zoomed grids stale; %s%n", world.grids.size(), bad, viewed.size(), file.stats());
+	if(bad > 0)
+	    throw(new AssertionError(bad + " stale zoomed grids"));
+    }
+}
@@ -25,8 +25,17 @@ import java.util.stream.Collectors;
  */
 public class MappingClient {
     
-    private ExecutorService gridsUploader = Executors.newSingleThreadExecutor();
+    /* Grid images are rendered and uploaded by a small fixed pool;
+     * HttpURLConnection keeps connections to the endpoint alive as
+     * long as every response is read to the end and not disconnected. */
+    private static final int UPLOAD_THREADS = 2;
+    private static final int MARKER_BATCH = 250;
+    private ExecutorService gridsUploader = Executors.newFixedThreadPool(UPLOAD_THREADS);
     private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(3);
+    /* Grids being rendered, uploaded or queued for retry, which the
+     * server need not be sent again until they are through. */
+    private final Set<String> knownGrids = ConcurrentHashMap.newKeySet();
+    private final UploadQueue retries = new UploadQueue(this::queueDir, this::resend, this::dropped);
     
     private static volatile MappingClient INSTANCE = null;
     
@@ -90,6 +99,7 @@ public class MappingClient {
     private MappingClient(Glob glob) {
 	this.glob = glob;
 	scheduler.scheduleAtFixedRate(pu, 2L, 2L, TimeUnit.SECONDS);
+	scheduler.scheduleWithFixedDelay(retries, 10L, 30L, TimeUnit.SECONDS);
     }
     
     private String endpoint;
@@ -118,15 +128,41 @@ public class MappingClient {
      */
     public boolean CheckEndpoint() {
 	try {
-	    HttpURLConnection connection =
-		(HttpURLConnection) new URL(endpoint + "/checkVersion?version=4").openConnection();
-	    connection.setRequestMethod("GET");
-	    return connection.getResponseCode() == 200;
+	    return request("GET", "/checkVersion?version=4", null) != null;
 	} catch (Exception ex) {
 	    return false;
 	}
     }
     
+    /***
+     * Performs a request against the endpoint, reading the response fully so that the underlying connection can be reused.
+     * @return The response body, or null if the server did not answer 200
+     */
+    private String request(String method, String path, String json) throws IOException {
+	return request(endpoint, method, path, json);
+    }
+    
+    private static String request(String endpoint, String method, String path, String json) throws IOException {
+	HttpURLConnection connection = (HttpURLConnection) new URL(endpoint + path).openConnection();
+	connection.setRequestMethod(method);
+	if(json != null) {
+	    connection.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
+	    connection.setDoOutput(true);
+	    try (OutputStream out = connection.getOutputStream()) {
+		out.write(json.getBytes(StandardCharsets.UTF_8));
+	    }
+	}
+	int code = connection.getResponseCode();
+	InputStream in = (code < 400) ? connection.getInputStream() : connection.getErrorStream();
+	String body = "";
+	if(in != null) {
+	    try (InputStream bin = in) {
+		body = new String(Utils.readall(bin), StandardCharsets.UTF_8);
+	    }
+	}
+	return (code == 200) ? body : null;
+    }
+    
     /***
      * Track a gob at a location.  Typically called in Gob.move
      * @param id
@@ -205,22 +241,16 @@ public class MappingClient {
 	@Override
 	public void run() {
 	    try {
-		final HttpURLConnection connection =
-		    (HttpURLConnection) new URL(endpoint + "/locate?gridID=" + gridID).openConnection();
-		try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
-		    String resp = reader.lines().collect(Collectors.joining());
-		    String[] parts = resp.split(";");
-		    if(parts.length == 3) {
-			MapRef mr = new MapRef(Integer.valueOf(parts[0]), new Coord(Integer.valueOf(parts[1]), Integer.valueOf(parts[2])));
-			synchronized (cache) {
-			    cache.put(gridID, mr);
-			}
+		String resp = request("GET", "/locate?gridID=" + gridID, null);
+		if(resp == null)
+		    return;
+		String[] parts = resp.trim().split(";");
+		if(parts.length == 3) {
+		    MapRef mr = new MapRef(Integer.valueOf(parts[0]), new Coord(Integer.valueOf(parts[1]), Integer.valueOf(parts[2])));
+		    synchronized (cache) {
+			cache.put(gridID, mr);
 		    }
-		    
-		} finally {
-		    connection.disconnect();
 		}
-		
 	    } catch (final Exception ex) { }
 	}
     }
@@ -321,7 +351,10 @@ public class MappingClient {
 	    }
 	    System.out.println("scheduling marker upload");
 	    try {
-		scheduler.execute(new MarkerUpdate(new JSONArray(loadedMarkers.toArray())));
+		for (int i = 0; i < loadedMarkers.size(); i += MARKER_BATCH) {
+		    List<JSONObject> batch = loadedMarkers.subList(i, Math.min(i + MARKER_BATCH, loadedMarkers.size()));
+		    scheduler.execute(new MarkerUpdate(new JSONArray(batch.toArray())));
+		}
 	    } catch (Exception ex) {
 		System.out.println(ex);
 	    }
@@ -337,21 +370,14 @@ public class MappingClient {
 	
 	@Override
 	public void run() {
+	    String json = data.toString();
 	    try {
-		HttpURLConnection connection =
-		    (HttpURLConnection) new URL(endpoint + "/markerUpdate").openConnection();
-		connection.setRequestMethod("POST");
-		connection.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
-		connection.setDoOutput(true);
-		try (DataOutputStream out = new DataOutputStream(connection.getOutputStream())) {
-		    final String json = data.toString();
-		    out.write(json.getBytes(StandardCharsets.UTF_8));
-		}
-		int code = connection.getResponseCode();
-		connection.disconnect();
+		if(request("POST", "/markerUpdate", json) != null)
+		    return;
 	    } catch (Exception ex) {
 		System.out.println(ex);
 	    }
+	    retries.add(new UploadQueue.Upload("markers", json.getBytes(StandardCharsets.UTF_8)));
 	}
     }
     
@@ -425,17 +451,7 @@ public class MappingClient {
 		    }
 		    
 		    try {
-			final HttpURLConnection connection =
-			    (HttpURLConnection) new URL(endpoint + "/positionUpdate").openConnection();
-			connection.setRequestMethod("POST");
-			connection.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
-			connection.setDoOutput(true);
-			try (DataOutputStream out = new DataOutputStream(connection.getOutputStream())) {
-			    final String json = upload.toString();
-			    out.write(json.getBytes(StandardCharsets.UTF_8));
-			} catch (Exception e) {
-			}
-			connection.getResponseCode();
+			request("POST", "/positionUpdate", upload.toString());
 		    } catch (final Exception ex) {
 		    }
 		}
@@ -509,32 +525,19 @@ public class MappingClient {
 		
 		dataToSend.put("grids", this.gridUpdate.grids);
 		try {
-		    HttpURLConnection connection =
-			(HttpURLConnection) new URL(endpoint + "/gridUpdate").openConnection();
-		    connection.setRequestMethod("POST");
-		    connection.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
-		    connection.setDoOutput(true);
-		    try (DataOutputStream out = new DataOutputStream(connection.getOutputStream())) {
-			String json = new JSONObject(dataToSend).toString();
-			out.write(json.getBytes(StandardCharsets.UTF_8));
-		    }
-		    if(connection.getResponseCode() == 200) {
-			DataInputStream dio = new DataInputStream(connection.getInputStream());
-			int nRead;
-			byte[] data = new byte[1024];
-			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-			while ((nRead = dio.read(data, 0, data.length)) != -1) {
-			    buffer.write(data, 0, nRead);
-			}
-			buffer.flush();
-			String response = buffer.toString(StandardCharsets.UTF_8.name());
+		    String response = request("POST", "/gridUpdate", new JSONObject(dataToSend).toString());
+		    if(response != null) {
 			JSONObject jo = new JSONObject(response);
 			JSONArray reqs = jo.optJSONArray("gridRequests");
 			synchronized (cache) {
 			    cache.put(Long.valueOf(gridUpdate.grids[1][1]), new MapRef(jo.getLong("map"), new Coord(jo.getJSONObject("coords").getInt("x"), jo.getJSONObject("coords").getInt("y"))));
 			}
 			for (int i = 0; reqs != null && i < reqs.length(); i++) {
-			    gridsUploader.execute(new GridUploadTask(reqs.getString(i), gridUpdate.gridRefs.get(reqs.getString(i))));
+			    String id = reqs.getString(i);
+			    /* Already in flight or queued for retry. */
+			    if(!knownGrids.add(id))
+				continue;
+			    gridsUploader.execute(new GridUploadTask(id, gridUpdate.gridRefs.get(id)));
 			}
 		    }
 		    
@@ -557,40 +560,100 @@ public class MappingClient {
 	@Override
 	public void run() {
 	    try {
-		MCache.Grid g = grid.get();
+		MCache.Grid g = (grid == null) ? null : grid.get();
 		if(g != null && glob != null && glob.map != null) {
 		    BufferedImage image = MinimapImageGenerator.drawmap(glob.map, g);
 		    if(image == null) {
 			throw new Loading();
 		    }
+		    byte[] png;
 		    try {
-			JSONObject extraData = new JSONObject();
 			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
 			ImageIO.write(image, "png", outputStream);
-			ByteArrayInputStream inputStream = new ByteArrayInputStream(outputStream.toByteArray());
-			MultipartUtility multipart = new MultipartUtility(endpoint + "/gridUpload", "utf-8");
-			multipart.addFormField("id", this.gridID);
-			multipart.addFilePart("file", inputStream, "minimap.png");
-			extraData.put("season", glob.ast.is);
-			multipart.addFormField("extraData", extraData.toString());
-			MultipartUtility.Response response = multipart.finish();
-			if(response.statusCode != 200) {
-			    System.out.println("Upload Error: Code" + response.statusCode + " - " + response.response);
-			} else {
-			
-			}
+			png = outputStream.toByteArray();
 		    } catch (IOException e) {
-			System.out.println("Cannot upload " + gridID + ": " + e.getMessage());
+			knownGrids.remove(gridID);
+			return;
 		    }
+		    JSONObject extraData = new JSONObject();
+		    extraData.put("season", glob.ast.is);
+		    if(uploadGrid(gridID, extraData.toString(), png))
+			knownGrids.remove(gridID);
+		    else
+			retries.add(UploadQueue.Upload.grid(gridID, extraData.toString(), png));
+		} else {
+		    knownGrids.remove(gridID);
 		}
 	    } catch (Loading ex) {
 		// Retry on Loading
 		gridsUploader.submit(this);
+	    } catch (RuntimeException ex) {
+		knownGrids.remove(gridID);
+		throw ex;
 	    }
 	    
 	}
     }
     
+    private boolean uploadGrid(String gridID, String extraData, byte[] png) {
+	return uploadGrid(endpoint, gridID, extraData, png);
+    }
+    
+    private static boolean uploadGrid(String endpoint, String gridID, String extraData, byte[] png) {
+	try {
+	    MultipartUtility multipart = new MultipartUtility(endpoint + "/gridUpload", "utf-8");
+	    multipart.addFormField("id", gridID);
+	    multipart.addFilePart("file", new ByteArrayInputStream(png), "minimap.png");
+	    multipart.addFormField("extraData", extraData);
+	    MultipartUtility.Response response = multipart.finish();
+	    if(response.statusCode != 200) {
+		System.out.println("Upload Error: Code" + response.statusCode + " - " + response.response);
+		return false;
+	    }
+	    return true;
+	} catch (IOException e) {
+	    System.out.println("Cannot upload " + gridID + ": " + e.getMessage());
+	    return false;
+	}
+    }
+    
+    private File queueDir() {
+	if(endpoint == null)
+	    return null;
+	File dir = Config.getFile(String.format("mapv4-queue/%08x", endpoint.hashCode()));
+	dir.mkdirs();
+	return dir;
+    }
+    
+    private boolean resend(UploadQueue.Upload e) throws IOException {
+	if(!send(endpoint, e))
+	    return false;
+	dropped(e);
+	return true;
+    }
+    
+    /* Done with, whether sent or given up on. */
+    private void dropped(UploadQueue.Upload e) {
+	if(e.type.equals("grid"))
+	    knownGrids.remove(e.fields[0]);
+    }
+    
+    /***
+     * Sends an upload taken from the retry queue to the given endpoint.
+     * @return Whether the endpoint accepted it
+     */
+    public static boolean send(String endpoint, UploadQueue.Upload e) throws IOException {
+	switch (e.type) {
+	    case "grid":
+		return uploadGrid(endpoint, e.fields[0], e.fields[1], e.data);
+	    case "markers":
+		return request(endpoint, "POST", "/markerUpdate", new String(e.data, StandardCharsets.UTF_8)) != null;
+	    default:
+		/* Unknown entries cannot ever succeed, so drop them. */
+		return true;
+	}
+    }
+    
     private static Coord toGC(Coord2d c) {
 	return new Coord(Math.floorDiv((int) c.x, 1100), Math.floorDiv((int) c.y, 1100));
     }
@@ -112,15 +112,18 @@ public class MultipartUtility {
         writer.close();
 
         int status = httpConn.getResponseCode();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(
-                httpConn.getInputStream()));
+        InputStream in = (status < 400) ? httpConn.getInputStream() : httpConn.getErrorStream();
         StringBuilder builder = new StringBuilder();
-        String line = null;
-        while ((line = reader.readLine()) != null) {
-            builder.append(line);
+        if (in != null) {
+            // Read the response to its end without disconnecting, so that the
+            // connection can be kept alive for the next upload.
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
+                String line = null;
+                while ((line = reader.readLine()) != null) {
+                    builder.append(line);
+                }
+            }
         }
-        reader.close();
-        httpConn.disconnect();
         return new Response(builder.toString(), status);
     }
 
@@ -0,0 +1,188 @@
+package integrations.mapv4;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Uploads that failed are kept on disk, one file per upload, and
+ * resent in order once the endpoint answers again, including after a
+ * restart of the client. The queue keeps at most {@link #maxfiles}
+ * uploads, none older than {@link #maxage}, dropping the oldest first.
+ * Uploads are sent without holding the queue's lock, so that failing
+ * uploads can still be queued while a slow endpoint is being retried.
+ */
+public class UploadQueue implements Runnable {
+    public interface Sender {
+	boolean send(Upload e) throws IOException;
+    }
+
+    public int maxfiles = 1000;
+    public long maxage = 3L * 24 * 60 * 60 * 1000;
+    private final Supplier<File> location;
+    private final Sender sender;
+    private final Consumer<Upload> ondrop;
+    private long seq = 0;
+    private int dropped = 0;
+    private File sending = null;
+
+    /**
+     * @param ondrop Told of every upload dropped for its age or for
+     *               the limit, without its data
+     */
+    public UploadQueue(Supplier<File> location, Sender sender, Consumer<Upload> ondrop) {
+	this.location = location;
+	this.sender = sender;
+	this.ondrop = ondrop;
+    }
+
+    public UploadQueue(Supplier<File> location, Sender sender) {
+	this(location, sender, e -> {});
+    }
+
+    private static File[] pending(File dir) {
+	File[] files = dir.listFiles((d, name) -> name.endsWith(".upload"));
+	if(files == null)
+	    return new File[0];
+	Arrays.sort(files, Comparator.comparing(File::getName));
+	return files;
+    }
+
+    private static long queued(File f) {
+	try {
+	    return Long.parseLong(f.getName().substring(0, 16), 16);
+	} catch (RuntimeException e) {
+	    return 0;
+	}
+    }
+
+    /* Drops expired uploads, and the oldest ones beyond the limit,
+     * save for the one being sent. */
+    private File[] prune(File dir) {
+	File[] files = pending(dir);
+	long cutoff = System.currentTimeMillis() - maxage;
+	int keep = 0;
+	for (int i = 0; i < files.length; i++) {
+	    if(!files[i].equals(sending) && ((files.length - i > maxfiles) || (queued(files[i]) < cutoff))) {
+		Upload head = null;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(files[i])))) {
+		    head = Upload.readhead(in);
+		} catch (IOException ex) {
+		}
+		files[i].delete();
+		dropped++;
+		if(head != null)
+		    ondrop.accept(head);
+	    } else {
+		files[keep++] = files[i];
+	    }
+	}
+	return Arrays.copyOf(files, keep);
+    }
+
+    public synchronized void add(Upload e) {
+	File dir = location.get();
+	if(dir == null)
+	    return;
+	String name = String.format("%016x-%08x.upload", System.currentTimeMillis(), seq++);
+	File tmp = new File(dir, name + ".tmp");
+	try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+	    e.write(out);
+	} catch (IOException ex) {
+	    System.out.println("Cannot queue upload: " + ex.getMessage());
+	    tmp.delete();
+	    return;
+	}
+	if(!tmp.renameTo(new File(dir, name)))
+	    tmp.delete();
+	prune(dir);
+    }
+
+    @Override
+    public void run() {
+	File dir = location.get();
+	if(dir == null)
+	    return;
+	File[] files;
+	synchronized (this) {
+	    files = prune(dir);
+	}
+	try {
+	    for (File f : files) {
+		synchronized (this) {
+		    sending = f;
+		}
+		Upload e;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+		    e = Upload.read(in);
+		} catch (IOException ex) {
+		    /* Dropped by add() meanwhile, or unreadable. */
+		    f.delete();
+		    continue;
+		}
+		try {
+		    if(!sender.send(e))
+			return;
+		} catch (Exception ex) {
+		    return;
+		}
+		f.delete();
+	    }
+	} finally {
+	    synchronized (this) {
+		sending = null;
+	    }
+	}
+    }
+
+    public synchronized int size() {
+	File dir = location.get();
+	return (dir == null) ? 0 : pending(dir).length;
+    }
+
+    public synchronized int dropped() {
+	return dropped;
+    }
+
+    public static class Upload {
+	public final String type;
+	public final String[] fields;
+	public final byte[] data;
+
+	public Upload(String type, byte[] data, String... fields) {
+	    this.type = type;
+	    this.fields = fields;
+	    this.data = data;
+	}
+
+	public static Upload grid(String gridID, String extraData, byte[] png) {
+	    return new Upload("grid", png, gridID, extraData);
+	}
+
+	void write(DataOutputStream out) throws IOException {
+	    out.writeUTF(type);
+	    out.writeInt(fields.length);
+	    for (String f : fields)
+		out.writeUTF(f);
+	    out.writeInt(data.length);
+	    out.write(data);
+	}
+
+	static Upload read(DataInputStream in) throws IOException {
+	    Upload head = readhead(in);
+	    byte[] data = new byte[in.readInt()];
+	    in.readFully(data);
+	    return new Upload(head.type, data, head.fields);
+	}
+
+	/* Only the type and fields, leaving the data unread. */
+	static Upload readhead(DataInputStream in) throws IOException {
+	    String type = in.readUTF();
+	    String[] fields = new String[in.readInt()];
+	    for (int i = 0; i < fields.length; i++)
+		fields[i] = in.readUTF();
+	    return new Upload(type, new byte[0], fields);
+	}
+    }
+}
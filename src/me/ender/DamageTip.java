@@ -8,13 +8,16 @@ import java.util.List;
 public class DamageTip {
     
     public static void process(List<ItemInfo> tips, ItemInfo.Owner owner) {
-	if(!CFG.IMPROVE_DAMAGE_TIP.get() || !(owner instanceof GItem)) {return;}
-	GItem item = (GItem) owner;
-	String name = item.resname();
+	if(!CFG.IMPROVE_DAMAGE_TIP.get()) {return;}
 	ItemInfo tip = tips.stream().filter(inf -> Reflect.is(inf, "Damage")).findFirst().orElse(null);
+	if(tip == null) {return;}
+	//asked through the context, so that shared info lists know they depend on the item
+	GItem item = owner.fcontext(GItem.class, false);
+	if(item != owner) {return;}
+	String name = item.resname();
 	boolean isMelee = tips.stream().anyMatch(inf -> Reflect.is(inf, "Range"));
 	boolean isRanged = name.endsWith("/sling") || name.endsWith("/huntersbow") || name.endsWith("/rangersbow"); 
-	if(tip == null || (!isMelee && !isRanged)) {return;}
+	if(!isMelee && !isRanged) {return;}
 	
 	tips.remove(tip);
 	int dmg = Reflect.getFieldValueInt(tip, "dmg");
@@ -2,50 +2,113 @@ package me.ender;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Reflect {
-    public static Object getFieldValue(Object obj, String name) {
-	Object v = null;
-	try {
-	    Field f = getField(obj, name);
-	    v = f.get(obj);
-	} catch (NoSuchFieldException | IllegalAccessException ignored) {
+    /* Field lookups are cached per class, including misses, since
+     * item info is introspected by name on every tooltip and filter
+     * pass. ClassValue lets classes from unloaded resources go. */
+    private static final ClassValue<Map<String, Accessor>> fields = new ClassValue<Map<String, Accessor>>() {
+	@Override
+	protected Map<String, Accessor> computeValue(Class<?> cls) {
+	    return new ConcurrentHashMap<>();
+	}
+    };
+
+    public static class Accessor {
+	public static final Accessor NONE = new Accessor(null);
+	public final Field field;
+
+	private Accessor(Field field) {
+	    this.field = field;
+	}
+
+	public boolean present() {
+	    return field != null;
+	}
+
+	public Object get(Object obj) {
+	    if(field == null) {return null;}
+	    try {
+		return field.get(obj);
+	    } catch (IllegalAccessException ignored) {
+	    }
+	    return null;
+	}
+
+	public <T> T get(Object obj, Class<T> clazz) {
+	    Object t = get(obj);
+	    if(t != null && clazz.isInstance(t)) {
+		return clazz.cast(t);
+	    }
+	    return null;
+	}
+
+	public int getInt(Object obj) {
+	    if(field == null) {return 0;}
+	    try {
+		return field.getInt(obj);
+	    } catch (IllegalAccessException ignored) {
+	    }
+	    return 0;
+	}
+
+	public double getDouble(Object obj) {
+	    if(field == null) {return 0;}
+	    try {
+		return field.getDouble(obj);
+	    } catch (IllegalAccessException ignored) {
+	    }
+	    return 0;
 	}
-	return v;
     }
-    
-    public static <T> T getFieldValue(Object obj, String name, Class<T> clazz) {
-	T v = null;
-	try {
-	    Field f = getField(obj, name);
-	    Object t = f.get(obj);
-	    if(t != null && clazz.isAssignableFrom(t.getClass())) {
-		//noinspection unchecked
-		v = (T) t;
+
+    /* Returns the accessor for the named field declared in cls or any
+     * of its superclasses, or Accessor.NONE if there is none. Callers
+     * that introspect the same class repeatedly can keep it. */
+    public static Accessor field(Class<?> cls, String name) {
+	Map<String, Accessor> map = fields.get(cls);
+	Accessor ret = map.get(name);
+	if(ret == null) {
+	    ret = lookup(cls, name);
+	    map.put(name, ret);
+	}
+	return ret;
+    }
+
+    public static Accessor field(Object obj, String name) {
+	return field(obj.getClass(), name);
+    }
+
+    private static Accessor lookup(Class<?> cls, String name) {
+	for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+	    try {
+		Field f = c.getDeclaredField(name);
+		f.setAccessible(true);
+		return new Accessor(f);
+	    } catch (NoSuchFieldException ignored) {
+	    } catch (SecurityException e) {
+		return Accessor.NONE;
 	    }
-	} catch (NoSuchFieldException | IllegalAccessException | ClassCastException ignored) {
 	}
-	return v;
+	return Accessor.NONE;
+    }
+
+    public static Object getFieldValue(Object obj, String name) {
+	return field(obj, name).get(obj);
+    }
+    
+    public static <T> T getFieldValue(Object obj, String name, Class<T> clazz) {
+	return field(obj, name).get(obj, clazz);
     }
 
     public static int getFieldValueInt(Object obj, String name) {
-	int v = 0;
-	try {
-	    Field f = getField(obj, name);
-	    v = f.getInt(obj);
-	} catch (NoSuchFieldException | IllegalAccessException ignored) {
-	}
-	return v;
+	return field(obj, name).getInt(obj);
     }
 
     public static double getFieldValueDouble(Object obj, String name) {
-	double v = 0;
-	try {
-	    Field f = getField(obj, name);
-	    v = f.getDouble(obj);
-	} catch (NoSuchFieldException | IllegalAccessException ignored) {
-	}
-	return v;
+	return field(obj, name).getDouble(obj);
     }
 
     public static String getFieldValueString(Object obj, String name) {
@@ -56,30 +119,8 @@ public class Reflect {
 	return Boolean.TRUE.equals(getFieldValue(obj, name));
     }
 
-    private static Field getField(Object obj, String name) throws NoSuchFieldException {
-        Class cls = obj.getClass();
-	while (true) {
-	    try {
-		Field f = cls.getDeclaredField(name);
-		f.setAccessible(true);
-		return f;
-	    } catch (NoSuchFieldException e) {
-		cls = cls.getSuperclass();
-		if(cls == null){
-		    throw e;
-		}
-	    }
-	    
-	}
-    }
-
     public static boolean hasField(Object obj, String name) {
-	try {
-	    getField(obj, name);
-	    return true;
-	} catch (NoSuchFieldException ignored) {
-	}
-	return false;
+	return field(obj, name).present();
     }
 
     public static Class getEnumSuperclass(Class c) {